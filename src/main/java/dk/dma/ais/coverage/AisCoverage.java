@@ -25,6 +25,7 @@ import dk.dma.ais.coverage.persistence.TypeBasedDatabaseInstanceFactory;
 import dk.dma.ais.coverage.web.WebServer;
 import dk.dma.ais.packet.AisPacket;
 import dk.dma.ais.reader.AisReader;
+import dk.dma.ais.reader.AisReaders;
 import dk.dma.commons.util.DateTimeUtil;
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
@@ -33,6 +34,7 @@ import org.joda.time.PeriodType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
@@ -71,12 +73,20 @@ public final class AisCoverage {
         databaseInstance.createDatabase();
         loadCoverageDataFromDatabase();
 
-        aisBus = conf.getAisbusConfiguration().getInstance();
         createPersisterService();
 
+        if (conf.isReplay()) {
+            // Replayed packets are read directly from files, and nothing is served until the replay is done
+            aisBus = null;
+            webServer = null;
+            return;
+        }
+
+        aisBus = conf.getAisbusConfiguration().getInstance();
+
         // Create web server
         if (conf.getServerConfiguration() != null) {
-            webServer = new WebServer(conf.getServerConfiguration());
+            webServer = new WebServer(conf.getServerConfiguration(), conf.getExecutorMode());
         } else {
             webServer = null;
         }
@@ -152,6 +162,34 @@ public final class AisCoverage {
         persisterService.start();
     }
 
+    /**
+     * Replays recorded AIS files, one after the other, as fast as they can be read and handled. Once all packets are
+     * handled, the coverage data is saved to the database.
+     *
+     * @param files paths of the files to replay, gzipped if their name ends with .gz
+     */
+    public void replay(List<String> files) throws IOException, InterruptedException {
+        Instant start = Instant.now();
+        for (String file : files) {
+            LOG.info("Replaying AIS packets from {}", file);
+            aisReader = AisReaders.createReaderFromFile(file);
+            aisReader.registerPacketHandler(new Consumer<AisPacket>() {
+                @Override
+                public void accept(AisPacket packet) {
+                    handler.receiveUnfiltered(packet);
+                }
+            });
+            aisReader.start();
+            aisReader.join();
+        }
+
+        // Drains the packets still being handled before saving
+        handler.stop();
+        LOG.info("Replay handled all packets in [{}] ms, last message hour is {}", Duration.between(start, Instant.now()).toMillis(), Helper.latestMessage);
+
+        persisterService.saveNow();
+    }
+
     public void stop() {
         if (webServer != null) {
             try {
@@ -163,7 +201,9 @@ public final class AisCoverage {
             }
         }
         
-        aisBus.cancel();
+        if (aisBus != null) {
+            aisBus.cancel();
+        }
         handler.stop();
         LOG.info("aisbus stopped");
 
@@ -15,6 +15,8 @@
 package dk.dma.ais.coverage;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +37,9 @@ public class AisCoverageDaemon extends AbstractDaemon {
     @Parameter(names = "-file", description = "AisCoverage configuration file")
     String confFile = "coverage-sample.xml";
 
+    @Parameter(names = "-replay", description = "Recorded AIS file(s) to replay as fast as possible, following message timestamps, before saving coverage data and exiting")
+    List<String> replayFiles = new ArrayList<>();
+
     private AisCoverage aisCoverage;
 
     @Override
@@ -56,6 +61,15 @@ public class AisCoverageDaemon extends AbstractDaemon {
             return;
         }
 
+        if (!replayFiles.isEmpty()) {
+            conf.setReplay(true);
+            aisCoverage = AisCoverage.create(conf);
+            aisCoverage.replay(replayFiles);
+            aisCoverage.stop();
+            aisCoverage = null;
+            return;
+        }
+
         // Create and start
         aisCoverage = AisCoverage.create(conf);
 
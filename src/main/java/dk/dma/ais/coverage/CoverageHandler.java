@@ -19,26 +19,41 @@ import dk.dma.ais.coverage.calculator.AbstractCalculator;
 import dk.dma.ais.coverage.calculator.SatCalculator;
 import dk.dma.ais.coverage.calculator.TerrestrialCalculator;
 import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.coverage.configuration.CoverageDataStore;
+import dk.dma.ais.coverage.configuration.PacketHandlingMode;
+import dk.dma.ais.coverage.data.ColumnarMemoryData;
 import dk.dma.ais.coverage.data.CustomMessage;
 import dk.dma.ais.coverage.data.ICoverageData;
 import dk.dma.ais.coverage.data.OnlyMemoryData;
 import dk.dma.ais.coverage.data.Ship;
+import dk.dma.ais.coverage.ingest.AisMessageTypeFilter;
+import dk.dma.ais.coverage.ingest.BoundedRingBuffer;
+import dk.dma.ais.coverage.ingest.EventTimeBuffer;
+import dk.dma.ais.coverage.ingest.IngestLane;
+import dk.dma.ais.coverage.ingest.MmsiPartitioning;
+import dk.dma.ais.coverage.ingest.NamedThreadFactory;
+import dk.dma.ais.coverage.ingest.OverflowPolicy;
+import dk.dma.ais.coverage.ingest.ReorderBuffer;
+import dk.dma.ais.coverage.ingest.ShardedDoubletBuffer;
+import dk.dma.ais.coverage.ingest.ThreadPools;
+import dk.dma.ais.coverage.ingest.WaitStrategy;
 import dk.dma.ais.packet.AisPacket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Handler for received AisPackets
@@ -47,9 +62,20 @@ public class CoverageHandler {
     private static final Logger LOG = LoggerFactory.getLogger(CoverageHandler.class);
     private final OverflowLogger overflowLogger = new OverflowLogger(LOG);
 
-    private final Queue<AisPacket> unhandledPackets = new ConcurrentLinkedQueue<>();
-    private final ExecutorService packetHandlingThreadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() / 2);
-    private final int maximumUnhandledPacketsKept;
+    private final AisMessageTypeFilter packetTypeFilter = new AisMessageTypeFilter(AisMessageTypeFilter.CALCULATOR_MESSAGE_TYPES);
+    private final BoundedRingBuffer<AisPacket> unhandledPackets;
+    private final int packetHandlingThreads;
+    private final ExecutorService packetHandlingThreadPool;
+    private final PacketHandlingMode packetHandlingMode;
+    private final WaitStrategy packetWaitStrategy;
+    private final OverflowPolicy overflowPolicy;
+    private final int overflowSampleRate;
+    private final AtomicLong overflowingPackets = new AtomicLong();
+    private final LongAdder delayedPackets = new LongAdder();
+    private final LongAdder droppedPackets = new LongAdder();
+    private final int packetBatchSize;
+    private final long packetBatchMaxLingerNanos;
+    private volatile boolean running = true;
 
     private List<AbstractCalculator> calculators = new ArrayList<AbstractCalculator>();
 
@@ -57,18 +83,15 @@ public class CoverageHandler {
 
     private AisCoverageConfiguration conf;
 
-    //A doublet filtered message buffer, where a custom message will include a list of all sources
-    private Map<String, CustomMessage> doubletBuffer = Collections.synchronizedMap(new LinkedHashMap<String, CustomMessage>() {
-        private static final long serialVersionUID = 1L;
-
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, CustomMessage> eldest) {
-            if (this.size() > getMessageBufferSize()) {
-                process(eldest.getValue());
-            }
-            return this.size() > getMessageBufferSize();
-        }
-    });
+    //A doublet filtered message buffer, where a custom message will include a list of all sources. Each ingest lane
+    //has its own doublet buffer when the pipeline is partitioned in lanes.
+    private ShardedDoubletBuffer doubletBuffer;
+    //Puts the messages leaving the doublet buffer back in timestamp order for each ship, when a maximum lateness is set
+    private ReorderBuffer reorderBuffer;
+    private IngestLane[] ingestLanes;
+    private Purger purger;
+    private ExecutorService ingestLaneThreadPool;
+    private ScheduledExecutorService eventTimeBufferSweeper;
 
     private int getMessageBufferSize() {
         return this.conf.getMessageBufferSize();
@@ -79,19 +102,44 @@ public class CoverageHandler {
     private int weird;
     private int delayedMoreThanTen;
     private int delayedLessThanTen;
+    private final LongAdder handledPackets = new LongAdder();
 
     public CoverageHandler(AisCoverageConfiguration conf) {
         this.conf=conf;
         Helper.conf=conf;
 
-        maximumUnhandledPacketsKept = conf.getReceivedPacketsBufferSize();
+        packetHandlingThreads = conf.getPacketHandlingThreads() > 0 ? conf.getPacketHandlingThreads() : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        packetHandlingThreadPool = ThreadPools.newThreadPool(conf.getExecutorMode(), packetHandlingThreads, "packet-handler", false);
+        unhandledPackets = new BoundedRingBuffer<>(Math.max(1, conf.getReceivedPacketsBufferSize()));
+        packetWaitStrategy = conf.getPacketWaitStrategy() != null ? conf.getPacketWaitStrategy() : WaitStrategy.PARK;
+        if (conf.isReplay()) {
+            // A replay must not lose packets, it can wait for the handling threads instead
+            overflowPolicy = OverflowPolicy.BLOCK;
+        } else {
+            overflowPolicy = conf.getOverflowPolicy() != null ? conf.getOverflowPolicy() : OverflowPolicy.DROP_NEWEST;
+        }
+        overflowSampleRate = Math.max(1, conf.getOverflowSampleRate());
+        packetHandlingMode = conf.getPacketHandlingMode() != null ? conf.getPacketHandlingMode() : PacketHandlingMode.BATCH;
+        packetBatchSize = Math.max(1, conf.getPacketBatchSize());
+        packetBatchMaxLingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, conf.getPacketBatchMaxLingerMillis()));
 
-        LOG.info("Using {} thread(s) to handle incoming AIS packets", Runtime.getRuntime().availableProcessors() / 2);
-        LOG.info("Message buffer size initialized with value [{}]", getMessageBufferSize());
+        LOG.info("Using {} thread(s) to handle incoming AIS packets", packetHandlingThreads);
+        LOG.info("Received packets buffer overflow policy is {}", overflowPolicy);
+        createDoubletBuffers(conf);
 
         //Creating up data handler
-        dataHandler = new OnlyMemoryData();
-        LOG.info("coverage calculators set up with memory only data handling");
+        // The window is trimmed once it is one hour too wide, and messages may still come for the hour before it
+        int hoursPerCell = Math.max(1, conf.getWindowSize()) + 2;
+        if (conf.getCoverageDataStore() == CoverageDataStore.COLUMNAR) {
+            dataHandler = new ColumnarMemoryData(hoursPerCell);
+            LOG.info("coverage calculators set up with columnar off-heap data handling");
+        } else if (conf.getCoverageDataStore() == CoverageDataStore.RING) {
+            dataHandler = new OnlyMemoryData(hoursPerCell);
+            LOG.info("coverage calculators set up with memory only data handling, keeping {} hours per cell", hoursPerCell);
+        } else {
+            dataHandler = new OnlyMemoryData();
+            LOG.info("coverage calculators set up with memory only data handling");
+        }
 
         //creating calculators
         calculators.add(new TerrestrialCalculator(false));
@@ -113,8 +161,88 @@ public class CoverageHandler {
 
         // window size
         LOG.info("Max window size is " + conf.getWindowSize()+" hours");
-        Purger purger = new Purger(conf.getWindowSize(), dataHandler, 5);
-        purger.start();
+        purger = new Purger(conf.getWindowSize(), dataHandler, 5);
+        if (conf.isReplay()) {
+            LOG.info("Replay trims the window whenever the message time crosses an hour");
+        } else {
+            purger.setDaemon(true);
+            purger.start();
+        }
+
+        if (packetHandlingMode == PacketHandlingMode.BATCH) {
+            LOG.info("Handling incoming AIS packets in batches of up to {} packet(s), lingering at most {} ms for a batch to fill, waiting strategy {}",
+                    packetBatchSize, TimeUnit.NANOSECONDS.toMillis(packetBatchMaxLingerNanos), packetWaitStrategy);
+            for (int i = 0; i < packetHandlingThreads; i++) {
+                packetHandlingThreadPool.submit(new AisPacketBatchHandler());
+            }
+        } else {
+            LOG.info("Handling incoming AIS packets one task per packet");
+        }
+    }
+
+    private void createDoubletBuffers(AisCoverageConfiguration conf) {
+        long doubletWindowInMillis = TimeUnit.SECONDS.toMillis(Math.max(0, conf.getDoubletWindowSeconds()));
+        long maxLatenessInMillis = TimeUnit.SECONDS.toMillis(Math.max(0, conf.getMaxLatenessSeconds()));
+        Consumer<CustomMessage> calculatorsConsumer = new Consumer<CustomMessage>() {
+            @Override
+            public void accept(CustomMessage message) {
+                process(message);
+            }
+        };
+        Consumer<CustomMessage> lateMessagesConsumer = new Consumer<CustomMessage>() {
+            @Override
+            public void accept(CustomMessage message) {
+                processLate(message);
+            }
+        };
+
+        List<ShardedDoubletBuffer> doubletBuffers = new ArrayList<>();
+        List<ReorderBuffer> reorderBuffers = new ArrayList<>();
+        if (conf.getIngestLanes() > 0) {
+            int numberOfLanes = conf.getIngestLanes();
+            LOG.info("Calculating coverage in {} single-threaded lane(s) partitioned by ship MMSI, each with a message buffer of [{}]",
+                    numberOfLanes, Math.max(1, getMessageBufferSize() / numberOfLanes));
+            ingestLanes = new IngestLane[numberOfLanes];
+            ingestLaneThreadPool = Executors.newFixedThreadPool(numberOfLanes, new NamedThreadFactory("ingest-lane", false));
+            for (int i = 0; i < numberOfLanes; i++) {
+                ingestLanes[i] = new IngestLane(Math.max(1, conf.getReceivedPacketsBufferSize() / numberOfLanes),
+                        Math.max(1, getMessageBufferSize() / numberOfLanes), doubletWindowInMillis, packetWaitStrategy,
+                        new ReorderBuffer(maxLatenessInMillis, calculatorsConsumer, lateMessagesConsumer));
+                doubletBuffers.add(ingestLanes[i].getDoubletBuffer());
+                reorderBuffers.add(ingestLanes[i].getReorderBuffer());
+                ingestLaneThreadPool.submit(ingestLanes[i]);
+            }
+        } else {
+            int doubletBufferShards = conf.getDoubletBufferShards() > 0 ? conf.getDoubletBufferShards() : AisCoverageConfiguration.DEFAULT_DOUBLET_BUFFER_SHARDS;
+            LOG.info("Message buffer size initialized with value [{}], split in {} shard(s)", getMessageBufferSize(), doubletBufferShards);
+            reorderBuffer = new ReorderBuffer(maxLatenessInMillis, calculatorsConsumer, lateMessagesConsumer);
+            final ReorderBuffer reorderBufferConsumer = reorderBuffer;
+            doubletBuffer = new ShardedDoubletBuffer(doubletBufferShards, getMessageBufferSize(), doubletWindowInMillis, new Consumer<CustomMessage>() {
+                @Override
+                public void accept(CustomMessage message) {
+                    reorderBufferConsumer.add(message);
+                }
+            });
+            doubletBuffers.add(doubletBuffer);
+            reorderBuffers.add(reorderBuffer);
+        }
+
+        List<EventTimeBuffer> sweptBuffers = new ArrayList<>();
+        if (doubletWindowInMillis > 0) {
+            LOG.info("Messages wait at most {} second(s) of event time for their doublets", conf.getDoubletWindowSeconds());
+            sweptBuffers.addAll(doubletBuffers);
+        }
+        if (maxLatenessInMillis > 0) {
+            LOG.info("Messages are put back in order for each ship, tolerating {} second(s) of event time lateness", conf.getMaxLatenessSeconds());
+            sweptBuffers.addAll(reorderBuffers);
+        }
+        if (!sweptBuffers.isEmpty()) {
+            eventTimeBufferSweeper = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("event-time-buffer-sweeper", true));
+            for (EventTimeBuffer buffer : sweptBuffers) {
+                // Lanes evict from their own buffers, so that the calculators are only ever run by the lane thread
+                eventTimeBufferSweeper.scheduleWithFixedDelay(new EventTimeBufferSweeper(buffer, ingestLanes == null, !conf.isReplay()), 1, 1, TimeUnit.SECONDS);
+            }
+        }
     }
 
     public List<AbstractCalculator> getCalculators() {
@@ -136,20 +264,174 @@ public class CoverageHandler {
     public void receiveUnfiltered(AisPacket packet) {
         unfiltCount++;
 
-        final int numberOfUnhandledPackets = unhandledPackets.size();
-        if (numberOfUnhandledPackets >= maximumUnhandledPacketsKept) {
-            overflowLogger.log("Received AIS packets buffer overflow: " + numberOfUnhandledPackets + " currently unhandled packets");
+        // Skip the message types the calculators never use before paying for their decoding
+        if (!packetTypeFilter.accept(packet)) {
             return;
         }
 
-        unhandledPackets.add(packet);
+        if (!unhandledPackets.offer(packet) && !handleOverflow(packet)) {
+            return;
+        }
+
+        if (packetHandlingMode == PacketHandlingMode.PER_PACKET) {
+            packetHandlingThreadPool.submit(new AisPacketHandler());
+        }
+    }
+
+    /**
+     * Applies the overflow policy to a packet that did not fit in the received packets buffer.
+     *
+     * @return true if the packet was eventually added to the buffer
+     */
+    private boolean handleOverflow(AisPacket packet) {
+        switch (overflowPolicy) {
+        case BLOCK:
+            delayedPackets.increment();
+            try {
+                unhandledPackets.put(packet, packetWaitStrategy);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            break;
+        case DROP_OLDEST:
+            return replaceOldestPacket(packet);
+        case SAMPLE:
+            if (overflowingPackets.getAndIncrement() % overflowSampleRate == 0) {
+                return replaceOldestPacket(packet);
+            }
+            break;
+        default:
+            break;
+        }
+
+        droppedPackets.increment();
+        overflowLogger.log("Received AIS packets buffer overflow: " + unhandledPackets.size() + " currently unhandled packets, dropping received packet");
+        return false;
+    }
 
-        packetHandlingThreadPool.submit(new AisPacketHandler());
+    private boolean replaceOldestPacket(AisPacket packet) {
+        while (!unhandledPackets.offer(packet)) {
+            if (unhandledPackets.poll() != null) {
+                droppedPackets.increment();
+            }
+        }
+        overflowLogger.log("Received AIS packets buffer overflow: " + unhandledPackets.size() + " currently unhandled packets, dropping oldest packet");
+        return true;
     }
-    
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the number of received packets skipped without decoding because the calculators do not use their message type
+     */
+    public long getSkippedPackets() {
+        return packetTypeFilter.getSkippedPackets();
+    }
+
+    /**
+     * @return the number of received packets that had to wait for room in the received packets buffer
+     */
+    public long getDelayedPackets() {
+        return delayedPackets.sum();
+    }
+
+    /**
+     * @return the number of received packets dropped because the received packets buffer was full
+     */
+    public long getDroppedPackets() {
+        return droppedPackets.sum();
+    }
+
+    /**
+     * @return the number of converted messages handed over to the doublet buffers
+     */
+    public long getHandledPackets() {
+        return handledPackets.sum();
+    }
+
+    /**
+     * Adds a message to the doublet buffer, or merges its source into the buffered message if it is a doublet.
+     */
+    private void addToDoubletBuffer(CustomMessage message) {
+        if (ingestLanes != null) {
+            ingestLanes[MmsiPartitioning.partitionOf(message.getShipMMSI(), ingestLanes.length)].submit(message);
+        } else {
+            doubletBuffer.add(message);
+        }
+        handledPackets.increment();
+    }
+
     void process(CustomMessage m){
-        for (AbstractCalculator calc : calculators) {
-            calc.calculate(m);
+        try {
+            for (AbstractCalculator calc : calculators) {
+                calc.calculate(m);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Could not process message from ship " + m.getShipMMSI(), e);
+        }
+        if (conf.isReplay()) {
+            purger.purgeOnNewHour();
+        }
+    }
+
+    /**
+     * Side path for messages that arrived too late to be put back in order: only the calculators that do not rely on the
+     * order of messages get them.
+     */
+    void processLate(CustomMessage m) {
+        try {
+            for (AbstractCalculator calc : calculators) {
+                if (calc.acceptsOutOfOrderMessages()) {
+                    calc.calculate(m);
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Could not process late message from ship " + m.getShipMMSI(), e);
+        }
+    }
+
+    /**
+     * @return the number of messages that arrived too late to be put back in order
+     */
+    public long getLateMessages() {
+        if (ingestLanes == null) {
+            return reorderBuffer.getLateMessages();
+        }
+        long lateMessages = 0;
+        for (IngestLane lane : ingestLanes) {
+            lateMessages += lane.getReorderBuffer().getLateMessages();
+        }
+        return lateMessages;
+    }
+
+    /**
+     * @return the number of messages stamped too far ahead to move the watermark of the doublet buffers
+     */
+    public long getMessagesTooFarAhead() {
+        if (ingestLanes == null) {
+            return doubletBuffer.getMessagesTooFarAhead();
+        }
+        long messagesTooFarAhead = 0;
+        for (IngestLane lane : ingestLanes) {
+            messagesTooFarAhead += lane.getDoubletBuffer().getMessagesTooFarAhead();
+        }
+        return messagesTooFarAhead;
+    }
+
+    /**
+     * Logs heap, off-heap and garbage collection figures, to compare data stores under the same replay.
+     */
+    private void logMemoryUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        LOG.info("heap used in MB: " + (runtime.totalMemory() - runtime.freeMemory()) / 1024 / 1024);
+        if (dataHandler instanceof ColumnarMemoryData) {
+            LOG.info("off-heap coverage data in MB: " + ((ColumnarMemoryData) dataHandler).getOffHeapBytes() / 1024 / 1024);
+        }
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            LOG.info("garbage collector " + gc.getName() + ": " + gc.getCollectionCount() + " collections in " + gc.getCollectionTime() + " ms");
         }
     }
 
@@ -170,6 +452,12 @@ public class CoverageHandler {
                     // System.out.println((((now.getTime()-then.getTime())/1000)));
                     LOG.info("messages per second: " + (unfiltCount / (((now.getTime() - then.getTime()) / 1000))));
                     LOG.info("messages processed: " + unfiltCount);
+                    LOG.info("packets skipped by message type: " + getSkippedPackets());
+                    LOG.info("messages too late to be reordered: " + getLateMessages());
+                    LOG.info("messages stamped too far ahead: " + getMessagesTooFarAhead());
+                    LOG.info("packets delayed by overflow: " + getDelayedPackets());
+                    LOG.info("packets dropped by overflow: " + getDroppedPackets());
+                    LOG.info("packets handled per second: " + (handledPackets.sum() / (((now.getTime() - then.getTime()) / 1000))));
                     LOG.info("biggest delay in minutes: " + biggestDelay / 1000 / 60);
                     LOG.info("weird stamps: " + weird);
                     LOG.info("delayed more than ten min: " + delayedMoreThanTen);
@@ -189,7 +477,11 @@ public class CoverageHandler {
                     LOG.info("Unique cells: " + dataHandler.getSource("supersource").getGrid().size());
                     LOG.info("total cell timespans: " + numberofcells);
                     LOG.info("Unique ships: " + dataHandler.getShips().size());
+                    if (dataHandler instanceof OnlyMemoryData) {
+                        LOG.info("Ships evicted: " + ((OnlyMemoryData) dataHandler).getEvictedShips());
+                    }
                     LOG.info("Unique ship hours: " + uniqueShipHours);
+                    logMemoryUsage();
                     LOG.info(""+calculators.get(0).getDataHandler().getSources().size());
                     LOG.info("");
                 }
@@ -197,6 +489,7 @@ public class CoverageHandler {
             }
         });
 
+        t.setDaemon(true);
         t.start();
     }
 
@@ -205,6 +498,10 @@ public class CoverageHandler {
     }
 
     public void stop() {
+        running = false;
+        if (eventTimeBufferSweeper != null) {
+            eventTimeBufferSweeper.shutdown();
+        }
         packetHandlingThreadPool.shutdown();
 
         try {
@@ -218,6 +515,27 @@ public class CoverageHandler {
             packetHandlingThreadPool.shutdownNow();
             Thread.currentThread().interrupt();
         }
+
+        // Release the messages still waiting for doublets, lanes flush their own buffer when they stop
+        if (doubletBuffer != null) {
+            doubletBuffer.flush();
+            reorderBuffer.flush();
+        }
+
+        if (ingestLanes != null) {
+            for (IngestLane lane : ingestLanes) {
+                lane.stop();
+            }
+            ingestLaneThreadPool.shutdown();
+            try {
+                if (!ingestLaneThreadPool.awaitTermination(60, TimeUnit.SECONDS)) {
+                    ingestLaneThreadPool.shutdownNow();
+                }
+            } catch (InterruptedException ie) {
+                ingestLaneThreadPool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     private class AisPacketHandler implements Callable<Void> {
@@ -225,6 +543,10 @@ public class CoverageHandler {
         @Override
         public Void call() throws Exception {
             AisPacket packet = unhandledPackets.poll();
+            if (packet == null) {
+                // The packet was dropped to make room for a newer one
+                return null;
+            }
 
             //extract relevant information from packet
             CustomMessage message = dataHandler.packetToCustomMessage(packet);
@@ -232,19 +554,109 @@ public class CoverageHandler {
                 return null;
             }
 
-            String key = message.getKey();
-
             //Add to doublet buffer.
-            CustomMessage existing = doubletBuffer.get(key);
-            if (existing == null) {
-                doubletBuffer.put(key, message);
-            } else {
-                if (message.getSourceList().iterator().hasNext()) {
-                    existing.addSourceMMSI(message.getSourceList().iterator().next());
+            addToDoubletBuffer(message);
+
+            return null;
+        }
+    }
+
+    /**
+     * Periodically releases the buffered messages that expired in event time, like doublet buffer messages older than the
+     * duplicate window. When following the wall clock and no message moved the event time watermark since the previous
+     * run, the watermark follows the wall clock so that buffered messages are still released while traffic is idle.
+     */
+    private static class EventTimeBufferSweeper implements Runnable {
+        private final EventTimeBuffer buffer;
+        private final boolean evict;
+        private final boolean followWallClock;
+        private long previousWatermark = Long.MIN_VALUE;
+        private long previousRun = System.currentTimeMillis();
+
+        EventTimeBufferSweeper(EventTimeBuffer buffer, boolean evict, boolean followWallClock) {
+            this.buffer = buffer;
+            this.evict = evict;
+            this.followWallClock = followWallClock;
+        }
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            long watermark = buffer.getWatermark();
+            if (followWallClock && watermark != Long.MIN_VALUE && watermark == previousWatermark) {
+                buffer.advanceWatermark(watermark + (now - previousRun));
+            }
+            previousWatermark = buffer.getWatermark();
+            previousRun = now;
+
+            if (evict) {
+                buffer.evictExpired();
+            }
+        }
+    }
+
+    /**
+     * Long-lived worker draining received packets in batches. Packets are converted outside of any lock before the
+     * resulting messages are added to the doublet buffer.
+     */
+    private class AisPacketBatchHandler implements Runnable {
+        private final List<CustomMessage> batch = new ArrayList<>(packetBatchSize);
+
+        @Override
+        public void run() {
+            while ((running || !unhandledPackets.isEmpty()) && !Thread.currentThread().isInterrupted()) {
+                drainBatch();
+
+                if (batch.isEmpty()) {
+                    packetWaitStrategy.idle();
+                    continue;
+                }
+
+                for (CustomMessage message : batch) {
+                    addToDoubletBuffer(message);
                 }
+                batch.clear();
             }
+        }
 
-            return null;
+        /**
+         * Polls up to a batch of packets. Once a batch is started, waits at most the configured linger time for it to
+         * fill before handing over what has been drained so far.
+         */
+        private void drainBatch() {
+            int drained = 0;
+            boolean lingering = false;
+            long lingerDeadline = 0;
+
+            while (drained < packetBatchSize) {
+                AisPacket packet = unhandledPackets.poll();
+                if (packet == null) {
+                    if (drained == 0 || !running) {
+                        return;
+                    }
+
+                    long now = System.nanoTime();
+                    if (!lingering) {
+                        lingering = true;
+                        lingerDeadline = now + packetBatchMaxLingerNanos;
+                    }
+                    if (now - lingerDeadline >= 0) {
+                        return;
+                    }
+                    packetWaitStrategy.idle();
+                    continue;
+                }
+
+                drained++;
+                try {
+                    CustomMessage message = dataHandler.packetToCustomMessage(packet);
+                    if (message != null) {
+                        batch.add(message);
+                    }
+                } catch (RuntimeException e) {
+                    LOG.warn("Could not handle AIS packet", e);
+                }
+            }
         }
     }
 }
@@ -58,21 +58,47 @@ public class Helper {
     }
 
     /**
-     * latitude is rounded down longitude is rounded down. The id is lat-lon-coords representing bottom-left point in cell
+     * Tolerance applied before flooring a coordinate to its cell, so that the corner of a cell, as returned by
+     * {@link #roundLat(double, int)} and {@link #roundLon(double, int)}, falls back in that same cell.
      */
-    public static String getCellId(double latitude, double longitude, int multiplicationFactor) {
-        //TODO make a more space efficient ID. Instead of using a concatenated string.
-        return roundLat(latitude, multiplicationFactor) + "_" + roundLon(longitude, multiplicationFactor);
+    private static final double CELL_INDEX_EPSILON = 1e-9;
+
+    /**
+     * latitude is rounded down longitude is rounded down. The key packs the row of the cell in its upper 32 bits and
+     * its column in its lower 32 bits, and is only unique among cells sharing the same multiplication factor.
+     */
+    public static long getCellKey(double latitude, double longitude, int multiplicationFactor) {
+        return getCellKey(getCellIndex(latitude, conf.getLatSize() * multiplicationFactor),
+                getCellIndex(longitude, conf.getLonSize() * multiplicationFactor));
+    }
+
+    /**
+     * @return the key of the cell at the given row and column of a grid
+     */
+    public static long getCellKey(int row, int column) {
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    public static int getCellRow(long cellKey) {
+        return (int) (cellKey >> 32);
+    }
+
+    public static int getCellColumn(long cellKey) {
+        return (int) cellKey;
     }
 
     public static double roundLat(double latitude, int multiplicationFactor) {
         double multiple = conf.getLatSize() * multiplicationFactor;
-        return multiple * Math.floor(latitude / multiple);
+        return multiple * getCellIndex(latitude, multiple);
     }
 
     public static double roundLon(double longitude, int multiplicationFactor) {
         double multiple = conf.getLonSize() * multiplicationFactor;
-        return multiple * Math.floor(longitude / multiple);
+        return multiple * getCellIndex(longitude, multiple);
+    }
+
+    private static int getCellIndex(double coordinate, double multiple) {
+        return (int) Math.floor(coordinate / multiple + CELL_INDEX_EPSILON);
     }
     
     public static void setLatLonSize(int meters, double latitude){
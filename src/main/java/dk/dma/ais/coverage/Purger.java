@@ -19,13 +19,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Trims the coverage data to the maximum window size. Running as a thread, it checks the window every poll interval of
+ * wall-clock time. A replay runs faster than the wall clock, so it calls {@link #purgeOnNewHour()} from the ingest
+ * path instead, trimming as soon as the message time crosses an hour.
+ */
 public class Purger extends Thread {
     private static final Logger LOG = LoggerFactory.getLogger(Purger.class);
 
     private final int maxWindowSize;
     private final ICoverageData dataHandler;
     private final int pollTimeInSeconds;
+    private final AtomicLong lastCheckedHour = new AtomicLong(Long.MIN_VALUE);
 
     public Purger(int maxWindowSize, ICoverageData dataHandler, int pollTimeInSeconds) {
         this.maxWindowSize = maxWindowSize;
@@ -36,16 +43,7 @@ public class Purger extends Thread {
     @Override
     public void run() {
         while (true) {
-            if (Helper.latestMessage != null && Helper.firstMessage != null) {
-                int currentWindowSize = getCurrentWindowSize();
-
-                if (currentWindowSize > maxWindowSize) {
-                    Date trimPoint = getTrimPoint();
-                    LOG.info("Window size: {}. Max window size: {}. Lets purge data until {}", currentWindowSize, maxWindowSize, trimPoint);
-
-                    dataHandler.trimWindow(trimPoint);
-                }
-            }
+            purge();
 
             try {
                 Thread.sleep(pollTimeInSeconds * 1000);
@@ -55,6 +53,34 @@ public class Purger extends Thread {
         }
     }
 
+    /**
+     * Trims the window once for every hour of message time, the first time a message of that hour is processed.
+     */
+    public void purgeOnNewHour() {
+        Date latestMessage = Helper.latestMessage;
+        if (latestMessage == null) {
+            return;
+        }
+        long hour = latestMessage.getTime();
+        long checkedHour = lastCheckedHour.get();
+        if (hour > checkedHour && lastCheckedHour.compareAndSet(checkedHour, hour)) {
+            purge();
+        }
+    }
+
+    synchronized void purge() {
+        if (Helper.latestMessage != null && Helper.firstMessage != null) {
+            int currentWindowSize = getCurrentWindowSize();
+
+            if (currentWindowSize > maxWindowSize) {
+                Date trimPoint = getTrimPoint();
+                LOG.info("Window size: {}. Max window size: {}. Lets purge data until {}", currentWindowSize, maxWindowSize, trimPoint);
+
+                dataHandler.trimWindow(trimPoint);
+            }
+        }
+    }
+
     private int getCurrentWindowSize() {
         long latestMessageCeilingDate = Helper.getCeilDate(Helper.latestMessage).getTime();
         long firstMessageFloorDate = Helper.getFloorDate(Helper.firstMessage).getTime();
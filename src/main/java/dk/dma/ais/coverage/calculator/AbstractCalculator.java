@@ -21,6 +21,7 @@ import dk.dma.ais.coverage.data.ICoverageData;
 import dk.dma.ais.coverage.data.OnlyMemoryData;
 import dk.dma.ais.coverage.data.Ship;
 import dk.dma.ais.coverage.data.Ship.ShipClass;
+import dk.dma.ais.coverage.data.ShipMessageRing;
 import dk.dma.ais.message.AisMessage;
 import dk.dma.ais.message.AisMessage5;
 import dk.dma.ais.message.ShipTypeCargo;
@@ -53,7 +54,6 @@ public abstract class AbstractCalculator implements Serializable {
     protected int maxDistanceBetweenFirstAndLast = 2000;
     protected int minAllowedSpeed = 3;
     protected int maxAllowedSpeed = 50;
-    protected transient SphereProjection projection = new SphereProjection();
     public static final String SUPERSOURCE_MMSI = "supersource";
     
 //    private int cellSize = 2500;
@@ -92,6 +92,13 @@ public abstract class AbstractCalculator implements Serializable {
 
     public abstract void calculate(CustomMessage m);
 
+    /**
+     * @return true if the calculator gives correct results when the messages of a ship are not received in timestamp order
+     */
+    public boolean acceptsOutOfOrderMessages() {
+        return false;
+    }
+
     /**
      * Determines the expected transmitting frequency, based on speed over ground(sog), whether the ship is rotating and ship class.
      * This can be used to calculate coverage.
@@ -144,22 +151,26 @@ public abstract class AbstractCalculator implements Serializable {
         }
 
         Ship ship = dataHandler.getShip(customMessage.getShipMMSI());
+        if (ship == null) {
+            // The ship was evicted when the window moved, after the message was converted
+            return true;
+        }
 
-        CustomMessage firstMessage = ship.getFirstMessageInBuffer();
-        CustomMessage lastMessage = ship.getLastMessageInBuffer();
-        if (lastMessage != null) {
+        ShipMessageRing buffer = ship.getMessages();
+        if (!buffer.isEmpty()) {
+            int last = buffer.size() - 1;
 
             // Filter message based on distance between first and last message
-            projection.setCentralPoint(firstMessage.getLongitude(), firstMessage.getLatitude());
-            double distance = projection.distBetweenPoints(firstMessage.getLongitude(), firstMessage.getLatitude(),
-                    lastMessage.getLongitude(), lastMessage.getLatitude());
+            SphereProjection projection = new SphereProjection(buffer.getLongitude(0), buffer.getLatitude(0));
+            double distance = projection.distBetweenPoints(buffer.getLongitude(0), buffer.getLatitude(0),
+                    buffer.getLongitude(last), buffer.getLatitude(last));
             if (distance > 2000) {
                 LOG.info("filtering message due to distance: {}, lat: {}, long: {}", distance, customMessage.getLatitude(), customMessage.getLongitude());
                 return true;
             }
 
             // Filter message based on time between first and last message
-            double timeDifference = this.getTimeDifference(firstMessage, lastMessage);
+            double timeDifference = this.getTimeDifference(buffer.getTimestamp(0), buffer.getTimestamp(last));
             if (timeDifference > 1200) {
                 LOG.info("filtering message due to time difference: {}, lat: {}, long: {}", timeDifference, customMessage.getLatitude(), customMessage.getLongitude());
                 return true;
@@ -0,0 +1,140 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.calculator;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.data.ICoverageData;
+
+/**
+ * Write-combining buffer of received and missing signals, summed by source, cell and hour before being handed to the data
+ * handler with {@link ICoverageData#incrementSignals(int, double, double, Date, int, int)}.
+ * <p>
+ * Points interpolated between two messages of a ship mostly fall in the same cell and hour, so a batch holds few entries
+ * and the data handler is called once per entry instead of once per signal. Entries are kept in parallel arrays indexed
+ * by a small open addressing table, and the hour of a timestamp is only computed when it leaves the hour of the previous
+ * one. Not thread-safe: each thread uses its own accumulator.
+ */
+public class CellSignalAccumulator {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] sourceIds = new int[INITIAL_CAPACITY];
+    private long[] cellKeys = new long[INITIAL_CAPACITY];
+    private long[] hours = new long[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private int[] receivedSignals = new int[INITIAL_CAPACITY];
+    private int[] missingSignals = new int[INITIAL_CAPACITY];
+    // Entry index + 1 for each slot, 0 for an empty slot
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int size;
+
+    // Bounds of the hour of the latest timestamp added
+    private long hourStart = Long.MAX_VALUE;
+    private long nextHourStart = Long.MIN_VALUE;
+
+    public void addReceivedSignal(int sourceId, double latitude, double longitude, long timestamp) {
+        add(sourceId, latitude, longitude, timestamp, 1, 0);
+    }
+
+    public void addMissingSignal(int sourceId, double latitude, double longitude, long timestamp) {
+        add(sourceId, latitude, longitude, timestamp, 0, 1);
+    }
+
+    public void addMissingSignals(int sourceId, double latitude, double longitude, long timestamp, int count) {
+        add(sourceId, latitude, longitude, timestamp, 0, count);
+    }
+
+    /**
+     * Hands the summed signals to the data handler and empties this accumulator.
+     */
+    public void flush(ICoverageData dataHandler) {
+        for (int i = 0; i < size; i++) {
+            dataHandler.incrementSignals(sourceIds[i], latitudes[i], longitudes[i], new Date(hours[i]), receivedSignals[i], missingSignals[i]);
+        }
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+
+    /**
+     * @return the number of distinct source, cell and hour entries waiting to be flushed
+     */
+    public int size() {
+        return size;
+    }
+
+    private void add(int sourceId, double latitude, double longitude, long timestamp, int received, int missing) {
+        if (timestamp < hourStart || timestamp >= nextHourStart) {
+            Date floor = Helper.getFloorDate(new Date(timestamp));
+            hourStart = floor.getTime();
+            nextHourStart = Helper.getCeilDate(floor).getTime();
+        }
+        long cellKey = Helper.getCellKey(latitude, longitude, 1);
+
+        int mask = table.length - 1;
+        int slot = hash(sourceId, cellKey, hourStart) & mask;
+        while (table[slot] != 0) {
+            int entry = table[slot] - 1;
+            if (sourceIds[entry] == sourceId && cellKeys[entry] == cellKey && hours[entry] == hourStart) {
+                receivedSignals[entry] += received;
+                missingSignals[entry] += missing;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == sourceIds.length) {
+            grow();
+            add(sourceId, latitude, longitude, timestamp, received, missing);
+            return;
+        }
+        sourceIds[size] = sourceId;
+        cellKeys[size] = cellKey;
+        hours[size] = hourStart;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        receivedSignals[size] = received;
+        missingSignals[size] = missing;
+        table[slot] = ++size;
+    }
+
+    private void grow() {
+        int capacity = sourceIds.length * 2;
+        sourceIds = Arrays.copyOf(sourceIds, capacity);
+        cellKeys = Arrays.copyOf(cellKeys, capacity);
+        hours = Arrays.copyOf(hours, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        receivedSignals = Arrays.copyOf(receivedSignals, capacity);
+        missingSignals = Arrays.copyOf(missingSignals, capacity);
+
+        table = new int[capacity * 2];
+        int mask = table.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hash(sourceIds[entry], cellKeys[entry], hours[entry]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry + 1;
+        }
+    }
+
+    private static int hash(int sourceId, long cellKey, long hour) {
+        long h = (cellKey * 0x9E3779B97F4A7C15L) ^ (hour / 3600000L) * 0xC2B2AE3D27D4EB4FL ^ sourceId;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,179 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.calculator;
+
+import java.util.Date;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.calculator.geotools.SphereProjection;
+
+/**
+ * Signals missing between two messages of a ship, grouped in runs of consecutive signals falling in the same cell and hour.
+ * <p>
+ * Missing signals are expected every interval along the segment joining both messages in a {@link SphereProjection}
+ * centered on the first one. Rather than converting every missing position back to latitude and longitude, the segment
+ * is walked cell by cell: the end of the run starting at a position is found by galloping over the following positions,
+ * then by binary search, so that the number of positions converted grows with the number of cells crossed and only
+ * logarithmically with the number of signals in a cell. The runs hold the same signals as converting every position, as
+ * long as the positions of a cell are consecutive along the segment, which is the case for the short gaps kept by the
+ * calculator filters.
+ * <p>
+ * Runs are read like an iterator: {@link #next()} moves to the next run, whose first position, timestamp and size are
+ * then returned by the getters.
+ */
+public class MissingSignalRuns {
+    private final SphereProjection projection;
+    private final double p1X;
+    private final double p1Y;
+    private final double xMetersPerSecond;
+    private final double yMetersPerSecond;
+    private final long p1Time;
+    private final double interval;
+    private final int missingSignals;
+
+    // Next position to read, positions being numbered from 1 to missingSignals
+    private int nextPosition = 1;
+    private double latitude;
+    private double longitude;
+    private long timestamp;
+    private int size;
+
+    // Last position converted, reused when a run starts where the search for the end of the previous one stopped
+    private int convertedPosition;
+    private double convertedLatitude;
+    private double convertedLongitude;
+
+    // Cell and hour of the current run
+    private long cellKey;
+    private long hourStart;
+    private long nextHourStart;
+
+    /**
+     * @param timeDifference number of seconds between both messages
+     * @param interval       number of seconds expected between two messages of the ship
+     */
+    public MissingSignalRuns(double p1Lat, double p1Lon, long p1Time, double p2Lat, double p2Lon, double timeDifference, double interval) {
+        this.projection = new SphereProjection(p1Lon, p1Lat);
+        this.p1X = projection.lon2x(p1Lon, p1Lat);
+        this.p1Y = projection.lat2y(p1Lon, p1Lat);
+        this.xMetersPerSecond = (projection.lon2x(p2Lon, p2Lat) - p1X) / timeDifference;
+        this.yMetersPerSecond = (projection.lat2y(p2Lon, p2Lat) - p1Y) / timeDifference;
+        this.p1Time = p1Time;
+        this.interval = interval;
+        this.missingSignals = timeDifference > interval ? (int) (Math.round(timeDifference / interval) - 1) : 0;
+    }
+
+    /**
+     * @return the number of signals missing between both messages
+     */
+    public int getMissingSignals() {
+        return missingSignals;
+    }
+
+    /**
+     * Moves to the next run.
+     *
+     * @return false if all runs have been read
+     */
+    public boolean next() {
+        if (nextPosition > missingSignals) {
+            return false;
+        }
+        int first = nextPosition;
+        convert(first);
+        latitude = convertedLatitude;
+        longitude = convertedLongitude;
+        timestamp = timestampOf(first);
+        cellKey = Helper.getCellKey(latitude, longitude, 1);
+        if (timestamp < hourStart || timestamp >= nextHourStart) {
+            Date floor = Helper.getFloorDate(new Date(timestamp));
+            hourStart = floor.getTime();
+            nextHourStart = Helper.getCeilDate(floor).getTime();
+        }
+
+        // Gallop until a position out of the run, then search the end of the run between the last two positions tried
+        int inRun = first;
+        int step = 1;
+        while (inRun + step <= missingSignals && isInRun(inRun + step)) {
+            inRun += step;
+            step <<= 1;
+        }
+        int outOfRun = Math.min(inRun + step, missingSignals + 1);
+        while (outOfRun - inRun > 1) {
+            int middle = (inRun + outOfRun) >>> 1;
+            if (isInRun(middle)) {
+                inRun = middle;
+            } else {
+                outOfRun = middle;
+            }
+        }
+
+        size = inRun - first + 1;
+        nextPosition = inRun + 1;
+        return true;
+    }
+
+    /**
+     * @return the latitude of the first position of the run
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * @return the longitude of the first position of the run
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return the timestamp of the first signal of the run
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the number of signals in the run
+     */
+    public int getSize() {
+        return size;
+    }
+
+    private boolean isInRun(int position) {
+        // Timestamps grow along the segment, so they are checked before converting the position
+        if (timestampOf(position) >= nextHourStart) {
+            return false;
+        }
+        convert(position);
+        return Helper.getCellKey(convertedLatitude, convertedLongitude, 1) == cellKey;
+    }
+
+    private long timestampOf(int position) {
+        return (long) (p1Time + (position * interval * 1000));
+    }
+
+    private void convert(int position) {
+        if (position != convertedPosition) {
+            double seconds = position * interval;
+            double x = p1X + (xMetersPerSecond * seconds);
+            double y = p1Y + (yMetersPerSecond * seconds);
+            convertedLatitude = projection.y2Lat(x, y);
+            convertedLongitude = projection.x2Lon(x, y);
+            convertedPosition = position;
+        }
+    }
+}
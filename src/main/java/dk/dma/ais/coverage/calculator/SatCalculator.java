@@ -38,6 +38,7 @@ import dk.dma.ais.coverage.data.Ship;
 import dk.dma.ais.coverage.data.Ship.Hour;
 import dk.dma.ais.coverage.data.Source;
 import dk.dma.ais.coverage.data.Source.ReceiverType;
+import dk.dma.ais.coverage.data.SourceIds;
 import dk.dma.ais.coverage.data.TimeSpan;
 import dk.dma.ais.coverage.export.data.ExportShipTimeSpan;
 import dk.dma.ais.packet.AisPacketTags.SourceType;
@@ -68,12 +69,10 @@ public class SatCalculator extends AbstractCalculator {
             timespanMap.put(t.getFirstMessage().getTime(), t);
         }
 
-        Collection<Cell> cells = dataHandler.getSource(AbstractCalculator.SUPERSOURCE_MMSI).getGrid().values();
+        Collection<Cell> cells = dataHandler.getSource(AbstractCalculator.SUPERSOURCE_MMSI).getCellsInBox(latMax, lonMin, lonMin, lonMax);
 
         for (Cell fixedSpanCell : cells) {
-            
-            if (Helper.isInsideBox(fixedSpanCell, latMax, lonMin, lonMin, lonMax)) {
-
+            synchronized (fixedSpanCell) {
                 Collection<TimeSpan> spans = fixedSpanCell.getFixedWidthSpans().values();
                 for (TimeSpan timeSpan : spans) {
                     if (timeSpan.getLastMessage().getTime() <= endTime.getTime()
@@ -95,38 +94,36 @@ public class SatCalculator extends AbstractCalculator {
         }
 
         List<ExportShipTimeSpan> result = new ArrayList<ExportShipTimeSpan>();
-        short startHour = (short) ((startTime.getTime() - Helper.analysisStarted.getTime()) / 1000 / 60 / 60);
-        short endHour = (short) ((endTime.getTime() - Helper.analysisStarted.getTime()) / 1000 / 60 / 60);
-        int previousMinute = -1;
-        int currentMinute = -1;
-        for (short i = startHour; i < endHour; i++) {
+        int startHour = Ship.getHourKey(startTime.getTime());
+        int endHour = Ship.getHourKey(endTime.getTime());
+        long previousMinute = -1;
+        long currentMinute = -1;
+        for (int i = startHour; i < endHour; i++) {
             Hour h = ss.getHours().get(i);
             if (h != null) {
                 for (int j = 0; j < 60; j++) {
                     boolean gotSignal = h.gotSignal(j);
                     if (gotSignal) {
-                        currentMinute = i * 60 + j;
+                        currentMinute = i * 60L + j;
                         if (result.isEmpty()) {
                             // If result is empty, add the first timespan
-                            ExportShipTimeSpan timespan = new ExportShipTimeSpan(Helper.analysisStarted.getTime() + currentMinute
-                                    * 60 * 1000);
+                            ExportShipTimeSpan timespan = new ExportShipTimeSpan(currentMinute * 60 * 1000);
                             timespan.getPositions().add(timespan.new LatLon(h.getLat(j), h.getLon(j)));
                             result.add(timespan);
                         }
                         if (currentMinute - previousMinute < timeMargin / 1000 / 60) {
                             // If current minute is within the time margin, we expand the latest timespan
                             ExportShipTimeSpan timespan = result.get(result.size() - 1);
-                            timespan.setLastMessage(Helper.analysisStarted.getTime() + currentMinute * 60 * 1000);
+                            timespan.setLastMessage(currentMinute * 60 * 1000);
                             timespan.getPositions().add(timespan.new LatLon(h.getLat(j), h.getLon(j)));
 
                         } else {
                             // If current minute exceeds the time margin, we add a new timespan
-                            ExportShipTimeSpan timespan = new ExportShipTimeSpan(Helper.analysisStarted.getTime() + currentMinute
-                                    * 60 * 1000);
+                            ExportShipTimeSpan timespan = new ExportShipTimeSpan(currentMinute * 60 * 1000);
                             timespan.getPositions().add(timespan.new LatLon(h.getLat(j), h.getLon(j)));
                             result.add(timespan);
                         }
-                        previousMinute = i * 60 + j;
+                        previousMinute = i * 60L + j;
 
                     }
                 }
@@ -151,14 +148,11 @@ public class SatCalculator extends AbstractCalculator {
             double lonMax) {
 
         // Retrieve cells within the specified rectangle
-        Collection<Cell> cells = dataHandler.getCells(null);
         List<Cell> areaFiltered = new ArrayList<Cell>();
-        for (Cell cell : cells) {
-
-            if (Helper.isInsideBox(cell, latMax, lonMin, lonMin, lonMax)) {
-                areaFiltered.add(cell);
+        for (Source source : dataHandler.getSources()) {
+            if (source.isVisible()) {
+                areaFiltered.addAll(source.getCellsInBox(latMax, lonMin, lonMin, lonMax));
             }
-
         }
 
         // Store every time span of the filtered cells
@@ -215,7 +209,7 @@ public class SatCalculator extends AbstractCalculator {
             }
 
             LOG.debug(spans.get(i).getFirstMessage() + " " + spans.get(i).getLastMessage() + " "
-                    + spans.get(i).getMessageCounterSat() + " " + spans.get(i).getDistinctShipsSat().size());
+                    + spans.get(i).getMessageCounterSat() + " " + spans.get(i).getDistinctShipsSat().count());
         }
 
         return merged;
@@ -236,32 +230,9 @@ public class SatCalculator extends AbstractCalculator {
     }
 
     private void calcFixedTimeSpan(CustomMessage m) {
-        // get the right cell, or create it if it doesn't exist.
-        Cell cell = dataHandler.getCell(AbstractCalculator.SUPERSOURCE_MMSI, m.getLatitude(), m.getLongitude());
-        if (cell == null) {
-            cell = dataHandler.createCell(AbstractCalculator.SUPERSOURCE_MMSI, m.getLatitude(), m.getLongitude());
-        }
-
-        // Fetch specific time span
-        Date id = Helper.getFloorDate(m.getTimestamp());
-        TimeSpan fixedSpan = cell.getFixedWidthSpans().get(id.getTime());
-        if (fixedSpan == null) {
-            fixedSpan = new TimeSpan(id);
-            fixedSpan.setLastMessage(Helper.getCeilDate(m.getTimestamp()));
-            cell.getFixedWidthSpans().put(id.getTime(), fixedSpan);
-        }
-
-        //Increment message counter and update distinct ship map
-        if (m.getSourceType() == SourceType.SATELLITE) {
-            fixedSpan.setMessageCounterSat(fixedSpan.getMessageCounterSat() + 1);
-            fixedSpan.getDistinctShipsSat().put("" + m.getShipMMSI(), true);
-        } else {
-            fixedSpan.incrementMessageCounterTerrestrialUnfiltered();
-            fixedSpan.getDistinctShipsTerrestrial().put("" + m.getShipMMSI(), true);
-        }
-        
-        
-
+        // Increment message counter and update distinct ship map of the matching super source cell
+        dataHandler.incrementUnfilteredMessage(SourceIds.SUPERSOURCE, m.getLatitude(), m.getLongitude(), m.getTimestamp(),
+                m.getSourceType(), m.getShipMMSI());
     }
 
     /**
@@ -289,17 +260,26 @@ public class SatCalculator extends AbstractCalculator {
             return;
         }
         
-        // register ship location
-        dataHandler.getShip(m.getShipMMSI()).registerMessage(m.getTimestamp(), (float) m.getLatitude(), (float)m.getLongitude());
+        // register ship location, unless the ship was evicted when the window moved after the message was converted
+        Ship ship = dataHandler.getShip(m.getShipMMSI());
+        if (ship != null) {
+            ship.registerMessage(m.getTimestamp(), (float) m.getLatitude(), (float) m.getLongitude());
+        }
 
 
         // get the right cell, or create it if it doesn't exist.
         Cell c = dataHandler.getCell(AbstractCalculator.SUPERSOURCE_MMSI, m.getLatitude(), m.getLongitude());
         if (c == null) {
             c = dataHandler.createCell(AbstractCalculator.SUPERSOURCE_MMSI, m.getLatitude(), m.getLongitude());
-            c.setTimeSpans(new ArrayList<TimeSpan>());
         }
 
+        // Messages of different ships may update the time spans of the same cell concurrently
+        synchronized (c) {
+            updateDynamicTimeSpans(c, m);
+        }
+    }
+
+    private void updateDynamicTimeSpans(Cell c, CustomMessage m) {
         // If no time spans exist for corresponding cell, create one
         // System.out.println(c.getTimeSpans());
         if (c.getTimeSpans() == null) {
@@ -318,6 +298,8 @@ public class SatCalculator extends AbstractCalculator {
             if (t.getFirstMessage().getTime() <= m.getTimestamp().getTime()) {
                 timeSpan = t;
                 timeSpanPos = i;
+                // Messages in order always land here on the latest time span
+                break;
             }
         }
 
@@ -358,10 +340,10 @@ public class SatCalculator extends AbstractCalculator {
         }
 
         // Put ship mmsi in the map
-        timeSpan.getDistinctShipsSat().put("" + m.getShipMMSI(), true);
+        timeSpan.getDistinctShipsSat().add(m.getShipMMSI());
 
         // Increment message counter
-        timeSpan.setMessageCounterSat(timeSpan.getMessageCounterSat() + 1);
+        timeSpan.incrementMessageCounterSat();
 
     }
 
@@ -372,26 +354,21 @@ public class SatCalculator extends AbstractCalculator {
         merged.setLastMessage(span2.getLastMessage());
         merged.setMessageCounterSat(span1.getMessageCounterSat() + span2.getMessageCounterSat());
         merged.addMessageCounterTerrestrialUnfiltered(span2.getMessageCounterTerrestrial());
-        Set<String> span1DistinctShips = span1.getDistinctShipsSat().keySet();
-        Set<String> span2DistinctShips = span2.getDistinctShipsSat().keySet();
-        Set<String> span1DistinctShipsTer = span2.getDistinctShipsTerrestrial().keySet();
-        Set<String> span2DistinctShipsTer = span2.getDistinctShipsTerrestrial().keySet();
-        for (String string : span1DistinctShips) {
-            merged.getDistinctShipsSat().put(string, true);
-        }
-        for (String string : span2DistinctShips) {
-            merged.getDistinctShipsSat().put(string, true);
-        }
-        for (String string : span1DistinctShipsTer) {
-            merged.getDistinctShipsTerrestrial().put(string, true);
-        }
-        for (String string : span2DistinctShipsTer) {
-            merged.getDistinctShipsTerrestrial().put(string, true);
-        }
+        merged.getDistinctShipsSat().merge(span1.getDistinctShipsSat());
+        merged.getDistinctShipsSat().merge(span2.getDistinctShipsSat());
+        merged.getDistinctShipsTerrestrial().merge(span2.getDistinctShipsTerrestrial());
 
         return merged;
     }
 
+    /**
+     * Time spans are searched for the one a message belongs to, so the order of messages does not matter
+     */
+    @Override
+    public boolean acceptsOutOfOrderMessages() {
+        return true;
+    }
+
     /**
      * Rules for filtering
      */
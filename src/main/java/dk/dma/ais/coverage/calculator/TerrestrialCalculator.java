@@ -21,6 +21,8 @@ import dk.dma.ais.coverage.data.Cell;
 import dk.dma.ais.coverage.data.CustomMessage;
 import dk.dma.ais.coverage.data.QueryParams;
 import dk.dma.ais.coverage.data.Ship;
+import dk.dma.ais.coverage.data.ShipMessageRing;
+import dk.dma.ais.coverage.data.SourceIds;
 import dk.dma.ais.coverage.event.AisEvent;
 import dk.dma.ais.coverage.event.IAisEventListener;
 import dk.dma.ais.coverage.export.data.ExportCell;
@@ -28,10 +30,10 @@ import dk.dma.ais.coverage.export.data.JSonCoverageMap;
 import dk.dma.ais.coverage.export.data.JsonConverter;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -52,12 +54,11 @@ public class TerrestrialCalculator extends AbstractCalculator {
     private boolean ignoreRotation;
     private List<IAisEventListener> listeners = new ArrayList<IAisEventListener>();
     public boolean debug;
-    private LinkedHashMap<String, CustomMessage> doubletBuffer = new LinkedHashMap<String, CustomMessage>() {
-        private static final long serialVersionUID = 1L;
-
+    // Signals of the buffer being processed, flushed to the data handler once the whole buffer is processed
+    private static final ThreadLocal<CellSignalAccumulator> SIGNALS = new ThreadLocal<CellSignalAccumulator>() {
         @Override
-        protected boolean removeEldestEntry(Map.Entry<String, CustomMessage> eldest) {
-            return this.size() > 10000;
+        protected CellSignalAccumulator initialValue() {
+            return new CellSignalAccumulator();
         }
     };
 
@@ -78,29 +79,21 @@ public class TerrestrialCalculator extends AbstractCalculator {
         this.ignoreRotation = ignoreRotation;
     }
 
-    private boolean checkDoublets(CustomMessage m) {
-        String key = m.getKey();
-
-        // if message exist in queue return true, otherwise false.
-        if (doubletBuffer.containsKey(key)) {
-            return true;
-        }
-        doubletBuffer.put(key, m);
-        return false;
-
-    }
-
     /**
      * This is called whenever a message is received
      */
     public void calculate(CustomMessage message) {
         if (message.isVsi()) {
-            dataHandler.incrementReceivedVsiMessage(AbstractCalculator.SUPERSOURCE_MMSI, message.getLatitude(), message.getLongitude(), message.getTimestamp(), message.getSignalStrength());
+            dataHandler.incrementReceivedVsiMessage(SourceIds.SUPERSOURCE, message.getLatitude(), message.getLongitude(), message.getTimestamp(), message.getSignalStrength());
             approveMessage(message);
             return;
         }
 
         Ship ship = dataHandler.getShip(message.getShipMMSI());
+        if (ship == null) {
+            // The ship was evicted when the window moved, after the message was converted
+            return;
+        }
 
         // put message in ships' buffer
         ship.addToBuffer(message);
@@ -115,36 +108,35 @@ public class TerrestrialCalculator extends AbstractCalculator {
             Helper.firstMessage=Helper.getFloorDate(message.getTimestamp());
         }
         Helper.latestMessage = Helper.getFloorDate(message.getTimestamp());
-        // Time difference between first and last message in buffer
-        CustomMessage firstMessage = ship.getFirstMessageInBuffer();
-        CustomMessage lastMessage = ship.getLastMessageInBuffer();
-
-        if (ship.getMessages().size() == 1) {
+        ShipMessageRing buffer = ship.getMessages();
+        if (buffer.size() == 1) {
             return;
         }
-        
-        int timeDifference = this.getTimeDifference(firstMessage, lastMessage);
+
+        // Time difference between first and last message in buffer
+        int last = buffer.size() - 1;
+        int timeDifference = (int) Math.abs((buffer.getTimestamp(last) - buffer.getTimestamp(0)) / 1000);
         // Check if it is time to process the buffer
         if (timeDifference >= bufferInSeconds) {
-            
+            CellSignalAccumulator signals = SIGNALS.get();
 
-            List<CustomMessage> buffer = ship.getMessages();
-            double rotation = Math.abs(angleDiff(firstMessage.getCog(), lastMessage.getCog()));
+            double rotation = Math.abs(angleDiff(buffer.getCog(0), buffer.getCog(last)));
 
             // Ship is rotating
             if (rotation > ((double) degreesPerMinute / 60) * timeDifference) {
                 if (!ignoreRotation) {
-                    for (int i = 0; i < ship.getMessages().size() - 1; i++) {
-                        calculateMissingPoints(buffer.get(i), buffer.get(i + 1), true);
+                    for (int i = 0; i < buffer.size() - 1; i++) {
+                        calculateMissingPoints(ship, i, true, signals);
                     }
                 }
             }
             // ship is not rotating
             else {
-                for (int i = 0; i < ship.getMessages().size() - 1; i++) {
-                    calculateMissingPoints(buffer.get(i), buffer.get(i + 1), false);
+                for (int i = 0; i < buffer.size() - 1; i++) {
+                    calculateMissingPoints(ship, i, false, signals);
                 }
             }
+            signals.flush(dataHandler);
 
             // empty buffer
             ship.emptyBuffer();
@@ -152,65 +144,46 @@ public class TerrestrialCalculator extends AbstractCalculator {
     }
 
     /**
-     * Calculates missing points between two messages and add them to corresponding cells
+     * Calculates missing points between a message of the ship buffer and the next one, and add them to corresponding cells
+     * of the accumulator
      */
-    private void calculateMissingPoints(CustomMessage m1, CustomMessage m2, boolean rotating) {
-
-        Ship ship = dataHandler.getShip(m1.getShipMMSI());
-
-        dataHandler.incrementReceivedSignals(AbstractCalculator.SUPERSOURCE_MMSI, m1.getLatitude(), m1.getLongitude(), m1.getTimestamp());
-        approveMessage(m1);
-        
-        
-
-        Long p1Time = m1.getTimestamp().getTime();
-        Long p2Time = m2.getTimestamp().getTime();
-        double p1Lat = m1.getLatitude();
-        double p1Lon = m1.getLongitude();
-        double p2Lat = m2.getLatitude();
-        double p2Lon = m2.getLongitude();
-        projection.setCentralPoint(p1Lon, p1Lat);
-        double p1X = projection.lon2x(p1Lon, p1Lat);
-        double p1Y = projection.lat2y(p1Lon, p1Lat);
-        double p2X = projection.lon2x(p2Lon, p2Lat);
-        double p2Y = projection.lat2y(p2Lon, p2Lat);
+    private void calculateMissingPoints(Ship ship, int index, boolean rotating, CellSignalAccumulator signals) {
+        ShipMessageRing buffer = ship.getMessages();
+
+        Long p1Time = buffer.getTimestamp(index);
+        Long p2Time = buffer.getTimestamp(index + 1);
+        double p1Lat = buffer.getLatitude(index);
+        double p1Lon = buffer.getLongitude(index);
+        double p2Lat = buffer.getLatitude(index + 1);
+        double p2Lon = buffer.getLongitude(index + 1);
+
+        signals.addReceivedSignal(SourceIds.SUPERSOURCE, p1Lat, p1Lon, p1Time);
+        for (int source = buffer.nextSource(index, 0); source >= 0; source = buffer.nextSource(index, source + 1)) {
+            signals.addReceivedSignal(source, p1Lat, p1Lon, p1Time);
+        }
 
         double timeSinceLastMessage = getTimeDifference(p1Time, p2Time);
-        int sog = (int) m2.getSog();
+        int sog = (int) buffer.getSog(index + 1);
         double expectedTransmittingFrequency = getExpectedTransmittingFrequency(sog, rotating, ship.getShipClass());
+
         /*
-         * Calculate missing messages and increment missing signal to corresponding cell. Lat-lon points are calculated to metric
-         * x-y coordinates before missing points are calculated. In order to find corresponding cell, x-y coords are converted back
-         * to lat-lon.
+         * Missing points are expected every expectedTransmittingFrequency seconds on the segment between both messages,
+         * in metric x-y coordinates. They are added to the cells they fall in by runs of points in the same cell and hour.
          */
-
-        int missingMessages;
-        if (timeSinceLastMessage > expectedTransmittingFrequency) {
-
-            // Number of missing points between the two points
-            missingMessages = (int) (Math.round(timeSinceLastMessage / expectedTransmittingFrequency) - 1);
-
-            // Finds lat/lon of each missing point and adds "missing signal" to
-            // corresponding cell
-            for (int i = 1; i <= missingMessages; i++) {
-                double xMissing = getX(i * expectedTransmittingFrequency, p1Time, p2Time, p1X, p2X);
-                double yMissing = getY(i * expectedTransmittingFrequency, p1Time, p2Time, p1Y, p2Y);
-
-                // Add number of missing messages to cell
-                Date stamp = new Date((long) (m1.getTimestamp().getTime() + (i * expectedTransmittingFrequency * 1000)));
-                dataHandler.incrementMissingSignals(AbstractCalculator.SUPERSOURCE_MMSI, projection.y2Lat(xMissing, yMissing),
-                        projection.x2Lon(xMissing, yMissing), stamp);
-                for (String source : m1.getSourceList()) {
-                    dataHandler.incrementMissingSignals(source, projection.y2Lat(xMissing, yMissing),
-                            projection.x2Lon(xMissing, yMissing), stamp);
-                }
+        MissingSignalRuns runs = new MissingSignalRuns(p1Lat, p1Lon, p1Time, p2Lat, p2Lon, timeSinceLastMessage,
+                expectedTransmittingFrequency);
+        while (runs.next()) {
+            signals.addMissingSignals(SourceIds.SUPERSOURCE, runs.getLatitude(), runs.getLongitude(), runs.getTimestamp(), runs.getSize());
+            for (int source = buffer.nextSource(index, 0); source >= 0; source = buffer.nextSource(index, source + 1)) {
+                signals.addMissingSignals(source, runs.getLatitude(), runs.getLongitude(), runs.getTimestamp(), runs.getSize());
             }
         }
     }
 
  
     private void approveMessage(CustomMessage approvedMessage) {
-        for (String source : approvedMessage.getSourceList()) {
+        BitSet sources = approvedMessage.getSources();
+        for (int source = sources.nextSetBit(0); source >= 0; source = sources.nextSetBit(source + 1)) {
             if (approvedMessage.isVsi()) {
                 dataHandler.incrementReceivedVsiMessage(source, approvedMessage.getLatitude(), approvedMessage.getLongitude(), approvedMessage.getTimestamp(), approvedMessage.getSignalStrength());
             } else {
@@ -265,9 +238,9 @@ public class TerrestrialCalculator extends AbstractCalculator {
         superSourceIsHere.add(AbstractCalculator.SUPERSOURCE_MMSI);
         params.sources = superSourceIsHere;
         List<Cell> celllistSuper = dataHandler.getCells(params);
-        Map<String, Cell> superMap = new HashMap<String, Cell>();
+        Map<Long, Cell> superMap = new HashMap<Long, Cell>();
         for (Cell cell : celllistSuper) {
-            superMap.put(cell.getId(), cell);
+            superMap.put(cell.getKey(), cell);
         }
 
         if (!celllist.isEmpty()) {
@@ -275,7 +248,7 @@ public class TerrestrialCalculator extends AbstractCalculator {
         }
 
         for (Cell cell : celllist) {
-            Cell superCell = superMap.get(cell.getId());
+            Cell superCell = superMap.get(cell.getKey());
             if (superCell == null) {
 
             } else {
@@ -295,20 +268,6 @@ public class TerrestrialCalculator extends AbstractCalculator {
     }
 
     // Getters and setters
-    private double getY(double seconds, Long p1Time, Long p2Time, double p1y, double p2y) {
-        double distanceInMeters = p2y - p1y;
-        double timeDiff = getTimeDifference(p1Time, p2Time);
-        double metersPerSec = distanceInMeters / timeDiff;
-        return p1y + (metersPerSec * seconds);
-    }
-
-    private double getX(double seconds, Long p1Time, Long p2Time, double p1x, double p2x) {
-        double distanceInMeters = p2x - p1x;
-        double timeDiff = getTimeDifference(p1Time, p2Time);
-        double metersPerSec = distanceInMeters / timeDiff;
-        return p1x + (metersPerSec * seconds);
-    }
-
     public int getBufferInSeconds() {
         return bufferInSeconds;
     }
@@ -16,6 +16,8 @@ package dk.dma.ais.coverage.configuration;
 
 import dk.dma.ais.configuration.bus.AisBusConfiguration;
 import dk.dma.ais.coverage.data.Source_UserProvided;
+import dk.dma.ais.coverage.ingest.OverflowPolicy;
+import dk.dma.ais.coverage.ingest.WaitStrategy;
 import dk.dma.ais.coverage.web.WebServerConfiguration;
 
 import javax.xml.bind.JAXBContext;
@@ -24,6 +26,7 @@ import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -38,6 +41,8 @@ import java.util.Map;
 @XmlRootElement
 public class AisCoverageConfiguration {
 
+    public static final int DEFAULT_DOUBLET_BUFFER_SHARDS = 16;
+
     private AisBusConfiguration aisbusConfiguration;
     private WebServerConfiguration serverConfiguration;
     private double latSize = 0.0225225225;
@@ -48,6 +53,20 @@ public class AisCoverageConfiguration {
     private Map<String, Source_UserProvided> sourcenames = new HashMap<String, Source_UserProvided>();
     private int windowSize = 5;
     private int receivedPacketsBufferSize = 10000;
+    private PacketHandlingMode packetHandlingMode = PacketHandlingMode.BATCH;
+    private int packetBatchSize = 256;
+    private int packetBatchMaxLingerMillis = 5;
+    private WaitStrategy packetWaitStrategy = WaitStrategy.PARK;
+    private int doubletBufferShards = DEFAULT_DOUBLET_BUFFER_SHARDS;
+    private int doubletWindowSeconds;
+    private int ingestLanes;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private int overflowSampleRate = 10;
+    private int packetHandlingThreads;
+    private ExecutorMode executorMode = ExecutorMode.PLATFORM;
+    private boolean replay;
+    private int maxLatenessSeconds;
+    private CoverageDataStore coverageDataStore = CoverageDataStore.MEMORY;
 
     public Map<String, Source_UserProvided> getSourceNameMap() {
         return sourcenames;
@@ -154,4 +173,127 @@ public class AisCoverageConfiguration {
     public void setReceivedPacketsBufferSize(int receivedPacketsBufferSize) {
         this.receivedPacketsBufferSize = receivedPacketsBufferSize;
     }
+
+    public PacketHandlingMode getPacketHandlingMode() {
+        return packetHandlingMode;
+    }
+
+    public void setPacketHandlingMode(PacketHandlingMode packetHandlingMode) {
+        this.packetHandlingMode = packetHandlingMode;
+    }
+
+    public int getPacketBatchSize() {
+        return packetBatchSize;
+    }
+
+    public void setPacketBatchSize(int packetBatchSize) {
+        this.packetBatchSize = packetBatchSize;
+    }
+
+    public int getPacketBatchMaxLingerMillis() {
+        return packetBatchMaxLingerMillis;
+    }
+
+    public void setPacketBatchMaxLingerMillis(int packetBatchMaxLingerMillis) {
+        this.packetBatchMaxLingerMillis = packetBatchMaxLingerMillis;
+    }
+
+    public WaitStrategy getPacketWaitStrategy() {
+        return packetWaitStrategy;
+    }
+
+    public void setPacketWaitStrategy(WaitStrategy packetWaitStrategy) {
+        this.packetWaitStrategy = packetWaitStrategy;
+    }
+
+    /**
+     * @return the number of shards the doublet buffer is split in. Each shard holds an even share of the message buffer
+     *         size and evicts once its share is full, even if other shards have room left
+     */
+    public int getDoubletBufferShards() {
+        return doubletBufferShards;
+    }
+
+    public void setDoubletBufferShards(int doubletBufferShards) {
+        this.doubletBufferShards = doubletBufferShards;
+    }
+
+    public int getDoubletWindowSeconds() {
+        return doubletWindowSeconds;
+    }
+
+    public void setDoubletWindowSeconds(int doubletWindowSeconds) {
+        this.doubletWindowSeconds = doubletWindowSeconds;
+    }
+
+    public int getIngestLanes() {
+        return ingestLanes;
+    }
+
+    public void setIngestLanes(int ingestLanes) {
+        this.ingestLanes = ingestLanes;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int getOverflowSampleRate() {
+        return overflowSampleRate;
+    }
+
+    public void setOverflowSampleRate(int overflowSampleRate) {
+        this.overflowSampleRate = overflowSampleRate;
+    }
+
+    public int getPacketHandlingThreads() {
+        return packetHandlingThreads;
+    }
+
+    public void setPacketHandlingThreads(int packetHandlingThreads) {
+        this.packetHandlingThreads = packetHandlingThreads;
+    }
+
+    /**
+     * @return kind of threads handling packets and web server requests
+     */
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    public void setExecutorMode(ExecutorMode executorMode) {
+        this.executorMode = executorMode;
+    }
+
+    /**
+     * @return true when recorded AIS files are replayed, in which case all time logic follows the message timestamps
+     */
+    @XmlTransient
+    public boolean isReplay() {
+        return replay;
+    }
+
+    public void setReplay(boolean replay) {
+        this.replay = replay;
+    }
+
+    public int getMaxLatenessSeconds() {
+        return maxLatenessSeconds;
+    }
+
+    public void setMaxLatenessSeconds(int maxLatenessSeconds) {
+        this.maxLatenessSeconds = maxLatenessSeconds;
+    }
+
+    public CoverageDataStore getCoverageDataStore() {
+        return coverageDataStore;
+    }
+
+    public void setCoverageDataStore(CoverageDataStore coverageDataStore) {
+        this.coverageDataStore = coverageDataStore;
+    }
 }
@@ -0,0 +1,35 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.configuration;
+
+/**
+ * How the in-memory coverage data keeps the hourly counters of the grid cells.
+ */
+public enum CoverageDataStore {
+    /**
+     * Every cell holds a map of time span objects on the heap.
+     */
+    MEMORY,
+
+    /**
+     * Every cell holds its time span objects on the heap, in a ring of hour slots covering the coverage window.
+     */
+    RING,
+
+    /**
+     * The counters of all cells are kept off-heap in columns, addressed by cell and hour of the coverage window.
+     */
+    COLUMNAR
+}
@@ -0,0 +1,31 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.configuration;
+
+/**
+ * Kind of threads running the packet handlers of the {@link dk.dma.ais.coverage.CoverageHandler} and the requests of
+ * the web server.
+ */
+public enum ExecutorMode {
+    /**
+     * Pools of platform threads, bounded by the configured number of threads.
+     */
+    PLATFORM,
+
+    /**
+     * A virtual thread per task. Virtual threads need Java 21, older runtimes fall back to {@link #PLATFORM}.
+     */
+    VIRTUAL
+}
@@ -19,24 +19,148 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+
+/**
+ * A cell of the grid of a source.
+ * <p>
+ * The global counters of a cell are volatile fields updated with a compare and set through field updaters, so that
+ * handling threads can update them concurrently without losing updates. Like its time spans, a cell whose counters are
+ * contended allocates {@link CounterStripes} and counts in the lane of each thread from then on. The average signal
+ * strength is derived from the number of VSI messages and the sum of their signal strengths when read, and may miss a
+ * message being counted at the same time.
+ * <p>
+ * Messages are counted in the hour of their timestamp through the {@code add} methods, which subclasses keeping their
+ * hours elsewhere than in fixed width spans override. When the spans are a ring, messages of an hour whose slot already
+ * holds a more recent hour are ignored, and counted neither in the spans nor in the global counters of the cell.
+ * <p>
+ * The {@code add} methods take no lock: the two most recent spans are remembered, and only a message of another hour
+ * takes the lock of the cell to find or create its span.
+ * <p>
+ * Counters over a time range are read from cumulative counters of the closed hours of the cell, all hours but the two most
+ * recent ones, to which range queries add the open hours. The cumulative counters are rebuilt by the first range query
+ * after a span is added or removed, or a late message is counted in a closed hour. Code updating the spans outside of
+ * this class must call {@link #fixedWidthSpansChanged()} once done.
+ */
 public class Cell {
-    private int NOofReceivedSignals;
-    private int NOofMissingSignals;
-    private int numberOfVsiMessages;
-    private int averageSignalStrength;
+    private static final AtomicIntegerFieldUpdater<Cell> RECEIVED_SIGNALS = AtomicIntegerFieldUpdater.newUpdater(Cell.class, "NOofReceivedSignals");
+    private static final AtomicIntegerFieldUpdater<Cell> MISSING_SIGNALS = AtomicIntegerFieldUpdater.newUpdater(Cell.class, "NOofMissingSignals");
+    private static final AtomicIntegerFieldUpdater<Cell> VSI_MESSAGES = AtomicIntegerFieldUpdater.newUpdater(Cell.class, "numberOfVsiMessages");
+    private static final AtomicLongFieldUpdater<Cell> SIGNAL_STRENGTH_SUM = AtomicLongFieldUpdater.newUpdater(Cell.class, "signalStrengthSum");
+    private static final AtomicReferenceFieldUpdater<Cell, CounterStripes> STRIPES = AtomicReferenceFieldUpdater.newUpdater(Cell.class,
+            CounterStripes.class, "stripes");
+    private static final AtomicLongFieldUpdater<Cell> FIXED_WIDTH_SPANS_VERSION = AtomicLongFieldUpdater.newUpdater(Cell.class,
+            "fixedWidthSpansVersion");
+
+    // Index of each counter in the stripes
+    private static final int RECEIVED = 0;
+    private static final int MISSING = 1;
+    private static final int VSI = 2;
+    private static final int SIGNAL_STRENGTH = 3;
+
+    private volatile int NOofReceivedSignals;
+    private volatile int NOofMissingSignals;
+    private volatile int numberOfVsiMessages;
+    private volatile long signalStrengthSum;
+    // Allocated the first time two threads update the counters of this cell at the same time
+    private volatile CounterStripes stripes;
     private double latitude;
     private double longitude;
-    private final String id;
+    private final long key;
     private List<TimeSpan> timeSpans;
-    private Map<Long, TimeSpan> fixedWidthSpans = new HashMap<Long, TimeSpan>();
-
+    private Map<Long, TimeSpan> fixedWidthSpans;
+    // Set while a change of this cell is not yet in the pyramid of its source
+    private volatile boolean pyramidDirty;
+    // The two most recent spans used, read by the add methods without locking
+    private volatile TimeSpan latestSpan;
+    private volatile TimeSpan previousSpan;
+    // Incremented after a span is added or removed or a closed hour changes, the prefix sums being stale if built for another version
+    private volatile long fixedWidthSpansVersion;
+    // Start of the first hour left out of the prefix sums
+    private volatile long firstOpenHour = Long.MIN_VALUE;
+    private TimeSpanPrefixSums prefixSums;
+
+    /**
+     * @return the fixed width spans of this cell, callers updating them must call {@link #fixedWidthSpansChanged()} after
+     */
     public Map<Long, TimeSpan> getFixedWidthSpans() {
         return fixedWidthSpans;
     }
 
     public void setFixedWidthSpans(Map<Long, TimeSpan> fixedWidthSpans) {
         this.fixedWidthSpans = fixedWidthSpans;
+        fixedWidthSpansChanged();
+    }
+
+    /**
+     * Makes the next range query of this cell sum the fixed width spans again. Must be called after the spans, or their
+     * counters, are updated outside of this class.
+     */
+    public synchronized void fixedWidthSpansChanged() {
+        latestSpan = null;
+        previousSpan = null;
+        FIXED_WIDTH_SPANS_VERSION.incrementAndGet(this);
+    }
+
+    /**
+     * @return the fixed width time span covering the given timestamp, created if this cell has none yet, or null if the
+     *         spans are a ring whose slot for the timestamp holds a more recent hour
+     */
+    private TimeSpan getOrCreateFixedWidthSpan(Date timestamp) {
+        long time = timestamp.getTime();
+        TimeSpan ts = latestSpan;
+        if (ts != null && ts.contains(time)) {
+            return ts;
+        }
+        ts = previousSpan;
+        if (ts != null && ts.contains(time)) {
+            return ts;
+        }
+        return findOrCreateFixedWidthSpan(timestamp);
+    }
+
+    private synchronized TimeSpan findOrCreateFixedWidthSpan(Date timestamp) {
+        Date id = Helper.getFloorDate(timestamp);
+        TimeSpan ts = fixedWidthSpans.get(id.getTime());
+        if (ts == null) {
+            ts = new TimeSpan(id);
+            ts.setLastMessage(Helper.getCeilDate(timestamp));
+            fixedWidthSpans.put(id.getTime(), ts);
+            if (fixedWidthSpans.get(id.getTime()) != ts) {
+                return null;
+            }
+            // The span may replace an older hour of a ring
+            FIXED_WIDTH_SPANS_VERSION.incrementAndGet(this);
+        }
+
+        TimeSpan latest = latestSpan;
+        if (latest == null || latest.startsBefore(id.getTime())) {
+            previousSpan = latest;
+            latestSpan = ts;
+        } else if (ts != latest) {
+            previousSpan = ts;
+        }
+        // A ring drops the hour whose slot is taken by a new one
+        TimeSpan previous = previousSpan;
+        if (previous != null && fixedWidthSpans.get(previous.getFirstMessage().getTime()) != previous) {
+            previousSpan = null;
+        }
+        return ts;
+    }
+
+    /**
+     * Makes the prefix sums stale if the given span, whose counters were just updated, is one of their closed hours.
+     */
+    private void fixedWidthSpanUpdated(TimeSpan ts) {
+        // Read after the counters: if the sums being built have not closed the hour yet, they read the counters after
+        if (ts.startsBefore(firstOpenHour)) {
+            FIXED_WIDTH_SPANS_VERSION.incrementAndGet(this);
+        }
     }
 
     public List<TimeSpan> getTimeSpans() {
@@ -47,46 +171,113 @@ public class Cell {
         this.timeSpans = timeSpans;
     }
 
-    public Cell(Source grid, double lat, double lon, String id) {
-        this.latitude = lat;
-        this.longitude = lon;
-        this.id = id;
+    public Cell(Source grid, double lat, double lon, long key) {
+        this(lat, lon, key, grid != null && grid.getFixedWidthSpanHours() > 0 ? new HourlyTimeSpanRing(grid.getFixedWidthSpanHours())
+                : new HashMap<Long, TimeSpan>());
+    }
+
+    public Cell(double lat, double lon, long key) {
+        this(null, lat, lon, key);
     }
 
-    public Cell(double lat, double lon, String id) {
+    /**
+     * @param fixedWidthSpans the fixed width spans of the cell, null for subclasses keeping their hours elsewhere, which
+     *            must then override the methods using them
+     */
+    protected Cell(double lat, double lon, long key, Map<Long, TimeSpan> fixedWidthSpans) {
         this.latitude = lat;
         this.longitude = lon;
-        this.id = id;
+        this.key = key;
+        this.fixedWidthSpans = fixedWidthSpans;
+    }
+
+    /**
+     * Counts a received signal in the hour of the given timestamp.
+     */
+    public void addReceivedSignal(Date timestamp) {
+        TimeSpan ts = getOrCreateFixedWidthSpan(timestamp);
+        if (ts != null) {
+            ts.incrementMessageCounterTerrestrial();
+            incrementNOofReceivedSignals();
+            fixedWidthSpanUpdated(ts);
+        }
     }
 
-    public synchronized void incrementNOofReceivedSignals() {
-        NOofReceivedSignals++;
+    /**
+     * Counts a missing signal in the hour of the given timestamp.
+     */
+    public void addMissingSignal(Date timestamp) {
+        TimeSpan ts = getOrCreateFixedWidthSpan(timestamp);
+        if (ts != null) {
+            ts.incrementMissingSignals();
+            incrementNOofMissingSignals();
+            fixedWidthSpanUpdated(ts);
+        }
     }
 
-    public synchronized void incrementNOofMissingSignals() {
-        NOofMissingSignals++;
+    /**
+     * Counts received and missing signals in the hour of the given timestamp.
+     */
+    public void addSignals(Date timestamp, int receivedSignals, int missingSignals) {
+        TimeSpan ts = getOrCreateFixedWidthSpan(timestamp);
+        if (ts != null) {
+            ts.addMessageCounterTerrestrial(receivedSignals);
+            ts.addMissingSignals(missingSignals);
+            addReceivedSignals(receivedSignals);
+            addNOofMissingSignals(missingSignals);
+            fixedWidthSpanUpdated(ts);
+        }
     }
 
-    public synchronized void incrementNumberOfVsiMessages(int signalStrength) {
-        int incrementedNumberOfVsiMessages = numberOfVsiMessages + 1;
-        averageSignalStrength = computeAverageSignalStrength(signalStrength, incrementedNumberOfVsiMessages);
-        numberOfVsiMessages = incrementedNumberOfVsiMessages;
+    /**
+     * Counts a VSI message and its signal strength in the hour of the given timestamp.
+     */
+    public void addVsiMessage(Date timestamp, int signalStrength) {
+        TimeSpan ts = getOrCreateFixedWidthSpan(timestamp);
+        if (ts != null) {
+            ts.incrementNumberOfVsiMessages(signalStrength);
+            incrementNumberOfVsiMessages(signalStrength);
+            fixedWidthSpanUpdated(ts);
+        }
     }
 
-    private int computeAverageSignalStrength(int signalStrength, int incrementedNumberOfVsiMessages) {
-        if (incrementedNumberOfVsiMessages > 0) {
-            return Math.floorDiv((numberOfVsiMessages * averageSignalStrength) + signalStrength, incrementedNumberOfVsiMessages);
+    /**
+     * Counts an unfiltered message, and the ship which sent it, in the hour of the given timestamp. Only the hourly
+     * counters are updated, the global counters of the cell are left as they are.
+     */
+    public void addUnfilteredMessage(Date timestamp, SourceType sourceType, int shipMmsi) {
+        TimeSpan ts = getOrCreateFixedWidthSpan(timestamp);
+        if (ts == null) {
+            return;
+        }
+        if (sourceType == SourceType.SATELLITE) {
+            ts.incrementMessageCounterSat();
+            ts.getDistinctShipsSat().add(shipMmsi);
         } else {
-            return 0;
+            ts.incrementMessageCounterTerrestrialUnfiltered();
+            ts.getDistinctShipsTerrestrial().add(shipMmsi);
         }
     }
 
-    public synchronized long getTotalNumberOfMessages() {
-        return NOofReceivedSignals + NOofMissingSignals;
+    public void incrementNOofReceivedSignals() {
+        add(RECEIVED_SIGNALS, RECEIVED, 1);
+    }
+
+    public void incrementNOofMissingSignals() {
+        add(MISSING_SIGNALS, MISSING, 1);
+    }
+
+    public void incrementNumberOfVsiMessages(int signalStrength) {
+        addSignalStrengthSum(signalStrength);
+        add(VSI_MESSAGES, VSI, 1);
     }
 
-    public synchronized double getCoverage() {
-        return (double) NOofReceivedSignals / (double) getTotalNumberOfMessages();
+    public long getTotalNumberOfMessages() {
+        return (long) getNOofReceivedSignals() + getNOofMissingSignals();
+    }
+
+    public double getCoverage() {
+        return (double) getNOofReceivedSignals() / (double) getTotalNumberOfMessages();
     }
 
     public double getLatitude() {
@@ -105,11 +296,26 @@ public class Cell {
         this.longitude = longitude;
     }
 
+    /**
+     * @return the key of this cell in the grid of its source, see {@link Helper#getCellKey(double, double, int)}
+     */
+    public long getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return a readable identifier of this cell, made of the latitude and longitude of its bottom-left point
+     */
     public String getId() {
-        return this.id;
+        return latitude + "_" + longitude;
     }
 
     public synchronized int getNOofReceivedSignals(Date starttime, Date endTime) {
+        TimeSpanPrefixSums sums = getPrefixSums();
+        if (sums != null) {
+            return sums.getNOofReceivedSignals(starttime, endTime);
+        }
+
         int result = 0;
         Collection<TimeSpan> spans = fixedWidthSpans.values();
 
@@ -125,6 +331,11 @@ public class Cell {
     }
 
     public synchronized int getNOofMissingSignals(Date starttime, Date endTime) {
+        TimeSpanPrefixSums sums = getPrefixSums();
+        if (sums != null) {
+            return sums.getNOofMissingSignals(starttime, endTime);
+        }
+
         int result = 0;
         Collection<TimeSpan> spans = fixedWidthSpans.values();
 
@@ -138,35 +349,52 @@ public class Cell {
         return result;
     }
 
-    public synchronized int getNOofReceivedSignals() {
-        return this.NOofReceivedSignals;
+    public int getNOofReceivedSignals() {
+        return get(RECEIVED_SIGNALS, RECEIVED);
     }
 
-    public synchronized int getNOofMissingSignals() {
-        return this.NOofMissingSignals;
+    public int getNOofMissingSignals() {
+        return get(MISSING_SIGNALS, MISSING);
     }
 
-    public synchronized void addReceivedSignals(int amount) {
-        this.NOofReceivedSignals += amount;
+    public void addReceivedSignals(int amount) {
+        add(RECEIVED_SIGNALS, RECEIVED, amount);
     }
 
-    public synchronized void addNOofMissingSignals(int amount) {
-        this.NOofMissingSignals += amount;
+    public void addNOofMissingSignals(int amount) {
+        add(MISSING_SIGNALS, MISSING, amount);
     }
 
     public synchronized void setNoofMissingSignals(int amount) {
-        this.NOofMissingSignals = amount;
+        MISSING_SIGNALS.set(this, amount);
+        CounterStripes lanes = stripes;
+        if (lanes != null) {
+            lanes.reset(MISSING);
+        }
     }
 
-    public synchronized int getNumberOfVsiMessages() {
-        return numberOfVsiMessages;
+    public int getNumberOfVsiMessages() {
+        return get(VSI_MESSAGES, VSI);
     }
 
-    public synchronized int getAverageSignalStrength() {
-        return averageSignalStrength;
+    public int getAverageSignalStrength() {
+        // A message being counted concurrently may already be in the sum but not in the number of messages yet
+        long vsiMessages = getNumberOfVsiMessages();
+        CounterStripes lanes = stripes;
+        long summedSignalStrength = lanes == null ? signalStrengthSum : signalStrengthSum + lanes.sum(SIGNAL_STRENGTH);
+        if (vsiMessages > 0) {
+            return (int) Math.floorDiv(summedSignalStrength, vsiMessages);
+        } else {
+            return 0;
+        }
     }
 
     public synchronized int getNumberOfVsiMessages(Date startTime, Date endTime) {
+        TimeSpanPrefixSums sums = getPrefixSums();
+        if (sums != null) {
+            return sums.getNumberOfVsiMessages(startTime, endTime);
+        }
+
         int result = 0;
         Collection<TimeSpan> spans = fixedWidthSpans.values();
 
@@ -182,6 +410,11 @@ public class Cell {
     }
 
     public synchronized int getAverageSignalStrength(Date startTime, Date endTime) {
+        TimeSpanPrefixSums sums = getPrefixSums();
+        if (sums != null) {
+            return sums.getAverageSignalStrength(startTime, endTime);
+        }
+
         int summedAverageSignalStrength = 0;
         int numberOfVsiMessages = getNumberOfVsiMessages(startTime, endTime);
         Collection<TimeSpan> spans = fixedWidthSpans.values();
@@ -202,9 +435,64 @@ public class Cell {
         }
     }
 
-    public synchronized void addVsiMessages(int numberOfVsiMessages, int averageSignalStrength) {
-        int incrementedNumberOfVsiMessages = this.numberOfVsiMessages + numberOfVsiMessages;
-        this.averageSignalStrength = computeAverageSignalStrength(numberOfVsiMessages * averageSignalStrength, incrementedNumberOfVsiMessages);
-        this.numberOfVsiMessages = incrementedNumberOfVsiMessages;
+    /**
+     * @return the prefix sums of the current fixed width spans, null if they cannot answer range queries
+     */
+    private TimeSpanPrefixSums getPrefixSums() {
+        // Read before the spans: a change made while summing makes the sums stale instead of being lost
+        long version = fixedWidthSpansVersion;
+        if (prefixSums == null || prefixSums.getVersion() != version) {
+            TimeSpanPrefixSums sums = TimeSpanPrefixSums.sort(fixedWidthSpans.values(), version);
+            // Published before the counters are read, see fixedWidthSpanUpdated
+            firstOpenHour = sums.getFirstOpenHour();
+            sums.sumClosedHours();
+            prefixSums = sums;
+        }
+        return prefixSums.isUsable() ? prefixSums : null;
+    }
+
+    boolean isPyramidDirty() {
+        return pyramidDirty;
+    }
+
+    void setPyramidDirty(boolean pyramidDirty) {
+        this.pyramidDirty = pyramidDirty;
+    }
+
+    public void addVsiMessages(int numberOfVsiMessages, int averageSignalStrength) {
+        addSignalStrengthSum((long) numberOfVsiMessages * averageSignalStrength);
+        add(VSI_MESSAGES, VSI, numberOfVsiMessages);
+    }
+
+    private int get(AtomicIntegerFieldUpdater<Cell> counter, int stripe) {
+        CounterStripes lanes = stripes;
+        return lanes == null ? counter.get(this) : counter.get(this) + (int) lanes.sum(stripe);
+    }
+
+    private void add(AtomicIntegerFieldUpdater<Cell> counter, int stripe, int amount) {
+        CounterStripes lanes = stripes;
+        if (lanes == null) {
+            if (CounterStripes.tryAdd(counter, this, amount)) {
+                return;
+            }
+            lanes = stripes();
+        }
+        lanes.add(stripe, amount);
+    }
+
+    private void addSignalStrengthSum(long amount) {
+        CounterStripes lanes = stripes;
+        if (lanes == null) {
+            if (CounterStripes.tryAdd(SIGNAL_STRENGTH_SUM, this, amount)) {
+                return;
+            }
+            lanes = stripes();
+        }
+        lanes.add(SIGNAL_STRENGTH, amount);
+    }
+
+    private CounterStripes stripes() {
+        STRIPES.compareAndSet(this, null, new CounterStripes());
+        return stripes;
     }
 }
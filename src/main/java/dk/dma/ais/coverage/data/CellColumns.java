@@ -0,0 +1,176 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap columns holding the hourly counters of grid cells.
+ * <p>
+ * Every cell is given an index and a fixed number of hour slots, used as a ring: the hour starting at a given time
+ * always lands in the same slot, which is reset when a more recent hour takes it over. Each counter is a column of ints
+ * allocated outside of the heap in chunks of cells, so that the counters of millions of cells neither weigh on nor get
+ * scanned by the garbage collector.
+ * <p>
+ * Allocating and releasing cells is thread-safe. Reading and updating the counters of a cell is not, callers must
+ * synchronize on the cell.
+ */
+class CellColumns {
+    static final int RECEIVED_SIGNALS = 0;
+    static final int MISSING_SIGNALS = 1;
+    static final int VSI_MESSAGES = 2;
+    static final int SIGNAL_STRENGTH_SUM = 3;
+    static final int SAT_MESSAGES = 4;
+    static final int TERRESTRIAL_UNFILTERED_MESSAGES = 5;
+
+    static final long HOUR_IN_MILLIS = 1000L * 60 * 60;
+
+    private static final int NUMBER_OF_COUNTERS = 6;
+    private static final int CELLS_PER_CHUNK = 1024;
+    private static final long MINUTE_IN_MILLIS = 1000L * 60;
+
+    /**
+     * Start of the hour held by a slot, in minutes since the epoch, 0 when the slot is empty.
+     */
+    private static final int HOUR_COLUMN = NUMBER_OF_COUNTERS;
+    private static final int EMPTY_SLOT = 0;
+
+    private final int hoursPerCell;
+    private volatile IntBuffer[][] chunks = new IntBuffer[0][];
+    private int[] releasedCells = new int[16];
+    private int numberOfReleasedCells;
+    private int numberOfCells;
+
+    /**
+     * @param hoursPerCell number of hours kept for every cell, older hours are overwritten by newer ones
+     */
+    CellColumns(int hoursPerCell) {
+        if (hoursPerCell <= 0) {
+            throw new IllegalArgumentException("hoursPerCell must be positive: " + hoursPerCell);
+        }
+        this.hoursPerCell = hoursPerCell;
+    }
+
+    /**
+     * @return the index of a new cell, with all its slots empty
+     */
+    synchronized int allocate() {
+        if (numberOfReleasedCells > 0) {
+            return releasedCells[--numberOfReleasedCells];
+        }
+
+        int cell = numberOfCells++;
+        if (cell / CELLS_PER_CHUNK >= chunks.length) {
+            IntBuffer[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = allocateChunk();
+            chunks = grown;
+        }
+        return cell;
+    }
+
+    /**
+     * Empties all slots of a cell and makes its index available to new cells.
+     */
+    synchronized void release(int cell) {
+        for (int slot = 0; slot < hoursPerCell; slot++) {
+            clear(cell, slot);
+        }
+        if (numberOfReleasedCells == releasedCells.length) {
+            releasedCells = Arrays.copyOf(releasedCells, releasedCells.length * 2);
+        }
+        releasedCells[numberOfReleasedCells++] = cell;
+    }
+
+    /**
+     * Adds an amount to a counter of the hour starting at the given time.
+     *
+     * @return false if the slot of the hour is held by a more recent hour, in which case nothing is added
+     */
+    boolean add(int cell, long hourStart, int counter, int amount) {
+        IntBuffer[] chunk = chunkOf(cell);
+        int position = positionOf(cell, slotOf(hourStart));
+        int hour = (int) (hourStart / MINUTE_IN_MILLIS);
+        int slotHour = chunk[HOUR_COLUMN].get(position);
+
+        if (slotHour != hour) {
+            if (slotHour != EMPTY_SLOT && slotHour > hour) {
+                return false;
+            }
+            for (int i = 0; i < NUMBER_OF_COUNTERS; i++) {
+                chunk[i].put(position, 0);
+            }
+            chunk[HOUR_COLUMN].put(position, hour);
+        }
+        chunk[counter].put(position, chunk[counter].get(position) + amount);
+        return true;
+    }
+
+    /**
+     * @return the start of the hour held by a slot of a cell, or -1 if the slot is empty
+     */
+    long getHourStart(int cell, int slot) {
+        int hour = chunkOf(cell)[HOUR_COLUMN].get(positionOf(cell, slot));
+        return hour == EMPTY_SLOT ? -1 : hour * MINUTE_IN_MILLIS;
+    }
+
+    int get(int cell, int slot, int counter) {
+        return chunkOf(cell)[counter].get(positionOf(cell, slot));
+    }
+
+    void clear(int cell, int slot) {
+        IntBuffer[] chunk = chunkOf(cell);
+        int position = positionOf(cell, slot);
+        for (int i = 0; i <= HOUR_COLUMN; i++) {
+            chunk[i].put(position, 0);
+        }
+    }
+
+    int getHoursPerCell() {
+        return hoursPerCell;
+    }
+
+    /**
+     * @return the number of bytes allocated outside of the heap for the columns
+     */
+    long getAllocatedBytes() {
+        return (long) chunks.length * CELLS_PER_CHUNK * hoursPerCell * (NUMBER_OF_COUNTERS + 1) * Integer.BYTES;
+    }
+
+    /**
+     * @return the slot in which every cell keeps the hour starting at the given time
+     */
+    int slotOf(long hourStart) {
+        return (int) Math.floorMod(Math.floorDiv(hourStart, HOUR_IN_MILLIS), (long) hoursPerCell);
+    }
+
+    private IntBuffer[] chunkOf(int cell) {
+        return chunks[cell / CELLS_PER_CHUNK];
+    }
+
+    private int positionOf(int cell, int slot) {
+        return (cell % CELLS_PER_CHUNK) * hoursPerCell + slot;
+    }
+
+    private IntBuffer[] allocateChunk() {
+        IntBuffer[] chunk = new IntBuffer[HOUR_COLUMN + 1];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = ByteBuffer.allocateDirect(CELLS_PER_CHUNK * hoursPerCell * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return chunk;
+    }
+}
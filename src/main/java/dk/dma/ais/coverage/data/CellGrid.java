@@ -0,0 +1,414 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe map of the cells of a grid, keyed by their packed row and column (see
+ * {@link dk.dma.ais.coverage.Helper#getCellKey(double, double, int)}).
+ * <p>
+ * Keys are kept in primitive arrays, using open addressing with linear probing, so looking a cell up does not allocate.
+ * The grid is split in segments, each guarded by its own lock. Lookups are optimistic and only take the lock if a
+ * concurrent update of their segment was detected.
+ * <p>
+ * Cells are also grouped in tiles of 16 by 16 cells, so that the cells of an area can be found without going through the
+ * whole grid.
+ */
+public class CellGrid {
+    private static final int NUMBER_OF_SEGMENTS = 64;
+    private static final int SEGMENT_SHIFT = 32 - Integer.numberOfTrailingZeros(NUMBER_OF_SEGMENTS);
+    private static final int TILE_SHIFT = 4;
+
+    private final Segment[] segments = new Segment[NUMBER_OF_SEGMENTS];
+    private final ConcurrentHashMap<Long, Tile> tiles = new ConcurrentHashMap<Long, Tile>();
+
+    public CellGrid() {
+        for (int i = 0; i < NUMBER_OF_SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the cell with the given key, or null
+     */
+    public Cell get(long key) {
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * Adds a cell unless the grid already has a cell with the same key.
+     *
+     * @return the cell already in the grid, or null if the given cell was added
+     */
+    public Cell putIfAbsent(Cell cell) {
+        int hash = hash(cell.getKey());
+        return segmentFor(hash).put(cell.getKey(), hash, cell, true);
+    }
+
+    /**
+     * Adds a cell, replacing the cell with the same key if any.
+     *
+     * @return the replaced cell, or null
+     */
+    public Cell put(Cell cell) {
+        int hash = hash(cell.getKey());
+        return segmentFor(hash).put(cell.getKey(), hash, cell, false);
+    }
+
+    /**
+     * @return the removed cell, or null if the grid had no cell with the given key
+     */
+    public Cell remove(long key) {
+        int hash = hash(key);
+        return segmentFor(hash).remove(key, hash);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return a snapshot of the cells of the grid
+     */
+    public List<Cell> values() {
+        List<Cell> cells = new ArrayList<Cell>(size());
+        for (Segment segment : segments) {
+            segment.addCellsTo(cells);
+        }
+        return cells;
+    }
+
+    /**
+     * @return a snapshot of the cells of the grid within the given rows and columns, bounds included
+     */
+    public List<Cell> values(int firstRow, int lastRow, int firstColumn, int lastColumn) {
+        List<Cell> cells = new ArrayList<Cell>();
+        if (firstRow > lastRow || firstColumn > lastColumn) {
+            return cells;
+        }
+        int firstTileRow = firstRow >> TILE_SHIFT;
+        int lastTileRow = lastRow >> TILE_SHIFT;
+        int firstTileColumn = firstColumn >> TILE_SHIFT;
+        int lastTileColumn = lastColumn >> TILE_SHIFT;
+
+        long tilesInRange = ((long) lastTileRow - firstTileRow + 1) * ((long) lastTileColumn - firstTileColumn + 1);
+        if (tilesInRange > tiles.size()) {
+            // Going through the existing tiles is cheaper than looking up every tile of the range
+            for (Entry<Long, Tile> tile : tiles.entrySet()) {
+                int tileRow = Helper.getCellRow(tile.getKey());
+                int tileColumn = Helper.getCellColumn(tile.getKey());
+                if (tileRow >= firstTileRow && tileRow <= lastTileRow && tileColumn >= firstTileColumn && tileColumn <= lastTileColumn) {
+                    tile.getValue().addCellsTo(cells, firstRow, lastRow, firstColumn, lastColumn);
+                }
+            }
+        } else {
+            for (int tileRow = firstTileRow; tileRow <= lastTileRow; tileRow++) {
+                for (int tileColumn = firstTileColumn; tileColumn <= lastTileColumn; tileColumn++) {
+                    Tile tile = tiles.get(Helper.getCellKey(tileRow, tileColumn));
+                    if (tile != null) {
+                        tile.addCellsTo(cells, firstRow, lastRow, firstColumn, lastColumn);
+                    }
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Finds the cells of a grid of the given multiplication factor that may have points within a box, given in the same way
+     * as for {@link Helper#isInsideBox(Cell, double, double, double, double)}.
+     *
+     * @return a snapshot of the cells of the grid around the box, including all the cells of the grid with points within
+     *         the box but possibly some others
+     */
+    public List<Cell> valuesAround(double latStart, double lonStart, double latEnd, double lonEnd, int multiplicationFactor) {
+        double latMultiple = Helper.conf.getLatSize() * multiplicationFactor;
+        double lonMultiple = Helper.conf.getLonSize() * multiplicationFactor;
+        int firstRow = saturatedFloor(latEnd / latMultiple) - 1;
+        int lastRow = saturatedFloor(latStart / latMultiple) + 1;
+        int firstColumn = saturatedFloor(lonStart / lonMultiple) - 1;
+        int lastColumn = saturatedFloor(lonEnd / lonMultiple) + 1;
+
+        if (lonStart <= lonEnd) {
+            return values(firstRow, lastRow, firstColumn, lastColumn);
+        }
+        // The box wraps around the antimeridian
+        List<Cell> cells = values(firstRow, lastRow, firstColumn, Integer.MAX_VALUE);
+        cells.addAll(values(firstRow, lastRow, Integer.MIN_VALUE, Math.min(lastColumn, firstColumn - 1)));
+        return cells;
+    }
+
+    private static int saturatedFloor(double value) {
+        double floor = Math.floor(value);
+        return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE - 1, floor));
+    }
+
+    private void addToTile(Cell cell) {
+        Long tileKey = tileKeyOf(cell.getKey());
+        Tile tile = tiles.get(tileKey);
+        if (tile == null) {
+            Tile newTile = new Tile();
+            tile = tiles.putIfAbsent(tileKey, newTile);
+            if (tile == null) {
+                tile = newTile;
+            }
+        }
+        tile.add(cell);
+    }
+
+    private void replaceInTile(Cell existing, Cell cell) {
+        tiles.get(tileKeyOf(cell.getKey())).replace(existing, cell);
+    }
+
+    private void removeFromTile(Cell cell) {
+        tiles.get(tileKeyOf(cell.getKey())).remove(cell);
+    }
+
+    private static long tileKeyOf(long key) {
+        return Helper.getCellKey(Helper.getCellRow(key) >> TILE_SHIFT, Helper.getCellColumn(key) >> TILE_SHIFT);
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> SEGMENT_SHIFT];
+    }
+
+    private static int hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Keys and cells of a segment, replaced as a whole when the segment grows so that optimistic lookups never see
+     * arrays of different lengths.
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final Cell[] cells;
+        private final int mask;
+
+        private Table(int capacity) {
+            keys = new long[capacity];
+            cells = new Cell[capacity];
+            mask = capacity - 1;
+        }
+
+        private int slotOf(long key, int hash) {
+            int slot = hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                if (cells[slot] == null) {
+                    return -1 - slot;
+                }
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Cells of a tile, only updated while holding the write lock of the segment of the updated cell. Empty tiles are kept,
+     * as cells usually come back to the same area.
+     */
+    private static final class Tile {
+        private Cell[] cells = new Cell[4];
+        private int size;
+
+        private synchronized void add(Cell cell) {
+            if (size == cells.length) {
+                cells = Arrays.copyOf(cells, size * 2);
+            }
+            cells[size++] = cell;
+        }
+
+        private synchronized void replace(Cell existing, Cell cell) {
+            for (int i = 0; i < size; i++) {
+                if (cells[i] == existing) {
+                    cells[i] = cell;
+                    return;
+                }
+            }
+        }
+
+        private synchronized void remove(Cell cell) {
+            for (int i = 0; i < size; i++) {
+                if (cells[i] == cell) {
+                    cells[i] = cells[--size];
+                    cells[size] = null;
+                    return;
+                }
+            }
+        }
+
+        private synchronized void addCellsTo(List<Cell> result, int firstRow, int lastRow, int firstColumn, int lastColumn) {
+            for (int i = 0; i < size; i++) {
+                int row = Helper.getCellRow(cells[i].getKey());
+                int column = Helper.getCellColumn(cells[i].getKey());
+                if (row >= firstRow && row <= lastRow && column >= firstColumn && column <= lastColumn) {
+                    result.add(cells[i]);
+                }
+            }
+        }
+    }
+
+    private final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private Table table = new Table(16);
+        private int size;
+
+        private Cell get(long key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Table current = table;
+                int slot = current.slotOf(key, hash);
+                Cell cell = slot >= 0 ? current.cells[slot] : null;
+                if (lock.validate(stamp)) {
+                    return cell;
+                }
+            }
+
+            stamp = lock.readLock();
+            try {
+                int slot = table.slotOf(key, hash);
+                return slot >= 0 ? table.cells[slot] : null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private Cell put(long key, int hash, Cell cell, boolean onlyIfAbsent) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.slotOf(key, hash);
+                if (slot >= 0) {
+                    Cell existing = table.cells[slot];
+                    if (!onlyIfAbsent && existing != cell) {
+                        table.cells[slot] = cell;
+                        replaceInTile(existing, cell);
+                    }
+                    return existing;
+                }
+
+                if ((size + 1) * 2 > table.cells.length) {
+                    grow();
+                    slot = table.slotOf(key, hash);
+                }
+                slot = -1 - slot;
+                table.keys[slot] = key;
+                table.cells[slot] = cell;
+                size++;
+                addToTile(cell);
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private Cell remove(long key, int hash) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.slotOf(key, hash);
+                if (slot < 0) {
+                    return null;
+                }
+                Cell removed = table.cells[slot];
+                removeSlot(slot);
+                removeFromTile(removed);
+                size--;
+                return removed;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void addCellsTo(List<Cell> cells) {
+            long stamp = lock.readLock();
+            try {
+                for (Cell cell : table.cells) {
+                    if (cell != null) {
+                        cells.add(cell);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Empties a slot, shifting back the following entries of its probe sequence so that lookups never stop at a
+         * hole before reaching their key. Must be called while holding the write lock.
+         */
+        private void removeSlot(int slot) {
+            long[] keys = table.keys;
+            Cell[] cells = table.cells;
+            int mask = table.mask;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (cells[next] != null) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    cells[hole] = cells[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            cells[hole] = null;
+        }
+
+        /**
+         * Must be called while holding the write lock.
+         */
+        private void grow() {
+            Table grown = new Table(table.cells.length * 2);
+            for (int i = 0; i < table.cells.length; i++) {
+                Cell cell = table.cells[i];
+                if (cell != null) {
+                    int slot = -1 - grown.slotOf(table.keys[i], hash(table.keys[i]));
+                    grown.keys[slot] = table.keys[i];
+                    grown.cells[slot] = cell;
+                }
+            }
+            table = grown;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Coarser grids of a source, aggregating the hourly counters of its cells for the multiplication factors requested by
+ * coverage queries.
+ * <p>
+ * A level is built the first time its multiplication factor is queried, from the level with the largest factor dividing
+ * its own, or from the cells of the source. It is then kept up to date lazily: handlers mark the cells they update as
+ * dirty, and the coarser cells containing dirty cells are recomputed from their finer cells on the next query. Cells
+ * being removed when the window moves, levels are dropped at that point and rebuilt on the next query.
+ */
+public class CellPyramid {
+    private static final int MAX_LEVELS = 16;
+
+    private static final int INSIDE = 0;
+    private static final int OUTSIDE = 1;
+    private static final int PARTIAL = 2;
+
+    private final Source source;
+    private final Queue<Cell> dirtyCells = new ConcurrentLinkedQueue<Cell>();
+    private final TreeMap<Integer, Level> levels = new TreeMap<Integer, Level>();
+    private final List<Level> baseDerivedLevels = new ArrayList<Level>();
+    private volatile boolean active;
+
+    public CellPyramid(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Records that a cell of the source changed. Must be called after the change, so that the next query sees it.
+     */
+    public void markDirty(Cell cell) {
+        if (active && !cell.isPyramidDirty()) {
+            cell.setPyramidDirty(true);
+            dirtyCells.add(cell);
+        }
+    }
+
+    /**
+     * Drops all levels, which will be rebuilt from the cells of the source on the next query.
+     */
+    public synchronized void clear() {
+        active = false;
+        levels.clear();
+        baseDerivedLevels.clear();
+        Cell cell;
+        while ((cell = dirtyCells.poll()) != null) {
+            cell.setPyramidDirty(false);
+        }
+    }
+
+    public synchronized int getNumberOfLevels() {
+        return levels.size();
+    }
+
+    /**
+     * Adds the counters of the cells of the source within the given box and time range to the cells of the target, whose
+     * multiplication factor must be the given one. Coarser cells entirely within the box are read from the level of that
+     * factor; only those crossing the edges of the box are split into finer cells.
+     *
+     * @return false if no level can be kept for the given factor, in which case the target is left unchanged
+     */
+    public synchronized boolean aggregateCells(int multiplicationFactor, double latStart, double lonStart, double latEnd,
+            double lonEnd, Date startTime, Date endTime, Source target) {
+        if (multiplicationFactor < 2 || (!levels.containsKey(multiplicationFactor) && levels.size() >= MAX_LEVELS)) {
+            return false;
+        }
+        Level level = getLevel(multiplicationFactor);
+        Box box = new Box(latStart, lonStart, latEnd, lonEnd);
+        for (Cell cell : level.grid.valuesAround(latStart, lonStart, latEnd, lonEnd, multiplicationFactor)) {
+            addInsideBox(level, cell, box, startTime, endTime, target, cell);
+        }
+        return true;
+    }
+
+    private Level getLevel(int factor) {
+        refresh();
+        Level level = levels.get(factor);
+        if (level == null) {
+            Level parent = null;
+            for (Level candidate : levels.values()) {
+                if (factor % candidate.factor == 0) {
+                    parent = candidate;
+                }
+            }
+            level = new Level(factor, parent);
+            levels.put(factor, level);
+            if (parent == null) {
+                baseDerivedLevels.add(level);
+            } else {
+                parent.derivedLevels.add(level);
+            }
+            // Cells updated from now on are marked dirty, so those updated while the level is built are recomputed later
+            active = true;
+            build(level);
+        }
+        return level;
+    }
+
+    private void build(Level level) {
+        for (Cell child : level.parentGrid().values()) {
+            long key = level.keyOf(child.getKey());
+            Cell cell = level.grid.get(key);
+            if (cell == null) {
+                cell = level.createCell(key);
+                level.grid.put(cell);
+            }
+            addTimeSpans(child, cell);
+        }
+    }
+
+    /**
+     * Recomputes the cells of every level containing a dirty cell, finer levels first.
+     */
+    private void refresh() {
+        Cell dirtyCell;
+        while ((dirtyCell = dirtyCells.poll()) != null) {
+            dirtyCell.setPyramidDirty(false);
+            for (Level level : baseDerivedLevels) {
+                level.dirtyKeys.add(level.keyOf(dirtyCell.getKey()));
+            }
+        }
+
+        for (Level level : levels.values()) {
+            for (Long key : level.dirtyKeys) {
+                Cell cell = aggregate(level, key);
+                if (cell == null) {
+                    level.grid.remove(key);
+                } else {
+                    level.grid.put(cell);
+                }
+                for (Level derived : level.derivedLevels) {
+                    derived.dirtyKeys.add(derived.keyOf(key));
+                }
+            }
+            level.dirtyKeys.clear();
+        }
+    }
+
+    /**
+     * @return a new cell of the level aggregating its finer cells, or null if it has none
+     */
+    private Cell aggregate(Level level, long key) {
+        int ratio = level.ratio();
+        int firstRow = Helper.getCellRow(key) * ratio;
+        int firstColumn = Helper.getCellColumn(key) * ratio;
+        CellGrid parentGrid = level.parentGrid();
+        Cell cell = null;
+        for (int row = firstRow; row < firstRow + ratio; row++) {
+            for (int column = firstColumn; column < firstColumn + ratio; column++) {
+                Cell child = parentGrid.get(Helper.getCellKey(row, column));
+                if (child != null) {
+                    if (cell == null) {
+                        cell = level.createCell(key);
+                    }
+                    addTimeSpans(child, cell);
+                }
+            }
+        }
+        return cell;
+    }
+
+    private static void addTimeSpans(Cell child, Cell cell) {
+        synchronized (child) {
+            Map<Long, TimeSpan> spans = cell.getFixedWidthSpans();
+            for (Entry<Long, TimeSpan> childSpan : child.getFixedWidthSpans().entrySet()) {
+                TimeSpan span = spans.get(childSpan.getKey());
+                if (span == null) {
+                    span = new TimeSpan(childSpan.getValue().getFirstMessage());
+                    span.setLastMessage(childSpan.getValue().getLastMessage());
+                    spans.put(childSpan.getKey(), span);
+                } else if (childSpan.getValue().getLastMessage().after(span.getLastMessage())) {
+                    span.setLastMessage(childSpan.getValue().getLastMessage());
+                }
+                span.addCoverageCounters(childSpan.getValue());
+            }
+            cell.fixedWidthSpansChanged();
+        }
+    }
+
+    /**
+     * Adds the counters of a cell to the target cell containing the given top cell, splitting it into its finer cells if it
+     * crosses the edges of the box. Cells of the source are only added if their bottom-left point is within the box, as
+     * checked by {@link Helper#isInsideBox(Cell, double, double, double, double)}.
+     *
+     * @param level the level of the cell, null for a cell of the source
+     */
+    private void addInsideBox(Level level, Cell cell, Box box, Date startTime, Date endTime, Source target, Cell topCell) {
+        if (level == null) {
+            if (Helper.isInsideBox(cell, box.latStart, box.lonStart, box.latEnd, box.lonEnd)) {
+                addCounters(cell, target, topCell, startTime, endTime);
+            }
+            return;
+        }
+
+        long firstRow = (long) Helper.getCellRow(cell.getKey()) * level.factor;
+        long firstColumn = (long) Helper.getCellColumn(cell.getKey()) * level.factor;
+        int position = box.classify(firstRow, firstRow + level.factor - 1, firstColumn, firstColumn + level.factor - 1);
+        if (position == INSIDE) {
+            addCounters(cell, target, topCell, startTime, endTime);
+        } else if (position == PARTIAL) {
+            int ratio = level.ratio();
+            int firstChildRow = Helper.getCellRow(cell.getKey()) * ratio;
+            int firstChildColumn = Helper.getCellColumn(cell.getKey()) * ratio;
+            CellGrid parentGrid = level.parentGrid();
+            for (int row = firstChildRow; row < firstChildRow + ratio; row++) {
+                for (int column = firstChildColumn; column < firstChildColumn + ratio; column++) {
+                    Cell child = parentGrid.get(Helper.getCellKey(row, column));
+                    if (child != null) {
+                        addInsideBox(level.parent, child, box, startTime, endTime, target, topCell);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addCounters(Cell cell, Source target, Cell topCell, Date startTime, Date endTime) {
+        Cell targetCell = target.getCell(topCell.getLatitude(), topCell.getLongitude());
+        if (targetCell == null) {
+            targetCell = target.createCell(topCell.getLatitude(), topCell.getLongitude());
+        }
+        targetCell.addNOofMissingSignals(cell.getNOofMissingSignals(startTime, endTime));
+        targetCell.addReceivedSignals(cell.getNOofReceivedSignals(startTime, endTime));
+        targetCell.addVsiMessages(cell.getNumberOfVsiMessages(startTime, endTime), cell.getAverageSignalStrength(startTime, endTime));
+    }
+
+    private final class Level {
+        private final int factor;
+        private final Level parent;
+        private final CellGrid grid = new CellGrid();
+        private final List<Level> derivedLevels = new ArrayList<Level>();
+        private final Set<Long> dirtyKeys = new HashSet<Long>();
+
+        private Level(int factor, Level parent) {
+            this.factor = factor;
+            this.parent = parent;
+        }
+
+        private CellGrid parentGrid() {
+            return parent == null ? source.getGrid() : parent.grid;
+        }
+
+        /**
+         * @return the number of rows, and of columns, of the parent level in a cell of this level
+         */
+        private int ratio() {
+            return parent == null ? factor : factor / parent.factor;
+        }
+
+        /**
+         * @return the key of the cell of this level containing the cell of the parent level with the given key
+         */
+        private long keyOf(long parentKey) {
+            int ratio = ratio();
+            return Helper.getCellKey(Math.floorDiv(Helper.getCellRow(parentKey), ratio),
+                    Math.floorDiv(Helper.getCellColumn(parentKey), ratio));
+        }
+
+        private Cell createCell(long key) {
+            // Same position as the cells created by a source of this multiplication factor
+            double latitude = Helper.conf.getLatSize() * factor * Helper.getCellRow(key);
+            double longitude = Helper.conf.getLonSize() * factor * Helper.getCellColumn(key);
+            return new Cell(latitude, longitude, key);
+        }
+    }
+
+    /**
+     * A query box, whose top-left and bottom-right points are given in the same way as for
+     * {@link Helper#isInsideBox(Cell, double, double, double, double)}.
+     */
+    private static final class Box {
+        private final double latStart;
+        private final double lonStart;
+        private final double latEnd;
+        private final double lonEnd;
+
+        private Box(double latStart, double lonStart, double latEnd, double lonEnd) {
+            this.latStart = latStart;
+            this.lonStart = lonStart;
+            this.latEnd = latEnd;
+            this.lonEnd = lonEnd;
+        }
+
+        /**
+         * @return whether the bottom-left points of the cells of the source within the given rows and columns are all,
+         *         none or only some of them within the box
+         */
+        private int classify(long firstRow, long lastRow, long firstColumn, long lastColumn) {
+            // Same position as the cells created by a source
+            double lowestLat = Helper.conf.getLatSize() * firstRow;
+            double highestLat = Helper.conf.getLatSize() * lastRow;
+            double lowestLon = Helper.conf.getLonSize() * firstColumn;
+            double highestLon = Helper.conf.getLonSize() * lastColumn;
+
+            boolean allLat = lowestLat >= latEnd && highestLat <= latStart;
+            boolean noLat = highestLat < latEnd || lowestLat > latStart;
+            boolean allLon;
+            boolean noLon;
+            if (lonStart > lonEnd) {
+                allLon = lowestLon >= lonStart || highestLon <= lonEnd;
+                noLon = lowestLon > lonEnd && highestLon < lonStart;
+            } else {
+                allLon = lowestLon >= lonStart && highestLon <= lonEnd;
+                noLon = highestLon < lonStart || lowestLon > lonEnd;
+            }
+
+            if (noLat || noLon) {
+                return OUTSIDE;
+            }
+            return allLat && allLon ? INSIDE : PARTIAL;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cell keeping its hourly counters in {@link CellColumns} instead of {@link TimeSpan} objects.
+ * <p>
+ * The cell has no fixed width spans of its own: {@link #getFixedWidthSpans()} builds a snapshot of the counters, for the
+ * readers still working on time spans, like exports and persistence. Distinct ships, only collected for the super source,
+ * are kept on the heap in an array with one counter per hour slot and source type, allocated with the first unfiltered
+ * message of the cell and emptied together with the slots.
+ */
+public class ColumnarCell extends Cell {
+    private static final int SAT = 0;
+    private static final int TERRESTRIAL = 1;
+
+    private final CellColumns columns;
+    private final int index;
+    private boolean released;
+    private DistinctShipCounter[] distinctShips;
+
+    ColumnarCell(CellColumns columns, double lat, double lon, long key) {
+        super(lat, lon, key, null);
+        this.columns = columns;
+        this.index = columns.allocate();
+    }
+
+    @Override
+    public synchronized void addReceivedSignal(Date timestamp) {
+        if (!released) {
+            if (add(hourStart(timestamp), CellColumns.RECEIVED_SIGNALS, 1)) {
+                incrementNOofReceivedSignals();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void addMissingSignal(Date timestamp) {
+        if (!released) {
+            if (add(hourStart(timestamp), CellColumns.MISSING_SIGNALS, 1)) {
+                incrementNOofMissingSignals();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void addSignals(Date timestamp, int receivedSignals, int missingSignals) {
+        if (!released) {
+            long hourStart = hourStart(timestamp);
+            if (add(hourStart, CellColumns.RECEIVED_SIGNALS, receivedSignals)) {
+                addReceivedSignals(receivedSignals);
+            }
+            if (add(hourStart, CellColumns.MISSING_SIGNALS, missingSignals)) {
+                addNOofMissingSignals(missingSignals);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void addVsiMessage(Date timestamp, int signalStrength) {
+        if (!released) {
+            long hourStart = hourStart(timestamp);
+            if (add(hourStart, CellColumns.VSI_MESSAGES, 1)) {
+                add(hourStart, CellColumns.SIGNAL_STRENGTH_SUM, signalStrength);
+                incrementNumberOfVsiMessages(signalStrength);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void addUnfilteredMessage(Date timestamp, SourceType sourceType, int shipMmsi) {
+        if (!released) {
+            long hourStart = hourStart(timestamp);
+            if (sourceType == SourceType.SATELLITE) {
+                if (add(hourStart, CellColumns.SAT_MESSAGES, 1)) {
+                    getDistinctShips(hourStart, SAT).add(shipMmsi);
+                }
+            } else {
+                if (add(hourStart, CellColumns.TERRESTRIAL_UNFILTERED_MESSAGES, 1)) {
+                    getDistinctShips(hourStart, TERRESTRIAL).add(shipMmsi);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the counters of time spans, like the ones of a cell loaded from the database, to the counters of this cell.
+     */
+    public synchronized void addFixedWidthSpans(Map<Long, TimeSpan> fixedWidthSpans) {
+        if (released || fixedWidthSpans == null) {
+            return;
+        }
+        for (TimeSpan timeSpan : fixedWidthSpans.values()) {
+            long hourStart = timeSpan.getFirstMessage().getTime();
+            add(hourStart, CellColumns.RECEIVED_SIGNALS, timeSpan.getMessageCounterTerrestrial());
+            add(hourStart, CellColumns.MISSING_SIGNALS, timeSpan.getMissingSignals());
+            add(hourStart, CellColumns.VSI_MESSAGES, timeSpan.getVsiMessageCounter());
+            add(hourStart, CellColumns.SIGNAL_STRENGTH_SUM, timeSpan.getVsiMessageCounter() * timeSpan.getAverageSignalStrength());
+            add(hourStart, CellColumns.SAT_MESSAGES, timeSpan.getMessageCounterSat());
+            add(hourStart, CellColumns.TERRESTRIAL_UNFILTERED_MESSAGES, timeSpan.getMessageCounterTerrestrialUnfiltered());
+            // The hour may be older than the one holding its slot, or have no counters at all
+            if (columns.getHourStart(index, columns.slotOf(hourStart)) == hourStart) {
+                if (timeSpan.getDistinctShipsSat().count() > 0) {
+                    getDistinctShips(hourStart, SAT).merge(timeSpan.getDistinctShipsSat());
+                }
+                if (timeSpan.getDistinctShipsTerrestrial().count() > 0) {
+                    getDistinctShips(hourStart, TERRESTRIAL).merge(timeSpan.getDistinctShipsTerrestrial());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the hourly counters of this cell, updating the returned time spans does not update the cell
+     */
+    @Override
+    public synchronized Map<Long, TimeSpan> getFixedWidthSpans() {
+        Map<Long, TimeSpan> fixedWidthSpans = new HashMap<Long, TimeSpan>();
+        if (released) {
+            return fixedWidthSpans;
+        }
+        for (int slot = 0; slot < columns.getHoursPerCell(); slot++) {
+            long hourStart = columns.getHourStart(index, slot);
+            if (hourStart >= 0) {
+                fixedWidthSpans.put(hourStart, toTimeSpan(slot, hourStart));
+            }
+        }
+        return fixedWidthSpans;
+    }
+
+    @Override
+    public synchronized void setFixedWidthSpans(Map<Long, TimeSpan> fixedWidthSpans) {
+        if (released) {
+            return;
+        }
+        for (int slot = 0; slot < columns.getHoursPerCell(); slot++) {
+            columns.clear(index, slot);
+        }
+        distinctShips = null;
+        addFixedWidthSpans(fixedWidthSpans);
+    }
+
+    @Override
+    public synchronized int getNOofReceivedSignals(Date starttime, Date endTime) {
+        return sum(starttime, endTime, CellColumns.RECEIVED_SIGNALS);
+    }
+
+    @Override
+    public synchronized int getNOofMissingSignals(Date starttime, Date endTime) {
+        return sum(starttime, endTime, CellColumns.MISSING_SIGNALS);
+    }
+
+    @Override
+    public synchronized int getNumberOfVsiMessages(Date startTime, Date endTime) {
+        return sum(startTime, endTime, CellColumns.VSI_MESSAGES);
+    }
+
+    @Override
+    public synchronized int getAverageSignalStrength(Date startTime, Date endTime) {
+        int numberOfVsiMessages = sum(startTime, endTime, CellColumns.VSI_MESSAGES);
+        if (numberOfVsiMessages > 0) {
+            return Math.floorDiv(sum(startTime, endTime, CellColumns.SIGNAL_STRENGTH_SUM), numberOfVsiMessages);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Empties the hours starting before a given time.
+     *
+     * @return the number of emptied hours
+     */
+    synchronized int trim(long trimPoint) {
+        int trimmed = 0;
+        for (int slot = 0; slot < columns.getHoursPerCell(); slot++) {
+            long hourStart = columns.getHourStart(index, slot);
+            if (hourStart >= 0 && hourStart < trimPoint) {
+                columns.clear(index, slot);
+                clearDistinctShips(slot);
+                trimmed++;
+            }
+        }
+        return trimmed;
+    }
+
+    /**
+     * @return true if none of the hours of this cell holds counters
+     */
+    synchronized boolean hasNoHours() {
+        for (int slot = 0; slot < columns.getHoursPerCell(); slot++) {
+            if (columns.getHourStart(index, slot) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives the columns of this cell back, after it has been removed from its grid. Updates made afterwards by threads
+     * which looked the cell up before its removal are ignored.
+     */
+    synchronized void release() {
+        if (!released) {
+            released = true;
+            distinctShips = null;
+            columns.release(index);
+        }
+    }
+
+    /**
+     * Adds an amount to a counter of an hour, emptying the distinct ships of its slot if the hour takes the slot over.
+     *
+     * @return false if nothing was added, the amount being 0 or the slot being held by a more recent hour
+     */
+    private boolean add(long hourStart, int counter, int amount) {
+        if (amount == 0) {
+            return false;
+        }
+        int slot = columns.slotOf(hourStart);
+        boolean takesSlotOver = columns.getHourStart(index, slot) != hourStart;
+        if (!columns.add(index, hourStart, counter, amount)) {
+            return false;
+        }
+        if (takesSlotOver) {
+            clearDistinctShips(slot);
+        }
+        return true;
+    }
+
+    /**
+     * @return the distinct ships of an hour held by its slot, created if the slot has none yet
+     */
+    private DistinctShipCounter getDistinctShips(long hourStart, int sourceType) {
+        if (distinctShips == null) {
+            distinctShips = new DistinctShipCounter[columns.getHoursPerCell() * 2];
+        }
+        int position = columns.slotOf(hourStart) * 2 + sourceType;
+        if (distinctShips[position] == null) {
+            distinctShips[position] = new DistinctShipCounter();
+        }
+        return distinctShips[position];
+    }
+
+    private void clearDistinctShips(int slot) {
+        if (distinctShips != null) {
+            distinctShips[slot * 2 + SAT] = null;
+            distinctShips[slot * 2 + TERRESTRIAL] = null;
+        }
+    }
+
+    private int sum(Date startTime, Date endTime, int counter) {
+        int result = 0;
+        for (int slot = 0; slot < columns.getHoursPerCell(); slot++) {
+            long hourStart = columns.getHourStart(index, slot);
+            if (hourStart >= 0 && hourStart >= startTime.getTime() && hourStart + CellColumns.HOUR_IN_MILLIS <= endTime.getTime()) {
+                result = result + columns.get(index, slot, counter);
+            }
+        }
+        return result;
+    }
+
+    private TimeSpan toTimeSpan(int slot, long hourStart) {
+        TimeSpan timeSpan = new TimeSpan(new Date(hourStart));
+        timeSpan.setLastMessage(new Date(hourStart + CellColumns.HOUR_IN_MILLIS));
+        timeSpan.setMessageCounterTerrestrial(columns.get(index, slot, CellColumns.RECEIVED_SIGNALS));
+        timeSpan.setMissingSignals(columns.get(index, slot, CellColumns.MISSING_SIGNALS));
+        int vsiMessages = columns.get(index, slot, CellColumns.VSI_MESSAGES);
+        if (vsiMessages > 0) {
+            timeSpan.setVsiMessageCounter(vsiMessages);
+            timeSpan.setAverageSignalStrength(Math.floorDiv(columns.get(index, slot, CellColumns.SIGNAL_STRENGTH_SUM), vsiMessages));
+        }
+        timeSpan.setMessageCounterSat(columns.get(index, slot, CellColumns.SAT_MESSAGES));
+        timeSpan.setMessageCounterTerrestrialUnfiltered(columns.get(index, slot, CellColumns.TERRESTRIAL_UNFILTERED_MESSAGES));
+        if (distinctShips != null) {
+            copyDistinctShips(distinctShips[slot * 2 + SAT], timeSpan.getDistinctShipsSat());
+            copyDistinctShips(distinctShips[slot * 2 + TERRESTRIAL], timeSpan.getDistinctShipsTerrestrial());
+        }
+        return timeSpan;
+    }
+
+    private static long hourStart(Date timestamp) {
+        return Helper.getFloorDate(timestamp).getTime();
+    }
+
+    private static void copyDistinctShips(DistinctShipCounter distinctShips, DistinctShipCounter target) {
+        if (distinctShips != null) {
+            target.merge(distinctShips);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+
+/**
+ * In-memory coverage data keeping the hourly counters of all cells off-heap, in {@link CellColumns}.
+ * <p>
+ * Sources, ships and cells are handled like in {@link OnlyMemoryData}, but cells are {@link ColumnarCell}s which do not
+ * allocate any time span on the heap. Every cell keeps a fixed number of hours: hours older than that are overwritten by
+ * newer ones, and messages for an hour which has already been overwritten are ignored.
+ */
+public class ColumnarMemoryData extends OnlyMemoryData {
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarMemoryData.class);
+
+    private final CellColumns columns;
+
+    /**
+     * @param hoursPerCell number of hours kept for every cell, which should cover the coverage window
+     */
+    public ColumnarMemoryData(int hoursPerCell) {
+        this.columns = new CellColumns(hoursPerCell);
+    }
+
+    @Override
+    protected Cell createCell(Source source, double lat, double lon) {
+        int multiplicationFactor = source.getMultiplicationFactor();
+        ColumnarCell cell = new ColumnarCell(columns, Helper.roundLat(lat, multiplicationFactor), Helper.roundLon(lon, multiplicationFactor),
+                Helper.getCellKey(lat, lon, multiplicationFactor));
+
+        Cell existing = source.getGrid().putIfAbsent(cell);
+        if (existing != null) {
+            cell.release();
+            return existing;
+        }
+        return cell;
+    }
+
+    @Override
+    public void updateCell(String sourceId, Cell newCell) {
+        Source source = getSource(sourceId);
+        if (source == null) {
+            source = createSource(sourceId);
+        }
+
+        ColumnarCell cell = getColumnarCell(source, newCell.getLatitude(), newCell.getLongitude());
+        cell.addReceivedSignals(newCell.getNOofReceivedSignals());
+        cell.addNOofMissingSignals(newCell.getNOofMissingSignals());
+        if (newCell.getNumberOfVsiMessages() > 0) {
+            cell.addVsiMessages(newCell.getNumberOfVsiMessages(), newCell.getAverageSignalStrength());
+        }
+        cell.addFixedWidthSpans(newCell.getFixedWidthSpans());
+        cellUpdated(source, cell);
+    }
+
+    @Override
+    public void trimWindow(Date trimPoint) {
+        int hoursToRemove = (int) ((trimPoint.getTime() - Helper.getFloorDate(Helper.firstMessage).getTime()) / CellColumns.HOUR_IN_MILLIS);
+        long firstKeptHour = Helper.getFloorDate(Helper.firstMessage).getTime() + hoursToRemove * CellColumns.HOUR_IN_MILLIS;
+
+        trimShips(trimPoint);
+
+        long fixedTimeSpansRemoved = 0;
+        long cellsRemoved = 0;
+        for (Source source : getSources()) {
+            for (Cell cell : source.getGrid().values()) {
+                ColumnarCell columnarCell = (ColumnarCell) cell;
+                synchronized (columnarCell) {
+                    fixedTimeSpansRemoved += columnarCell.trim(firstKeptHour);
+
+                    if (columnarCell.hasNoHours() && (cell.getTimeSpans() == null || cell.getTimeSpans().isEmpty())) {
+                        source.getGrid().remove(cell.getKey());
+                        columnarCell.release();
+                        cellsRemoved++;
+                    }
+                }
+            }
+        }
+
+        for (Source source : getSources()) {
+            source.getPyramid().clear();
+        }
+
+        Helper.firstMessage = trimPoint;
+
+        LOG.info("Purging done. cells removed: {}, fixed timespans removed: {}", cellsRemoved, fixedTimeSpansRemoved);
+    }
+
+    /**
+     * @return the number of bytes allocated outside of the heap for the hourly counters of the cells
+     */
+    public long getOffHeapBytes() {
+        return columns.getAllocatedBytes();
+    }
+
+    private ColumnarCell getColumnarCell(Source source, double lat, double lon) {
+        return (ColumnarCell) getCellFromCoordinates(source, lat, lon);
+    }
+}
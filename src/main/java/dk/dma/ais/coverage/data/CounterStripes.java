@@ -0,0 +1,104 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Lanes of counters that a {@link Cell} or a {@link TimeSpan} counts in once one of its own counters is contended, like the
+ * cells of a {@link java.util.concurrent.atomic.LongAdder}.
+ * <p>
+ * Owners count in their own int or long fields with a single compare and set, and only allocate lanes when it fails
+ * because another thread counted at the same time, so that cells and spans counted by one thread at a time stay as small
+ * as their fields. Once allocated, each thread adds to the lane picked by its id, lanes being on cache lines of their
+ * own, and a counter is the sum of the field of its owner and of all lanes.
+ */
+final class CounterStripes {
+    // Longs per lane: 128 bytes, so that two lanes never share a cache line, nor the first lane the array header
+    private static final int LANE_WIDTH = 16;
+    private static final int LANES = lanes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray lanes = new AtomicLongArray((LANES + 1) * LANE_WIDTH);
+
+    /**
+     * Adds to a counter of an owner with a single compare and set.
+     *
+     * @return false if another thread updated the counter meanwhile, in which case nothing is added
+     */
+    static <T> boolean tryAdd(AtomicIntegerFieldUpdater<T> counter, T owner, int amount) {
+        int value = counter.get(owner);
+        return counter.compareAndSet(owner, value, value + amount);
+    }
+
+    /**
+     * Adds to a counter of an owner with a single compare and set.
+     *
+     * @return false if another thread updated the counter meanwhile, in which case nothing is added
+     */
+    static <T> boolean tryAdd(AtomicLongFieldUpdater<T> counter, T owner, long amount) {
+        long value = counter.get(owner);
+        return counter.compareAndSet(owner, value, value + amount);
+    }
+
+    /**
+     * @param counter index of the counter in the lanes, below 16
+     */
+    void add(int counter, long amount) {
+        lanes.getAndAdd(indexOf(lane(), counter), amount);
+    }
+
+    /**
+     * @return the sum of the counter over all lanes, which may miss an add made at the same time
+     */
+    long sum(int counter) {
+        long sum = 0;
+        for (int lane = 0; lane < LANES; lane++) {
+            sum += lanes.get(indexOf(lane, counter));
+        }
+        return sum;
+    }
+
+    /**
+     * Sets the counter to 0 in all lanes, losing adds made at the same time.
+     */
+    void reset(int counter) {
+        for (int lane = 0; lane < LANES; lane++) {
+            lanes.set(indexOf(lane, counter), 0);
+        }
+    }
+
+    private static int indexOf(int lane, int counter) {
+        return (lane + 1) * LANE_WIDTH + counter;
+    }
+
+    private static int lane() {
+        // Spreads consecutive thread ids over the lanes
+        long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (LANES - 1);
+    }
+
+    /**
+     * @return the number of lanes for the given number of processors: a power of two at least as large, up to 64
+     */
+    private static int lanes(int processors) {
+        int lanes = 1;
+        while (lanes < processors && lanes < 64) {
+            lanes <<= 1;
+        }
+        return lanes;
+    }
+}
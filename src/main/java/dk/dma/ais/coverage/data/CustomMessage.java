@@ -18,9 +18,8 @@ import dk.dma.ais.message.AisMessage;
 import dk.dma.ais.packet.AisPacketTags.SourceType;
 
 import java.io.Serializable;
+import java.util.BitSet;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * Used for storing information relevant for the calculators
@@ -34,10 +33,10 @@ public class CustomMessage implements Serializable {
     private double latitude;
     private double longitude;
     private long timestamp;
-    private Set<String> sourceList = new HashSet<String>();
+    // Ids of the sources the message was received from, see SourceIds
+    private final BitSet sources = new BitSet();
     private int shipMMSI;
     private long timeSinceLastMsg;
-    private String key;
     private SourceType sourceType;
     private boolean vsi;
     private int signalStrength;
@@ -50,8 +49,21 @@ public class CustomMessage implements Serializable {
         this.sourceType = sourceType;
     }
 
-    public String getKey() {
-        return getCog() + "" + getLatitude() + "" + getLongitude() + "" + getShipMMSI() + "" + getSog();
+    /**
+     * High half of the doublet key: ship MMSI, course and speed over ground in tenths.
+     * <p>
+     * Together with {@link #getDoubletKeyLow()}, this identifies a position report without allocating: doublets of a
+     * message received from several sources share both halves.
+     */
+    public long getDoubletKeyHigh() {
+        return (long) (shipMMSI & 0x3FFFFFFF) << 22 | (Math.round(cog * 10) & 0xFFF) << 10 | Math.round(sog * 10) & 0x3FF;
+    }
+
+    /**
+     * Low half of the doublet key: latitude and longitude in 1/10000 minute, the resolution of AIS positions.
+     */
+    public long getDoubletKeyLow() {
+        return Math.round(latitude * 600000) << 32 | Math.round(longitude * 600000) & 0xFFFFFFFFL;
     }
 
     public double getCog() {
@@ -90,15 +102,23 @@ public class CustomMessage implements Serializable {
         return new Date(timestamp);
     }
 
+    public long getTimestampInMillis() {
+        return timestamp;
+    }
+
     public void setTimestamp(Date timestamp) {
         this.timestamp = timestamp.getTime();
     }
 
-    public Set<String> getSourceList() {
-        return sourceList;
+    /**
+     * @return the ids of the sources the message was received from, assigned by the {@link SourceIds} of the data handler
+     */
+    public BitSet getSources() {
+        return sources;
     }
-    public void addSourceMMSI(String source){
-        sourceList.add(source);
+
+    public void addSource(int sourceId) {
+        sources.set(sourceId);
     }
 
     public int getShipMMSI() {
@@ -0,0 +1,178 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+/**
+ * Counts the distinct ships seen in a time span.
+ * <p>
+ * The MMSIs of the first {@value #EXACT_LIMIT} distinct ships are kept in a small open addressing set of ints, so small
+ * counts are exact. Past that, the counter upgrades to a HyperLogLog sketch of {@value #REGISTERS} one byte registers,
+ * whose estimate has a relative standard error of 1.04 / sqrt({@value #REGISTERS}), about 3.3%. Either way, a counter
+ * takes around 1 KB at most, whatever the number of ships, and merging two counters does not depend on the number of
+ * ships.
+ * <p>
+ * This class is thread-safe.
+ */
+public class DistinctShipCounter {
+    static final int EXACT_LIMIT = 128;
+
+    private static final int PRECISION = 10;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+    private static final int EMPTY = 0;
+
+    /**
+     * MMSIs + 1 in open addressing slots, {@link #EMPTY} for free slots, until the counter upgrades to registers.
+     */
+    private int[] ships = new int[8];
+    private int numberOfShips;
+    private byte[] registers;
+
+    public synchronized void add(int mmsi) {
+        if (registers != null) {
+            addToRegisters(registers, mmsi);
+        } else if (addToShips(mmsi) && numberOfShips > EXACT_LIMIT) {
+            upgrade();
+        }
+    }
+
+    /**
+     * @return the number of distinct ships added, exact up to {@value #EXACT_LIMIT} ships and estimated beyond
+     */
+    public synchronized int count() {
+        if (registers == null) {
+            return numberOfShips;
+        }
+
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // Linear counting is more accurate for small cardinalities
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return (int) Math.round(estimate);
+    }
+
+    /**
+     * Adds the ships of another counter to this one.
+     */
+    public void merge(DistinctShipCounter other) {
+        if (other == this) {
+            return;
+        }
+
+        int[] otherShips = null;
+        byte[] otherRegisters = null;
+        synchronized (other) {
+            if (other.registers != null) {
+                otherRegisters = other.registers.clone();
+            } else {
+                otherShips = other.ships.clone();
+            }
+        }
+
+        synchronized (this) {
+            if (otherRegisters != null) {
+                if (registers == null) {
+                    upgrade();
+                }
+                for (int i = 0; i < REGISTERS; i++) {
+                    registers[i] = (byte) Math.max(registers[i], otherRegisters[i]);
+                }
+            } else {
+                for (int ship : otherShips) {
+                    if (ship != EMPTY) {
+                        add(ship - 1);
+                    }
+                }
+            }
+        }
+    }
+
+    public DistinctShipCounter copy() {
+        DistinctShipCounter copy = new DistinctShipCounter();
+        copy.merge(this);
+        return copy;
+    }
+
+    private boolean addToShips(int mmsi) {
+        int mask = ships.length - 1;
+        int slot = mix(mmsi) & mask;
+        while (ships[slot] != EMPTY) {
+            if (ships[slot] == mmsi + 1) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        ships[slot] = mmsi + 1;
+        numberOfShips++;
+
+        if (numberOfShips * 2 > ships.length && numberOfShips <= EXACT_LIMIT) {
+            int[] previous = ships;
+            ships = new int[previous.length * 2];
+            numberOfShips = 0;
+            for (int ship : previous) {
+                if (ship != EMPTY) {
+                    addToShips(ship - 1);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void upgrade() {
+        registers = new byte[REGISTERS];
+        for (int ship : ships) {
+            if (ship != EMPTY) {
+                addToRegisters(registers, ship - 1);
+            }
+        }
+        ships = null;
+        numberOfShips = 0;
+    }
+
+    private static void addToRegisters(byte[] registers, int mmsi) {
+        long hash = hash(mmsi);
+        int register = (int) (hash >>> (Long.SIZE - PRECISION));
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+        if (registers[register] < rank) {
+            registers[register] = rank;
+        }
+    }
+
+    private static int mix(int mmsi) {
+        return (int) (hash(mmsi) >>> 32);
+    }
+
+    /**
+     * MurmurHash3 finalizer, spreading consecutive MMSIs over the whole hash.
+     */
+    private static long hash(int mmsi) {
+        long hash = mmsi;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe53a87ecL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
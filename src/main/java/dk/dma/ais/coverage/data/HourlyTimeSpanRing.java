@@ -0,0 +1,198 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Fixed width time spans of a cell, keyed by the start of their hour, kept in a fixed number of hour slots used as a ring.
+ * <p>
+ * The hour starting at a given time always lands in the same slot, so that finding the time span of an hour takes no
+ * hashing nor allocation, and iterating the time spans is a scan of a small array. When a more recent hour needs a slot,
+ * it takes the place of the hour in it, which is expected to be out of the coverage window already. Putting a time span
+ * for an hour older than the one in its slot has no effect.
+ * <p>
+ * Like the map it replaces, this class is not thread-safe: callers synchronize on the cell.
+ */
+public class HourlyTimeSpanRing extends AbstractMap<Long, TimeSpan> {
+    private static final long HOUR_IN_MILLIS = 1000L * 60 * 60;
+
+    private final long[] hours;
+    private final TimeSpan[] timeSpans;
+    private int size;
+
+    /**
+     * @param capacity number of hours kept, which should cover the coverage window
+     */
+    public HourlyTimeSpanRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.hours = new long[capacity];
+        this.timeSpans = new TimeSpan[capacity];
+    }
+
+    @Override
+    public TimeSpan get(Object key) {
+        int slot = slotOf(key);
+        return slot >= 0 && timeSpans[slot] != null && hours[slot] == (Long) key ? timeSpans[slot] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public TimeSpan put(Long hour, TimeSpan timeSpan) {
+        if (timeSpan == null) {
+            throw new NullPointerException("timeSpan");
+        }
+        int slot = slotOf(hour);
+        TimeSpan previous = timeSpans[slot];
+        if (previous == null) {
+            size++;
+        } else if (hours[slot] > hour) {
+            return null;
+        } else if (hours[slot] < hour) {
+            previous = null;
+        }
+        hours[slot] = hour;
+        timeSpans[slot] = timeSpan;
+        return previous;
+    }
+
+    @Override
+    public TimeSpan remove(Object key) {
+        TimeSpan removed = get(key);
+        if (removed != null) {
+            clearSlot(slotOf(key));
+        }
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (int slot = 0; slot < timeSpans.length; slot++) {
+            timeSpans[slot] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return the time spans, scanned in slot order without allocating entries
+     */
+    @Override
+    public Collection<TimeSpan> values() {
+        return new AbstractCollection<TimeSpan>() {
+            @Override
+            public Iterator<TimeSpan> iterator() {
+                return new SlotIterator<TimeSpan>() {
+                    @Override
+                    TimeSpan valueOf(int slot) {
+                        return timeSpans[slot];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<Long, TimeSpan>> entrySet() {
+        return new AbstractSet<Map.Entry<Long, TimeSpan>>() {
+            @Override
+            public Iterator<Map.Entry<Long, TimeSpan>> iterator() {
+                return new SlotIterator<Map.Entry<Long, TimeSpan>>() {
+                    @Override
+                    Map.Entry<Long, TimeSpan> valueOf(int slot) {
+                        return new SimpleImmutableEntry<Long, TimeSpan>(hours[slot], timeSpans[slot]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int slotOf(Object key) {
+        if (!(key instanceof Long)) {
+            return -1;
+        }
+        return (int) Math.floorMod(Math.floorDiv((Long) key, HOUR_IN_MILLIS), (long) timeSpans.length);
+    }
+
+    private void clearSlot(int slot) {
+        timeSpans[slot] = null;
+        size--;
+    }
+
+    private abstract class SlotIterator<E> implements Iterator<E> {
+        private int next = nextOccupied(0);
+        private int last = -1;
+
+        abstract E valueOf(int slot);
+
+        @Override
+        public boolean hasNext() {
+            return next < timeSpans.length;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = nextOccupied(next + 1);
+            return valueOf(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0 || timeSpans[last] == null) {
+                throw new IllegalStateException();
+            }
+            clearSlot(last);
+        }
+
+        private int nextOccupied(int from) {
+            int slot = from;
+            while (slot < timeSpans.length && timeSpans[slot] == null) {
+                slot++;
+            }
+            return slot;
+        }
+    }
+}
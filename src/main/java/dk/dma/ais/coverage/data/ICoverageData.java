@@ -16,6 +16,7 @@ package dk.dma.ais.coverage.data;
 
 import dk.dma.ais.coverage.data.Ship.ShipClass;
 import dk.dma.ais.packet.AisPacket;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
 
 import java.util.Collection;
 import java.util.Date;
@@ -33,11 +34,19 @@ public interface ICoverageData {
     void updateCell(String sourceId, Cell newCell);
     List<Cell> getCells(QueryParams params);
     Source getSource(String sourceId);
+    Source getSource(int sourceId);
     Source createSource(String sourceId);
     Collection<Source> getSources();
-    void incrementReceivedSignals(String sourceMmsi, double lat, double lon, Date timestamp);
-    void incrementMissingSignals(String sourceMmsi, double lat, double lon, Date timestamp);
-    void incrementReceivedVsiMessage(String sourceMmsi, double latitude, double longitude, Date timestamp, int signalStrength);
+    SourceIds getSourceIds();
+    void incrementReceivedSignals(int sourceId, double lat, double lon, Date timestamp);
+    void incrementMissingSignals(int sourceId, double lat, double lon, Date timestamp);
+    /**
+     * Adds received and missing signals to the cell of a source containing the given position, in the hour of the given
+     * timestamp, as if they had been incremented one by one.
+     */
+    void incrementSignals(int sourceId, double lat, double lon, Date timestamp, int receivedSignals, int missingSignals);
+    void incrementReceivedVsiMessage(int sourceId, double latitude, double longitude, Date timestamp, int signalStrength);
+    void incrementUnfilteredMessage(int sourceId, double lat, double lon, Date timestamp, SourceType sourceType, int shipMmsi);
     void trimWindow(Date trimPoint);
 
 }
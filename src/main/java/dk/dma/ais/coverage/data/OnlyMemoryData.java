@@ -32,23 +32,40 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class OnlyMemoryData implements ICoverageData {
     private static final Logger LOG = LoggerFactory
             .getLogger(OnlyMemoryData.class);
 
-    private Map<Integer, Ship> ships = new ConcurrentHashMap<Integer, Ship>();
+    private final ShipRegistry ships = new ShipRegistry();
+    private final LongAdder evictedShips = new LongAdder();
     private ConcurrentHashMap<String, Source> sources = new ConcurrentHashMap<String, Source>();
+    private final SourceIds sourceIds = new SourceIds();
+    // Sources indexed by their id in sourceIds, only grown and replaced under the lock of registerSource
+    private volatile Source[] sourcesById = new Source[16];
+
+    private final int fixedWidthSpanHours;
 
     public OnlyMemoryData() {
+        this(0);
+    }
+
+    /**
+     * @param fixedWidthSpanHours number of hours kept by every cell in an {@link HourlyTimeSpanRing}, or 0 to keep the
+     *                            fixed width time spans of cells in hash maps
+     */
+    public OnlyMemoryData(int fixedWidthSpanHours) {
+        this.fixedWidthSpanHours = fixedWidthSpanHours;
         createSource(AbstractCalculator.SUPERSOURCE_MMSI);
     }
 
@@ -76,9 +93,16 @@ public class OnlyMemoryData implements ICoverageData {
 
         Cell oldCell = source.getCell(newCell.getLatitude(), newCell.getLongitude());
         if (oldCell == null) {
+            if (fixedWidthSpanHours > 0) {
+                Map<Long, TimeSpan> ring = new HourlyTimeSpanRing(fixedWidthSpanHours);
+                ring.putAll(newCell.getFixedWidthSpans());
+                newCell.setFixedWidthSpans(ring);
+            }
             source.addCell(newCell);
+            source.getPyramid().markDirty(newCell);
         } else {
             updateExistingCellFromNewCell(oldCell, newCell);
+            source.getPyramid().markDirty(oldCell);
         }
     }
 
@@ -114,6 +138,7 @@ public class OnlyMemoryData implements ICoverageData {
                 oldCell.getFixedWidthSpans().put(newTimeSpan.getKey(), updatedTimeSpan);
             }
         }
+        oldCell.fixedWidthSpansChanged();
     }
 
     @Override
@@ -121,6 +146,14 @@ public class OnlyMemoryData implements ICoverageData {
         return ships.values();
     }
 
+    /**
+     * @return the number of ships removed from memory since startup, because no message was received from them within
+     * the window
+     */
+    public long getEvictedShips() {
+        return evictedShips.sum();
+    }
+
     private List<Cell> getCells() {
         List<Cell> cells = new ArrayList<Cell>();
         Collection<Source> basestations = sources.values();
@@ -141,13 +174,17 @@ public class OnlyMemoryData implements ICoverageData {
     @Override
     public Ship createShip(int shipMmsi, ShipClass shipClass) {
         Ship ship = new Ship(shipMmsi, shipClass);
-        ships.put(shipMmsi, ship);
-        return ship;
+        Ship existing = ships.putIfAbsent(ship);
+        return existing != null ? existing : ship;
     }
 
     @Override
     public Cell createCell(String sourceMmsi, double lat, double lon) {
-        return sources.get(sourceMmsi).createCell(lat, lon);
+        return createCell(sources.get(sourceMmsi), lat, lon);
+    }
+
+    protected Cell createCell(Source source, double lat, double lon) {
+        return source.createCell(lat, lon);
     }
 
     @Override
@@ -155,18 +192,48 @@ public class OnlyMemoryData implements ICoverageData {
         return sources.get(sourceId);
     }
 
+    @Override
+    public Source getSource(int sourceId) {
+        Source[] current = sourcesById;
+        Source source = sourceId < current.length ? current[sourceId] : null;
+        if (source == null) {
+            // The source may be created by another thread which has not registered it yet
+            source = sources.get(sourceIds.nameOf(sourceId));
+        }
+        return source;
+    }
+
     @Override
     public Source createSource(String sourceId) {
         Source s = new Source(sourceId);
-        sources.put(sourceId, s);
+        s.setFixedWidthSpanHours(fixedWidthSpanHours);
+        Source existing = sources.putIfAbsent(sourceId, s);
+        if (existing != null) {
+            return existing;
+        }
+        registerSource(sourceIds.idOf(sourceId), s);
         return s;
     }
 
+    private synchronized void registerSource(int id, Source source) {
+        Source[] current = sourcesById;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, id + 1));
+        }
+        current[id] = source;
+        sourcesById = current;
+    }
+
     @Override
     public Collection<Source> getSources() {
         return sources.values();
     }
 
+    @Override
+    public SourceIds getSourceIds() {
+        return sourceIds;
+    }
+
     private List<Cell> getCells(double latStart, double lonStart,
             double latEnd, double lonEnd, Set<String> sources,
             int multiplicationFactor, Date starttime, Date endtime) {
@@ -182,19 +249,19 @@ public class OnlyMemoryData implements ICoverageData {
                         source.getIdentifier());
                 cellMultiplicationSource
                         .setMultiplicationFactor(multiplicationFactor);
-                // Make
-                Collection<Cell> bscells = source.getGrid().values();
+                // Coarser cells are read from the pyramid when possible, otherwise made from the cells of the source
+                boolean aggregated = source.getPyramid().aggregateCells(multiplicationFactor, latStart, lonStart, latEnd, lonEnd,
+                        starttime, endtime, cellMultiplicationSource);
+                Collection<Cell> bscells = aggregated ? Collections.<Cell>emptyList()
+                        : source.getCellsInBox(latStart, lonStart, latEnd, lonEnd);
                 for (Cell cell : bscells) {
-
-                    if (Helper.isInsideBox(cell, latStart, lonStart, latEnd, lonEnd)) {
-                        Cell tempCell = cellMultiplicationSource.getCell(cell.getLatitude(), cell.getLongitude());
-                        if (tempCell == null) {
-                            tempCell = cellMultiplicationSource.createCell(cell.getLatitude(), cell.getLongitude());
-                        }
-                        tempCell.addNOofMissingSignals((int) cell.getNOofMissingSignals(starttime, endtime));
-                        tempCell.addReceivedSignals(cell.getNOofReceivedSignals(starttime, endtime));
-                        tempCell.addVsiMessages(cell.getNumberOfVsiMessages(starttime, endtime), cell.getAverageSignalStrength(starttime, endtime));
+                    Cell tempCell = cellMultiplicationSource.getCell(cell.getLatitude(), cell.getLongitude());
+                    if (tempCell == null) {
+                        tempCell = cellMultiplicationSource.createCell(cell.getLatitude(), cell.getLongitude());
                     }
+                    tempCell.addNOofMissingSignals((int) cell.getNOofMissingSignals(starttime, endtime));
+                    tempCell.addReceivedSignals(cell.getNOofReceivedSignals(starttime, endtime));
+                    tempCell.addVsiMessages(cell.getNumberOfVsiMessages(starttime, endtime), cell.getAverageSignalStrength(starttime, endtime));
                 }
 
                 // add cells for particular source to cell-list.
@@ -218,49 +285,55 @@ public class OnlyMemoryData implements ICoverageData {
     }
 
     @Override
-    public void incrementReceivedSignals(String sourceMmsi, double lat, double lon, Date timestamp) {
-        Cell cell = getCellFromCoordinates(sourceMmsi, lat, lon);
-        TimeSpan ts = getTimeSpanFromTimestamp(timestamp, cell);
+    public void incrementReceivedSignals(int sourceId, double lat, double lon, Date timestamp) {
+        Source source = getSource(sourceId);
+        Cell cell = getCellFromCoordinates(source, lat, lon);
+        cell.addReceivedSignal(timestamp);
+        cellUpdated(source, cell);
+    }
 
-        ts.setMessageCounterTerrestrial(ts.getMessageCounterTerrestrial() + 1);
-        cell.incrementNOofReceivedSignals();
+    /**
+     * Marks a cell of a source dirty in the pyramid of the source. Must be called after the cell is updated.
+     */
+    protected void cellUpdated(Source source, Cell cell) {
+        source.getPyramid().markDirty(cell);
     }
 
-    private Cell getCellFromCoordinates(String sourceMmsi, double lat, double lon) {
-        Cell cell = getCell(sourceMmsi, lat, lon);
+    protected Cell getCellFromCoordinates(Source source, double lat, double lon) {
+        Cell cell = source.getCell(lat, lon);
         if (cell == null) {
-            cell = createCell(sourceMmsi, lat, lon);
+            cell = createCell(source, lat, lon);
         }
         return cell;
     }
 
-    private TimeSpan getTimeSpanFromTimestamp(Date timestamp, Cell cell) {
-        Date id = Helper.getFloorDate(timestamp);
-        TimeSpan ts = cell.getFixedWidthSpans().get(id.getTime());
-        if (ts == null) {
-            ts = new TimeSpan(id);
-            ts.setLastMessage(Helper.getCeilDate(timestamp));
-            cell.getFixedWidthSpans().put(id.getTime(), ts);
-        }
-        return ts;
+    @Override
+    public void incrementMissingSignals(int sourceId, double lat, double lon, Date timestamp) {
+        Source source = getSource(sourceId);
+        Cell cell = getCellFromCoordinates(source, lat, lon);
+        cell.addMissingSignal(timestamp);
+        cellUpdated(source, cell);
     }
 
     @Override
-    public void incrementMissingSignals(String sourceMmsi, double lat, double lon, Date timestamp) {
-        Cell cell = getCellFromCoordinates(sourceMmsi, lat, lon);
-        TimeSpan ts = getTimeSpanFromTimestamp(timestamp, cell);
-
-        ts.incrementMissingSignals();
-        cell.incrementNOofMissingSignals();
+    public void incrementSignals(int sourceId, double lat, double lon, Date timestamp, int receivedSignals, int missingSignals) {
+        Source source = getSource(sourceId);
+        Cell cell = getCellFromCoordinates(source, lat, lon);
+        cell.addSignals(timestamp, receivedSignals, missingSignals);
+        cellUpdated(source, cell);
     }
 
     @Override
-    public void incrementReceivedVsiMessage(String sourceMmsi, double latitude, double longitude, Date timestamp, int signalStrength) {
-        Cell cell = getCellFromCoordinates(sourceMmsi, latitude, longitude);
-        TimeSpan ts = getTimeSpanFromTimestamp(timestamp, cell);
+    public void incrementReceivedVsiMessage(int sourceId, double latitude, double longitude, Date timestamp, int signalStrength) {
+        Source source = getSource(sourceId);
+        Cell cell = getCellFromCoordinates(source, latitude, longitude);
+        cell.addVsiMessage(timestamp, signalStrength);
+        cellUpdated(source, cell);
+    }
 
-        ts.incrementNumberOfVsiMessages(signalStrength);
-        cell.incrementNumberOfVsiMessages(signalStrength);
+    @Override
+    public void incrementUnfilteredMessage(int sourceId, double lat, double lon, Date timestamp, SourceType sourceType, int shipMmsi) {
+        getCellFromCoordinates(getSource(sourceId), lat, lon).addUnfilteredMessage(timestamp, sourceType, shipMmsi);
     }
 
     public CustomMessage packetToCustomMessage(AisPacket packet) {
@@ -300,10 +373,15 @@ public class OnlyMemoryData implements ICoverageData {
             }
         }
 
-        // If time stamp is not present, we add one
-        // TODO this only makes sense for real-time data. We should check if it
-        // is real-time
+        // If time stamp is not present, we use the one of the packet, if any
         if (timestamp == null) {
+            timestamp = packet.getTimestamp();
+        }
+        // Otherwise we add one, which only makes sense for real-time data
+        if (timestamp == null) {
+            if (conf.isReplay()) {
+                return null;
+            }
             timestamp = new Date();
         }
 
@@ -363,6 +441,7 @@ public class OnlyMemoryData implements ICoverageData {
         }
 
         Ship ship = extractShipFromMessage(aisMessage, shipClass);
+        ship.markActive(timestamp);
 
         if (packet.isVsi()) {
             CustomMessage newMessage = new CustomMessage();
@@ -372,7 +451,7 @@ public class OnlyMemoryData implements ICoverageData {
             newMessage.setLongitude(posMessage.getPos().getGeoLocation().getLongitude());
             newMessage.setTimestamp(packet.getVsi().getTimestamp());
 
-            newMessage.addSourceMMSI(baseId);
+            newMessage.addSource(sourceIds.idOf(baseId));
             newMessage.setShipMMSI(ship.getMmsi());
             newMessage.setSourceType(sourceType);
 
@@ -386,7 +465,7 @@ public class OnlyMemoryData implements ICoverageData {
             newMessage.setLongitude(posMessage.getPos().getGeoLocation()
                     .getLongitude());
             newMessage.setTimestamp(timestamp);
-            newMessage.addSourceMMSI(baseId);
+            newMessage.addSource(sourceIds.idOf(baseId));
             newMessage.setShipMMSI(ship.getMmsi());
             newMessage.setSourceType(sourceType);
 
@@ -411,57 +490,56 @@ public class OnlyMemoryData implements ICoverageData {
         long dynamicTimeSpansRemoved = 0;
         long cellsRemoved = 0;
 
-        // Remove ship locations that have not been send within the trimmed
-        // window
-        // if ship has no location registrations within trimmed window AND
-        // has no messages in buffer within trimmed window, delete ship
+        trimShips(trimPoint);
 
         // Remove Timespans that are not within the trimmed window (for each
         // cell)
         // if cell has no timespan, delete cell
         for (Source source : sources.values()) {
-            for (Iterator<Map.Entry<String, Cell>> it = source.getGrid()
-                    .entrySet().iterator(); it.hasNext();) {
-                // for (Entry<String, Cell> entry : source.getGrid().entrySet())
-                // {
-                Entry<String, Cell> entry = it.next();
-                Cell cell = entry.getValue();
-
-                for (int i = 0; i < hoursToRemove; i++) {
-                    Long key = Helper.getFloorDate(Helper.firstMessage)
-                            .getTime() + (i * 1000 * 60 * 60);
-                    if (cell.getFixedWidthSpans().containsKey(key)) {
-                        cell.getFixedWidthSpans().remove(key);
-                        fixedTimeSpansRemoved++;
-                    }
-
-                }
-                int numberToRemove = 0;
-                if (cell.getTimeSpans() != null) {
-                    for (TimeSpan timespan : cell.getTimeSpans()) {
-                        if (timespan.getLastMessage().getTime() < trimPoint
-                                .getTime()) {
-                            numberToRemove++;
-                        } else {
-                            break;
+            for (Cell cell : source.getGrid().values()) {
+                synchronized (cell) {
+                    for (int i = 0; i < hoursToRemove; i++) {
+                        Long key = Helper.getFloorDate(Helper.firstMessage)
+                                .getTime() + (i * 1000 * 60 * 60);
+                        if (cell.getFixedWidthSpans().containsKey(key)) {
+                            cell.getFixedWidthSpans().remove(key);
+                            fixedTimeSpansRemoved++;
+                            cell.fixedWidthSpansChanged();
                         }
+
                     }
-                    for (int i = 0; i < numberToRemove; i++) {
-                        cell.getTimeSpans().remove(0);
-                        dynamicTimeSpansRemoved++;
+                    int numberToRemove = 0;
+                    if (cell.getTimeSpans() != null) {
+                        for (TimeSpan timespan : cell.getTimeSpans()) {
+                            if (timespan.getLastMessage().getTime() < trimPoint
+                                    .getTime()) {
+                                numberToRemove++;
+                            } else {
+                                break;
+                            }
+                        }
+                        for (int i = 0; i < numberToRemove; i++) {
+                            cell.getTimeSpans().remove(0);
+                            dynamicTimeSpansRemoved++;
+                        }
                     }
-                }
 
-                if ((cell.getFixedWidthSpans() == null || cell
-                        .getFixedWidthSpans().isEmpty())
-                        && (cell.getTimeSpans() == null || cell.getTimeSpans()
-                                .isEmpty())) {
-                    cellsRemoved++;
-                    source.getGrid().remove(entry.getKey());
+                    if ((cell.getFixedWidthSpans() == null || cell
+                            .getFixedWidthSpans().isEmpty())
+                            && (cell.getTimeSpans() == null || cell.getTimeSpans()
+                                    .isEmpty())) {
+                        cellsRemoved++;
+                        source.getGrid().remove(cell.getKey());
+                    }
                 }
             }
         }
 
+        // Removed cells and time spans are dropped from the pyramids by rebuilding them
+        for (Source source : sources.values()) {
+            source.getPyramid().clear();
+        }
+
         // Update Helper-thingie
         // Don't think this will create concurrency issues...
         Helper.firstMessage = trimPoint;
@@ -471,4 +549,23 @@ public class OnlyMemoryData implements ICoverageData {
                 cellsRemoved, fixedTimeSpansRemoved, dynamicTimeSpansRemoved);
     }
 
+    /**
+     * Removes the ship locations that are not within the trimmed window, and the ships from which no message was
+     * received within the trimmed window.
+     */
+    protected void trimShips(Date trimPoint) {
+        long shipHoursRemoved = 0;
+        long shipsRemoved = 0;
+        for (Ship ship : ships.values()) {
+            shipHoursRemoved += ship.trimHours(trimPoint.getTime());
+            if (ship.getLastActivity() < trimPoint.getTime() && ships.remove(ship)) {
+                shipsRemoved++;
+            }
+        }
+        evictedShips.add(shipsRemoved);
+
+        LOG.info("Ships purged. ships removed: {}, ship hours removed: {}, ships left: {}", shipsRemoved, shipHoursRemoved,
+                ships.size());
+    }
+
 }
@@ -15,11 +15,11 @@
 package dk.dma.ais.coverage.data;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import dk.dma.ais.coverage.Helper;
 
@@ -34,14 +34,26 @@ public class Ship implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private int mmsi;
-    private List<CustomMessage> messageBuffer = new ArrayList<CustomMessage>();
+    private final ShipMessageRing messageBuffer = new ShipMessageRing();
     private ShipClass shipClass;
-    private Map<Short, Hour> hours = new HashMap<Short, Hour>(); //used for location tracking
-    
-    public Map<Short, Hour> getHours() {
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    // Same earth radius as SphereProjection
+    private static final double METERS_PER_LAT_DEGREE = 6356752.3 * Math.PI / 180;
+
+    private final ConcurrentHashMap<Integer, Hour> hours = new ConcurrentHashMap<Integer, Hour>(); //used for location tracking, keyed by hours since epoch
+    private final AtomicLong lastActivity = new AtomicLong();
+
+    public Map<Integer, Hour> getHours() {
         return hours;
     }
 
+    /**
+     * @return the hour since epoch containing the given time, as used to key {@link #getHours()}
+     */
+    public static int getHourKey(long time) {
+        return (int) Math.floorDiv(time, HOUR_IN_MILLIS);
+    }
+
 
     public enum ShipClass {
         CLASS_A, CLASS_B
@@ -55,14 +67,12 @@ public class Ship implements Serializable {
         messageBuffer.add(m);
     }
 
-    public List<CustomMessage> getMessages() {
+    public ShipMessageRing getMessages() {
         return messageBuffer;
     }
 
     public void emptyBuffer() {
-        CustomMessage last = getLastMessageInBuffer();
-        messageBuffer.clear();
-        messageBuffer.add(last); // We still want the last message in the buffer
+        messageBuffer.keepLatest(); // We still want the last message in the buffer
     }
 
     public ShipClass getShipClass() {
@@ -73,41 +83,65 @@ public class Ship implements Serializable {
         this.shipClass = shipClass;
     }
 
-    public CustomMessage getFirstMessageInBuffer() {
-        if(messageBuffer.isEmpty()){
-            return null;
-        }
-        return messageBuffer.get(0);
+    public int getMmsi() {
+        return mmsi;
     }
-
-    public CustomMessage getLastMessageInBuffer() {
-        if(messageBuffer.isEmpty()){
-            return null;
+    
+    /**
+     * Records that a message of the ship was received at the given time, unless a later one already was.
+     */
+    public void markActive(Date timestamp) {
+        long time = timestamp.getTime();
+        long last = lastActivity.get();
+        while (time > last && !lastActivity.compareAndSet(last, time)) {
+            last = lastActivity.get();
         }
-        return messageBuffer.get(messageBuffer.size() - 1);
     }
 
-    public int getMmsi() {
-        return mmsi;
+    /**
+     * @return the timestamp, in milliseconds, of the latest message received from the ship, 0 if none
+     */
+    public long getLastActivity() {
+        return lastActivity.get();
     }
-    
+
     public void registerMessage(Date timestamp, float lat, float lon) {
-        int minutesSince = (int) ((timestamp.getTime() - Helper.firstMessage.getTime()) / 1000 / 60);
-        short hoursSince = (short) ((Helper.getFloorDate(timestamp).getTime() - Helper.firstMessage.getTime()) / 1000 / 60 / 60);
-        int minutesOffset = minutesSince - hoursSince * 60;
-        if (minutesSince < 0) {
+        if (Helper.firstMessage != null && timestamp.getTime() < Helper.firstMessage.getTime()) {
             return;
         }
+        markActive(timestamp);
 
-        Hour hour = hours.get(hoursSince);
+        int hourKey = getHourKey(timestamp.getTime());
+        int minutesOffset = (int) ((timestamp.getTime() - hourKey * HOUR_IN_MILLIS) / 1000 / 60);
+        Hour hour = hours.get(hourKey);
         if (hour == null) {
             hour = new Hour();
-            hours.put(hoursSince, hour);
+            Hour existing = hours.putIfAbsent(hourKey, hour);
+            if (existing != null) {
+                hour = existing;
+            }
         }
         hour.setPosition(minutesOffset, lat, lon);
 
     }
 
+    /**
+     * Removes the location history older than the given time.
+     *
+     * @return the number of hours removed
+     */
+    public int trimHours(long firstKeptTime) {
+        int firstKeptHour = getHourKey(firstKeptTime);
+        int removed = 0;
+        for (Iterator<Integer> it = hours.keySet().iterator(); it.hasNext();) {
+            if (it.next() < firstKeptHour) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
     public static void main(String[] args) {
 //        Ship ss = new Ship();
 //        Hour h = ss.new Hour();
@@ -128,6 +162,9 @@ public class Ship implements Serializable {
         float latOffset;
         float lonOffset;
 
+        // Length of a degree of longitude at the offset latitude, computed once per hour
+        private float metersPerLonDegree;
+
         // Positions per 10th minute in 10-meters from offset
         short[] positions = new short[6 * 2];
 
@@ -139,7 +176,11 @@ public class Ship implements Serializable {
         /**
          * Sets the position at the given minute A position must not be more than 32,767*10 meters from offset We assume no ships
          * travel more than 328 km within an hour In this way we can store a position using 2 shorts isntead of 2 floats
-         * 
+         * <p>
+         * Positions are encoded on the plane tangent to the earth at the offset, where a degree of latitude is always the
+         * same length and a degree of longitude shrinks with the cosine of the offset latitude. Encoding and decoding are
+         * linear once that cosine is known, so they neither use trigonometry nor share any projection state.
+         *
          * @param minute
          * @param lat
          * @param lon
@@ -157,125 +198,53 @@ public class Ship implements Serializable {
             if (latOffset == 0) {
                 latOffset = lat;
                 lonOffset = lon;
+                metersPerLonDegree = (float) (METERS_PER_LAT_DEGREE * Math.cos(Math.toRadians(lat)));
+            }
+            if (minute >= 55) {
+                return;
             }
 
-            double p1X = Helper.getProjection().lon2x(lonOffset, latOffset);
-            double p1Y = Helper.getProjection().lat2y(lonOffset, latOffset);
-            double p2X = Helper.getProjection().lon2x(lon, lat);
-            double p2Y = Helper.getProjection().lat2y(lon, lat);
-            short xDistance = (short) ((p1X - p2X) / 10); // Distance to offset in xDistance*10 meters
-            short yDistance = (short) ((p1Y - p2Y) / 10); // Distance to offset in yDistance*10 meters
+            long xDistance = Math.round((lon - lonOffset) * metersPerLonDegree / 10); // Distance to offset in xDistance*10 meters
+            long yDistance = Math.round((lat - latOffset) * METERS_PER_LAT_DEGREE / 10); // Distance to offset in yDistance*10 meters
             if (xDistance == 0) {
-                xDistance = 1;
+                xDistance = 1; // 0 marks a position that was never set
             }
-            if (yDistance == 0) {
-                xDistance = 1;
-            }
-            if (xDistance > 32767 || yDistance > 32767) {
+            if (Math.abs(xDistance) > Short.MAX_VALUE || Math.abs(yDistance) > Short.MAX_VALUE) {
                 return; // Something wrong with this message
             }
             // Set meters from offset at the right position field
-            if (minute < 5) {
-                positions[0] = xDistance;
-                positions[1] = yDistance;
-            } else if (minute < 15) {
-                positions[2] = xDistance;
-                positions[3] = yDistance;
-            } else if (minute < 25) {
-                positions[4] = xDistance;
-                positions[5] = yDistance;
-            } else if (minute < 35) {
-                positions[6] = xDistance;
-                positions[7] = yDistance;
-            } else if (minute < 45) {
-                positions[8] = xDistance;
-                positions[9] = yDistance;
-            } else if (minute < 55) {
-                positions[10] = xDistance;
-                positions[11] = yDistance;
-            }
+            int index = positionIndex(minute);
+            positions[index] = (short) xDistance;
+            positions[index + 1] = (short) yDistance;
         }
 
         public float getLat(int minute) {
-            double p1X = Helper.getProjection().lon2x(lonOffset, latOffset);
-            double p1Y = Helper.getProjection().lat2y(lonOffset, latOffset);
-            if (minute < 5) {
-                if (positions[0] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().y2Lat(p1X - (positions[0] * 10), p1Y - (positions[1] * 10));
-            } else if (minute < 15) {
-                if (positions[2] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().y2Lat(p1X - (positions[2] * 10), p1Y - (positions[3] * 10));
-            } else if (minute < 25) {
-                if (positions[4] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().y2Lat(p1X - (positions[4] * 10), p1Y - (positions[5] * 10));
-            } else if (minute < 35) {
-                if (positions[6] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().y2Lat(p1X - (positions[6] * 10), p1Y - (positions[7] * 10));
-            } else if (minute < 45) {
-                if (positions[8] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().y2Lat(p1X - (positions[8] * 10), p1Y - (positions[9] * 10));
-            } else if (minute < 55) {
-                if (positions[10] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().y2Lat(p1X - (positions[10] * 10), p1Y - (positions[11] * 10));
-            } else {
-                if (positions[10] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().y2Lat(p1X - (positions[10] * 10), p1Y - (positions[11] * 10));
+            int index = positionIndex(minute);
+            if (positions[index] == 0) {
+                return 0;
             }
+            return (float) (latOffset + positions[index + 1] * 10 / METERS_PER_LAT_DEGREE);
         }
 
         public float getLon(int minute) {
-            double p1X = Helper.getProjection().lon2x(lonOffset, latOffset);
-            double p1Y = Helper.getProjection().lat2y(lonOffset, latOffset);
+            int index = positionIndex(minute);
+            if (positions[index] == 0) {
+                return 0;
+            }
+            return (float) (lonOffset + positions[index] * 10 / (double) metersPerLonDegree);
+        }
+
+        /**
+         * @return the index in {@link #positions} of the x distance of the position kept for the given minute, the y
+         * distance following it. The last position of the hour is used for minutes 55 to 59.
+         */
+        private int positionIndex(int minute) {
             if (minute < 5) {
-                if (positions[0] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().x2Lon(p1X - (positions[0] * 10), p1Y - (positions[1] * 10));
-            } else if (minute < 15) {
-                if (positions[2] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().x2Lon(p1X - (positions[2] * 10), p1Y - (positions[3] * 10));
-            } else if (minute < 25) {
-                if (positions[4] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().x2Lon(p1X - (positions[4] * 10), p1Y - (positions[5] * 10));
-            } else if (minute < 35) {
-                if (positions[6] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().x2Lon(p1X - (positions[6] * 10), p1Y - (positions[7] * 10));
-            } else if (minute < 45) {
-                if (positions[8] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().x2Lon(p1X - (positions[8] * 10), p1Y - (positions[9] * 10));
+                return 0;
             } else if (minute < 55) {
-                if (positions[10] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().x2Lon(p1X - (positions[10] * 10), p1Y - (positions[11] * 10));
-            } else {
-                if (positions[10] == 0) {
-                    return 0;
-                }
-                return (float) Helper.getProjection().x2Lon(p1X - (positions[10] * 10), p1Y - (positions[11] * 10));
+                return (minute + 5) / 10 * 2;
             }
+            return 10;
         }
 
         public boolean gotSignal(int minute) {
@@ -0,0 +1,177 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Buffer of the latest messages of a ship, holding only what the terrestrial calculator needs: timestamp, position,
+ * course, speed and sources.
+ * <p>
+ * Messages are kept in parallel primitive arrays used as a ring, and their sources as bitmaps of the ids assigned by
+ * {@link SourceIds}, so buffering a message does not retain it. Entries are indexed from the oldest (0) to the
+ * latest ({@link #size()} - 1). The capacity only grows if a ship sends more messages than it holds before its buffer
+ * is emptied.
+ */
+public class ShipMessageRing implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private float[] cogs = new float[INITIAL_CAPACITY];
+    private float[] sogs = new float[INITIAL_CAPACITY];
+    private long[] sources = new long[INITIAL_CAPACITY];
+    private int wordsPerEntry = 1;
+    private int head;
+    private int size;
+
+    /**
+     * Adds a message after the latest one, with the sources it was received from.
+     */
+    public void add(CustomMessage message) {
+        if (size == timestamps.length) {
+            resize(timestamps.length * 2, wordsPerEntry);
+        }
+        int slot = slotOf(size);
+        timestamps[slot] = message.getTimestampInMillis();
+        latitudes[slot] = message.getLatitude();
+        longitudes[slot] = message.getLongitude();
+        cogs[slot] = (float) message.getCog();
+        sogs[slot] = (float) message.getSog();
+        Arrays.fill(sources, slot * wordsPerEntry, (slot + 1) * wordsPerEntry, 0L);
+        size++;
+
+        BitSet messageSources = message.getSources();
+        int words = (messageSources.length() + 63) >> 6;
+        if (words > wordsPerEntry) {
+            resize(timestamps.length, words);
+            slot = slotOf(size - 1);
+        }
+        for (int id = messageSources.nextSetBit(0); id >= 0; id = messageSources.nextSetBit(id + 1)) {
+            sources[slot * wordsPerEntry + (id >> 6)] |= 1L << id;
+        }
+    }
+
+    /**
+     * Removes all messages but the latest one.
+     */
+    public void keepLatest() {
+        if (size > 1) {
+            head = slotOf(size - 1);
+            size = 1;
+        }
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[slotOf(checkIndex(index))];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[slotOf(checkIndex(index))];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[slotOf(checkIndex(index))];
+    }
+
+    public double getCog(int index) {
+        return cogs[slotOf(checkIndex(index))];
+    }
+
+    public double getSog(int index) {
+        return sogs[slotOf(checkIndex(index))];
+    }
+
+    /**
+     * Iterates over the sources of a message, in the same way as {@link java.util.BitSet#nextSetBit(int)}.
+     *
+     * @return the lowest id, greater than or equal to fromId, of a source the message was received from, or -1
+     */
+    public int nextSource(int index, int fromId) {
+        int offset = slotOf(checkIndex(index)) * wordsPerEntry;
+        int word = fromId >> 6;
+        if (fromId < 0 || word >= wordsPerEntry) {
+            return -1;
+        }
+        long bits = sources[offset + word] & (-1L << fromId);
+        while (true) {
+            if (bits != 0) {
+                return word * 64 + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == wordsPerEntry) {
+                return -1;
+            }
+            bits = sources[offset + word];
+        }
+    }
+
+    private int slotOf(int index) {
+        return (head + index) & (timestamps.length - 1);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return index;
+    }
+
+    /**
+     * Copies the entries to arrays of the given capacity, starting at slot 0.
+     */
+    private void resize(int capacity, int words) {
+        long[] newTimestamps = new long[capacity];
+        double[] newLatitudes = new double[capacity];
+        double[] newLongitudes = new double[capacity];
+        float[] newCogs = new float[capacity];
+        float[] newSogs = new float[capacity];
+        long[] newSources = new long[capacity * words];
+        for (int i = 0; i < size; i++) {
+            int slot = slotOf(i);
+            newTimestamps[i] = timestamps[slot];
+            newLatitudes[i] = latitudes[slot];
+            newLongitudes[i] = longitudes[slot];
+            newCogs[i] = cogs[slot];
+            newSogs[i] = sogs[slot];
+            System.arraycopy(sources, slot * wordsPerEntry, newSources, i * words, wordsPerEntry);
+        }
+        timestamps = newTimestamps;
+        latitudes = newLatitudes;
+        longitudes = newLongitudes;
+        cogs = newCogs;
+        sogs = newSogs;
+        sources = newSources;
+        wordsPerEntry = words;
+        head = 0;
+    }
+}
@@ -0,0 +1,251 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe map of the ships, keyed by their MMSI.
+ * <p>
+ * Works like {@link CellGrid}: MMSIs are kept in primitive arrays, using open addressing with linear probing, so looking a
+ * ship up neither boxes its MMSI nor allocates. The registry is split in segments, each guarded by its own lock, and
+ * lookups are optimistic.
+ */
+public class ShipRegistry {
+    private static final int NUMBER_OF_SEGMENTS = 64;
+    private static final int SEGMENT_SHIFT = 32 - Integer.numberOfTrailingZeros(NUMBER_OF_SEGMENTS);
+
+    private final Segment[] segments = new Segment[NUMBER_OF_SEGMENTS];
+
+    public ShipRegistry() {
+        for (int i = 0; i < NUMBER_OF_SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the ship with the given MMSI, or null
+     */
+    public Ship get(int mmsi) {
+        int hash = hash(mmsi);
+        return segmentFor(hash).get(mmsi, hash);
+    }
+
+    /**
+     * Adds a ship unless the registry already has a ship with the same MMSI.
+     *
+     * @return the ship already in the registry, or null if the given ship was added
+     */
+    public Ship putIfAbsent(Ship ship) {
+        int hash = hash(ship.getMmsi());
+        return segmentFor(hash).putIfAbsent(ship.getMmsi(), hash, ship);
+    }
+
+    /**
+     * Removes a ship, unless the registry holds another ship instance for its MMSI.
+     *
+     * @return true if the ship was removed
+     */
+    public boolean remove(Ship ship) {
+        int hash = hash(ship.getMmsi());
+        return segmentFor(hash).remove(ship.getMmsi(), hash, ship);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return a snapshot of the ships of the registry
+     */
+    public List<Ship> values() {
+        List<Ship> ships = new ArrayList<Ship>(size());
+        for (Segment segment : segments) {
+            segment.addShipsTo(ships);
+        }
+        return ships;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> SEGMENT_SHIFT];
+    }
+
+    private static int hash(int mmsi) {
+        return mmsi * 0x9E3779B9;
+    }
+
+    /**
+     * MMSIs and ships of a segment, replaced as a whole when the segment grows so that optimistic lookups never see
+     * arrays of different lengths.
+     */
+    private static final class Table {
+        private final int[] keys;
+        private final Ship[] ships;
+        private final int mask;
+
+        private Table(int capacity) {
+            keys = new int[capacity];
+            ships = new Ship[capacity];
+            mask = capacity - 1;
+        }
+
+        private int slotOf(int key, int hash) {
+            int slot = hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                if (ships[slot] == null) {
+                    return -1 - slot;
+                }
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private Table table = new Table(16);
+        private int size;
+
+        private Ship get(int key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Table current = table;
+                int slot = current.slotOf(key, hash);
+                Ship ship = slot >= 0 ? current.ships[slot] : null;
+                if (lock.validate(stamp)) {
+                    return ship;
+                }
+            }
+
+            stamp = lock.readLock();
+            try {
+                int slot = table.slotOf(key, hash);
+                return slot >= 0 ? table.ships[slot] : null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private Ship putIfAbsent(int key, int hash, Ship ship) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.slotOf(key, hash);
+                if (slot >= 0) {
+                    return table.ships[slot];
+                }
+
+                if ((size + 1) * 2 > table.ships.length) {
+                    grow();
+                    slot = table.slotOf(key, hash);
+                }
+                slot = -1 - slot;
+                table.keys[slot] = key;
+                table.ships[slot] = ship;
+                size++;
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private boolean remove(int key, int hash, Ship ship) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = table.slotOf(key, hash);
+                if (slot < 0 || table.ships[slot] != ship) {
+                    return false;
+                }
+                removeSlot(slot);
+                size--;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void addShipsTo(List<Ship> ships) {
+            long stamp = lock.readLock();
+            try {
+                for (Ship ship : table.ships) {
+                    if (ship != null) {
+                        ships.add(ship);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Empties a slot, shifting back the following entries of its probe sequence so that lookups never stop at a
+         * hole before reaching their key. Must be called while holding the write lock.
+         */
+        private void removeSlot(int slot) {
+            int[] keys = table.keys;
+            Ship[] ships = table.ships;
+            int mask = table.mask;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (ships[next] != null) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    ships[hole] = ships[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            ships[hole] = null;
+        }
+
+        /**
+         * Must be called while holding the write lock.
+         */
+        private void grow() {
+            Table grown = new Table(table.ships.length * 2);
+            for (int i = 0; i < table.ships.length; i++) {
+                Ship ship = table.ships[i];
+                if (ship != null) {
+                    int slot = -1 - grown.slotOf(table.keys[i], hash(table.keys[i]));
+                    grown.keys[slot] = table.keys[i];
+                    grown.ships[slot] = ship;
+                }
+            }
+            table = grown;
+        }
+    }
+}
@@ -15,15 +15,16 @@
 package dk.dma.ais.coverage.data;
 
 import java.io.Serializable;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 import dk.dma.ais.coverage.Helper;
 
 public class Source implements Serializable {
 
     private static final long serialVersionUID = 1L;
-    private Map<String, Cell> grid = new ConcurrentHashMap<String, Cell>();
+    private CellGrid grid = new CellGrid();
+    private final transient CellPyramid pyramid = new CellPyramid(this);
     private String name = "Unknown";
     private String identifier;
     private double latitude;
@@ -32,6 +33,7 @@ public class Source implements Serializable {
     private boolean isVisible = true;
     private ReceiverType receiverType = ReceiverType.NOTDEFINED;
     private int multiplicationFactor = 1;
+    private int fixedWidthSpanHours;
 
     public int getMultiplicationFactor() {
         return multiplicationFactor;
@@ -41,6 +43,18 @@ public class Source implements Serializable {
         this.multiplicationFactor = multiplicationFactor;
     }
 
+    /**
+     * @return the number of hours kept by the cells created from now on in an {@link HourlyTimeSpanRing}, or 0 if
+     *         they keep their fixed width time spans in a hash map
+     */
+    public int getFixedWidthSpanHours() {
+        return fixedWidthSpanHours;
+    }
+
+    public void setFixedWidthSpanHours(int fixedWidthSpanHours) {
+        this.fixedWidthSpanHours = fixedWidthSpanHours;
+    }
+
     public enum ReceiverType {
         BASESTATION, REGION, NOTDEFINED
     }
@@ -74,43 +88,65 @@ public class Source implements Serializable {
     }
 
     public Cell getCell(double latitude, double longitude) {
-        return grid.get(Helper.getCellId(latitude, longitude, multiplicationFactor));
+        return grid.get(Helper.getCellKey(latitude, longitude, multiplicationFactor));
     }
 
     public Cell getTempCell(double latitude, double longitude, int multiplicationFactorTemp) {
-        return grid.get(Helper.getCellId(latitude, longitude, multiplicationFactorTemp));
+        return grid.get(Helper.getCellKey(latitude, longitude, multiplicationFactorTemp));
     }
 
     public Cell createCell(double latitude, double longitude) {
-        String id = Helper.getCellId(latitude, longitude, multiplicationFactor);
+        long key = Helper.getCellKey(latitude, longitude, multiplicationFactor);
         double lat = Helper.roundLat(latitude, multiplicationFactor);
         double lon = Helper.roundLon(longitude, multiplicationFactor);
-        Cell cell = new Cell(this, lat, lon, id);
-        grid.put(cell.getId(), cell);
+        Cell cell = new Cell(this, lat, lon, key);
+        Cell existing = grid.putIfAbsent(cell);
 
-        return cell;
+        return existing != null ? existing : cell;
     }
 
     public Cell createTempCell(double latitude, double longitude, int multiplicationFactorTemp) {
-        String id = Helper.getCellId(latitude, longitude, multiplicationFactorTemp);
+        long key = Helper.getCellKey(latitude, longitude, multiplicationFactorTemp);
         double lat = Helper.roundLat(latitude, multiplicationFactorTemp);
         double lon = Helper.roundLon(longitude, multiplicationFactorTemp);
-        Cell cell = new Cell(this, lat, lon, id);
-        grid.put(cell.getId(), cell);
+        Cell cell = new Cell(this, lat, lon, key);
+        grid.put(cell);
 
         return cell;
     }
 
+    /**
+     * @return the cells of this source inside the given box, as checked by
+     *         {@link Helper#isInsideBox(Cell, double, double, double, double)}
+     */
+    public List<Cell> getCellsInBox(double latStart, double lonStart, double latEnd, double lonEnd) {
+        List<Cell> cells = new ArrayList<Cell>();
+        for (Cell cell : grid.valuesAround(latStart, lonStart, latEnd, lonEnd, multiplicationFactor)) {
+            if (Helper.isInsideBox(cell, latStart, lonStart, latEnd, lonEnd)) {
+                cells.add(cell);
+            }
+        }
+        return cells;
+    }
+
     public void addCell(Cell cell) {
-        grid.put(cell.getId(), cell);
+        grid.put(cell);
     }
 
-    public Map<String, Cell> getGrid() {
+    public CellGrid getGrid() {
         return grid;
     }
 
-    public void setGrid(ConcurrentHashMap<String, Cell> grid) {
+    public void setGrid(CellGrid grid) {
         this.grid = grid;
+        pyramid.clear();
+    }
+
+    /**
+     * @return the coarser grids kept for the multiplication factors of coverage queries
+     */
+    public CellPyramid getPyramid() {
+        return pyramid;
     }
 
     public String getIdentifier() {
@@ -0,0 +1,82 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import dk.dma.ais.coverage.calculator.AbstractCalculator;
+
+/**
+ * Dictionary assigning dense int ids to source identifiers, in the order they are first seen.
+ * <p>
+ * Ids are never reused, so they can index arrays and bitmaps. The supersource always has id {@link #SUPERSOURCE}, and
+ * other sources get the next ids. Looking up a known identifier does not lock; only assigning a new id does. Source
+ * identifiers are only needed at the edges: the data handlers and calculators work with ids.
+ */
+public class SourceIds {
+    /**
+     * Id of {@link AbstractCalculator#SUPERSOURCE_MMSI}.
+     */
+    public static final int SUPERSOURCE = 0;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] names = new String[16];
+    private int size;
+
+    public SourceIds() {
+        assign(AbstractCalculator.SUPERSOURCE_MMSI);
+    }
+
+    /**
+     * @return the id of the given source identifier, assigning the next id if it was never seen
+     */
+    public int idOf(String sourceId) {
+        Integer id = ids.get(sourceId);
+        if (id != null) {
+            return id;
+        }
+        return assign(sourceId);
+    }
+
+    /**
+     * @return the source identifier with the given id, or null if no identifier has this id
+     */
+    public String nameOf(int id) {
+        String[] current = names;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * @return the number of ids assigned
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int assign(String sourceId) {
+        Integer id = ids.get(sourceId);
+        if (id != null) {
+            return id;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+        // The name is stored before the id is published, so that any thread reading the id can resolve it
+        names[size] = sourceId;
+        ids.put(sourceId, size);
+        return size++;
+    }
+}
@@ -15,58 +15,106 @@
 package dk.dma.ais.coverage.data;
 
 import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+/**
+ * Counters of the messages of a cell over a period of time.
+ * <p>
+ * Message counters are volatile fields updated with a compare and set through field updaters, so that handling threads can
+ * count messages concurrently without losing updates. When a compare and set fails, the span allocates
+ * {@link CounterStripes} and counts in the lane of each thread from then on, so that a span counted by many threads
+ * scales like a {@link java.util.concurrent.atomic.LongAdder} while other spans keep a primitive field per counter. The
+ * average signal strength is derived from the number of VSI messages and the sum of their signal strengths when read,
+ * and may miss a message being counted at the same time.
+ */
 public class TimeSpan {
-    private Map<String, Boolean> distinctShipsSat = new ConcurrentHashMap<String, Boolean>();
-    private Map<String, Boolean> distinctShipsTerrestrial = new ConcurrentHashMap<String, Boolean>();
+    private static final AtomicIntegerFieldUpdater<TimeSpan> MESSAGE_COUNTER_SAT = AtomicIntegerFieldUpdater.newUpdater(TimeSpan.class,
+            "messageCounterSat");
+    private static final AtomicIntegerFieldUpdater<TimeSpan> MESSAGE_COUNTER_TERRESTRIAL = AtomicIntegerFieldUpdater.newUpdater(TimeSpan.class,
+            "messageCounterTerrestrial");
+    private static final AtomicIntegerFieldUpdater<TimeSpan> MISSING_SIGNALS = AtomicIntegerFieldUpdater.newUpdater(TimeSpan.class,
+            "missingSignals");
+    private static final AtomicIntegerFieldUpdater<TimeSpan> MESSAGE_COUNTER_TERRESTRIAL_UNFILTERED = AtomicIntegerFieldUpdater.newUpdater(
+            TimeSpan.class, "messageCounterTerrestrialUnfiltered");
+    private static final AtomicIntegerFieldUpdater<TimeSpan> VSI_MESSAGE_COUNTER = AtomicIntegerFieldUpdater.newUpdater(TimeSpan.class,
+            "vsiMessageCounter");
+    private static final AtomicLongFieldUpdater<TimeSpan> SIGNAL_STRENGTH_SUM = AtomicLongFieldUpdater.newUpdater(TimeSpan.class,
+            "signalStrengthSum");
+    private static final AtomicReferenceFieldUpdater<TimeSpan, CounterStripes> STRIPES = AtomicReferenceFieldUpdater.newUpdater(
+            TimeSpan.class, CounterStripes.class, "stripes");
+
+    // Index of each counter in the stripes
+    private static final int SAT = 0;
+    private static final int TERRESTRIAL = 1;
+    private static final int MISSING = 2;
+    private static final int TERRESTRIAL_UNFILTERED = 3;
+    private static final int VSI = 4;
+    private static final int SIGNAL_STRENGTH = 5;
+
+    private final DistinctShipCounter distinctShipsSat = new DistinctShipCounter();
+    private final DistinctShipCounter distinctShipsTerrestrial = new DistinctShipCounter();
     private long firstMessage, lastMessage;
-    private int messageCounterSat;
-    private int messageCounterTerrestrial;
-    private int missingSignals;
-    private int messageCounterTerrestrialUnfiltered;
-    private int vsiMessageCounter;
-    private int averageSignalStrength;
+    private volatile int messageCounterSat;
+    private volatile int messageCounterTerrestrial;
+    private volatile int missingSignals;
+    private volatile int messageCounterTerrestrialUnfiltered;
+    private volatile int vsiMessageCounter;
+    private volatile long signalStrengthSum;
+    // Allocated the first time two threads count in this span at the same time
+    private volatile CounterStripes stripes;
 
     public int getMessageCounterTerrestrialUnfiltered() {
-        return messageCounterTerrestrialUnfiltered;
+        return get(MESSAGE_COUNTER_TERRESTRIAL_UNFILTERED, TERRESTRIAL_UNFILTERED);
     }
 
     public void incrementMessageCounterTerrestrialUnfiltered() {
-        this.messageCounterTerrestrialUnfiltered++;
+        add(MESSAGE_COUNTER_TERRESTRIAL_UNFILTERED, TERRESTRIAL_UNFILTERED, 1);
     }
 
     public void setMessageCounterTerrestrialUnfiltered(int number) {
-        this.messageCounterTerrestrialUnfiltered = number;
+        set(MESSAGE_COUNTER_TERRESTRIAL_UNFILTERED, TERRESTRIAL_UNFILTERED, number);
     }
 
     public void addMessageCounterTerrestrialUnfiltered(int number) {
-        this.messageCounterTerrestrialUnfiltered += number;
+        add(MESSAGE_COUNTER_TERRESTRIAL_UNFILTERED, TERRESTRIAL_UNFILTERED, number);
     }
 
     public void incrementMissingSignals() {
-        missingSignals++;
+        add(MISSING_SIGNALS, MISSING, 1);
+    }
+
+    public void addMissingSignals(int number) {
+        add(MISSING_SIGNALS, MISSING, number);
     }
 
     public int getMissingSignals() {
-        return missingSignals;
+        return get(MISSING_SIGNALS, MISSING);
     }
 
     public void setMissingSignals(int missingSignals) {
-        this.missingSignals = missingSignals;
+        set(MISSING_SIGNALS, MISSING, missingSignals);
     }
 
-    public Map<String, Boolean> getDistinctShipsTerrestrial() {
+    public DistinctShipCounter getDistinctShipsTerrestrial() {
         return distinctShipsTerrestrial;
     }
 
     public int getMessageCounterTerrestrial() {
-        return messageCounterTerrestrial;
+        return get(MESSAGE_COUNTER_TERRESTRIAL, TERRESTRIAL);
     }
 
     public void setMessageCounterTerrestrial(int messageCounterTerrestrial) {
-        this.messageCounterTerrestrial = messageCounterTerrestrial;
+        set(MESSAGE_COUNTER_TERRESTRIAL, TERRESTRIAL, messageCounterTerrestrial);
+    }
+
+    public void incrementMessageCounterTerrestrial() {
+        add(MESSAGE_COUNTER_TERRESTRIAL, TERRESTRIAL, 1);
+    }
+
+    public void addMessageCounterTerrestrial(int number) {
+        add(MESSAGE_COUNTER_TERRESTRIAL, TERRESTRIAL, number);
     }
 
     public TimeSpan(Date firstMessage) {
@@ -74,7 +122,7 @@ public class TimeSpan {
         this.lastMessage = firstMessage.getTime();
     }
 
-    public Map<String, Boolean> getDistinctShipsSat() {
+    public DistinctShipCounter getDistinctShipsSat() {
         return distinctShipsSat;
     }
 
@@ -94,75 +142,143 @@ public class TimeSpan {
         this.lastMessage = lastMessage.getTime();
     }
 
+    /**
+     * @return true if the given time is in [first message, last message)
+     */
+    boolean contains(long time) {
+        return time >= firstMessage && time < lastMessage;
+    }
+
+    boolean startsBefore(long time) {
+        return firstMessage < time;
+    }
+
     public int getMessageCounterSat() {
-        return messageCounterSat;
+        return get(MESSAGE_COUNTER_SAT, SAT);
     }
 
     public void setMessageCounterSat(int messageCounter) {
-        this.messageCounterSat = messageCounter;
+        set(MESSAGE_COUNTER_SAT, SAT, messageCounter);
     }
 
-    public int getVsiMessageCounter() {
-        return vsiMessageCounter;
+    public void incrementMessageCounterSat() {
+        add(MESSAGE_COUNTER_SAT, SAT, 1);
     }
 
-    public void setVsiMessageCounter(int vsiMessageCounter) {
-        this.vsiMessageCounter = vsiMessageCounter;
+    public int getVsiMessageCounter() {
+        return get(VSI_MESSAGE_COUNTER, VSI);
     }
 
-    public int getAverageSignalStrength() {
-        return averageSignalStrength;
+    /**
+     * Sets the number of VSI messages, keeping the current average signal strength.
+     */
+    public synchronized void setVsiMessageCounter(int vsiMessageCounter) {
+        int averageSignalStrength = getAverageSignalStrength();
+        set(VSI_MESSAGE_COUNTER, VSI, vsiMessageCounter);
+        setSignalStrengthSum((long) vsiMessageCounter * averageSignalStrength);
     }
 
-    public void setAverageSignalStrength(int averageSignalStrength) {
-        this.averageSignalStrength = averageSignalStrength;
+    public int getAverageSignalStrength() {
+        // A message being counted concurrently may already be in the sum but not in the number of messages yet
+        long vsiMessages = getVsiMessageCounter();
+        long summedSignalStrength = getSignalStrengthSum();
+        if (vsiMessages > 0) {
+            return (int) Math.floorDiv(summedSignalStrength, vsiMessages);
+        } else {
+            return 0;
+        }
     }
 
-    public synchronized void incrementNumberOfVsiMessages(int signalStrength) {
-        int incrementedNumberOfVsiMessages = vsiMessageCounter + 1;
-        averageSignalStrength = computeAverageSignalStrength(signalStrength, incrementedNumberOfVsiMessages);
-        vsiMessageCounter = incrementedNumberOfVsiMessages;
+    /**
+     * Sets the average signal strength of the current number of VSI messages.
+     */
+    public synchronized void setAverageSignalStrength(int averageSignalStrength) {
+        setSignalStrengthSum((long) getVsiMessageCounter() * averageSignalStrength);
     }
 
-    private int computeAverageSignalStrength(int signalStrength, int incrementedNumberOfVsiMessages) {
-        return Math.floorDiv((vsiMessageCounter * averageSignalStrength) + signalStrength, incrementedNumberOfVsiMessages);
+    public void incrementNumberOfVsiMessages(int signalStrength) {
+        addSignalStrengthSum(signalStrength);
+        add(VSI_MESSAGE_COUNTER, VSI, 1);
     }
 
     public void add(TimeSpan other) {
-        this.setMessageCounterSat(this.getMessageCounterSat() + other.getMessageCounterSat());
-        this.setMessageCounterTerrestrial(this.getMessageCounterTerrestrial() + other.getMessageCounterTerrestrial());
-        this.addMessageCounterTerrestrialUnfiltered(other.getMessageCounterTerrestrialUnfiltered());
-        this.setAverageSignalStrength(sumAverageSignalStrength(other));
-        this.setVsiMessageCounter(this.getVsiMessageCounter() + other.getVsiMessageCounter());
-        for (String s : other.distinctShipsSat.keySet()) {
-            this.distinctShipsSat.put(s, true);
-        }
-        for (String s : other.distinctShipsTerrestrial.keySet()) {
-            this.distinctShipsTerrestrial.put(s, true);
-        }
+        add(MESSAGE_COUNTER_SAT, SAT, other.getMessageCounterSat());
+        add(MESSAGE_COUNTER_TERRESTRIAL, TERRESTRIAL, other.getMessageCounterTerrestrial());
+        add(MESSAGE_COUNTER_TERRESTRIAL_UNFILTERED, TERRESTRIAL_UNFILTERED, other.getMessageCounterTerrestrialUnfiltered());
+        addSignalStrengthSum(other.getSignalStrengthSum());
+        add(VSI_MESSAGE_COUNTER, VSI, other.getVsiMessageCounter());
+        this.distinctShipsSat.merge(other.distinctShipsSat);
+        this.distinctShipsTerrestrial.merge(other.distinctShipsTerrestrial);
     }
 
-    private int sumAverageSignalStrength(TimeSpan other) {
-        int thisAggregatedSignalStrength = this.getVsiMessageCounter() * this.getAverageSignalStrength();
-        int otherAggregatedSignalStrength = other.getVsiMessageCounter() * other.getAverageSignalStrength();
-        int summedVsiMessageCounters = this.getVsiMessageCounter() + other.getVsiMessageCounter();
-        return Math.floorDiv(thisAggregatedSignalStrength + otherAggregatedSignalStrength, summedVsiMessageCounters);
+    /**
+     * Adds the terrestrial coverage counters of another time span: received and missing signals, and VSI messages with
+     * their signal strengths.
+     */
+    public void addCoverageCounters(TimeSpan other) {
+        add(MESSAGE_COUNTER_TERRESTRIAL, TERRESTRIAL, other.getMessageCounterTerrestrial());
+        add(MISSING_SIGNALS, MISSING, other.getMissingSignals());
+        addSignalStrengthSum(other.getSignalStrengthSum());
+        add(VSI_MESSAGE_COUNTER, VSI, other.getVsiMessageCounter());
     }
 
     public TimeSpan copy() {
         TimeSpan copy = new TimeSpan(this.getFirstMessage());
         copy.setLastMessage(this.getLastMessage());
-        copy.setMessageCounterSat(this.getMessageCounterSat());
-        copy.setMessageCounterTerrestrial(this.getMessageCounterTerrestrial());
-        copy.setMessageCounterTerrestrialUnfiltered(this.messageCounterTerrestrialUnfiltered);
-        copy.setVsiMessageCounter(this.getVsiMessageCounter());
-        copy.setAverageSignalStrength(this.getAverageSignalStrength());
-        for (String s : this.distinctShipsSat.keySet()) {
-            copy.distinctShipsSat.put(s, true);
+        copy.add(this);
+        return copy;
+    }
+
+    private int get(AtomicIntegerFieldUpdater<TimeSpan> counter, int stripe) {
+        CounterStripes lanes = stripes;
+        return lanes == null ? counter.get(this) : counter.get(this) + (int) lanes.sum(stripe);
+    }
+
+    private void add(AtomicIntegerFieldUpdater<TimeSpan> counter, int stripe, int amount) {
+        CounterStripes lanes = stripes;
+        if (lanes == null) {
+            if (CounterStripes.tryAdd(counter, this, amount)) {
+                return;
+            }
+            lanes = stripes();
         }
-        for (String s : this.distinctShipsTerrestrial.keySet()) {
-            copy.distinctShipsTerrestrial.put(s, true);
+        lanes.add(stripe, amount);
+    }
+
+    private void set(AtomicIntegerFieldUpdater<TimeSpan> counter, int stripe, int value) {
+        counter.set(this, value);
+        CounterStripes lanes = stripes;
+        if (lanes != null) {
+            lanes.reset(stripe);
         }
-        return copy;
+    }
+
+    private long getSignalStrengthSum() {
+        CounterStripes lanes = stripes;
+        return lanes == null ? signalStrengthSum : signalStrengthSum + lanes.sum(SIGNAL_STRENGTH);
+    }
+
+    private void addSignalStrengthSum(long amount) {
+        CounterStripes lanes = stripes;
+        if (lanes == null) {
+            if (CounterStripes.tryAdd(SIGNAL_STRENGTH_SUM, this, amount)) {
+                return;
+            }
+            lanes = stripes();
+        }
+        lanes.add(SIGNAL_STRENGTH, amount);
+    }
+
+    private void setSignalStrengthSum(long value) {
+        SIGNAL_STRENGTH_SUM.set(this, value);
+        CounterStripes lanes = stripes;
+        if (lanes != null) {
+            lanes.reset(SIGNAL_STRENGTH);
+        }
+    }
+
+    private CounterStripes stripes() {
+        STRIPES.compareAndSet(this, null, new CounterStripes());
+        return stripes;
     }
 }
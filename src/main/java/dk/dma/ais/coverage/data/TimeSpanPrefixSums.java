@@ -0,0 +1,219 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+
+/**
+ * Cumulative coverage counters of the fixed width time spans of a cell, ordered by span start, so that the counters of
+ * the spans within a time range are the difference of two cumulative counters.
+ * <p>
+ * A span is within a range if it starts at or after the start of the range and ends at or before its end. This can only
+ * be answered from the start of the spans when they all have the same width, which is the case of the hourly spans
+ * created by the data handlers; {@link #isUsable()} is false otherwise.
+ * <p>
+ * Only the closed hours, before the two most recent spans, are summed: messages are still counted in the open hours, whose
+ * counters are read from the spans on every query. Sums are built in two steps, {@link #sort(Collection, long)} then
+ * {@link #sumClosedHours()}, so that the cell can publish {@link #getFirstOpenHour()} before the counters are read, and
+ * make the sums stale when a late message is counted in a closed hour afterwards.
+ */
+final class TimeSpanPrefixSums {
+    private static final Comparator<TimeSpan> BY_START = new Comparator<TimeSpan>() {
+        @Override
+        public int compare(TimeSpan first, TimeSpan second) {
+            return Long.compare(first.getFirstMessage().getTime(), second.getFirstMessage().getTime());
+        }
+    };
+    private static final TimeSpan[] NO_SPANS = new TimeSpan[0];
+
+    private static final int RECEIVED_SIGNALS = 0;
+    private static final int MISSING_SIGNALS = 1;
+    private static final int VSI_MESSAGES = 2;
+    private static final int SIGNAL_STRENGTHS = 3;
+
+    private final long version;
+    private final long width;
+    private final TimeSpan[] closed;
+    private final long[] starts;
+    private final TimeSpan[] open;
+    private final long[] openStarts;
+    private final long firstOpenHour;
+    // Cumulative counters hold the counters of the closed spans before each index, the first one being 0
+    private int[] receivedSignals;
+    private int[] missingSignals;
+    private int[] vsiMessages;
+    private int[] signalStrengths;
+
+    private TimeSpanPrefixSums(long version, long width, TimeSpan[] closed, long[] starts, TimeSpan[] open, long[] openStarts,
+            long firstOpenHour) {
+        this.version = version;
+        this.width = width;
+        this.closed = closed;
+        this.starts = starts;
+        this.open = open;
+        this.openStarts = openStarts;
+        this.firstOpenHour = firstOpenHour;
+    }
+
+    /**
+     * Orders a snapshot of the given spans and splits them into closed and open hours, without reading their counters.
+     *
+     * @param version the version of the spans of the cell, see {@link #getVersion()}
+     */
+    static TimeSpanPrefixSums sort(Collection<TimeSpan> spans, long version) {
+        TimeSpan[] sorted = spans.toArray(new TimeSpan[spans.size()]);
+        long width = -1;
+        for (int i = 0; i < sorted.length; i++) {
+            long spanWidth = sorted[i].getLastMessage().getTime() - sorted[i].getFirstMessage().getTime();
+            if (i > 0 && spanWidth != width) {
+                return new TimeSpanPrefixSums(version, -1, null, null, null, null, Long.MIN_VALUE);
+            }
+            width = spanWidth;
+        }
+        if (sorted.length == 0) {
+            return new TimeSpanPrefixSums(version, width, NO_SPANS, new long[0], NO_SPANS, new long[0], Long.MIN_VALUE);
+        }
+
+        Arrays.sort(sorted, BY_START);
+        long firstOpenHour = sorted[sorted.length - 1].getFirstMessage().getTime() - width;
+        int closedSpans = sorted.length;
+        while (closedSpans > 0 && sorted[closedSpans - 1].getFirstMessage().getTime() >= firstOpenHour) {
+            closedSpans--;
+        }
+        TimeSpan[] closed = Arrays.copyOfRange(sorted, 0, closedSpans);
+        TimeSpan[] open = Arrays.copyOfRange(sorted, closedSpans, sorted.length);
+        return new TimeSpanPrefixSums(version, width, closed, startsOf(closed), open, startsOf(open), firstOpenHour);
+    }
+
+    /**
+     * Sums the counters of the closed hours. The signal strength of a span is its average signal strength times its
+     * number of VSI messages, and counters wrap like the int sums they replace.
+     */
+    void sumClosedHours() {
+        if (!isUsable()) {
+            return;
+        }
+        receivedSignals = new int[closed.length + 1];
+        missingSignals = new int[closed.length + 1];
+        vsiMessages = new int[closed.length + 1];
+        signalStrengths = new int[closed.length + 1];
+        for (int i = 0; i < closed.length; i++) {
+            TimeSpan span = closed[i];
+            int spanVsiMessages = span.getVsiMessageCounter();
+            receivedSignals[i + 1] = receivedSignals[i] + span.getMessageCounterTerrestrial();
+            missingSignals[i + 1] = missingSignals[i] + span.getMissingSignals();
+            vsiMessages[i + 1] = vsiMessages[i] + spanVsiMessages;
+            signalStrengths[i + 1] = signalStrengths[i] + span.getAverageSignalStrength() * spanVsiMessages;
+        }
+    }
+
+    /**
+     * @return the version of the spans of the cell when these sums were built
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the start of the first open hour, spans starting before it are summed, Long.MIN_VALUE if none is
+     */
+    long getFirstOpenHour() {
+        return firstOpenHour;
+    }
+
+    /**
+     * @return false if the spans do not all have the same width, in which case the counters must be summed span by span
+     */
+    boolean isUsable() {
+        return closed != null;
+    }
+
+    int getNOofReceivedSignals(Date startTime, Date endTime) {
+        return sum(receivedSignals, RECEIVED_SIGNALS, startTime, endTime);
+    }
+
+    int getNOofMissingSignals(Date startTime, Date endTime) {
+        return sum(missingSignals, MISSING_SIGNALS, startTime, endTime);
+    }
+
+    int getNumberOfVsiMessages(Date startTime, Date endTime) {
+        return sum(vsiMessages, VSI_MESSAGES, startTime, endTime);
+    }
+
+    int getAverageSignalStrength(Date startTime, Date endTime) {
+        int numberOfVsiMessages = getNumberOfVsiMessages(startTime, endTime);
+        if (numberOfVsiMessages > 0) {
+            return Math.floorDiv(sum(signalStrengths, SIGNAL_STRENGTHS, startTime, endTime), numberOfVsiMessages);
+        } else {
+            return 0;
+        }
+    }
+
+    private int sum(int[] cumulative, int counter, Date startTime, Date endTime) {
+        // Spans within the range are the ones starting in [startTime, endTime - width]
+        long firstStart = startTime.getTime();
+        long lastStart = endTime.getTime() - width;
+        int first = firstStartAfter(firstStart - 1);
+        int end = firstStartAfter(lastStart);
+        int result = end > first ? cumulative[end] - cumulative[first] : 0;
+        for (int i = 0; i < open.length; i++) {
+            if (openStarts[i] >= firstStart && openStarts[i] <= lastStart) {
+                result += counterOf(open[i], counter);
+            }
+        }
+        return result;
+    }
+
+    private static int counterOf(TimeSpan span, int counter) {
+        switch (counter) {
+        case RECEIVED_SIGNALS:
+            return span.getMessageCounterTerrestrial();
+        case MISSING_SIGNALS:
+            return span.getMissingSignals();
+        case VSI_MESSAGES:
+            return span.getVsiMessageCounter();
+        default:
+            return span.getAverageSignalStrength() * span.getVsiMessageCounter();
+        }
+    }
+
+    /**
+     * @return the index of the first closed span starting after the given time
+     */
+    private int firstStartAfter(long time) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long[] startsOf(TimeSpan[] spans) {
+        long[] starts = new long[spans.length];
+        for (int i = 0; i < spans.length; i++) {
+            starts[i] = spans[i].getFirstMessage().getTime();
+        }
+        return starts;
+    }
+}
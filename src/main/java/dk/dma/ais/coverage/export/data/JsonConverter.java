@@ -106,7 +106,7 @@ public class JsonConverter {
             jsonspan.timeSinceLastSpan = (int) timeSinceLastTimeSpan;
             jsonspan.accumulatedTime = (int) (Math.abs(timeSpan.getLastMessage().getTime() - first.getLastMessage().getTime()) / 1000 / 60);
             jsonspan.signals = timeSpan.getMessageCounterSat();
-            jsonspan.distinctShips = timeSpan.getDistinctShipsSat().size();
+            jsonspan.distinctShips = timeSpan.getDistinctShipsSat().count();
 
             jsonSpans.add(jsonspan);
             previous = timeSpan;
@@ -29,13 +29,12 @@ import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import javax.imageio.ImageIO;
 
 import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.data.DistinctShipCounter;
 import dk.dma.ais.coverage.data.TimeSpan;
 import dk.dma.ais.coverage.export.data.ExportShipTimeSpan;
 
@@ -202,17 +201,12 @@ public class ChartGenerator {
         for (TimeSpan timeSpan : timeSpans) {
 
             // Find total distinct ships
-            Map<String, Boolean> totalShips = new HashMap<String, Boolean>();
-            for (String mmsi : timeSpan.getDistinctShipsSat().keySet()) {
-                totalShips.put(mmsi, true);
-            }
-            for (String mmsi : timeSpan.getDistinctShipsTerrestrial().keySet()) {
-                totalShips.put(mmsi, true);
-            }
-            int totalDistinctShips = totalShips.size();
+            DistinctShipCounter totalShips = timeSpan.getDistinctShipsSat().copy();
+            totalShips.merge(timeSpan.getDistinctShipsTerrestrial());
+            int totalDistinctShips = totalShips.count();
 
             // Draw terrestrial bar
-            double terrestrialCoverage = (double) timeSpan.getDistinctShipsTerrestrial().size() / (double) totalDistinctShips;
+            double terrestrialCoverage = (double) timeSpan.getDistinctShipsTerrestrial().count() / (double) totalDistinctShips;
             long difference = timeSpan.getLastMessage().getTime() - timeSpan.getFirstMessage().getTime();
             long diffFromFloorDate = timeSpan.getFirstMessage().getTime() - floorDate.getTime();
             String label = "";
@@ -227,7 +221,7 @@ public class ChartGenerator {
             label = "";
             // Draw sat bar
             ig2.setColor(satBarColor);
-            double satCoverage = (double) timeSpan.getDistinctShipsSat().size() / (double) totalDistinctShips;
+            double satCoverage = (double) timeSpan.getDistinctShipsSat().count() / (double) totalDistinctShips;
             if (satCoverage > .15) {
                 label = round(satCoverage * 100, 2) + "%";
             }
@@ -241,10 +235,10 @@ public class ChartGenerator {
             ig2.setColor(Color.DARK_GRAY);
             ig2.drawString(totalDistinctShips + "", x + 30 - getTextWidth(totalDistinctShips + "") / 2, height - 1 - bottomOffset
                     + 15);
-            ig2.drawString(timeSpan.getDistinctShipsTerrestrial().size() + "", x + 30
-                    - getTextWidth(timeSpan.getDistinctShipsTerrestrial().size() + "") / 2, height - 1 - bottomOffset + 30);
-            ig2.drawString(timeSpan.getDistinctShipsSat().size() + "", x + 30
-                    - getTextWidth(timeSpan.getDistinctShipsSat().size() + "") / 2, height - 1 - bottomOffset + 45);
+            ig2.drawString(timeSpan.getDistinctShipsTerrestrial().count() + "", x + 30
+                    - getTextWidth(timeSpan.getDistinctShipsTerrestrial().count() + "") / 2, height - 1 - bottomOffset + 30);
+            ig2.drawString(timeSpan.getDistinctShipsSat().count() + "", x + 30
+                    - getTextWidth(timeSpan.getDistinctShipsSat().count() + "") / 2, height - 1 - bottomOffset + 45);
 
         }
         // if (timeSpans.size() > 1)
@@ -466,9 +460,9 @@ public class ChartGenerator {
             ig2.setColor(Color.black);
             int stringLen = (int) ig2
                     .getFontMetrics()
-                    .getStringBounds("" + timeSpan.getMessageCounterSat() + " (" + timeSpan.getDistinctShipsSat().size() + ")", ig2)
+                    .getStringBounds("" + timeSpan.getMessageCounterSat() + " (" + timeSpan.getDistinctShipsSat().count() + ")", ig2)
                     .getWidth();
-            ig2.drawString("" + timeSpan.getMessageCounterSat() + " (" + timeSpan.getDistinctShipsSat().size() + ")", x
+            ig2.drawString("" + timeSpan.getMessageCounterSat() + " (" + timeSpan.getDistinctShipsSat().count() + ")", x
                     + (barwidth / 2) - (stringLen / 2), y - 5);
 
             // Draw width label
@@ -576,38 +570,38 @@ public class ChartGenerator {
         TimeSpan s1 = new TimeSpan(new Date(1378065228317L));
         s1.setLastMessage(new Date(s1.getFirstMessage().getTime() + 1000 * 60 * 140));
         s1.setMessageCounterSat(1000);
-        s1.getDistinctShipsSat().put("123", true);
-        s1.getDistinctShipsSat().put("1234", true);
-        s1.getDistinctShipsSat().put("12", true);
-        s1.getDistinctShipsTerrestrial().put("123", true);
-        s1.getDistinctShipsTerrestrial().put("1234", true);
-        s1.getDistinctShipsTerrestrial().put("12", true);
-        s1.getDistinctShipsTerrestrial().put("1", true);
+        s1.getDistinctShipsSat().add(123);
+        s1.getDistinctShipsSat().add(1234);
+        s1.getDistinctShipsSat().add(12);
+        s1.getDistinctShipsTerrestrial().add(123);
+        s1.getDistinctShipsTerrestrial().add(1234);
+        s1.getDistinctShipsTerrestrial().add(12);
+        s1.getDistinctShipsTerrestrial().add(1);
         s1.setMessageCounterTerrestrial(1250);
 
         TimeSpan s2 = new TimeSpan(new Date(s1.getLastMessage().getTime() + 1000 * 60 * 60 * 1));
         s2.setLastMessage(new Date(s2.getFirstMessage().getTime() + 1000 * 60 * 8));
         s2.setMessageCounterSat(200);
-        s2.getDistinctShipsSat().put("123", true);
-        s2.getDistinctShipsSat().put("1234", true);
-        s2.getDistinctShipsSat().put("12", true);
-        s2.getDistinctShipsSat().put("1", true);
-        s2.getDistinctShipsTerrestrial().put("123", true);
-        s2.getDistinctShipsTerrestrial().put("1234", true);
-        s2.getDistinctShipsTerrestrial().put("12", true);
-        s2.getDistinctShipsTerrestrial().put("1", true);
+        s2.getDistinctShipsSat().add(123);
+        s2.getDistinctShipsSat().add(1234);
+        s2.getDistinctShipsSat().add(12);
+        s2.getDistinctShipsSat().add(1);
+        s2.getDistinctShipsTerrestrial().add(123);
+        s2.getDistinctShipsTerrestrial().add(1234);
+        s2.getDistinctShipsTerrestrial().add(12);
+        s2.getDistinctShipsTerrestrial().add(1);
         s2.setMessageCounterTerrestrial(340);
 
         TimeSpan s3 = new TimeSpan(new Date(s2.getLastMessage().getTime() + 1000 * 60 * 60 * 2));
         s3.setLastMessage(new Date(s3.getFirstMessage().getTime() + 1000 * 60 * 8));
         s3.setMessageCounterSat(200);
-        s3.getDistinctShipsSat().put("123", true);
-        s3.getDistinctShipsSat().put("1", true);
+        s3.getDistinctShipsSat().add(123);
+        s3.getDistinctShipsSat().add(1);
         s3.setMessageCounterTerrestrial(480);
-        s3.getDistinctShipsTerrestrial().put("123", true);
-        s3.getDistinctShipsTerrestrial().put("1234", true);
-        s3.getDistinctShipsTerrestrial().put("12", true);
-        s3.getDistinctShipsTerrestrial().put("1", true);
+        s3.getDistinctShipsTerrestrial().add(123);
+        s3.getDistinctShipsTerrestrial().add(1234);
+        s3.getDistinctShipsTerrestrial().add(12);
+        s3.getDistinctShipsTerrestrial().add(1);
 
         List<TimeSpan> l = new ArrayList<TimeSpan>();
         l.add(s1);
@@ -724,9 +718,9 @@ public class ChartGenerator {
             // Draw counter label
             // ig2.setColor(Color.black);
             // int stringLen = (int)
-            // ig2.getFontMetrics().getStringBounds(""+timeSpan.getMessageCounterSat()+" ("+timeSpan.getDistinctShipsSat().size()+")",
+            // ig2.getFontMetrics().getStringBounds(""+timeSpan.getMessageCounterSat()+" ("+timeSpan.getDistinctShipsSat().count()+")",
             // ig2).getWidth();
-            // ig2.drawString(""+timeSpan.getMessageCounterSat()+" ("+timeSpan.getDistinctShipsSat().size()+")",x+(barwidth/2)-(stringLen/2),y-5);
+            // ig2.drawString(""+timeSpan.getMessageCounterSat()+" ("+timeSpan.getDistinctShipsSat().count()+")",x+(barwidth/2)-(stringLen/2),y-5);
 
             // Draw width label
             ig2.setFont(small);
@@ -0,0 +1,126 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.packet.AisPacket;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filters AIS packets on their message type before they are decoded.
+ * <p>
+ * The message type is the first 6 bits of the payload, so it can be read from the first armored character of the
+ * first sentence without parsing the message. Packets whose type cannot be read this way, for instance because the
+ * sentence is malformed or not the first fragment, are accepted and left to the full decoding. Skipped packets are
+ * counted per message type.
+ */
+public class AisMessageTypeFilter {
+    /**
+     * Message types used by the coverage calculators: position reports of class A (1, 2, 3) and class B (18, 19, 27)
+     * vessels, SAR aircraft (9), and base station reports (4, 11) locating the sources.
+     */
+    public static final int[] CALCULATOR_MESSAGE_TYPES = {1, 2, 3, 4, 9, 11, 18, 19, 27};
+
+    static final int UNKNOWN_TYPE = -1;
+    private static final int NUMBER_OF_TYPES = 64;
+
+    private final boolean[] acceptedTypes = new boolean[NUMBER_OF_TYPES];
+    private final LongAdder[] skippedPackets = new LongAdder[NUMBER_OF_TYPES];
+
+    /**
+     * @param acceptedTypes message types to let through
+     */
+    public AisMessageTypeFilter(int... acceptedTypes) {
+        for (int type : acceptedTypes) {
+            this.acceptedTypes[type] = true;
+        }
+        for (int type = 0; type < NUMBER_OF_TYPES; type++) {
+            skippedPackets[type] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return true if the packet should be decoded, false if its message type is not accepted
+     */
+    public boolean accept(AisPacket packet) {
+        int type = messageTypeOf(packet.getStringMessage());
+        if (type == UNKNOWN_TYPE || acceptedTypes[type]) {
+            return true;
+        }
+        skippedPackets[type].increment();
+        return false;
+    }
+
+    /**
+     * @return the number of skipped packets of the given message type
+     */
+    public long getSkippedPackets(int type) {
+        return skippedPackets[type].sum();
+    }
+
+    /**
+     * @return the number of skipped packets of all message types
+     */
+    public long getSkippedPackets() {
+        long skipped = 0;
+        for (LongAdder counter : skippedPackets) {
+            skipped += counter.sum();
+        }
+        return skipped;
+    }
+
+    /**
+     * Reads the message type from the first VDM or VDO sentence of a packet, e.g. <code>!AIVDM,1,1,,A,13u?etPv2;0n:dDPwUM1U1Cb069D,0*24</code>.
+     *
+     * @return the message type, or {@link #UNKNOWN_TYPE} if it cannot be read
+     */
+    static int messageTypeOf(String sentences) {
+        if (sentences == null) {
+            return UNKNOWN_TYPE;
+        }
+        int sentenceStart = sentences.indexOf("VDM,");
+        if (sentenceStart < 0) {
+            sentenceStart = sentences.indexOf("VDO,");
+        }
+        if (sentenceStart < 0) {
+            return UNKNOWN_TYPE;
+        }
+
+        // Fields following the sentence identifier: fragment count, fragment number, sequence id, channel, payload
+        int fragmentNumber = nextField(sentences, sentenceStart + 4);
+        if (fragmentNumber < 0 || !sentences.startsWith("1,", fragmentNumber)) {
+            return UNKNOWN_TYPE;
+        }
+        int payload = nextField(sentences, nextField(sentences, fragmentNumber));
+        payload = nextField(sentences, payload);
+        if (payload < 0 || payload >= sentences.length()) {
+            return UNKNOWN_TYPE;
+        }
+
+        int type = sentences.charAt(payload) - 48;
+        if (type > 40) {
+            type -= 8;
+        }
+        return type >= 0 && type < NUMBER_OF_TYPES ? type : UNKNOWN_TYPE;
+    }
+
+    private static int nextField(String sentences, int fieldStart) {
+        if (fieldStart < 0) {
+            return -1;
+        }
+        int separator = sentences.indexOf(',', fieldStart);
+        return separator < 0 ? -1 : separator + 1;
+    }
+}
@@ -0,0 +1,146 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, preallocated multi-producer/multi-consumer FIFO queue.
+ * <p>
+ * Every slot carries a sequence number telling whether it is ready to be written or read for a given position, so
+ * producers and consumers only contend on their own position counter and never lock. The number of queued elements
+ * is the difference between both counters, which makes {@link #size()} constant time.
+ *
+ * @param <E> type of the queued elements
+ */
+public class BoundedRingBuffer<E> {
+    private final int capacity;
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    public BoundedRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.elements = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an element at the tail of the buffer.
+     *
+     * @return false if the buffer is full
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position % capacity);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements[index] = element;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Adds an element at the tail of the buffer, waiting with the given strategy for room to be available.
+     */
+    public void put(E element, WaitStrategy waitStrategy) throws InterruptedException {
+        while (!offer(element)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle();
+        }
+    }
+
+    /**
+     * Removes the element at the head of the buffer.
+     *
+     * @return the removed element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position % capacity);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = (E) elements[index];
+                    elements[index] = null;
+                    sequences.lazySet(index, position + capacity);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the element at the head of the buffer, waiting with the given strategy for one to be available.
+     */
+    public E take(WaitStrategy waitStrategy) throws InterruptedException {
+        E element;
+        while ((element = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle();
+        }
+        return element;
+    }
+
+    /**
+     * @return the number of queued elements. Exact when the buffer is not being modified, a close estimate otherwise.
+     */
+    public int size() {
+        long currentHead = head.get();
+        long currentTail = tail.get();
+        return (int) Math.max(0, Math.min(capacity, currentTail - currentHead));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
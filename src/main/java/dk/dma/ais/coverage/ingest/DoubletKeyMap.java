@@ -0,0 +1,172 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+import java.io.Serializable;
+import java.util.NoSuchElementException;
+
+/**
+ * Bounded map keyed by a pair of longs, keeping its entries in insertion order. Entries can only be removed eldest
+ * first, which is all a doublet buffer needs.
+ * <p>
+ * Keys are stored in primitive arrays, using open addressing with linear probing, and the insertion order is kept in a
+ * ring of keys. Neither lookups nor insertions allocate. Not thread-safe.
+ *
+ * @param <V> type of the mapped values
+ */
+public class DoubletKeyMap<V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] highKeys;
+    private final long[] lowKeys;
+    private final Object[] values;
+
+    private final long[] orderHighKeys;
+    private final long[] orderLowKeys;
+    private int eldest;
+    private int size;
+
+    /**
+     * @param capacity maximum number of entries
+     */
+    public DoubletKeyMap(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+        this.mask = tableSize - 1;
+        this.highKeys = new long[tableSize];
+        this.lowKeys = new long[tableSize];
+        this.values = new Object[tableSize];
+        this.orderHighKeys = new long[capacity];
+        this.orderLowKeys = new long[capacity];
+    }
+
+    /**
+     * @return the value mapped to the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long highKey, long lowKey) {
+        int slot = slotOf(highKey, lowKey);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Maps a value to a key that is not in the map yet.
+     *
+     * @throws IllegalStateException if the map is full
+     */
+    public void put(long highKey, long lowKey, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        if (size == capacity) {
+            throw new IllegalStateException("Map is full: " + capacity + " entries");
+        }
+
+        int slot = hash(highKey, lowKey) & mask;
+        while (values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        highKeys[slot] = highKey;
+        lowKeys[slot] = lowKey;
+        values[slot] = value;
+
+        int newest = (eldest + size) % capacity;
+        orderHighKeys[newest] = highKey;
+        orderLowKeys[newest] = lowKey;
+        size++;
+    }
+
+    /**
+     * @return the value of the eldest entry, or null if the map is empty
+     */
+    public V peekEldest() {
+        return size == 0 ? null : get(orderHighKeys[eldest], orderLowKeys[eldest]);
+    }
+
+    /**
+     * Removes the eldest entry.
+     *
+     * @return its value
+     * @throws NoSuchElementException if the map is empty
+     */
+    @SuppressWarnings("unchecked")
+    public V removeEldest() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        int slot = slotOf(orderHighKeys[eldest], orderLowKeys[eldest]);
+        V value = (V) values[slot];
+        removeSlot(slot);
+
+        eldest = (eldest + 1) % capacity;
+        size--;
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private int slotOf(long highKey, long lowKey) {
+        int slot = hash(highKey, lowKey) & mask;
+        while (values[slot] != null) {
+            if (highKeys[slot] == highKey && lowKeys[slot] == lowKey) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Empties a slot, shifting back the following entries of its probe sequence so that lookups never stop at a hole
+     * before reaching their key.
+     */
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int home = hash(highKeys[next], lowKeys[next]) & mask;
+            // Move the entry to the hole unless its home slot lies cyclically between the hole and its current slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                highKeys[hole] = highKeys[next];
+                lowKeys[hole] = lowKeys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+    }
+
+    private static int hash(long highKey, long lowKey) {
+        long hash = highKey * 0x9E3779B97F4A7C15L + lowKey;
+        hash *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
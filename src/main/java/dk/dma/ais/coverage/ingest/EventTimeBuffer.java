@@ -0,0 +1,54 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+/**
+ * Buffer releasing messages according to an event time watermark: the latest message timestamp seen so far.
+ * <p>
+ * The watermark only moves with incoming messages, so a timer may move it forward while traffic is idle and then ask
+ * the buffer to release what expired.
+ */
+public interface EventTimeBuffer {
+
+    /**
+     * How far ahead of both the watermark and the wall clock a message timestamp may be to move the watermark. A single
+     * message stamped by a receiver clock far ahead would otherwise release every buffered message at once, and every
+     * new one until real time catches up.
+     */
+    long MAX_TIME_AHEAD_IN_MILLIS = 60 * 1000;
+
+    /**
+     * @return true if a message with the given timestamp must not move the given watermark, see
+     *         {@link #MAX_TIME_AHEAD_IN_MILLIS}
+     */
+    static boolean isTooFarAhead(long eventTime, long watermark) {
+        return eventTime > Math.max(watermark, System.currentTimeMillis()) + MAX_TIME_AHEAD_IN_MILLIS;
+    }
+
+    /**
+     * Moves the event time watermark forward to the given time, if it is later than the current watermark.
+     */
+    void advanceWatermark(long eventTime);
+
+    /**
+     * @return the latest event time seen, or {@link Long#MIN_VALUE} if none was seen yet
+     */
+    long getWatermark();
+
+    /**
+     * Releases the buffered messages that expired relative to the watermark.
+     */
+    void evictExpired();
+}
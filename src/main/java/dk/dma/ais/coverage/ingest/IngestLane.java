@@ -0,0 +1,130 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.data.CustomMessage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Single-threaded stage of the ingest pipeline owning a partition of the ships.
+ * <p>
+ * Messages of the lane's ships are queued in its inbox by any thread, but only the lane thread takes them out, runs them
+ * through the lane's own doublet buffer and hands the evicted messages to the consumer. Everything done for a ship
+ * after decoding therefore happens on a single thread, without contending with other lanes. Messages leaving the
+ * doublet buffer may go through a reorder buffer, also owned by the lane, before reaching the consumer.
+ */
+public class IngestLane implements Runnable {
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final BoundedRingBuffer<CustomMessage> inbox;
+    private final ShardedDoubletBuffer doubletBuffer;
+    private final ReorderBuffer reorderBuffer;
+    private final WaitStrategy waitStrategy;
+    private volatile boolean running = true;
+
+    /**
+     * @param inboxCapacity          number of messages that can be queued for the lane before submitters have to wait
+     * @param doubletBufferCapacity  number of messages kept in the lane doublet buffer
+     * @param doubletWindowInMillis  duplicate window of the lane doublet buffer, 0 to only evict on capacity
+     * @param waitStrategy           how the lane thread and submitters wait
+     * @param evictedMessageConsumer receives, on the lane thread, every message leaving the lane doublet buffer
+     */
+    public IngestLane(int inboxCapacity, int doubletBufferCapacity, long doubletWindowInMillis, WaitStrategy waitStrategy,
+            Consumer<CustomMessage> evictedMessageConsumer) {
+        this(inboxCapacity, doubletBufferCapacity, doubletWindowInMillis, waitStrategy, new ReorderBuffer(0, evictedMessageConsumer, evictedMessageConsumer));
+    }
+
+    /**
+     * @param inboxCapacity         number of messages that can be queued for the lane before submitters have to wait
+     * @param doubletBufferCapacity number of messages kept in the lane doublet buffer
+     * @param doubletWindowInMillis duplicate window of the lane doublet buffer, 0 to only evict on capacity
+     * @param waitStrategy          how the lane thread and submitters wait
+     * @param reorderBuffer         receives, on the lane thread, every message leaving the lane doublet buffer
+     */
+    public IngestLane(int inboxCapacity, int doubletBufferCapacity, long doubletWindowInMillis, WaitStrategy waitStrategy,
+            final ReorderBuffer reorderBuffer) {
+        this.inbox = new BoundedRingBuffer<>(inboxCapacity);
+        this.reorderBuffer = reorderBuffer;
+        this.doubletBuffer = new ShardedDoubletBuffer(1, doubletBufferCapacity, doubletWindowInMillis, new Consumer<CustomMessage>() {
+            @Override
+            public void accept(CustomMessage message) {
+                reorderBuffer.add(message);
+            }
+        });
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Queues a message for the lane, waiting for room in its inbox if needed.
+     *
+     * @return false if the calling thread was interrupted while waiting, in which case the message is not queued
+     */
+    public boolean submit(CustomMessage message) {
+        try {
+            inbox.put(message, waitStrategy);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void run() {
+        long nextSweep = System.nanoTime() + SWEEP_INTERVAL_NANOS;
+        while (running || !inbox.isEmpty()) {
+            // Adding a message only releases the reordered messages of its own ship, so the others are swept regularly
+            long now = System.nanoTime();
+            if (now - nextSweep >= 0) {
+                doubletBuffer.evictExpired();
+                reorderBuffer.evictExpired();
+                nextSweep = now + SWEEP_INTERVAL_NANOS;
+            }
+
+            CustomMessage message = inbox.poll();
+            if (message != null) {
+                doubletBuffer.add(message);
+                continue;
+            }
+            waitStrategy.idle();
+        }
+        doubletBuffer.flush();
+        reorderBuffer.flush();
+    }
+
+    /**
+     * Makes the lane thread return once its inbox is empty, after flushing its doublet and reorder buffers.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    public ShardedDoubletBuffer getDoubletBuffer() {
+        return doubletBuffer;
+    }
+
+    public ReorderBuffer getReorderBuffer() {
+        return reorderBuffer;
+    }
+
+    /**
+     * @return the number of messages waiting in the lane inbox
+     */
+    public int getBacklog() {
+        return inbox.size();
+    }
+}
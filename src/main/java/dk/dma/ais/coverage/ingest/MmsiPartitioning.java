@@ -0,0 +1,33 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+/**
+ * Spreads ships over a number of partitions, so that all messages of a ship end up in the same partition.
+ */
+public final class MmsiPartitioning {
+
+    private MmsiPartitioning() {
+    }
+
+    /**
+     * @return the partition of the given ship, between 0 inclusive and the number of partitions exclusive
+     */
+    public static int partitionOf(int mmsi, int numberOfPartitions) {
+        // MMSIs of a country share their leading digits, so spread them before reducing to the number of partitions
+        int hash = mmsi * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), numberOfPartitions);
+    }
+}
@@ -0,0 +1,44 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates threads named after their pool, numbered from 1, so that the pipeline stages can be told apart in thread
+ * dumps and profilers.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    private final String poolName;
+    private final boolean daemon;
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+     * @param poolName prefix of the thread names
+     * @param daemon   whether the threads should not prevent the JVM from exiting
+     */
+    public NamedThreadFactory(String poolName, boolean daemon) {
+        this.poolName = poolName;
+        this.daemon = daemon;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, poolName + "-" + threadNumber.incrementAndGet());
+        thread.setDaemon(daemon);
+        return thread;
+    }
+}
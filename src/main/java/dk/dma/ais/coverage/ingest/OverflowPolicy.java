@@ -0,0 +1,41 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+/**
+ * What to do with a received packet when the buffer of packets waiting to be handled is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Waits for room in the buffer, holding back the thread delivering packets. Nothing is lost, which suits replays.
+     */
+    BLOCK,
+
+    /**
+     * Drops the oldest buffered packet to make room for the received one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drops the received packet.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Keeps one received packet out of a configured number, dropping the oldest buffered packet to make room for it,
+     * and drops the others.
+     */
+    SAMPLE
+}
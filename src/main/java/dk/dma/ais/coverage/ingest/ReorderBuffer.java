@@ -0,0 +1,200 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.data.CustomMessage;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Reorders messages of each ship by timestamp, tolerating a bounded lateness.
+ * <p>
+ * Messages are held per ship until they are older than the maximum lateness relative to the event time watermark, and
+ * are then handed to the consumer in timestamp order. A message older than one already released for its ship arrived
+ * too late to be put back in order: it is counted and handed to the late message consumer instead. Messages of one
+ * ship are released by one thread at a time, so consumers see every ship's messages sequentially.
+ * <p>
+ * A ship is forgotten once it has no held message and its last released message is older than the maximum lateness, so
+ * that the buffer does not grow with every ship ever seen. A message of a forgotten ship is no longer compared to the
+ * messages released before it.
+ * <p>
+ * A message stamped too far ahead of both the watermark and the wall clock, see
+ * {@link EventTimeBuffer#MAX_TIME_AHEAD_IN_MILLIS}, is held like the others but does not move the watermark.
+ * <p>
+ * With a maximum lateness of 0, messages are handed to the consumer as they are added.
+ */
+public class ReorderBuffer implements EventTimeBuffer {
+    private static final Comparator<CustomMessage> BY_TIMESTAMP = new Comparator<CustomMessage>() {
+        @Override
+        public int compare(CustomMessage m1, CustomMessage m2) {
+            return Long.compare(m1.getTimestampInMillis(), m2.getTimestampInMillis());
+        }
+    };
+
+    private final long maxLatenessInMillis;
+    private final Consumer<CustomMessage> orderedMessageConsumer;
+    private final Consumer<CustomMessage> lateMessageConsumer;
+    private final ConcurrentMap<Integer, ShipMessages> ships = new ConcurrentHashMap<>();
+    private final AtomicLong watermark = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder lateMessages = new LongAdder();
+
+    /**
+     * @param maxLatenessInMillis    how long, in event time, messages are held to be put back in order. 0 to not reorder
+     * @param orderedMessageConsumer receives the messages of each ship in timestamp order
+     * @param lateMessageConsumer    receives the messages that arrived too late to be put back in order
+     */
+    public ReorderBuffer(long maxLatenessInMillis, Consumer<CustomMessage> orderedMessageConsumer, Consumer<CustomMessage> lateMessageConsumer) {
+        this.maxLatenessInMillis = Math.max(0, maxLatenessInMillis);
+        this.orderedMessageConsumer = orderedMessageConsumer;
+        this.lateMessageConsumer = lateMessageConsumer;
+    }
+
+    /**
+     * Adds a message, then releases the messages of its ship that are older than the maximum lateness.
+     */
+    public void add(CustomMessage message) {
+        if (maxLatenessInMillis == 0) {
+            orderedMessageConsumer.accept(message);
+            return;
+        }
+
+        if (!EventTimeBuffer.isTooFarAhead(message.getTimestampInMillis(), watermark.get())) {
+            advanceWatermark(message.getTimestampInMillis());
+        }
+        while (true) {
+            ShipMessages ship = ships.get(message.getShipMMSI());
+            if (ship == null) {
+                ShipMessages newShip = new ShipMessages();
+                ship = ships.putIfAbsent(message.getShipMMSI(), newShip);
+                if (ship == null) {
+                    ship = newShip;
+                }
+            }
+
+            synchronized (ship) {
+                if (ship.forgotten) {
+                    // Removed by a concurrent eviction since it was looked up, retry with a new one
+                    continue;
+                }
+                if (message.getTimestampInMillis() < ship.lastReleased) {
+                    lateMessages.increment();
+                    lateMessageConsumer.accept(message);
+                } else {
+                    ship.messages.add(message);
+                }
+                release(ship, watermark.get() - maxLatenessInMillis);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void advanceWatermark(long eventTime) {
+        long current = watermark.get();
+        while (eventTime > current && !watermark.compareAndSet(current, eventTime)) {
+            current = watermark.get();
+        }
+    }
+
+    @Override
+    public long getWatermark() {
+        return watermark.get();
+    }
+
+    /**
+     * Releases the messages of all ships that are older than the maximum lateness, and forgets the ships left without
+     * messages whose last released message is older than the maximum lateness.
+     */
+    @Override
+    public void evictExpired() {
+        if (maxLatenessInMillis == 0 || watermark.get() == Long.MIN_VALUE) {
+            return;
+        }
+        long releaseLimit = watermark.get() - maxLatenessInMillis;
+        for (Map.Entry<Integer, ShipMessages> entry : ships.entrySet()) {
+            ShipMessages ship = entry.getValue();
+            synchronized (ship) {
+                release(ship, releaseLimit);
+                if (ship.messages.isEmpty() && ship.lastReleased < releaseLimit) {
+                    ship.forgotten = true;
+                    ships.remove(entry.getKey(), ship);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases every held message, in timestamp order for each ship.
+     */
+    public void flush() {
+        for (ShipMessages ship : ships.values()) {
+            synchronized (ship) {
+                release(ship, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * @return the number of messages that arrived too late to be put back in order
+     */
+    public long getLateMessages() {
+        return lateMessages.sum();
+    }
+
+    /**
+     * @return the number of held messages
+     */
+    public int size() {
+        int size = 0;
+        for (ShipMessages ship : ships.values()) {
+            synchronized (ship) {
+                size += ship.messages.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of ships with held messages or a recently released message
+     */
+    int getNumberOfShips() {
+        return ships.size();
+    }
+
+    /**
+     * Must be called while holding the ship lock.
+     */
+    private void release(ShipMessages ship, long releaseLimit) {
+        CustomMessage eldest;
+        while ((eldest = ship.messages.peek()) != null && eldest.getTimestampInMillis() <= releaseLimit) {
+            ship.messages.poll();
+            ship.lastReleased = eldest.getTimestampInMillis();
+            orderedMessageConsumer.accept(eldest);
+        }
+    }
+
+    private static final class ShipMessages {
+        private final PriorityQueue<CustomMessage> messages = new PriorityQueue<>(16, BY_TIMESTAMP);
+        private long lastReleased = Long.MIN_VALUE;
+        private boolean forgotten;
+    }
+}
@@ -0,0 +1,254 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.data.CustomMessage;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Doublet filter buffer partitioned by ship MMSI.
+ * <p>
+ * A message received from several sources is kept once, with the sources of its doublets merged into it. Each shard
+ * keeps its messages in insertion order and evicts the eldest one when it holds more than its share of the buffer
+ * capacity. Shares are fixed, so the shards of the busiest ships evict before the whole buffer is full when traffic is
+ * skewed. Evicted messages are handed to the consumer after the shard lock is released, and a shard's evicted
+ * messages are consumed by one thread at a time, in eviction order. Since all messages of a ship fall in the same
+ * shard, messages of one ship are thus consumed sequentially and in order, while different shards are consumed in
+ * parallel.
+ * <p>
+ * When created with a duplicate window, a message is also evicted once it is older than the window, relative to an
+ * event time watermark: the latest message timestamp seen so far. Doublets normally arrive within seconds of each
+ * other, so this bounds how long a message waits for its doublets regardless of the traffic volume. Shards are checked
+ * from their eldest message, so a message is evicted no earlier than the ones received before it in its shard. The
+ * watermark only moves with incoming messages; {@link #advanceWatermark(long)} and {@link #evictExpired()} let a
+ * timer release messages while traffic is idle. A message stamped too far ahead of both the watermark and the wall clock,
+ * see {@link EventTimeBuffer#MAX_TIME_AHEAD_IN_MILLIS}, does not move the watermark: it is counted and handed to the
+ * consumer at once, as waiting for its doublets would hold back the expiry of the messages after it in its shard.
+ */
+public class ShardedDoubletBuffer implements EventTimeBuffer {
+    private final Shard[] shards;
+    private final int shardCapacity;
+    private final long windowInMillis;
+    private final AtomicLong watermark = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder messagesTooFarAhead = new LongAdder();
+    private final Consumer<CustomMessage> evictedMessageConsumer;
+
+    /**
+     * @param numberOfShards         number of independent partitions
+     * @param capacity               total number of messages kept before eviction starts, spread across the shards
+     * @param evictedMessageConsumer receives every message leaving the buffer
+     */
+    public ShardedDoubletBuffer(int numberOfShards, int capacity, Consumer<CustomMessage> evictedMessageConsumer) {
+        this(numberOfShards, capacity, 0, evictedMessageConsumer);
+    }
+
+    /**
+     * @param numberOfShards         number of independent partitions
+     * @param capacity               total number of messages kept before eviction starts, spread across the shards
+     * @param windowInMillis         how long, in event time, a message waits for its doublets. 0 to only evict on capacity
+     * @param evictedMessageConsumer receives every message leaving the buffer
+     */
+    public ShardedDoubletBuffer(int numberOfShards, int capacity, long windowInMillis, Consumer<CustomMessage> evictedMessageConsumer) {
+        if (numberOfShards < 1) {
+            throw new IllegalArgumentException("Number of shards must be positive: " + numberOfShards);
+        }
+        this.shardCapacity = Math.max(1, (capacity + numberOfShards - 1) / numberOfShards);
+        this.shards = new Shard[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            shards[i] = new Shard(shardCapacity);
+        }
+        this.windowInMillis = Math.max(0, windowInMillis);
+        this.evictedMessageConsumer = evictedMessageConsumer;
+    }
+
+    /**
+     * Adds a message to the buffer, or merges its sources into the buffered message if it is a doublet. If the shard
+     * overflows, its eldest messages are consumed before returning, unless another thread is already consuming them.
+     */
+    public void add(CustomMessage message) {
+        Shard shard = shardFor(message.getShipMMSI());
+        long keyHigh = message.getDoubletKeyHigh();
+        long keyLow = message.getDoubletKeyLow();
+        if (windowInMillis > 0) {
+            if (EventTimeBuffer.isTooFarAhead(message.getTimestampInMillis(), watermark.get())) {
+                messagesTooFarAhead.increment();
+                evictedMessageConsumer.accept(message);
+                return;
+            }
+            advanceWatermark(message.getTimestampInMillis());
+        }
+
+        boolean evicted = false;
+        shard.lock.lock();
+        try {
+            CustomMessage existing = shard.messages.get(keyHigh, keyLow);
+            if (existing == null) {
+                if (shard.messages.size() == shardCapacity) {
+                    shard.evicted.add(shard.messages.removeEldest());
+                    evicted = true;
+                }
+                shard.messages.put(keyHigh, keyLow, message);
+            } else {
+                existing.getSources().or(message.getSources());
+            }
+            if (windowInMillis > 0) {
+                evicted |= evictExpired(shard);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+
+        if (evicted) {
+            consumeEvicted(shard);
+        }
+    }
+
+    @Override
+    public void advanceWatermark(long eventTime) {
+        long current = watermark.get();
+        while (eventTime > current && !watermark.compareAndSet(current, eventTime)) {
+            current = watermark.get();
+        }
+    }
+
+    @Override
+    public long getWatermark() {
+        return watermark.get();
+    }
+
+    /**
+     * Evicts and consumes the messages of all shards that are older than the duplicate window. Does nothing if the
+     * buffer has no duplicate window.
+     */
+    @Override
+    public void evictExpired() {
+        if (windowInMillis <= 0) {
+            return;
+        }
+        for (Shard shard : shards) {
+            boolean evicted;
+            shard.lock.lock();
+            try {
+                evicted = evictExpired(shard);
+            } finally {
+                shard.lock.unlock();
+            }
+            if (evicted) {
+                consumeEvicted(shard);
+            }
+        }
+    }
+
+    /**
+     * Evicts and consumes every buffered message.
+     */
+    public void flush() {
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                while (!shard.messages.isEmpty()) {
+                    shard.evicted.add(shard.messages.removeEldest());
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+            consumeEvicted(shard);
+        }
+    }
+
+    /**
+     * @return the number of buffered messages, not counting evicted messages waiting to be consumed
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.messages.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of messages stamped too far ahead to move the watermark, handed to the consumer without waiting
+     *         for their doublets
+     */
+    public long getMessagesTooFarAhead() {
+        return messagesTooFarAhead.sum();
+    }
+
+    public int getNumberOfShards() {
+        return shards.length;
+    }
+
+    private Shard shardFor(int mmsi) {
+        return shards[MmsiPartitioning.partitionOf(mmsi, shards.length)];
+    }
+
+    /**
+     * Moves the messages older than the duplicate window from the head of the shard to its evicted messages. Must be
+     * called while holding the shard lock.
+     */
+    private boolean evictExpired(Shard shard) {
+        if (watermark.get() == Long.MIN_VALUE) {
+            return false;
+        }
+        long expiryLimit = watermark.get() - windowInMillis;
+        boolean evicted = false;
+        CustomMessage eldest;
+        while ((eldest = shard.messages.peekEldest()) != null && eldest.getTimestampInMillis() <= expiryLimit) {
+            shard.evicted.add(shard.messages.removeEldest());
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    /**
+     * Consumes the evicted messages of a shard unless another thread is already doing it. Evicted messages are checked
+     * again after giving up the consuming role, so that a message queued meanwhile is never left behind.
+     */
+    private void consumeEvicted(Shard shard) {
+        while (!shard.evicted.isEmpty() && shard.consuming.tryLock()) {
+            try {
+                CustomMessage message;
+                while ((message = shard.evicted.poll()) != null) {
+                    evictedMessageConsumer.accept(message);
+                }
+            } finally {
+                shard.consuming.unlock();
+            }
+        }
+    }
+
+    private static final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ReentrantLock consuming = new ReentrantLock();
+        private final DoubletKeyMap<CustomMessage> messages;
+        private final Queue<CustomMessage> evicted = new ConcurrentLinkedQueue<>();
+
+        private Shard(int capacity) {
+            this.messages = new DoubletKeyMap<>(capacity);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.configuration.ExecutorMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the executors of the {@link ExecutorMode}s. Virtual threads are looked up reflectively so that the code keeps
+ * running on Java 8; where they are not available, platform threads are used instead.
+ */
+public final class ThreadPools {
+    private static final Logger LOG = LoggerFactory.getLogger(ThreadPools.class);
+
+    private ThreadPools() {
+    }
+
+    /**
+     * @param mode     kind of threads, platform threads if null
+     * @param threads  number of platform threads, ignored with virtual threads
+     * @param poolName prefix of the thread names
+     * @param daemon   whether the platform threads should not prevent the JVM from exiting, virtual threads always are
+     *                 daemon threads
+     * @return a fixed pool of platform threads, or an executor starting a virtual thread per task
+     */
+    public static ExecutorService newThreadPool(ExecutorMode mode, int threads, String poolName, boolean daemon) {
+        if (mode == ExecutorMode.VIRTUAL) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor(poolName);
+            if (executor != null) {
+                return executor;
+            }
+        }
+        return Executors.newFixedThreadPool(threads, new NamedThreadFactory(poolName, daemon));
+    }
+
+    /**
+     * @param poolName prefix of the thread names
+     * @return an executor starting a virtual thread per task, or null if the runtime has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String poolName) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, poolName + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("Virtual threads are not available on Java {}, {} falls back to platform threads", System.getProperty("java.version"), poolName);
+            return null;
+        }
+    }
+}
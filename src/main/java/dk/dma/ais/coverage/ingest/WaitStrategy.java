@@ -0,0 +1,60 @@
+/* Copyright (c) 2011 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.ais.coverage.ingest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a thread does while waiting for a {@link BoundedRingBuffer} to have room or elements, trading CPU usage
+ * for latency.
+ */
+public enum WaitStrategy {
+    /**
+     * Busy spins. Lowest latency, but keeps a core busy while idle.
+     */
+    SPIN {
+        @Override
+        public void idle() {
+        }
+    },
+
+    /**
+     * Yields to other threads between checks.
+     */
+    YIELD {
+        @Override
+        public void idle() {
+            Thread.yield();
+        }
+    },
+
+    /**
+     * Parks the thread for a short while between checks. Uses the least CPU.
+     */
+    PARK {
+        @Override
+        public void idle() {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    };
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Called repeatedly by a thread for as long as it has to wait.
+     */
+    public abstract void idle();
+}
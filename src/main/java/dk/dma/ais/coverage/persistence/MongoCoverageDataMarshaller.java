@@ -78,18 +78,20 @@ class MongoCoverageDataMarshaller implements CoverageDataMarshaller<Document> {
 
     private Map<String, Map<String, Number>> marshallCellTimeSpans(Cell cell) {
         Map<String, Map<String, Number>> fixedWidthTimeSpans = new LinkedHashMap<>();
-        for (Map.Entry<Long, TimeSpan> fixedWidthTimeSpan : cell.getFixedWidthSpans().entrySet()) {
-            Map<String, Number> messages = new LinkedHashMap<>();
-            messages.put("firstMessage", fixedWidthTimeSpan.getValue().getFirstMessage().getTime());
-            messages.put("lastMessage", fixedWidthTimeSpan.getValue().getLastMessage().getTime());
-            messages.put("messageCounterSat", fixedWidthTimeSpan.getValue().getMessageCounterSat());
-            messages.put("messageCounterTerrestrial", fixedWidthTimeSpan.getValue().getMessageCounterTerrestrial());
-            messages.put("messageCounterTerrestrialUnfiltered", fixedWidthTimeSpan.getValue().getMessageCounterTerrestrialUnfiltered());
-            messages.put("missingSignals", fixedWidthTimeSpan.getValue().getMissingSignals());
-            messages.put("vsiMessageCounter", fixedWidthTimeSpan.getValue().getVsiMessageCounter());
-            messages.put("averageSignalStrength", fixedWidthTimeSpan.getValue().getAverageSignalStrength());
-
-            fixedWidthTimeSpans.put(fixedWidthTimeSpan.getKey().toString(), messages);
+        synchronized (cell) {
+            for (Map.Entry<Long, TimeSpan> fixedWidthTimeSpan : cell.getFixedWidthSpans().entrySet()) {
+                Map<String, Number> messages = new LinkedHashMap<>();
+                messages.put("firstMessage", fixedWidthTimeSpan.getValue().getFirstMessage().getTime());
+                messages.put("lastMessage", fixedWidthTimeSpan.getValue().getLastMessage().getTime());
+                messages.put("messageCounterSat", fixedWidthTimeSpan.getValue().getMessageCounterSat());
+                messages.put("messageCounterTerrestrial", fixedWidthTimeSpan.getValue().getMessageCounterTerrestrial());
+                messages.put("messageCounterTerrestrialUnfiltered", fixedWidthTimeSpan.getValue().getMessageCounterTerrestrialUnfiltered());
+                messages.put("missingSignals", fixedWidthTimeSpan.getValue().getMissingSignals());
+                messages.put("vsiMessageCounter", fixedWidthTimeSpan.getValue().getVsiMessageCounter());
+                messages.put("averageSignalStrength", fixedWidthTimeSpan.getValue().getAverageSignalStrength());
+
+                fixedWidthTimeSpans.put(fixedWidthTimeSpan.getKey().toString(), messages);
+            }
         }
 
         return fixedWidthTimeSpans;
@@ -160,7 +162,7 @@ class MongoCoverageDataMarshaller implements CoverageDataMarshaller<Document> {
     private Cell unmarshallCell(Map<String, Object> cell) {
         double latitude = Helper.roundLat((double) cell.get("latitude"), 1);
         double longitude = Helper.roundLon((double) cell.get("longitude"), 1);
-        Cell unmarshalledCell = new Cell(latitude, longitude, (String) cell.get("cellId"));
+        Cell unmarshalledCell = new Cell(latitude, longitude, Helper.getCellKey(latitude, longitude, 1));
         unmarshalledCell.addReceivedSignals(((Integer) cell.get("numberOfReceivedSignals")).intValue());
         unmarshalledCell.addNOofMissingSignals(((Integer) cell.get("numberOfMissingSignals")).intValue());
 
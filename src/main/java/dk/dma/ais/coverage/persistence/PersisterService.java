@@ -58,6 +58,13 @@ public class PersisterService {
         LOG.info("PersisterService stopped");
     }
 
+    /**
+     * Saves the coverage data right away, on the calling thread.
+     */
+    public void saveNow() {
+        new SaveOperation().run();
+    }
+
     public void intervalInMinutes(long persistenceIntervalInMinutes) {
         this.persistenceIntervalInMinutes = persistenceIntervalInMinutes;
     }
@@ -196,7 +196,7 @@ public class CoverageRestService {
                     dhCell = summedbs.createTempCell(cell.getLatitude(), cell.getLongitude(), multiplicity);
                 }
 
-                Cell activesbscell = superbs.getGrid().get(cell.getId());
+                Cell activesbscell = superbs.getGrid().get(cell.getKey());
                 if (activesbscell != null) {
                     int receivedsignals = cell.getNOofReceivedSignals(starttime, endtime);
                     dhCell.addReceivedSignals(receivedsignals);
@@ -405,7 +405,7 @@ public class CoverageRestService {
                     Math.abs(timeSpan.getLastMessage().getTime() - first.getLastMessage().getTime()) / 1000 / 60 + "," + // accumulated
                                                                                                                          // time
                     timeSpan.getMessageCounterSat() + "," + // signals
-                    timeSpan.getDistinctShipsSat().size() + // distinct ships
+                    timeSpan.getDistinctShipsSat().count() + // distinct ships
                     "\n";
             out.write(outstring.getBytes());
             previous = timeSpan;
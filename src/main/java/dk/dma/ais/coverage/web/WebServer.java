@@ -14,21 +14,48 @@
  */
 package dk.dma.ais.coverage.web;
 
+import dk.dma.ais.coverage.configuration.ExecutorMode;
+import dk.dma.ais.coverage.ingest.ThreadPools;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Embedded Jetty web server and servlet container using a web app context
  */
 public class WebServer {
+    private static final Logger LOG = LoggerFactory.getLogger(WebServer.class);
 
     private final Server server;
 
     public WebServer(WebServerConfiguration conf) {
-        server = new Server(conf.getPort());
+        this(conf, ExecutorMode.PLATFORM);
+    }
+
+    /**
+     * @param executorMode with {@link ExecutorMode#VIRTUAL}, requests are served on virtual threads where both the
+     *                     runtime and Jetty support it, the pool threads then only accept connections
+     */
+    public WebServer(WebServerConfiguration conf, ExecutorMode executorMode) {
+        // Bounds request handling threads so that queries cannot starve the packet handling threads
+        QueuedThreadPool threadPool = new QueuedThreadPool(Math.max(1, conf.getMaxThreads()), Math.max(1, Math.min(conf.getMinThreads(), conf.getMaxThreads())));
+        threadPool.setName("web-server");
+        if (executorMode == ExecutorMode.VIRTUAL) {
+            useVirtualThreads(threadPool);
+        }
+        server = new Server(threadPool);
+
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(conf.getPort());
         // Sets setReuseAddress
-        ((ServerConnector) server.getConnectors()[0]).setReuseAddress(true);
+        connector.setReuseAddress(true);
+        server.addConnector(connector);
         WebAppContext bb = new WebAppContext();
         bb.setServer(server);
         bb.setContextPath(conf.getContextPath());
@@ -36,6 +63,20 @@ public class WebServer {
         server.setHandler(bb);
     }
 
+    private static void useVirtualThreads(QueuedThreadPool threadPool) {
+        ExecutorService executor = ThreadPools.newVirtualThreadPerTaskExecutor("web-server-virtual");
+        if (executor == null) {
+            return;
+        }
+        try {
+            // Jetty 10.0.14 and later
+            QueuedThreadPool.class.getMethod("setVirtualThreadsExecutor", Executor.class).invoke(threadPool, executor);
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("This Jetty version cannot serve requests on virtual threads, the web server falls back to platform threads");
+            executor.shutdown();
+        }
+    }
+
     public void start() throws Exception {
         server.start();
     }
@@ -22,6 +22,8 @@ public class WebServerConfiguration {
     private int port = 8080;
     private String webappPath = "web";
     private String contextPath = "/";
+    private int maxThreads = 200;
+    private int minThreads = 8;
 
     public WebServerConfiguration() {
 
@@ -51,4 +53,26 @@ public class WebServerConfiguration {
         this.contextPath = contextPath;
     }
 
+    /**
+     * @return maximum number of threads serving requests
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * @return number of threads kept alive to serve requests when the server is idle
+     */
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public void setMinThreads(int minThreads) {
+        this.minThreads = minThreads;
+    }
+
 }
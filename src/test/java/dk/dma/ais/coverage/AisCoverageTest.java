@@ -1,12 +1,30 @@
 package dk.dma.ais.coverage;
 
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Test;
 
+import dk.dma.ais.coverage.calculator.AbstractCalculator;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
 import dk.dma.ais.coverage.configuration.DatabaseConfiguration;
+import dk.dma.ais.coverage.data.Cell;
+import dk.dma.ais.coverage.ingest.OverflowPolicy;
 import dk.dma.ais.coverage.persistence.DatabaseInstance;
+import dk.dma.ais.coverage.persistence.DatabaseInstanceFactory;
+import dk.dma.ais.coverage.persistence.PersistenceResult;
 import dk.dma.ais.coverage.persistence.PersisterService;
 
 public class AisCoverageTest {
@@ -86,4 +104,80 @@ public class AisCoverageTest {
 
         verify(mockDatabaseInstance).close();
     }
+
+    /**
+     * The recorded file holds 60 position reports of a ship sailing north at 10 knots, sent every 10 seconds from
+     * 2017-06-01 07:01 UTC and timestamped by a comment block, and one position report of another ship without any
+     * timestamp.
+     */
+    @Test
+    public void givenRecordedFile_whenReplay_thenMessageTimestampsAreUsedNothingIsDroppedAndCoverageIsSavedOnce() throws Exception {
+        Date recordedHour = Helper.getFloorDate(new Date(1496300400000L));
+        AisCoverageConfiguration conf = new AisCoverageConfiguration();
+        conf.setReplay(true);
+        conf.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        conf.setReceivedPacketsBufferSize(1);
+        final RecordingDatabaseInstance database = new RecordingDatabaseInstance();
+        Helper.firstMessage = null;
+        Helper.latestMessage = null;
+        try {
+            AisCoverage aisCoverage = AisCoverage.create(conf, new DatabaseInstanceFactory() {
+                @Override
+                public DatabaseInstance createDatabaseInstance(String databaseType) {
+                    return database;
+                }
+            });
+
+            String recordedFile = new File(AisCoverageTest.class.getResource("/replay-sample.txt").toURI()).getPath();
+            aisCoverage.replay(Collections.singletonList(recordedFile));
+
+            CoverageHandler handler = aisCoverage.getHandler();
+            assertThat(handler.getOverflowPolicy(), is(equalTo(OverflowPolicy.BLOCK)));
+            assertThat(handler.getDroppedPackets(), is(equalTo(0L)));
+            assertThat(handler.getHandledPackets(), is(equalTo(60L)));
+            // The packet without timestamp is ignored rather than stamped with the current time
+            assertThat(handler.getDataHandler().getShip(219000002), is(nullValue()));
+            assertThat(Helper.firstMessage, is(equalTo(recordedHour)));
+            assertThat(Helper.latestMessage, is(equalTo(recordedHour)));
+
+            assertThat(database.savedCoverageData.size(), is(equalTo(1)));
+            Collection<Cell> savedCells = database.savedCoverageData.get(0).get(AbstractCalculator.SUPERSOURCE_MMSI);
+            int receivedSignals = 0;
+            for (Cell cell : savedCells) {
+                assertThat(cell.getFixedWidthSpans().keySet(), is(equalTo(Collections.singleton(recordedHour.getTime()))));
+                receivedSignals += cell.getNOofReceivedSignals();
+            }
+            assertThat(receivedSignals > 0, is(true));
+        } finally {
+            Helper.firstMessage = null;
+            Helper.latestMessage = null;
+        }
+    }
+
+    private static class RecordingDatabaseInstance implements DatabaseInstance {
+        private final List<Map<String, Collection<Cell>>> savedCoverageData = new ArrayList<>();
+
+        @Override
+        public void open(DatabaseConfiguration configuration) {
+        }
+
+        @Override
+        public void createDatabase() {
+        }
+
+        @Override
+        public PersistenceResult save(Map<String, Collection<Cell>> coverageData) {
+            savedCoverageData.add(coverageData);
+            return PersistenceResult.success(coverageData.size());
+        }
+
+        @Override
+        public Map<String, Collection<Cell>> loadLatestSavedCoverageData() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -0,0 +1,83 @@
+package dk.dma.ais.coverage;
+
+import dk.dma.ais.coverage.calculator.AbstractCalculator;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.coverage.configuration.PacketHandlingMode;
+import dk.dma.ais.coverage.fixture.FakePacketConversion;
+import dk.dma.ais.coverage.ingest.OverflowPolicy;
+import dk.dma.ais.packet.AisPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of received packets handed over to the doublet buffer, handling them in batches or one task per packet.
+ * Packets are converted without decoding and no calculator runs, so that only the hand over between the receiving
+ * thread and the packet handling threads is measured. Every invocation ends with a partial batch, which waits for the
+ * linger time unless it is 0.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CoverageHandlerBenchmark {
+    private static final int PACKETS = 10000;
+    private static final AisPacket PACKET = AisPacket.from("!AIVDM,1,1,,A,13u?etPv2;0n:dDPwUM1U1Cb069D,0*24");
+
+    @Param({"BATCH", "PER_PACKET"})
+    private PacketHandlingMode packetHandlingMode;
+
+    @Param({"1", "4"})
+    private int packetHandlingThreads;
+
+    @Param({"0", "5"})
+    private int packetBatchMaxLingerMillis;
+
+    private CoverageHandler handler;
+
+    @Setup(Level.Trial)
+    public void createHandler() {
+        AisCoverageConfiguration conf = new AisCoverageConfiguration();
+        conf.setPacketHandlingMode(packetHandlingMode);
+        conf.setPacketHandlingThreads(packetHandlingThreads);
+        conf.setPacketBatchMaxLingerMillis(packetBatchMaxLingerMillis);
+        conf.setOverflowPolicy(OverflowPolicy.BLOCK);
+        handler = new CoverageHandler(conf);
+        handler.setDataHandler(new FakePacketConversion());
+        handler.setCalculators(new ArrayList<AbstractCalculator>());
+    }
+
+    @TearDown(Level.Trial)
+    public void stopHandler() {
+        handler.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public long receivePackets() {
+        long handled = handler.getHandledPackets() + PACKETS;
+        for (int i = 0; i < PACKETS; i++) {
+            handler.receiveUnfiltered(PACKET);
+        }
+        while (handler.getHandledPackets() < handled) {
+            Thread.yield();
+        }
+        return handled;
+    }
+}
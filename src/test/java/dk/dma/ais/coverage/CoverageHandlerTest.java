@@ -0,0 +1,310 @@
+package dk.dma.ais.coverage;
+
+import dk.dma.ais.coverage.calculator.AbstractCalculator;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.coverage.configuration.PacketHandlingMode;
+import dk.dma.ais.coverage.data.Cell;
+import dk.dma.ais.coverage.data.CustomMessage;
+import dk.dma.ais.coverage.data.OnlyMemoryData;
+import dk.dma.ais.coverage.data.Ship;
+import dk.dma.ais.coverage.fixture.FakePacketConversion;
+import dk.dma.ais.coverage.ingest.OverflowPolicy;
+import dk.dma.ais.coverage.ingest.WaitStrategy;
+import dk.dma.ais.packet.AisPacket;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CoverageHandlerTest {
+    private static final String POSITION_REPORT = "!AIVDM,1,1,,A,13u?etPv2;0n:dDPwUM1U1Cb069D,0*24";
+
+    private CoverageHandler handler;
+    private int receivedPackets;
+    private GatedPacketConversion gatedConversion;
+
+    @After
+    public void stopHandler() {
+        if (gatedConversion != null) {
+            gatedConversion.open();
+        }
+        if (handler != null) {
+            handler.stop();
+        }
+    }
+
+    @Test
+    public void givenBatchNotFull_whenLingerIsLong_thenPacketsAreOnlyHandedOverOnceTheBatchIsFull() throws Exception {
+        handler = createBatchHandler(4, 60000);
+
+        receive(3);
+        Thread.sleep(300);
+
+        assertThat(handler.getHandledPackets(), is(equalTo(0L)));
+
+        receive(1);
+
+        assertThat(awaitHandledPackets(4), is(equalTo(4L)));
+    }
+
+    @Test
+    public void givenBatchNotFull_whenLingerElapses_thenPartialBatchIsHandedOver() throws Exception {
+        handler = createBatchHandler(100, 200);
+
+        long start = System.nanoTime();
+        receive(3);
+
+        assertThat(awaitHandledPackets(3), is(equalTo(3L)));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200, is(true));
+    }
+
+    @Test
+    public void givenPartialBatchLingering_whenStopped_thenBatchIsHandedOverWithoutWaitingForTheLinger() throws Exception {
+        handler = createBatchHandler(100, 60000);
+
+        receive(3);
+        Thread.sleep(100);
+        long start = System.nanoTime();
+        handler.stop();
+
+        assertThat(handler.getHandledPackets(), is(equalTo(3L)));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 10000, is(true));
+    }
+
+    @Test
+    public void givenFullBuffer_whenPolicyIsDropNewest_thenReceivedPacketIsDroppedAndCounted() throws Exception {
+        handler = createOverflowingHandler(OverflowPolicy.DROP_NEWEST, 1);
+        List<AisPacket> packets = fillBuffer();
+
+        AisPacket overflowing = receiveOne();
+        gatedConversion.open();
+
+        assertThat(awaitHandledPackets(3), is(equalTo(3L)));
+        assertThat(gatedConversion.getPackets(), is(equalTo(packets)));
+        assertThat(handler.getDroppedPackets(), is(equalTo(1L)));
+        assertThat(handler.getDelayedPackets(), is(equalTo(0L)));
+        assertThat(gatedConversion.getPackets().contains(overflowing), is(false));
+    }
+
+    @Test
+    public void givenFullBuffer_whenPolicyIsDropOldest_thenOldestBufferedPacketIsReplacedAndCounted() throws Exception {
+        handler = createOverflowingHandler(OverflowPolicy.DROP_OLDEST, 1);
+        List<AisPacket> packets = fillBuffer();
+
+        AisPacket overflowing = receiveOne();
+        gatedConversion.open();
+
+        assertThat(awaitHandledPackets(3), is(equalTo(3L)));
+        assertThat(gatedConversion.getPackets(), is(equalTo(Arrays.asList(packets.get(0), packets.get(2), overflowing))));
+        assertThat(handler.getDroppedPackets(), is(equalTo(1L)));
+        assertThat(handler.getDelayedPackets(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void givenFullBuffer_whenPolicyIsSample_thenOneOverflowingPacketInRateReplacesTheOldestAndOthersAreDropped() throws Exception {
+        handler = createOverflowingHandler(OverflowPolicy.SAMPLE, 2);
+        List<AisPacket> packets = fillBuffer();
+
+        AisPacket firstSampled = receiveOne();
+        receiveOne();
+        AisPacket secondSampled = receiveOne();
+        gatedConversion.open();
+
+        assertThat(awaitHandledPackets(3), is(equalTo(3L)));
+        assertThat(gatedConversion.getPackets(), is(equalTo(Arrays.asList(packets.get(0), firstSampled, secondSampled))));
+        // Both buffered packets were replaced and the packet in between was dropped
+        assertThat(handler.getDroppedPackets(), is(equalTo(3L)));
+        assertThat(handler.getDelayedPackets(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void givenFullBuffer_whenPolicyIsBlock_thenReceivingWaitsForRoomAndNothingIsDropped() throws Exception {
+        handler = createOverflowingHandler(OverflowPolicy.BLOCK, 1);
+        List<AisPacket> packets = fillBuffer();
+
+        final AisPacket overflowing = createDistinctPacket();
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                handler.receiveUnfiltered(overflowing);
+            }
+        });
+        receiver.start();
+        receiver.join(300);
+
+        assertThat(receiver.isAlive(), is(true));
+        assertThat(handler.getDelayedPackets(), is(equalTo(1L)));
+
+        gatedConversion.open();
+        receiver.join(10000);
+
+        assertThat(receiver.isAlive(), is(false));
+        assertThat(awaitHandledPackets(4), is(equalTo(4L)));
+        List<AisPacket> expected = new ArrayList<>(packets);
+        expected.add(overflowing);
+        assertThat(gatedConversion.getPackets(), is(equalTo(expected)));
+        assertThat(handler.getDroppedPackets(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void givenReplay_whenMessageTimeCrossesHours_thenWindowIsTrimmedWithoutWaitingForTheWallClock() {
+        long firstHour = 1496300400000L;
+        long hour = 1000L * 60 * 60;
+        AisCoverageConfiguration conf = new AisCoverageConfiguration();
+        conf.setReplay(true);
+        conf.setWindowSize(2);
+        Helper.firstMessage = null;
+        Helper.latestMessage = null;
+        try {
+            handler = new CoverageHandler(conf);
+            OnlyMemoryData dataHandler = (OnlyMemoryData) handler.getDataHandler();
+            Ship ship = dataHandler.createShip(219000001, Ship.ShipClass.CLASS_A);
+
+            // Six hours of a ship sailing north at 10 knots, replayed in far less than the five seconds the purger thread sleeps
+            double latitude = 56.0;
+            for (long time = firstHour; time < firstHour + 6 * hour; time += 10000) {
+                // As the packet conversion does
+                ship.markActive(new Date(time));
+                handler.process(createPositionReport(219000001, time, latitude));
+                latitude += 10.0 / 60 / 360;
+            }
+
+            // The window ends with the hour of the latest message, 5, and the last trim moved its start to hour 4
+            assertThat(Helper.firstMessage, is(equalTo(new Date(firstHour + 4 * hour))));
+            long firstSpan = Long.MAX_VALUE;
+            for (Cell cell : dataHandler.getSource(AbstractCalculator.SUPERSOURCE_MMSI).getGrid().values()) {
+                firstSpan = Math.min(firstSpan, Collections.min(cell.getFixedWidthSpans().keySet()));
+            }
+            assertThat(firstSpan, is(equalTo(firstHour + 4 * hour)));
+        } finally {
+            Helper.firstMessage = null;
+            Helper.latestMessage = null;
+        }
+    }
+
+    private static CustomMessage createPositionReport(int mmsi, long timestamp, double latitude) {
+        CustomMessage message = new CustomMessage();
+        message.setShipMMSI(mmsi);
+        message.setTimestamp(new Date(timestamp));
+        message.setLatitude(latitude);
+        message.setLongitude(11.0);
+        message.setSog(10);
+        message.setCog(0);
+        return message;
+    }
+
+    /**
+     * Creates a handler with a single handling thread and room for two received packets.
+     */
+    private CoverageHandler createOverflowingHandler(OverflowPolicy overflowPolicy, int overflowSampleRate) {
+        AisCoverageConfiguration conf = new AisCoverageConfiguration();
+        conf.setPacketHandlingMode(PacketHandlingMode.BATCH);
+        conf.setPacketHandlingThreads(1);
+        conf.setPacketBatchSize(1);
+        conf.setPacketBatchMaxLingerMillis(0);
+        conf.setReceivedPacketsBufferSize(2);
+        conf.setOverflowPolicy(overflowPolicy);
+        conf.setOverflowSampleRate(overflowSampleRate);
+        conf.setPacketWaitStrategy(WaitStrategy.PARK);
+        CoverageHandler coverageHandler = new CoverageHandler(conf);
+        gatedConversion = new GatedPacketConversion();
+        coverageHandler.setDataHandler(gatedConversion);
+        return coverageHandler;
+    }
+
+    /**
+     * Receives a packet held by the handling thread until the gate opens, then two packets filling the buffer.
+     *
+     * @return the received packets, in order
+     */
+    private List<AisPacket> fillBuffer() throws InterruptedException {
+        List<AisPacket> packets = new ArrayList<>();
+        packets.add(receiveOne());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (gatedConversion.getPackets().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        packets.add(receiveOne());
+        packets.add(receiveOne());
+        return packets;
+    }
+
+    private AisPacket receiveOne() {
+        AisPacket packet = createDistinctPacket();
+        handler.receiveUnfiltered(packet);
+        return packet;
+    }
+
+    /**
+     * @return a position report told apart from the others by the timestamp of its comment block
+     */
+    private AisPacket createDistinctPacket() {
+        receivedPackets++;
+        return AisPacket.from("\\c:" + receivedPackets + "*00\\" + POSITION_REPORT);
+    }
+
+    private CoverageHandler createBatchHandler(int batchSize, int lingerMillis) {
+        AisCoverageConfiguration conf = new AisCoverageConfiguration();
+        conf.setPacketHandlingMode(PacketHandlingMode.BATCH);
+        conf.setPacketHandlingThreads(1);
+        conf.setPacketBatchSize(batchSize);
+        conf.setPacketBatchMaxLingerMillis(lingerMillis);
+        conf.setPacketWaitStrategy(WaitStrategy.PARK);
+        CoverageHandler coverageHandler = new CoverageHandler(conf);
+        coverageHandler.setDataHandler(new FakePacketConversion());
+        return coverageHandler;
+    }
+
+    private void receive(int packets) {
+        for (int i = 0; i < packets; i++) {
+            handler.receiveUnfiltered(AisPacket.from(POSITION_REPORT));
+        }
+    }
+
+    private long awaitHandledPackets(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (handler.getHandledPackets() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return handler.getHandledPackets();
+    }
+
+    /**
+     * Records the packets it converts, in order, and holds every conversion until the gate is opened.
+     */
+    private static class GatedPacketConversion extends FakePacketConversion {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<AisPacket> packets = Collections.synchronizedList(new ArrayList<AisPacket>());
+
+        @Override
+        public CustomMessage packetToCustomMessage(AisPacket packet) {
+            packets.add(packet);
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.packetToCustomMessage(packet);
+        }
+
+        void open() {
+            gate.countDown();
+        }
+
+        List<AisPacket> getPackets() {
+            synchronized (packets) {
+                return new ArrayList<>(packets);
+            }
+        }
+    }
+}
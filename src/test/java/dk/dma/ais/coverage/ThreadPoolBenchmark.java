@@ -0,0 +1,126 @@
+package dk.dma.ais.coverage;
+
+import dk.dma.ais.coverage.calculator.AbstractCalculator;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.coverage.configuration.ExecutorMode;
+import dk.dma.ais.coverage.data.OnlyMemoryData;
+import dk.dma.ais.coverage.data.QueryParams;
+import dk.dma.ais.coverage.data.SourceIds;
+import dk.dma.ais.coverage.ingest.ThreadPools;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a mixed load of ingest tasks, incrementing the signals of a batch of messages, and coverage queries over
+ * a bounding box, all submitted to the packet handling executor that the {@link CoverageHandler} creates for the
+ * configured {@link ExecutorMode}. Virtual threads need Java 21; on older runtimes the {@code VIRTUAL} runs measure the
+ * platform thread fallback, as logged at setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadPoolBenchmark {
+    private static final int TASKS = 1000;
+    private static final int MESSAGES_PER_INGEST_TASK = 100;
+    private static final Date HOUR = new Date(1496300400000L);
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    private ExecutorMode executorMode;
+
+    /**
+     * Number of packet handling threads, ignored with virtual threads.
+     */
+    @Param({"4", "50"})
+    private int packetHandlingThreads;
+
+    /**
+     * One task in this many is a query, the others are ingest tasks.
+     */
+    @Param({"20"})
+    private int tasksPerQuery;
+
+    private OnlyMemoryData dataHandler;
+    private ExecutorService executor;
+    private QueryParams query;
+
+    @Setup(Level.Trial)
+    public void createExecutor() throws Exception {
+        AisCoverageConfiguration conf = new AisCoverageConfiguration();
+        conf.setExecutorMode(executorMode);
+        conf.setPacketHandlingThreads(packetHandlingThreads);
+        executor = ThreadPools.newThreadPool(conf.getExecutorMode(), conf.getPacketHandlingThreads(), "packet-handler", true);
+
+        Helper.conf = conf;
+        dataHandler = new OnlyMemoryData();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            dataHandler.incrementReceivedSignals(SourceIds.SUPERSOURCE, 55.0 + random.nextDouble() * 2, 10.0 + random.nextDouble() * 2, HOUR);
+        }
+
+        query = new QueryParams();
+        query.latStart = 56.5;
+        query.lonStart = 10.5;
+        query.latEnd = 56.0;
+        query.lonEnd = 11.0;
+        query.sources = Collections.singleton(AbstractCalculator.SUPERSOURCE_MMSI);
+        query.multiplicationFactor = 1;
+        query.startDate = HOUR;
+        query.endDate = new Date(HOUR.getTime() + 60 * 60 * 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void mixedLoad() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            final boolean isQuery = i % tasksPerQuery == 0;
+            final int seed = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isQuery) {
+                        dataHandler.getCells(query);
+                    } else {
+                        ingest(seed);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    private void ingest(int seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < MESSAGES_PER_INGEST_TASK; i++) {
+            dataHandler.incrementReceivedSignals(SourceIds.SUPERSOURCE, 55.0 + random.nextDouble() * 2, 10.0 + random.nextDouble() * 2, HOUR);
+        }
+    }
+}
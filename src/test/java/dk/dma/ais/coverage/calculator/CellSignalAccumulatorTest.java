@@ -0,0 +1,89 @@
+package dk.dma.ais.coverage.calculator;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.coverage.data.Cell;
+import dk.dma.ais.coverage.data.ICoverageData;
+import dk.dma.ais.coverage.data.OnlyMemoryData;
+import dk.dma.ais.coverage.data.SourceIds;
+import dk.dma.ais.coverage.data.TimeSpan;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class CellSignalAccumulatorTest {
+    private static final long HOUR = 1000L * 60 * 60;
+
+    private ICoverageData perSignalData;
+    private ICoverageData accumulatedData;
+    private int source;
+
+    @Before
+    public void setUp() throws Exception {
+        Helper.conf = new AisCoverageConfiguration();
+        perSignalData = new OnlyMemoryData();
+        accumulatedData = new OnlyMemoryData();
+        perSignalData.createSource("2190047");
+        accumulatedData.createSource("2190047");
+        source = accumulatedData.getSourceIds().idOf("2190047");
+    }
+
+    @Test
+    public void whenFlush_thenCountersAreTheSameAsWhenIncrementingEverySignal() {
+        CellSignalAccumulator accumulator = new CellSignalAccumulator();
+        long firstHour = Helper.getFloorDate(new Date(1496300000000L)).getTime();
+        for (int i = 0; i < 2000; i++) {
+            double lat = 55 + (i * 37 % 500) / 1000.0;
+            double lon = 10 + (i * 53 % 700) / 1000.0;
+            long timestamp = firstHour + (i * 7919L % (3 * HOUR));
+            int sourceId = i % 3 == 0 ? source : SourceIds.SUPERSOURCE;
+
+            if (i % 4 == 0) {
+                accumulator.addReceivedSignal(sourceId, lat, lon, timestamp);
+                perSignalData.incrementReceivedSignals(sourceId, lat, lon, new Date(timestamp));
+            } else {
+                accumulator.addMissingSignal(sourceId, lat, lon, timestamp);
+                perSignalData.incrementMissingSignals(sourceId, lat, lon, new Date(timestamp));
+            }
+        }
+
+        accumulator.flush(accumulatedData);
+
+        assertThat(accumulator.size(), is(equalTo(0)));
+        for (String sourceId : new String[] { "2190047", AbstractCalculator.SUPERSOURCE_MMSI }) {
+            assertThat(accumulatedData.getSource(sourceId).getGrid().size(), is(equalTo(perSignalData.getSource(sourceId).getGrid().size())));
+            for (Cell expected : perSignalData.getSource(sourceId).getGrid().values()) {
+                Cell actual = accumulatedData.getSource(sourceId).getGrid().get(expected.getKey());
+                assertThat(actual, is(notNullValue()));
+                assertThat(actual.getNOofReceivedSignals(), is(equalTo(expected.getNOofReceivedSignals())));
+                assertThat(actual.getNOofMissingSignals(), is(equalTo(expected.getNOofMissingSignals())));
+                assertThat(actual.getFixedWidthSpans().keySet(), is(equalTo(expected.getFixedWidthSpans().keySet())));
+                for (Map.Entry<Long, TimeSpan> span : expected.getFixedWidthSpans().entrySet()) {
+                    TimeSpan actualSpan = actual.getFixedWidthSpans().get(span.getKey());
+                    assertThat(actualSpan.getMessageCounterTerrestrial(), is(equalTo(span.getValue().getMessageCounterTerrestrial())));
+                    assertThat(actualSpan.getMissingSignals(), is(equalTo(span.getValue().getMissingSignals())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void givenSignalsInSameCellAndHour_whenAdd_thenOneEntryIsKept() {
+        CellSignalAccumulator accumulator = new CellSignalAccumulator();
+        long hour = Helper.getFloorDate(new Date(1496300000000L)).getTime();
+
+        for (int i = 0; i < 10; i++) {
+            accumulator.addMissingSignal(source, 55.0001, 10.0001, hour + i * 1000);
+        }
+        accumulator.addMissingSignal(source, 55.0001, 10.0001, hour + HOUR);
+
+        assertThat(accumulator.size(), is(equalTo(2)));
+    }
+}
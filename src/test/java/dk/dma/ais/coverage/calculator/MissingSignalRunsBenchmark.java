@@ -0,0 +1,120 @@
+package dk.dma.ais.coverage.calculator;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.calculator.geotools.SphereProjection;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.coverage.data.OnlyMemoryData;
+import dk.dma.ais.coverage.data.SourceIds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to count the signals missing in a gap between two messages of a class A ship, by converting every missing point
+ * back to latitude and longitude as the terrestrial calculator did before, or by reading the {@link MissingSignalRuns}
+ * of the gap. Gaps last the given number of minutes, over up to 1 km per minute in any direction, with the reporting
+ * intervals of class A ships. Both count the signals in a {@link CellSignalAccumulator}, flushed after every batch of
+ * gaps like the calculator does after every ship.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MissingSignalRunsBenchmark {
+    private static final int GAPS = 256;
+    private static final double[] CLASS_A_INTERVALS = { 10, 6, 3.33, 2 };
+    private static final long FIRST_HOUR = 1496300400000L;
+
+    /**
+     * Duration of the gaps, in minutes.
+     */
+    @Param({ "2", "20" })
+    private int gapMinutes;
+
+    private double[] p1Lats;
+    private double[] p1Lons;
+    private long[] p1Times;
+    private double[] p2Lats;
+    private double[] p2Lons;
+    private double[] intervals;
+    private CellSignalAccumulator signals;
+    private OnlyMemoryData dataHandler;
+
+    @Setup(Level.Trial)
+    public void createGaps() {
+        Helper.conf = new AisCoverageConfiguration();
+        Random random = new Random(42);
+        p1Lats = new double[GAPS];
+        p1Lons = new double[GAPS];
+        p1Times = new long[GAPS];
+        p2Lats = new double[GAPS];
+        p2Lons = new double[GAPS];
+        intervals = new double[GAPS];
+        for (int i = 0; i < GAPS; i++) {
+            p1Lats[i] = 54 + random.nextDouble() * 4;
+            p1Lons[i] = 8 + random.nextDouble() * 6;
+            // About 0.009 degrees of latitude and 0.015 degrees of longitude per km at these latitudes
+            p2Lats[i] = p1Lats[i] + (random.nextDouble() - 0.5) * 0.018 * gapMinutes;
+            p2Lons[i] = p1Lons[i] + (random.nextDouble() - 0.5) * 0.03 * gapMinutes;
+            // Some gaps cross an hour
+            p1Times[i] = FIRST_HOUR + random.nextInt(3600) * 1000L;
+            intervals[i] = CLASS_A_INTERVALS[random.nextInt(CLASS_A_INTERVALS.length)];
+        }
+        signals = new CellSignalAccumulator();
+        dataHandler = new OnlyMemoryData();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GAPS)
+    public OnlyMemoryData perPoint() {
+        double timeDifference = gapMinutes * 60;
+        for (int gap = 0; gap < GAPS; gap++) {
+            SphereProjection projection = new SphereProjection(p1Lons[gap], p1Lats[gap]);
+            double p1X = projection.lon2x(p1Lons[gap], p1Lats[gap]);
+            double p1Y = projection.lat2y(p1Lons[gap], p1Lats[gap]);
+            double p2X = projection.lon2x(p2Lons[gap], p2Lats[gap]);
+            double p2Y = projection.lat2y(p2Lons[gap], p2Lats[gap]);
+            double interval = intervals[gap];
+            int missingMessages = (int) (Math.round(timeDifference / interval) - 1);
+            for (int i = 1; i <= missingMessages; i++) {
+                double x = p1X + ((p2X - p1X) / timeDifference * (i * interval));
+                double y = p1Y + ((p2Y - p1Y) / timeDifference * (i * interval));
+                long stamp = (long) (p1Times[gap] + (i * interval * 1000));
+                signals.addMissingSignal(SourceIds.SUPERSOURCE, projection.y2Lat(x, y), projection.x2Lon(x, y), stamp);
+            }
+        }
+        signals.flush(dataHandler);
+        return dataHandler;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GAPS)
+    public OnlyMemoryData runs() {
+        double timeDifference = gapMinutes * 60;
+        for (int gap = 0; gap < GAPS; gap++) {
+            MissingSignalRuns runs = new MissingSignalRuns(p1Lats[gap], p1Lons[gap], p1Times[gap], p2Lats[gap], p2Lons[gap],
+                    timeDifference, intervals[gap]);
+            while (runs.next()) {
+                signals.addMissingSignals(SourceIds.SUPERSOURCE, runs.getLatitude(), runs.getLongitude(), runs.getTimestamp(),
+                        runs.getSize());
+            }
+        }
+        signals.flush(dataHandler);
+        return dataHandler;
+    }
+}
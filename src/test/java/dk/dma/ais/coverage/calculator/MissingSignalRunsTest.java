@@ -0,0 +1,100 @@
+package dk.dma.ais.coverage.calculator;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.calculator.geotools.SphereProjection;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MissingSignalRunsTest {
+    private static final double[] CLASS_A_INTERVALS = { 10, 6, 3.33, 2 };
+
+    @Before
+    public void setUp() throws Exception {
+        Helper.conf = new AisCoverageConfiguration();
+    }
+
+    @Test
+    public void givenLongGaps_whenReadRuns_thenSignalsPerCellAndHourAreTheSameAsConvertingEveryPoint() {
+        Random random = new Random(42);
+        long hour = 1000L * 60 * 60;
+        for (int track = 0; track < 500; track++) {
+            double p1Lat = 54 + random.nextDouble() * 4;
+            double p1Lon = 8 + random.nextDouble() * 6;
+            // Up to about 20 km in any direction, over gaps of up to 20 minutes, some of them crossing an hour
+            double p2Lat = p1Lat + (random.nextDouble() - 0.5) * 0.36;
+            double p2Lon = p1Lon + (random.nextDouble() - 0.5) * 0.6;
+            long p1Time = 1496300400000L + random.nextInt(2) * hour - random.nextInt(1200) * 1000L;
+            long p2Time = p1Time + (20 + random.nextInt(1180)) * 1000L;
+            double interval = CLASS_A_INTERVALS[random.nextInt(CLASS_A_INTERVALS.length)];
+            double timeDifference = (double) Math.abs((p2Time - p1Time) / 1000);
+
+            Map<String, Integer> expected = convertEveryPoint(p1Lat, p1Lon, p1Time, p2Lat, p2Lon, timeDifference, interval);
+
+            Map<String, Integer> actual = new HashMap<String, Integer>();
+            int signals = 0;
+            int numberOfRuns = 0;
+            MissingSignalRuns runs = new MissingSignalRuns(p1Lat, p1Lon, p1Time, p2Lat, p2Lon, timeDifference, interval);
+            while (runs.next()) {
+                add(actual, key(runs.getLatitude(), runs.getLongitude(), runs.getTimestamp()), runs.getSize());
+                signals += runs.getSize();
+                numberOfRuns++;
+            }
+
+            assertThat(actual, is(equalTo(expected)));
+            assertThat(signals, is(equalTo(runs.getMissingSignals())));
+            // Every cell and hour is crossed once
+            assertThat(numberOfRuns, is(equalTo(expected.size())));
+        }
+    }
+
+    @Test
+    public void givenNoGap_whenReadRuns_thenThereIsNoRun() {
+        MissingSignalRuns runs = new MissingSignalRuns(55, 10, 1496300400000L, 55.0001, 10.0001, 10, 10);
+
+        assertThat(runs.getMissingSignals(), is(equalTo(0)));
+        assertThat(runs.next(), is(false));
+    }
+
+    /**
+     * Reference computation, converting every missing point back to latitude and longitude.
+     */
+    private static Map<String, Integer> convertEveryPoint(double p1Lat, double p1Lon, long p1Time, double p2Lat, double p2Lon,
+            double timeDifference, double interval) {
+        SphereProjection projection = new SphereProjection(p1Lon, p1Lat);
+        double p1X = projection.lon2x(p1Lon, p1Lat);
+        double p1Y = projection.lat2y(p1Lon, p1Lat);
+        double p2X = projection.lon2x(p2Lon, p2Lat);
+        double p2Y = projection.lat2y(p2Lon, p2Lat);
+
+        Map<String, Integer> signals = new HashMap<String, Integer>();
+        if (timeDifference > interval) {
+            int missingMessages = (int) (Math.round(timeDifference / interval) - 1);
+            for (int i = 1; i <= missingMessages; i++) {
+                double x = p1X + ((p2X - p1X) / timeDifference * (i * interval));
+                double y = p1Y + ((p2Y - p1Y) / timeDifference * (i * interval));
+                long stamp = (long) (p1Time + (i * interval * 1000));
+                add(signals, key(projection.y2Lat(x, y), projection.x2Lon(x, y), stamp), 1);
+            }
+        }
+        return signals;
+    }
+
+    private static String key(double latitude, double longitude, long timestamp) {
+        return Helper.getCellKey(latitude, longitude, 1) + "@" + Helper.getFloorDate(new Date(timestamp)).getTime();
+    }
+
+    private static void add(Map<String, Integer> signals, String key, int count) {
+        Integer current = signals.get(key);
+        signals.put(key, current == null ? count : current + count);
+    }
+}
@@ -0,0 +1,95 @@
+package dk.dma.ais.coverage.calculator;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.coverage.data.Cell;
+import dk.dma.ais.coverage.data.CustomMessage;
+import dk.dma.ais.coverage.data.OnlyMemoryData;
+import dk.dma.ais.coverage.data.Ship;
+import dk.dma.ais.coverage.data.TimeSpan;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SatCalculatorTest {
+    private static final int MMSI = 219000001;
+    private static final long MINUTE = 1000L * 60;
+
+    private OnlyMemoryData dataHandler;
+    private SatCalculator calculator;
+    private long firstHour;
+
+    @Before
+    public void setUp() throws Exception {
+        Helper.conf = new AisCoverageConfiguration();
+        dataHandler = new OnlyMemoryData();
+        firstHour = 1496300400000L;
+        Helper.firstMessage = new Date(firstHour);
+        dataHandler.createShip(MMSI, Ship.ShipClass.CLASS_A);
+        calculator = new SatCalculator();
+        calculator.setDataHandler(dataHandler);
+
+        // Three time spans, more than the 10 minute margin apart
+        calculate(0);
+        calculate(30);
+        calculate(60);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Helper.conf = null;
+        Helper.firstMessage = null;
+        Helper.analysisStarted = null;
+    }
+
+    @Test
+    public void givenThreeTimeSpans_whenMessageAfterStartOfMiddleSpan_thenItIsCountedInTheMiddleSpan() {
+        calculate(35);
+
+        List<TimeSpan> spans = timeSpans();
+        assertThat(spans.size(), is(equalTo(3)));
+        assertThat(spans.get(1).getFirstMessage().getTime(), is(equalTo(firstHour + 30 * MINUTE)));
+        assertThat(spans.get(1).getLastMessage().getTime(), is(equalTo(firstHour + 35 * MINUTE)));
+        assertThat(spans.get(1).getMessageCounterSat(), is(equalTo(2)));
+        assertThat(spans.get(0).getMessageCounterSat(), is(equalTo(1)));
+        assertThat(spans.get(2).getMessageCounterSat(), is(equalTo(1)));
+    }
+
+    @Test
+    public void givenThreeTimeSpans_whenMiddleSpanGrowsWithinMarginOfTheNextOne_thenBothAreMerged() {
+        calculate(35);
+        calculate(44);
+        calculate(51);
+
+        List<TimeSpan> spans = timeSpans();
+        assertThat(spans.size(), is(equalTo(2)));
+        assertThat(spans.get(0).getMessageCounterSat(), is(equalTo(1)));
+        assertThat(spans.get(1).getFirstMessage().getTime(), is(equalTo(firstHour + 30 * MINUTE)));
+        assertThat(spans.get(1).getLastMessage().getTime(), is(equalTo(firstHour + 60 * MINUTE)));
+        assertThat(spans.get(1).getMessageCounterSat(), is(equalTo(5)));
+    }
+
+    private void calculate(int minutes) {
+        CustomMessage message = new CustomMessage();
+        message.setShipMMSI(MMSI);
+        message.setTimestamp(new Date(firstHour + minutes * MINUTE));
+        message.setLatitude(55.5);
+        message.setLongitude(10.5);
+        message.setSog(10);
+        message.setSourceType(SourceType.SATELLITE);
+        calculator.calculate(message);
+    }
+
+    private List<TimeSpan> timeSpans() {
+        Cell cell = dataHandler.getCell(AbstractCalculator.SUPERSOURCE_MMSI, 55.5, 10.5);
+        return cell.getTimeSpans();
+    }
+}
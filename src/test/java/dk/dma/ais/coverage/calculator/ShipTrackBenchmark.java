@@ -0,0 +1,94 @@
+package dk.dma.ais.coverage.calculator;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.coverage.data.OnlyMemoryData;
+import dk.dma.ais.coverage.data.Ship;
+import dk.dma.ais.coverage.export.data.ExportShipTimeSpan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the ship track positions kept for the satellite coverage export: recording the position of a ship every
+ * minute of a day in its hours, and exporting that day as the time spans of the ship with all their positions. Both
+ * encode or decode every position on the plane kept for each hour.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ShipTrackBenchmark {
+    private static final int MINUTES = 24 * 60;
+    private static final long FIRST_HOUR = 1496300400000L;
+    private static final int MMSI = 219000001;
+
+    private Date[] timestamps;
+    private float[] latitudes;
+    private float[] longitudes;
+    private SatCalculator calculator;
+    private Date start;
+    private Date end;
+
+    @Setup(Level.Trial)
+    public void recordTrack() {
+        Helper.conf = new AisCoverageConfiguration();
+        timestamps = new Date[MINUTES];
+        latitudes = new float[MINUTES];
+        longitudes = new float[MINUTES];
+        for (int i = 0; i < MINUTES; i++) {
+            timestamps[i] = new Date(FIRST_HOUR + i * 60 * 1000L);
+            // A ship sailing north east at about 10 knots, silent 20 minutes every 3 hours
+            latitudes[i] = 55.0f + i * 0.0025f;
+            longitudes[i] = 10.0f + i * 0.004f;
+        }
+
+        OnlyMemoryData dataHandler = new OnlyMemoryData();
+        Ship ship = dataHandler.createShip(MMSI, Ship.ShipClass.CLASS_A);
+        for (int i = 0; i < MINUTES; i++) {
+            if (i % 180 >= 20) {
+                ship.registerMessage(timestamps[i], latitudes[i], longitudes[i]);
+            }
+        }
+        calculator = new SatCalculator();
+        calculator.setDataHandler(dataHandler);
+        start = new Date(FIRST_HOUR);
+        end = new Date(FIRST_HOUR + MINUTES * 60 * 1000L);
+    }
+
+    /**
+     * @return a ship whose every minute of the day is recorded, one operation per position
+     */
+    @Benchmark
+    @OperationsPerInvocation(MINUTES)
+    public Ship registerPositions() {
+        Ship ship = new Ship(MMSI, Ship.ShipClass.CLASS_A);
+        for (int i = 0; i < MINUTES; i++) {
+            ship.registerMessage(timestamps[i], latitudes[i], longitudes[i]);
+        }
+        return ship;
+    }
+
+    /**
+     * @return the time spans of a day of the ship, one operation per day exported
+     */
+    @Benchmark
+    public List<ExportShipTimeSpan> exportTrack() {
+        return calculator.getShipDynamicTimeSpans(start, end, MMSI);
+    }
+}
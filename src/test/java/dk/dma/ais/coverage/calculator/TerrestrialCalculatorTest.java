@@ -0,0 +1,78 @@
+package dk.dma.ais.coverage.calculator;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.coverage.data.CustomMessage;
+import dk.dma.ais.coverage.data.OnlyMemoryData;
+import dk.dma.ais.coverage.data.Ship;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class TerrestrialCalculatorTest {
+    private static final int MMSI = 219000001;
+
+    private OnlyMemoryData dataHandler;
+    private Date firstHour;
+
+    @Before
+    public void setUp() throws Exception {
+        Helper.conf = new AisCoverageConfiguration();
+        dataHandler = new OnlyMemoryData();
+        dataHandler.createSource("2190047");
+        firstHour = new Date(1496300400000L);
+        Helper.firstMessage = firstHour;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Helper.conf = null;
+        Helper.firstMessage = null;
+        Helper.latestMessage = null;
+    }
+
+    @Test
+    public void givenShipEvictedAfterConversion_whenCalculate_thenMessageIsSkipped() {
+        dataHandler.createShip(MMSI, Ship.ShipClass.CLASS_A).markActive(firstHour);
+        CustomMessage message = createMessage(new Date(firstHour.getTime() + 1000));
+        dataHandler.trimWindow(new Date(firstHour.getTime() + 1000 * 60 * 60));
+        TerrestrialCalculator calculator = new TerrestrialCalculator(false);
+        calculator.setDataHandler(dataHandler);
+
+        calculator.calculate(message);
+
+        assertThat(dataHandler.getShip(MMSI), is(nullValue()));
+        assertThat(dataHandler.getCell(AbstractCalculator.SUPERSOURCE_MMSI, message.getLatitude(), message.getLongitude()), is(nullValue()));
+    }
+
+    @Test
+    public void givenShipEvictedAfterConversion_whenFilterMessage_thenMessageIsFiltered() {
+        AbstractCalculator calculator = new AbstractCalculator() {
+            @Override
+            public void calculate(CustomMessage m) {
+            }
+        };
+        calculator.setDataHandler(dataHandler);
+
+        assertThat(calculator.filterMessage(createMessage(firstHour)), is(equalTo(true)));
+    }
+
+    private CustomMessage createMessage(Date timestamp) {
+        CustomMessage message = new CustomMessage();
+        message.setShipMMSI(MMSI);
+        message.setTimestamp(timestamp);
+        message.setLatitude(55.5);
+        message.setLongitude(10.5);
+        message.setSog(10);
+        message.setCog(90);
+        message.addSource(dataHandler.getSourceIds().idOf("2190047"));
+        return message;
+    }
+}
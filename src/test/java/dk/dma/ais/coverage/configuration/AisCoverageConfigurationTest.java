@@ -1,5 +1,7 @@
 package dk.dma.ais.coverage.configuration;
 
+import dk.dma.ais.coverage.ingest.OverflowPolicy;
+import dk.dma.ais.coverage.ingest.WaitStrategy;
 import org.junit.Test;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -21,4 +23,32 @@ public class AisCoverageConfigurationTest {
 
         assertThat(configuration.getReceivedPacketsBufferSize(), is(equalTo(10000)));
     }
+
+    @Test
+    public void whenNewInstance_thenPacketHandlingModeDefaultsToBatch() {
+        AisCoverageConfiguration configuration = new AisCoverageConfiguration();
+
+        assertThat(configuration.getPacketHandlingMode(), is(equalTo(PacketHandlingMode.BATCH)));
+    }
+
+    @Test
+    public void whenNewInstance_thenPacketWaitStrategyDefaultsToPark() {
+        AisCoverageConfiguration configuration = new AisCoverageConfiguration();
+
+        assertThat(configuration.getPacketWaitStrategy(), is(equalTo(WaitStrategy.PARK)));
+    }
+
+    @Test
+    public void whenNewInstance_thenExecutorModeDefaultsToPlatform() {
+        AisCoverageConfiguration configuration = new AisCoverageConfiguration();
+
+        assertThat(configuration.getExecutorMode(), is(equalTo(ExecutorMode.PLATFORM)));
+    }
+
+    @Test
+    public void whenNewInstance_thenOverflowPolicyDefaultsToDropNewest() {
+        AisCoverageConfiguration configuration = new AisCoverageConfiguration();
+
+        assertThat(configuration.getOverflowPolicy(), is(equalTo(OverflowPolicy.DROP_NEWEST)));
+    }
 }
@@ -0,0 +1,83 @@
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of finding the cells of a source inside a bounding box, through the tiles of its grid or by checking every cell
+ * of the grid as before tiles, for square boxes of growing size. The source covers 400 x 500 cells, about 9 x 19 degrees.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CellBoxQueryBenchmark {
+    private static final int ROWS = 400;
+    private static final int COLUMNS = 500;
+    private static final double LAT_SIZE = 0.0225225225;
+    private static final double LON_SIZE = 0.0386812541;
+
+    /**
+     * Number of rows and columns of cells covered by the box.
+     */
+    @Param({"4", "40", "400"})
+    private int boxSize;
+
+    private Source source;
+    private double latStart;
+    private double lonStart;
+    private double latEnd;
+    private double lonEnd;
+
+    @Setup(Level.Trial)
+    public void fillSource() {
+        Helper.conf = new AisCoverageConfiguration();
+        source = new Source("2190047");
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                source.createCell(50.0 + (row + 0.5) * LAT_SIZE, 2.0 + (column + 0.5) * LON_SIZE);
+            }
+        }
+        // Box centered on the source, latitudes from north to south as in coverage queries
+        double centerLat = 50.0 + ROWS / 2 * LAT_SIZE;
+        double centerLon = 2.0 + COLUMNS / 2 * LON_SIZE;
+        latStart = centerLat + boxSize / 2.0 * LAT_SIZE;
+        latEnd = centerLat - boxSize / 2.0 * LAT_SIZE;
+        lonStart = centerLon - boxSize / 2.0 * LON_SIZE;
+        lonEnd = centerLon + boxSize / 2.0 * LON_SIZE;
+    }
+
+    @Benchmark
+    public List<Cell> tiles() {
+        return source.getCellsInBox(latStart, lonStart, latEnd, lonEnd);
+    }
+
+    @Benchmark
+    public List<Cell> allCells() {
+        List<Cell> cells = new ArrayList<Cell>();
+        for (Cell cell : source.getGrid().values()) {
+            if (Helper.isInsideBox(cell, latStart, lonStart, latEnd, lonEnd)) {
+                cells.add(cell);
+            }
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,77 @@
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of counting a received signal through {@link OnlyMemoryData#incrementReceivedSignals}, which counts it in the
+ * current hour of the cell and in the global counters of the cell, with all threads counting in a few hot cells or spread
+ * over many cells. A {@link LongAdder} per cell is measured alongside as the cost of a striped counter alone. Contention
+ * only shows with several cores: run with {@code -t} up to the number of cores, and {@code -t 1} for the uncontended
+ * cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class CellCounterBenchmark {
+    private static final Date HOUR = new Date(1496300400000L);
+
+    /**
+     * Number of cells the threads count in, picked at random for every message.
+     */
+    @Param({"1", "4096"})
+    private int cells;
+
+    private OnlyMemoryData dataHandler;
+    private double[] latitudes;
+    private double[] longitudes;
+    private LongAdder[] adders;
+
+    @Setup(Level.Trial)
+    public void createCells() {
+        Helper.conf = new AisCoverageConfiguration();
+        dataHandler = new OnlyMemoryData();
+        latitudes = new double[cells];
+        longitudes = new double[cells];
+        adders = new LongAdder[cells];
+        for (int i = 0; i < cells; i++) {
+            latitudes[i] = 54.0 + (i / 64) * 0.0225225225;
+            longitudes[i] = 8.0 + (i % 64) * 0.0386812541;
+            adders[i] = new LongAdder();
+            dataHandler.incrementReceivedSignals(SourceIds.SUPERSOURCE, latitudes[i], longitudes[i], HOUR);
+        }
+    }
+
+    @Benchmark
+    public void incrementReceivedSignals() {
+        int cell = ThreadLocalRandom.current().nextInt(cells);
+        dataHandler.incrementReceivedSignals(SourceIds.SUPERSOURCE, latitudes[cell], longitudes[cell], HOUR);
+    }
+
+    @Benchmark
+    public void longAdder() {
+        adders[ThreadLocalRandom.current().nextInt(cells)].increment();
+    }
+}
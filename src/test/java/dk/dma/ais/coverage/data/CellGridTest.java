@@ -0,0 +1,154 @@
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class CellGridTest {
+
+    @Before
+    public void setUp() throws Exception {
+        Helper.conf = new AisCoverageConfiguration();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Helper.conf = null;
+    }
+
+    @Test
+    public void givenCellCorner_whenGetCellKey_thenKeyIsTheSameAsForAnyPointOfTheCell() {
+        double latitude = Helper.roundLat(55.6761, 1);
+        double longitude = Helper.roundLon(12.5683, 1);
+
+        assertThat(Helper.getCellKey(latitude, longitude, 1), is(equalTo(Helper.getCellKey(55.6761, 12.5683, 1))));
+
+        double southLatitude = Helper.roundLat(-55.6761, 1);
+        double westLongitude = Helper.roundLon(-12.5683, 1);
+        assertThat(Helper.getCellKey(southLatitude, westLongitude, 1), is(equalTo(Helper.getCellKey(-55.6761, -12.5683, 1))));
+    }
+
+    @Test
+    public void whenGetCellKey_thenNeighbouringCellsHaveDistinctKeys() {
+        double latSize = Helper.conf.getLatSize();
+        double lonSize = Helper.conf.getLonSize();
+
+        Set<Long> keys = new HashSet<>();
+        for (int row = -2; row <= 2; row++) {
+            for (int column = -2; column <= 2; column++) {
+                keys.add(Helper.getCellKey(row * latSize + latSize / 2, column * lonSize + lonSize / 2, 1));
+            }
+        }
+
+        assertThat(keys.size(), is(equalTo(25)));
+    }
+
+    @Test
+    public void whenPutIfAbsent_thenExistingCellIsKept() {
+        CellGrid grid = new CellGrid();
+        Cell first = new Cell(1, 2, 42L);
+        Cell second = new Cell(1, 2, 42L);
+
+        assertThat(grid.putIfAbsent(first), is(nullValue()));
+        assertThat(grid.putIfAbsent(second), is(sameInstance(first)));
+        assertThat(grid.get(42L), is(sameInstance(first)));
+        assertThat(grid.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void givenManyCells_whenRemovingHalf_thenOtherCellsCanStillBeFound() {
+        CellGrid grid = new CellGrid();
+        for (int row = 0; row < 100; row++) {
+            for (int column = 0; column < 100; column++) {
+                grid.put(new Cell(row, column, ((long) row << 32) | column));
+            }
+        }
+
+        for (int row = 0; row < 100; row += 2) {
+            for (int column = 0; column < 100; column++) {
+                assertThat(grid.remove(((long) row << 32) | column), is(not(nullValue())));
+            }
+        }
+
+        assertThat(grid.size(), is(equalTo(5000)));
+        assertThat(grid.values().size(), is(equalTo(5000)));
+        for (int row = 0; row < 100; row++) {
+            for (int column = 0; column < 100; column++) {
+                Cell cell = grid.get(((long) row << 32) | column);
+                if (row % 2 == 0) {
+                    assertThat(cell, is(nullValue()));
+                } else {
+                    assertThat(cell.getLatitude(), is(equalTo((double) row)));
+                    assertThat(cell.getLongitude(), is(equalTo((double) column)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void givenRandomCells_whenGetCellsInBox_thenCellsAreTheSameAsWhenCheckingEveryCell() {
+        Random random = new Random(7);
+        Source source = new Source("2190047");
+        for (int i = 0; i < 20000; i++) {
+            source.createCell(-90 + random.nextDouble() * 180, -180 + random.nextDouble() * 360);
+        }
+        for (int i = 0; i < 2000; i++) {
+            source.createCell(54 + random.nextDouble() * 4, 8 + random.nextDouble() * 6);
+        }
+        for (int i = 0; i < 2000; i++) {
+            source.getGrid().remove(source.getGrid().values().get(random.nextInt(source.getGrid().size())).getKey());
+        }
+
+        double[][] boxes = {
+                // latStart, lonStart, latEnd, lonEnd
+                {58.0, 10.0, 57.5, 11.0},
+                {56.0, 11.0, 55.0, 13.0},
+                {90.0, -180.0, -90.0, 180.0},
+                {10.0, 170.0, -10.0, -170.0},
+                {-30.0, -75.5, -31.2, -71.0},
+                {60.0, 5.0, 50.0, 5.0},
+        };
+        for (double[] box : boxes) {
+            Set<Cell> expected = new HashSet<>();
+            for (Cell cell : source.getGrid().values()) {
+                if (Helper.isInsideBox(cell, box[0], box[1], box[2], box[3])) {
+                    expected.add(cell);
+                }
+            }
+
+            List<Cell> cells = source.getCellsInBox(box[0], box[1], box[2], box[3]);
+
+            assertThat(cells.size(), is(equalTo(expected.size())));
+            assertThat(new HashSet<>(cells), is(equalTo(expected)));
+        }
+    }
+
+    @Test
+    public void givenReplacedCell_whenGetCellsInRange_thenOnlyNewCellIsFound() {
+        CellGrid grid = new CellGrid();
+        Cell first = new Cell(0, 0, Helper.getCellKey(3, 5));
+        Cell second = new Cell(0, 0, Helper.getCellKey(3, 5));
+        grid.put(first);
+
+        grid.put(second);
+
+        List<Cell> cells = grid.values(0, 10, 0, 10);
+        assertThat(cells.size(), is(equalTo(1)));
+        assertThat(cells.get(0), is(sameInstance(second)));
+        assertThat(grid.values(4, 10, 0, 10).isEmpty(), is(true));
+    }
+}
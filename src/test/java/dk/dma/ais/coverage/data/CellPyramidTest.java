@@ -0,0 +1,163 @@
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.calculator.AbstractCalculator;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CellPyramidTest {
+    private static final long HOUR = 1000L * 60 * 60;
+    private static final int[] FACTORS = {2, 3, 4, 8, 20, 40};
+    private static final double[][] BOXES = {
+            // latStart, lonStart, latEnd, lonEnd
+            {60.0, 5.0, 50.0, 20.0},
+            {56.3, 11.1, 55.7, 12.9},
+            {57.05, 10.55, 56.55, 10.75},
+            {-10.0, 179.5, -12.0, -179.5},
+    };
+
+    private OnlyMemoryData data;
+    private Date firstHour;
+    private Random random;
+
+    @Before
+    public void setUp() throws Exception {
+        Helper.conf = new AisCoverageConfiguration();
+        data = new OnlyMemoryData();
+        firstHour = Helper.getFloorDate(new Date(1496300000000L));
+        random = new Random(42);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Helper.conf = null;
+    }
+
+    @Test
+    public void whenGetCellsWithMultiplicationFactor_thenCellsAreTheSameAsAggregatedFromSourceCells() {
+        addRandomSignals(20000);
+
+        assertAllQueriesMatchSourceCells();
+        assertThat(data.getSource(AbstractCalculator.SUPERSOURCE_MMSI).getPyramid().getNumberOfLevels(), is(equalTo(FACTORS.length)));
+    }
+
+    @Test
+    public void givenQueriedLevels_whenCellsAreUpdated_thenNextQueriesSeeTheUpdates() {
+        addRandomSignals(5000);
+        assertAllQueriesMatchSourceCells();
+
+        addRandomSignals(5000);
+
+        assertAllQueriesMatchSourceCells();
+    }
+
+    @Test
+    public void givenQueriedLevels_whenTrimWindow_thenLevelsAreRebuiltFromRemainingCells() {
+        Helper.firstMessage = firstHour;
+        try {
+            addRandomSignals(5000);
+            assertAllQueriesMatchSourceCells();
+
+            data.trimWindow(new Date(firstHour.getTime() + 3 * HOUR));
+
+            assertThat(data.getSource(AbstractCalculator.SUPERSOURCE_MMSI).getPyramid().getNumberOfLevels(), is(equalTo(0)));
+            assertAllQueriesMatchSourceCells();
+        } finally {
+            Helper.firstMessage = null;
+        }
+    }
+
+    private void assertAllQueriesMatchSourceCells() {
+        for (int factor : FACTORS) {
+            for (double[] box : BOXES) {
+                QueryParams params = params(factor, box);
+                assertThat("factor " + factor, counters(data.getCells(params)), is(equalTo(aggregateSourceCells(params))));
+            }
+        }
+    }
+
+    private void addRandomSignals(int signals) {
+        for (int i = 0; i < signals; i++) {
+            double lat;
+            double lon;
+            if (random.nextInt(10) == 0) {
+                lat = -12 + random.nextDouble() * 2;
+                lon = random.nextBoolean() ? 179 + random.nextDouble() : -180 + random.nextDouble();
+            } else {
+                lat = 54 + random.nextDouble() * 4;
+                lon = 8 + random.nextDouble() * 6;
+            }
+            Date timestamp = new Date(firstHour.getTime() + random.nextInt(6) * HOUR + random.nextInt((int) HOUR));
+
+            switch (random.nextInt(3)) {
+            case 0:
+                data.incrementReceivedSignals(SourceIds.SUPERSOURCE, lat, lon, timestamp);
+                break;
+            case 1:
+                data.incrementMissingSignals(SourceIds.SUPERSOURCE, lat, lon, timestamp);
+                break;
+            default:
+                data.incrementReceivedVsiMessage(SourceIds.SUPERSOURCE, lat, lon, timestamp, -80);
+                break;
+            }
+        }
+    }
+
+    private QueryParams params(int factor, double[] box) {
+        QueryParams params = new QueryParams();
+        params.latStart = box[0];
+        params.lonStart = box[1];
+        params.latEnd = box[2];
+        params.lonEnd = box[3];
+        params.sources = Collections.singleton(AbstractCalculator.SUPERSOURCE_MMSI);
+        params.multiplicationFactor = factor;
+        params.startDate = new Date(firstHour.getTime() + HOUR);
+        params.endDate = new Date(firstHour.getTime() + 5 * HOUR);
+        return params;
+    }
+
+    /**
+     * Aggregates every cell of the source within the box, as done before the pyramid.
+     */
+    private Map<String, List<Integer>> aggregateSourceCells(QueryParams params) {
+        Source source = data.getSource(AbstractCalculator.SUPERSOURCE_MMSI);
+        Source aggregated = new Source(source.getIdentifier());
+        aggregated.setMultiplicationFactor(params.multiplicationFactor);
+        for (Cell cell : source.getGrid().values()) {
+            if (Helper.isInsideBox(cell, params.latStart, params.lonStart, params.latEnd, params.lonEnd)) {
+                Cell tempCell = aggregated.getCell(cell.getLatitude(), cell.getLongitude());
+                if (tempCell == null) {
+                    tempCell = aggregated.createCell(cell.getLatitude(), cell.getLongitude());
+                }
+                tempCell.addNOofMissingSignals(cell.getNOofMissingSignals(params.startDate, params.endDate));
+                tempCell.addReceivedSignals(cell.getNOofReceivedSignals(params.startDate, params.endDate));
+                tempCell.addVsiMessages(cell.getNumberOfVsiMessages(params.startDate, params.endDate),
+                        cell.getAverageSignalStrength(params.startDate, params.endDate));
+            }
+        }
+        return counters(aggregated.getGrid().values());
+    }
+
+    private static Map<String, List<Integer>> counters(List<Cell> cells) {
+        Map<String, List<Integer>> counters = new HashMap<String, List<Integer>>();
+        for (Cell cell : cells) {
+            counters.put(cell.getId(), Arrays.asList(cell.getNOofReceivedSignals(), cell.getNOofMissingSignals(),
+                    cell.getNumberOfVsiMessages(), cell.getAverageSignalStrength()));
+        }
+        return counters;
+    }
+}
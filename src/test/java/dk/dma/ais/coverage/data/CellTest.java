@@ -6,7 +6,12 @@ import dk.dma.ais.coverage.fixture.CellFixture;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Date;
 import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
@@ -68,4 +73,154 @@ public class CellTest {
         int expectedAverageSignalStrength = Math.floorDiv(firstTimespanAverageSignalStrength + secondTimespanAverageSignalStrength, totalVsiMessagesForBothTimespans);
         assertThat(averageSignalStrength, is(equalTo(expectedAverageSignalStrength)));
     }
+
+    @Test
+    public void givenHourlyTimeSpans_whenGetCountersOverRanges_thenCountersOfTheSpansWithinTheRangesAreSummed() {
+        long firstHour = 1496300400000L;
+        long hour = 1000 * 60 * 60;
+        Cell aCell = CellFixture.createCellWithNoTimeSpan();
+        for (int i = 0; i < 6; i++) {
+            // Leave the fourth hour out
+            if (i != 3) {
+                TimeSpan timeSpan = putHour(aCell, firstHour + i * hour);
+                timeSpan.setMessageCounterTerrestrial(i + 1);
+                timeSpan.setMissingSignals(10 * (i + 1));
+                timeSpan.setVsiMessageCounter(i + 2);
+                timeSpan.setAverageSignalStrength(-20 - i);
+            }
+        }
+        aCell.fixedWidthSpansChanged();
+
+        for (long start = firstHour - hour / 2; start <= firstHour + 6 * hour; start += hour / 2) {
+            for (long end = start; end <= firstHour + 7 * hour; end += hour / 2) {
+                int received = 0;
+                int missing = 0;
+                int vsiMessages = 0;
+                int signalStrength = 0;
+                for (TimeSpan timeSpan : aCell.getFixedWidthSpans().values()) {
+                    if (timeSpan.getFirstMessage().getTime() >= start && timeSpan.getLastMessage().getTime() <= end) {
+                        received += timeSpan.getMessageCounterTerrestrial();
+                        missing += timeSpan.getMissingSignals();
+                        vsiMessages += timeSpan.getVsiMessageCounter();
+                        signalStrength += timeSpan.getVsiMessageCounter() * timeSpan.getAverageSignalStrength();
+                    }
+                }
+
+                assertThat(aCell.getNOofReceivedSignals(new Date(start), new Date(end)), is(equalTo(received)));
+                assertThat(aCell.getNOofMissingSignals(new Date(start), new Date(end)), is(equalTo(missing)));
+                assertThat(aCell.getNumberOfVsiMessages(new Date(start), new Date(end)), is(equalTo(vsiMessages)));
+                assertThat(aCell.getAverageSignalStrength(new Date(start), new Date(end)),
+                        is(equalTo(vsiMessages > 0 ? Math.floorDiv(signalStrength, vsiMessages) : 0)));
+            }
+        }
+    }
+
+    @Test
+    public void givenRangeAlreadyQueried_whenTimeSpanRemoved_thenItIsNoLongerCounted() {
+        long firstHour = 1496300400000L;
+        long hour = 1000 * 60 * 60;
+        Cell aCell = CellFixture.createCellWithNoTimeSpan();
+        putHour(aCell, firstHour).setMessageCounterTerrestrial(3);
+        putHour(aCell, firstHour + hour).setMessageCounterTerrestrial(4);
+        aCell.fixedWidthSpansChanged();
+        assertThat(aCell.getNOofReceivedSignals(new Date(firstHour), new Date(firstHour + 2 * hour)), is(equalTo(7)));
+
+        aCell.getFixedWidthSpans().remove(firstHour);
+        aCell.fixedWidthSpansChanged();
+
+        assertThat(aCell.getNOofReceivedSignals(new Date(firstHour), new Date(firstHour + 2 * hour)), is(equalTo(4)));
+    }
+
+    @Test
+    public void givenRangesAlreadyQueried_whenMessagesAdded_thenCountersOverRangesMatchTheSpans() {
+        long firstHour = 1496300400000L;
+        long hour = 1000 * 60 * 60;
+        Cell aCell = CellFixture.createCellWithNoTimeSpan();
+        for (int i = 0; i < 40; i++) {
+            Date timestamp = new Date(firstHour + (i * 7 % 4) * hour + 1000);
+            aCell.addReceivedSignal(timestamp);
+            aCell.addSignals(timestamp, i % 3, i % 2);
+            aCell.addVsiMessage(timestamp, -60 - i);
+
+            for (int startHour = 0; startHour < 4; startHour++) {
+                for (int endHour = startHour + 1; endHour <= 4; endHour++) {
+                    int received = 0;
+                    int missing = 0;
+                    int vsiMessages = 0;
+                    int signalStrengths = 0;
+                    for (TimeSpan timeSpan : aCell.getFixedWidthSpans().values()) {
+                        long start = timeSpan.getFirstMessage().getTime();
+                        if (start >= firstHour + startHour * hour && start < firstHour + endHour * hour) {
+                            received += timeSpan.getMessageCounterTerrestrial();
+                            missing += timeSpan.getMissingSignals();
+                            vsiMessages += timeSpan.getVsiMessageCounter();
+                            signalStrengths += timeSpan.getAverageSignalStrength() * timeSpan.getVsiMessageCounter();
+                        }
+                    }
+                    Date start = new Date(firstHour + startHour * hour);
+                    Date end = new Date(firstHour + endHour * hour);
+                    assertThat(aCell.getNOofReceivedSignals(start, end), is(equalTo(received)));
+                    assertThat(aCell.getNOofMissingSignals(start, end), is(equalTo(missing)));
+                    assertThat(aCell.getNumberOfVsiMessages(start, end), is(equalTo(vsiMessages)));
+                    assertThat(aCell.getAverageSignalStrength(start, end),
+                            is(equalTo(vsiMessages > 0 ? Math.floorDiv(signalStrengths, vsiMessages) : 0)));
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void givenConcurrentQueries_whenMessagesAddedToOpenAndClosedHours_thenFinalRangeCountersAreExact() throws Exception {
+        final long firstHour = 1496300400000L;
+        final long hour = 1000 * 60 * 60;
+        final int threads = 4;
+        final int messagesPerThread = 20000;
+        final Cell aCell = CellFixture.createCellWithNoTimeSpan();
+        final Date start = new Date(firstHour);
+        final Date end = new Date(firstHour + 6 * hour);
+        final CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < messagesPerThread; i++) {
+                        // Mostly the two latest hours, some late messages to the closed ones
+                        int hourIndex = i % 10 == 0 ? (i + thread) % 4 : 4 + (i + thread) % 2;
+                        Date timestamp = new Date(firstHour + hourIndex * hour + 1000);
+                        aCell.addSignals(timestamp, 1, 2);
+                        aCell.addVsiMessage(timestamp, -50);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                while (done.getCount() > 0) {
+                    aCell.getNOofReceivedSignals(start, end);
+                    aCell.getAverageSignalStrength(start, end);
+                }
+            }
+        });
+        executor.shutdown();
+        assertThat(executor.awaitTermination(50, TimeUnit.SECONDS), is(true));
+
+        int total = threads * messagesPerThread;
+        assertThat(aCell.getNOofReceivedSignals(start, end), is(equalTo(total)));
+        assertThat(aCell.getNOofMissingSignals(start, end), is(equalTo(2 * total)));
+        assertThat(aCell.getNumberOfVsiMessages(start, end), is(equalTo(total)));
+        assertThat(aCell.getAverageSignalStrength(start, end), is(equalTo(-50)));
+        assertThat(aCell.getNOofReceivedSignals(start, new Date(firstHour + 4 * hour)), is(equalTo(total / 10)));
+    }
+
+    private static TimeSpan putHour(Cell cell, long hourStart) {
+        TimeSpan timeSpan = new TimeSpan(new Date(hourStart));
+        timeSpan.setLastMessage(new Date(hourStart + 1000 * 60 * 60));
+        cell.getFixedWidthSpans().put(hourStart, timeSpan);
+        return timeSpan;
+    }
 }
@@ -0,0 +1,179 @@
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.calculator.AbstractCalculator;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ColumnarMemoryDataTest {
+    private static final long HOUR = 1000L * 60 * 60;
+    private static final String SOURCE = "2190047";
+
+    private ICoverageData heapData;
+    private ColumnarMemoryData columnarData;
+    private Date firstHour;
+
+    @Before
+    public void setUp() throws Exception {
+        Helper.conf = new AisCoverageConfiguration();
+        heapData = new OnlyMemoryData();
+        columnarData = new ColumnarMemoryData(7);
+        heapData.createSource(SOURCE);
+        columnarData.createSource(SOURCE);
+        firstHour = Helper.getFloorDate(new Date(1496300000000L));
+        Helper.firstMessage = firstHour;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Helper.conf = null;
+        Helper.firstMessage = null;
+    }
+
+    @Test
+    public void givenSameMessages_whenGetCells_thenColumnarDataMatchesHeapData() {
+        feedBoth();
+
+        QueryParams params = new QueryParams();
+        params.latStart = 57.0;
+        params.latEnd = 54.0;
+        params.lonStart = 9.0;
+        params.lonEnd = 13.0;
+        params.sources = Collections.singleton(SOURCE);
+        params.multiplicationFactor = 2;
+        params.startDate = new Date(firstHour.getTime() + HOUR);
+        params.endDate = new Date(firstHour.getTime() + 4 * HOUR);
+
+        List<Cell> heapCells = heapData.getCells(params);
+        List<Cell> columnarCells = columnarData.getCells(params);
+
+        assertThat(columnarCells.size(), is(equalTo(heapCells.size())));
+        for (Cell heapCell : heapCells) {
+            Cell columnarCell = findCell(columnarCells, heapCell.getKey());
+            assertThat(columnarCell.getNOofReceivedSignals(), is(equalTo(heapCell.getNOofReceivedSignals())));
+            assertThat(columnarCell.getNOofMissingSignals(), is(equalTo(heapCell.getNOofMissingSignals())));
+            assertThat(columnarCell.getNumberOfVsiMessages(), is(equalTo(heapCell.getNumberOfVsiMessages())));
+            assertThat(columnarCell.getAverageSignalStrength(), is(equalTo(heapCell.getAverageSignalStrength())));
+        }
+    }
+
+    @Test
+    public void givenSameMessages_whenGetFixedWidthSpans_thenColumnarDataMatchesHeapData() {
+        feedBoth();
+
+        for (String sourceId : new String[] { SOURCE, AbstractCalculator.SUPERSOURCE_MMSI }) {
+            List<Cell> heapCells = heapData.getSource(sourceId).getGrid().values();
+            assertThat(columnarData.getSource(sourceId).getGrid().size(), is(equalTo(heapCells.size())));
+
+            for (Cell heapCell : heapCells) {
+                Cell columnarCell = columnarData.getSource(sourceId).getGrid().get(heapCell.getKey());
+                Map<Long, TimeSpan> heapSpans = heapCell.getFixedWidthSpans();
+                Map<Long, TimeSpan> columnarSpans = columnarCell.getFixedWidthSpans();
+
+                assertThat(columnarSpans.keySet(), is(equalTo(heapSpans.keySet())));
+                for (Long hour : heapSpans.keySet()) {
+                    TimeSpan heapSpan = heapSpans.get(hour);
+                    TimeSpan columnarSpan = columnarSpans.get(hour);
+                    assertThat(columnarSpan.getLastMessage(), is(equalTo(heapSpan.getLastMessage())));
+                    assertThat(columnarSpan.getMessageCounterTerrestrial(), is(equalTo(heapSpan.getMessageCounterTerrestrial())));
+                    assertThat(columnarSpan.getMissingSignals(), is(equalTo(heapSpan.getMissingSignals())));
+                    assertThat(columnarSpan.getVsiMessageCounter(), is(equalTo(heapSpan.getVsiMessageCounter())));
+                    assertThat(columnarSpan.getAverageSignalStrength(), is(equalTo(heapSpan.getAverageSignalStrength())));
+                    assertThat(columnarSpan.getMessageCounterSat(), is(equalTo(heapSpan.getMessageCounterSat())));
+                    assertThat(columnarSpan.getMessageCounterTerrestrialUnfiltered(), is(equalTo(heapSpan.getMessageCounterTerrestrialUnfiltered())));
+                    assertThat(columnarSpan.getDistinctShipsSat().count(), is(equalTo(heapSpan.getDistinctShipsSat().count())));
+                    assertThat(columnarSpan.getDistinctShipsTerrestrial().count(), is(equalTo(heapSpan.getDistinctShipsTerrestrial().count())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void whenTrimWindow_thenOldHoursAndEmptyCellsAreRemoved() {
+        columnarData.incrementReceivedSignals(columnarData.getSourceIds().idOf(SOURCE), 55.5, 10.5, firstHour);
+        columnarData.incrementReceivedSignals(columnarData.getSourceIds().idOf(SOURCE), 56.5, 11.5, firstHour);
+        columnarData.incrementReceivedSignals(columnarData.getSourceIds().idOf(SOURCE), 56.5, 11.5, new Date(firstHour.getTime() + 2 * HOUR));
+
+        columnarData.trimWindow(new Date(firstHour.getTime() + HOUR));
+
+        List<Cell> cells = columnarData.getSource(SOURCE).getGrid().values();
+        assertThat(cells.size(), is(equalTo(1)));
+        assertThat(cells.get(0).getFixedWidthSpans().keySet(), is(equalTo(Collections.singleton(firstHour.getTime() + 2 * HOUR))));
+    }
+
+    @Test
+    public void givenHourOlderThanKeptHours_whenIncrementReceivedSignals_thenHourIsIgnored() {
+        int sourceId = columnarData.getSourceIds().idOf(SOURCE);
+        Date lastHour = new Date(firstHour.getTime() + 7 * HOUR);
+        columnarData.incrementReceivedSignals(sourceId, 55.5, 10.5, lastHour);
+
+        columnarData.incrementReceivedSignals(sourceId, 55.5, 10.5, firstHour);
+        columnarData.incrementMissingSignals(sourceId, 55.5, 10.5, firstHour);
+        columnarData.incrementSignals(sourceId, 55.5, 10.5, firstHour, 2, 3);
+        columnarData.incrementReceivedVsiMessage(sourceId, 55.5, 10.5, firstHour, -60);
+
+        Cell cell = columnarData.getCell(SOURCE, 55.5, 10.5);
+        assertThat(cell.getFixedWidthSpans().keySet(), is(equalTo(Collections.singleton(lastHour.getTime()))));
+        assertThat(cell.getNOofReceivedSignals(firstHour, new Date(lastHour.getTime() + HOUR)), is(equalTo(1)));
+        assertThat(cell.getNOofReceivedSignals(), is(equalTo(1)));
+        assertThat(cell.getNOofMissingSignals(), is(equalTo(0)));
+        assertThat(cell.getNumberOfVsiMessages(), is(equalTo(0)));
+        assertThat(cell.getAverageSignalStrength(), is(equalTo(0)));
+    }
+
+    @Test
+    public void givenSlotTakenOverByNewerHour_whenGetFixedWidthSpans_thenDistinctShipsOfTheOlderHourAreGone() {
+        Date lastHour = new Date(firstHour.getTime() + 7 * HOUR);
+        columnarData.incrementUnfilteredMessage(SourceIds.SUPERSOURCE, 55.5, 10.5, firstHour, SourceType.SATELLITE, 219000001);
+
+        columnarData.incrementUnfilteredMessage(SourceIds.SUPERSOURCE, 55.5, 10.5, lastHour, SourceType.SATELLITE, 219000002);
+        columnarData.incrementUnfilteredMessage(SourceIds.SUPERSOURCE, 55.5, 10.5, lastHour, SourceType.SATELLITE, 219000003);
+
+        Map<Long, TimeSpan> spans = columnarData.getCell(AbstractCalculator.SUPERSOURCE_MMSI, 55.5, 10.5).getFixedWidthSpans();
+        assertThat(spans.keySet(), is(equalTo(Collections.singleton(lastHour.getTime()))));
+        assertThat(spans.get(lastHour.getTime()).getDistinctShipsSat().count(), is(equalTo(2)));
+    }
+
+    private void feedBoth() {
+        for (ICoverageData data : new ICoverageData[] { heapData, columnarData }) {
+            int sourceId = data.getSourceIds().idOf(SOURCE);
+            for (int i = 0; i < 500; i++) {
+                double lat = 54 + (i * 37 % 300) / 100.0;
+                double lon = 9 + (i * 53 % 400) / 100.0;
+                Date timestamp = new Date(firstHour.getTime() + (i % 5) * HOUR + (i * 7919 % 3600) * 1000L);
+
+                if (i % 3 == 0) {
+                    data.incrementMissingSignals(sourceId, lat, lon, timestamp);
+                } else {
+                    data.incrementReceivedSignals(sourceId, lat, lon, timestamp);
+                }
+                if (i % 4 == 0) {
+                    data.incrementReceivedVsiMessage(sourceId, lat, lon, timestamp, -60 - i % 40);
+                }
+                SourceType sourceType = i % 2 == 0 ? SourceType.SATELLITE : SourceType.TERRESTRIAL;
+                data.incrementUnfilteredMessage(SourceIds.SUPERSOURCE, lat, lon, timestamp, sourceType, 219000000 + i % 17);
+            }
+        }
+    }
+
+    private static Cell findCell(List<Cell> cells, long key) {
+        for (Cell cell : cells) {
+            if (cell.getKey() == key) {
+                return cell;
+            }
+        }
+        throw new AssertionError("No cell with key " + key);
+    }
+}
@@ -0,0 +1,60 @@
+package dk.dma.ais.coverage.data;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CounterStripesTest {
+
+    @Test(timeout = 60000)
+    public void givenConcurrentThreads_whenAdd_thenSumOfEachCounterIsExact() throws Exception {
+        final int threads = 16;
+        final int addsPerThread = 50000;
+        final CounterStripes stripes = new CounterStripes();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < addsPerThread; i++) {
+                        stripes.add(0, 1);
+                        stripes.add(3, -50);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(50, TimeUnit.SECONDS), is(true));
+
+        assertThat(stripes.sum(0), is(equalTo((long) threads * addsPerThread)));
+        assertThat(stripes.sum(3), is(equalTo(-50L * threads * addsPerThread)));
+        assertThat(stripes.sum(1), is(equalTo(0L)));
+    }
+
+    @Test
+    public void givenAdds_whenReset_thenOnlyThatCounterIsZero() {
+        CounterStripes stripes = new CounterStripes();
+        stripes.add(0, 5);
+        stripes.add(1, 7);
+
+        stripes.reset(0);
+
+        assertThat(stripes.sum(0), is(equalTo(0L)));
+        assertThat(stripes.sum(1), is(equalTo(7L)));
+    }
+}
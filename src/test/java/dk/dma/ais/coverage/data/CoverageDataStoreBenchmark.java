@@ -0,0 +1,113 @@
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to count one hour of messages of a replay in every coverage data store, the window moving by one hour after each
+ * hour once it is full. Every hour, each cell of a source receives signals, missing signals and a VSI message, and the super
+ * source counts the unfiltered messages of a few ships per cell. Run with {@code -prof gc} to compare the allocation rate
+ * and garbage collections of the stores; the heap retained by the cells of the full window, and the memory allocated
+ * outside of the heap, are printed at the end of the trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CoverageDataStoreBenchmark {
+    private static final long HOUR = 1000L * 60 * 60;
+    private static final int WINDOW_SIZE = 5;
+    private static final int ROWS = 200;
+    private static final int COLUMNS = 250;
+    private static final String SOURCE = "2190047";
+
+    @Param({"MEMORY", "RING", "COLUMNAR"})
+    private String store;
+
+    private OnlyMemoryData dataHandler;
+    private int sourceId;
+    private long hourStart;
+    private int hours;
+
+    @Setup(Level.Trial)
+    public void createStore() {
+        Helper.conf = new AisCoverageConfiguration();
+        hourStart = 1496300400000L;
+        Helper.firstMessage = new Date(hourStart);
+        int hoursPerCell = WINDOW_SIZE + 2;
+        if ("COLUMNAR".equals(store)) {
+            dataHandler = new ColumnarMemoryData(hoursPerCell);
+        } else if ("RING".equals(store)) {
+            dataHandler = new OnlyMemoryData(hoursPerCell);
+        } else {
+            dataHandler = new OnlyMemoryData();
+        }
+        dataHandler.createSource(SOURCE);
+        sourceId = dataHandler.getSourceIds().idOf(SOURCE);
+    }
+
+    @TearDown(Level.Trial)
+    public void printMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long usedWithCells = usedHeapAfterGc(runtime);
+        long offHeapBytes = dataHandler instanceof ColumnarMemoryData ? ((ColumnarMemoryData) dataHandler).getOffHeapBytes() : 0;
+        dataHandler = null;
+        long retained = usedWithCells - usedHeapAfterGc(runtime);
+        System.out.println();
+        System.out.println(store + ": " + ROWS * COLUMNS + " cells over " + WINDOW_SIZE + " hours retain " + retained / 1024 / 1024 + " MB of heap and "
+                + offHeapBytes / 1024 / 1024 + " MB off-heap");
+    }
+
+    @Benchmark
+    public OnlyMemoryData replayHour() {
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                double lat = 54.0 + row * 0.0225225225;
+                double lon = 8.0 + column * 0.0386812541;
+                for (int minute = 0; minute < 60; minute += 10) {
+                    Date timestamp = new Date(hourStart + minute * 60 * 1000L);
+                    if (minute == 0) {
+                        dataHandler.incrementMissingSignals(sourceId, lat, lon, timestamp);
+                        dataHandler.incrementReceivedVsiMessage(sourceId, lat, lon, timestamp, -70);
+                    } else {
+                        dataHandler.incrementReceivedSignals(sourceId, lat, lon, timestamp);
+                    }
+                    SourceType sourceType = minute % 20 == 0 ? SourceType.TERRESTRIAL : SourceType.SATELLITE;
+                    dataHandler.incrementUnfilteredMessage(SourceIds.SUPERSOURCE, lat, lon, timestamp, sourceType, 219000000 + (row + column + minute) % 4);
+                }
+            }
+        }
+
+        hourStart += HOUR;
+        if (++hours >= WINDOW_SIZE) {
+            dataHandler.trimWindow(new Date(hourStart - (WINDOW_SIZE - 1) * HOUR));
+        }
+        return dataHandler;
+    }
+
+    private static long usedHeapAfterGc(Runtime runtime) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
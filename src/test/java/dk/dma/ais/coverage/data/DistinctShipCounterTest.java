@@ -0,0 +1,78 @@
+package dk.dma.ais.coverage.data;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DistinctShipCounterTest {
+
+    @Test
+    public void givenFewShips_whenCount_thenCountIsExact() {
+        DistinctShipCounter counter = new DistinctShipCounter();
+        for (int i = 0; i < DistinctShipCounter.EXACT_LIMIT; i++) {
+            counter.add(219000000 + i);
+            counter.add(219000000 + i);
+        }
+
+        assertThat(counter.count(), is(equalTo(DistinctShipCounter.EXACT_LIMIT)));
+    }
+
+    @Test
+    public void givenManyShips_whenCount_thenCountIsWithinErrorBound() {
+        for (int ships : new int[] { 500, 5000, 100000 }) {
+            DistinctShipCounter counter = new DistinctShipCounter();
+            for (int i = 0; i < ships; i++) {
+                counter.add(200000000 + i * 7);
+                counter.add(200000000 + i * 7);
+            }
+
+            // Three times the relative standard error
+            double error = Math.abs(counter.count() - ships) / (double) ships;
+            assertTrue("error for " + ships + " ships: " + error, error < 0.1);
+        }
+    }
+
+    @Test
+    public void whenMerge_thenCountIsTheCountOfTheUnion() {
+        DistinctShipCounter small = new DistinctShipCounter();
+        DistinctShipCounter other = new DistinctShipCounter();
+        for (int i = 0; i < 60; i++) {
+            small.add(i);
+            other.add(i + 30);
+        }
+
+        small.merge(other);
+
+        assertThat(small.count(), is(equalTo(90)));
+    }
+
+    @Test
+    public void givenEstimatedCounter_whenMergeIntoExactCounter_thenMergedCountIsEstimated() {
+        DistinctShipCounter exact = new DistinctShipCounter();
+        DistinctShipCounter estimated = new DistinctShipCounter();
+        for (int i = 0; i < 10000; i++) {
+            estimated.add(i);
+        }
+        exact.add(20000);
+
+        exact.merge(estimated);
+
+        double error = Math.abs(exact.count() - 10001) / 10001.0;
+        assertTrue("error: " + error, error < 0.1);
+    }
+
+    @Test
+    public void whenCopy_thenCopyIsIndependent() {
+        DistinctShipCounter counter = new DistinctShipCounter();
+        counter.add(1);
+
+        DistinctShipCounter copy = counter.copy();
+        copy.add(2);
+
+        assertThat(counter.count(), is(equalTo(1)));
+        assertThat(copy.count(), is(equalTo(2)));
+    }
+}
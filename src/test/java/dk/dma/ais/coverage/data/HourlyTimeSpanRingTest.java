@@ -0,0 +1,123 @@
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.Helper;
+import dk.dma.ais.coverage.calculator.AbstractCalculator;
+import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class HourlyTimeSpanRingTest {
+    private static final long HOUR = 1000L * 60 * 60;
+    private static final long FIRST_HOUR = 1496300400000L;
+
+    private HourlyTimeSpanRing ring;
+
+    @Before
+    public void setUp() throws Exception {
+        Helper.conf = new AisCoverageConfiguration();
+        ring = new HourlyTimeSpanRing(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Helper.conf = null;
+    }
+
+    @Test
+    public void whenPutHoursWithinCapacity_thenAllHoursCanBeFound() {
+        TimeSpan[] timeSpans = new TimeSpan[4];
+        for (int i = 0; i < 4; i++) {
+            timeSpans[i] = putHour(i);
+        }
+
+        assertThat(ring.size(), is(equalTo(4)));
+        for (int i = 0; i < 4; i++) {
+            assertThat(ring.get(FIRST_HOUR + i * HOUR), is(sameInstance(timeSpans[i])));
+        }
+        assertThat(new HashSet<>(ring.values()), is(equalTo(new HashSet<>(Arrays.asList(timeSpans)))));
+    }
+
+    @Test
+    public void givenFullRing_whenPutNewerHour_thenOldestHourIsReplaced() {
+        for (int i = 0; i < 4; i++) {
+            putHour(i);
+        }
+
+        TimeSpan newest = putHour(4);
+
+        assertThat(ring.size(), is(equalTo(4)));
+        assertThat(ring.get(FIRST_HOUR), is(nullValue()));
+        assertThat(ring.get(FIRST_HOUR + 4 * HOUR), is(sameInstance(newest)));
+    }
+
+    @Test
+    public void givenNewerHourInSlot_whenPutOlderHour_thenOlderHourIsIgnored() {
+        TimeSpan newest = putHour(4);
+
+        assertThat(ring.put(FIRST_HOUR, new TimeSpan(new Date(FIRST_HOUR))), is(nullValue()));
+
+        assertThat(ring.get(FIRST_HOUR), is(nullValue()));
+        assertThat(ring.get(FIRST_HOUR + 4 * HOUR), is(sameInstance(newest)));
+    }
+
+    @Test
+    public void whenRemoveThroughIterator_thenHourIsRemoved() {
+        putHour(0);
+        putHour(1);
+
+        Iterator<Map.Entry<Long, TimeSpan>> it = ring.entrySet().iterator();
+        Long removedHour = it.next().getKey();
+        it.remove();
+
+        assertThat(ring.size(), is(equalTo(1)));
+        assertThat(ring.containsKey(removedHour), is(false));
+        assertThat(ring.remove(removedHour), is(nullValue()));
+    }
+
+    @Test
+    public void givenSameMessages_whenGetCellsFromRingLayout_thenCellsMatchHashMapLayout() {
+        OnlyMemoryData mapData = new OnlyMemoryData();
+        OnlyMemoryData ringData = new OnlyMemoryData(7);
+        for (OnlyMemoryData data : Arrays.asList(mapData, ringData)) {
+            for (int i = 0; i < 300; i++) {
+                double lat = 55 + (i * 37 % 100) / 100.0;
+                double lon = 10 + (i * 53 % 100) / 100.0;
+                Date timestamp = new Date(FIRST_HOUR + (i % 6) * HOUR + (i * 7919 % 3600) * 1000L);
+                if (i % 3 == 0) {
+                    data.incrementMissingSignals(SourceIds.SUPERSOURCE, lat, lon, timestamp);
+                } else {
+                    data.incrementReceivedSignals(SourceIds.SUPERSOURCE, lat, lon, timestamp);
+                }
+            }
+        }
+
+        Date start = new Date(FIRST_HOUR + HOUR);
+        Date end = new Date(FIRST_HOUR + 5 * HOUR);
+        for (Cell mapCell : mapData.getSource(AbstractCalculator.SUPERSOURCE_MMSI).getGrid().values()) {
+            Cell ringCell = ringData.getSource(AbstractCalculator.SUPERSOURCE_MMSI).getGrid().get(mapCell.getKey());
+            assertThat(ringCell.getFixedWidthSpans() instanceof HourlyTimeSpanRing, is(true));
+            assertThat(ringCell.getFixedWidthSpans().keySet(), is(equalTo(mapCell.getFixedWidthSpans().keySet())));
+            assertThat(ringCell.getNOofReceivedSignals(start, end), is(equalTo(mapCell.getNOofReceivedSignals(start, end))));
+            assertThat(ringCell.getNOofMissingSignals(start, end), is(equalTo(mapCell.getNOofMissingSignals(start, end))));
+        }
+    }
+
+    private TimeSpan putHour(int hour) {
+        TimeSpan timeSpan = new TimeSpan(new Date(FIRST_HOUR + hour * HOUR));
+        ring.put(FIRST_HOUR + hour * HOUR, timeSpan);
+        return timeSpan;
+    }
+}
@@ -2,11 +2,17 @@ package dk.dma.ais.coverage.data;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -15,6 +21,7 @@ import dk.dma.ais.coverage.Helper;
 import dk.dma.ais.coverage.calculator.AbstractCalculator;
 import dk.dma.ais.coverage.configuration.AisCoverageConfiguration;
 import dk.dma.ais.coverage.fixture.CellFixture;
+import dk.dma.ais.packet.AisPacketTags.SourceType;
 
 public class OnlyMemoryDataTest {
 
@@ -32,17 +39,140 @@ public class OnlyMemoryDataTest {
         now = new Date(ZonedDateTime.now(ZoneId.of("UTC")).toInstant().getEpochSecond());
     }
 
+    @Test
+    public void givenShipsActiveBeforeAndWithinWindow_whenTrimWindow_thenOnlyIdleShipsAreEvicted() {
+        Date firstHour = new Date(1496300400000L);
+        Date trimPoint = new Date(firstHour.getTime() + 1000 * 60 * 60);
+        Helper.firstMessage = firstHour;
+        try {
+            OnlyMemoryData memoryData = (OnlyMemoryData) coverageData;
+            memoryData.createShip(219000001, Ship.ShipClass.CLASS_A).markActive(firstHour);
+            memoryData.createShip(219000002, Ship.ShipClass.CLASS_A).markActive(new Date(trimPoint.getTime() + 1000));
+
+            memoryData.trimWindow(trimPoint);
+
+            assertThat(memoryData.getShip(219000001), is(nullValue()));
+            assertThat(memoryData.getShip(219000002).getMmsi(), is(equalTo(219000002)));
+            assertThat(memoryData.getShips().size(), is(equalTo(1)));
+            assertThat(memoryData.getEvictedShips(), is(equalTo(1L)));
+        } finally {
+            Helper.firstMessage = null;
+        }
+    }
+
+    @Test
+    public void givenRangeAlreadyQueried_whenTrimWindowAndIncrement_thenRangeCountersFollowTheSpans() {
+        Date firstHour = new Date(1496300400000L);
+        Date secondHour = new Date(firstHour.getTime() + 1000 * 60 * 60);
+        Date end = new Date(secondHour.getTime() + 1000 * 60 * 60);
+        Helper.firstMessage = firstHour;
+        try {
+            coverageData.incrementReceivedSignals(SourceIds.SUPERSOURCE, aCell.getLatitude(), aCell.getLongitude(), firstHour);
+            coverageData.incrementReceivedSignals(SourceIds.SUPERSOURCE, aCell.getLatitude(), aCell.getLongitude(), secondHour);
+            assertThat(aCell.getNOofReceivedSignals(firstHour, end), is(equalTo(2)));
+
+            coverageData.trimWindow(secondHour);
+            assertThat(aCell.getNOofReceivedSignals(firstHour, end), is(equalTo(1)));
+
+            coverageData.incrementMissingSignals(SourceIds.SUPERSOURCE, aCell.getLatitude(), aCell.getLongitude(), secondHour);
+            assertThat(aCell.getNOofMissingSignals(firstHour, end), is(equalTo(1)));
+        } finally {
+            Helper.firstMessage = null;
+        }
+    }
+
+    @Test
+    public void givenRingSlotHeldByNewerHour_whenIncrementOlderHour_thenNothingIsCounted() {
+        Date firstHour = new Date(1496300400000L);
+        Date fourthHour = new Date(firstHour.getTime() + 3 * 1000 * 60 * 60);
+        OnlyMemoryData ringData = new OnlyMemoryData(3);
+        ringData.createSource(AbstractCalculator.SUPERSOURCE_MMSI);
+        ringData.incrementReceivedSignals(SourceIds.SUPERSOURCE, 55.5, 10.5, fourthHour);
+        Cell cell = ringData.getCell(AbstractCalculator.SUPERSOURCE_MMSI, 55.5, 10.5);
+
+        ringData.incrementReceivedSignals(SourceIds.SUPERSOURCE, 55.5, 10.5, firstHour);
+        ringData.incrementMissingSignals(SourceIds.SUPERSOURCE, 55.5, 10.5, firstHour);
+        ringData.incrementSignals(SourceIds.SUPERSOURCE, 55.5, 10.5, firstHour, 2, 3);
+        ringData.incrementReceivedVsiMessage(SourceIds.SUPERSOURCE, 55.5, 10.5, firstHour, -50);
+        ringData.incrementUnfilteredMessage(SourceIds.SUPERSOURCE, 55.5, 10.5, firstHour, SourceType.SATELLITE, 219000001);
+
+        assertThat(cell.getNOofReceivedSignals(), is(equalTo(1)));
+        assertThat(cell.getNOofMissingSignals(), is(equalTo(0)));
+        assertThat(cell.getNumberOfVsiMessages(), is(equalTo(0)));
+        assertThat(cell.getFixedWidthSpans().size(), is(equalTo(1)));
+        TimeSpan fourthHourSpan = cell.getFixedWidthSpans().get(fourthHour.getTime());
+        assertThat(fourthHourSpan.getMessageCounterTerrestrial(), is(equalTo(1)));
+        assertThat(fourthHourSpan.getMessageCounterSat(), is(equalTo(0)));
+        assertThat(fourthHourSpan.getDistinctShipsSat().count(), is(equalTo(0)));
+        assertThat(cell.getNOofReceivedSignals(firstHour, new Date(fourthHour.getTime() + 1000 * 60 * 60)), is(equalTo(1)));
+    }
+
+    @Test
+    public void givenCreatedSources_whenGetSourceById_thenSourceOfTheInternedIdentifierIsReturned() {
+        assertThat(coverageData.getSource(SourceIds.SUPERSOURCE), is(sameInstance(coverageData.getSource(AbstractCalculator.SUPERSOURCE_MMSI))));
+        for (int i = 0; i < 40; i++) {
+            Source source = coverageData.createSource("2190" + i);
+
+            assertThat(coverageData.getSource(coverageData.getSourceIds().idOf("2190" + i)), is(sameInstance(source)));
+        }
+        assertThat(coverageData.getSourceIds().nameOf(40), is(equalTo("219039")));
+    }
+
     @Test
     public void whenIncrementMissingSignals_thenCellGlobalMissingSignalsAreIncremented() {
-        coverageData.incrementMissingSignals(AbstractCalculator.SUPERSOURCE_MMSI, aCell.getLatitude(), aCell.getLongitude(), now);
+        coverageData.incrementMissingSignals(SourceIds.SUPERSOURCE, aCell.getLatitude(), aCell.getLongitude(), now);
 
         assertThat(aCell.getNOofMissingSignals(), is(equalTo(1)));
     }
 
     @Test
     public void whenIncrementReceivedSignals_thenCellGlobalReceivedSignalsAreIncremented() {
-        coverageData.incrementReceivedSignals(AbstractCalculator.SUPERSOURCE_MMSI, aCell.getLatitude(), aCell.getLongitude(), now);
+        coverageData.incrementReceivedSignals(SourceIds.SUPERSOURCE, aCell.getLatitude(), aCell.getLongitude(), now);
 
         assertThat(aCell.getNOofReceivedSignals(), is(equalTo(1)));
     }
+
+    @Test(timeout = 60000)
+    public void givenConcurrentHandlers_whenIncrementSignals_thenNoIncrementIsLost() throws Exception {
+        final int threads = 8;
+        final int incrementsPerThread = 20000;
+        final Date firstHour = Helper.getFloorDate(now);
+        final Date secondHour = new Date(firstHour.getTime() + 1000 * 60 * 60);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; t++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < incrementsPerThread; i++) {
+                        Date timestamp = i % 2 == 0 ? firstHour : secondHour;
+                        coverageData.incrementReceivedSignals(SourceIds.SUPERSOURCE, aCell.getLatitude(), aCell.getLongitude(), timestamp);
+                        coverageData.incrementMissingSignals(SourceIds.SUPERSOURCE, aCell.getLatitude(), aCell.getLongitude(), timestamp);
+                        coverageData.incrementReceivedVsiMessage(SourceIds.SUPERSOURCE, aCell.getLatitude(), aCell.getLongitude(), timestamp, -50);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(50, TimeUnit.SECONDS), is(true));
+
+        int total = threads * incrementsPerThread;
+        assertThat(aCell.getNOofReceivedSignals(), is(equalTo(total)));
+        assertThat(aCell.getNOofMissingSignals(), is(equalTo(total)));
+        assertThat(aCell.getNumberOfVsiMessages(), is(equalTo(total)));
+        assertThat(aCell.getAverageSignalStrength(), is(equalTo(-50)));
+        for (TimeSpan timeSpan : aCell.getFixedWidthSpans().values()) {
+            assertThat(timeSpan.getMessageCounterTerrestrial(), is(equalTo(total / 2)));
+            assertThat(timeSpan.getMissingSignals(), is(equalTo(total / 2)));
+            assertThat(timeSpan.getVsiMessageCounter(), is(equalTo(total / 2)));
+        }
+        assertThat(aCell.getFixedWidthSpans().size(), is(equalTo(2)));
+    }
 }
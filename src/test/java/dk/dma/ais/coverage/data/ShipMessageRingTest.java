@@ -0,0 +1,116 @@
+package dk.dma.ais.coverage.data;
+
+import dk.dma.ais.coverage.calculator.AbstractCalculator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ShipMessageRingTest {
+
+    private ShipMessageRing ring;
+    private SourceIds sourceIds;
+
+    @Before
+    public void setUp() throws Exception {
+        ring = new ShipMessageRing();
+        sourceIds = new SourceIds();
+    }
+
+    @Test
+    public void whenAddMessages_thenMessagesAreKeptFromOldestToLatest() {
+        for (int i = 0; i < 20; i++) {
+            ring.add(message(i, "2190" + i));
+        }
+
+        assertThat(ring.size(), is(equalTo(20)));
+        for (int i = 0; i < 20; i++) {
+            assertThat(ring.getTimestamp(i), is(equalTo(1000L * i)));
+            assertThat(ring.getLatitude(i), is(equalTo(55.0 + i / 1000.0)));
+            assertThat(ring.getLongitude(i), is(equalTo(12.0 + i / 1000.0)));
+            assertThat(ring.getSog(i), is(equalTo(12.5)));
+            assertThat(sourcesOf(i), is(equalTo(names("2190" + i))));
+        }
+    }
+
+    @Test
+    public void givenFullRing_whenKeepLatestAndAddMore_thenOrderIsKeptAcrossTheEndOfTheArrays() {
+        for (int i = 0; i < 8; i++) {
+            ring.add(message(i, "a"));
+        }
+        ring.keepLatest();
+        for (int i = 8; i < 15; i++) {
+            ring.add(message(i, "b"));
+        }
+
+        assertThat(ring.size(), is(equalTo(8)));
+        assertThat(ring.getTimestamp(0), is(equalTo(7000L)));
+        assertThat(sourcesOf(0), is(equalTo(names("a"))));
+        for (int i = 1; i < 8; i++) {
+            assertThat(ring.getTimestamp(i), is(equalTo(1000L * (i + 7))));
+            assertThat(sourcesOf(i), is(equalTo(names("b"))));
+        }
+    }
+
+    @Test
+    public void givenMoreThan64Sources_whenAddMessage_thenAllSourcesAreKept() {
+        ring.add(message(0, "first"));
+        List<String> manySources = new ArrayList<String>();
+        CustomMessage message = message(1);
+        for (int i = 0; i < 130; i++) {
+            message.addSource(sourceIds.idOf("source" + i));
+            manySources.add("source" + i);
+        }
+        ring.add(message);
+
+        assertThat(sourcesOf(0), is(equalTo(names("first"))));
+        List<String> sources = sourcesOf(1);
+        assertThat(sources.size(), is(equalTo(130)));
+        assertThat(sources.containsAll(manySources), is(true));
+    }
+
+    @Test
+    public void whenIdOfSameSourceTwice_thenSameDenseIdIsReturned() {
+        assertThat(sourceIds.idOf(AbstractCalculator.SUPERSOURCE_MMSI), is(equalTo(SourceIds.SUPERSOURCE)));
+        assertThat(sourceIds.idOf("a"), is(equalTo(1)));
+        assertThat(sourceIds.idOf("b"), is(equalTo(2)));
+        assertThat(sourceIds.idOf("a"), is(equalTo(1)));
+        assertThat(sourceIds.nameOf(2), is(equalTo("b")));
+        assertThat(sourceIds.size(), is(equalTo(3)));
+    }
+
+    private List<String> sourcesOf(int index) {
+        List<String> sources = new ArrayList<String>();
+        for (int id = ring.nextSource(index, 0); id >= 0; id = ring.nextSource(index, id + 1)) {
+            sources.add(sourceIds.nameOf(id));
+        }
+        return sources;
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<String>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private CustomMessage message(int second, String... sources) {
+        CustomMessage message = new CustomMessage();
+        message.setTimestamp(new Date(1000L * second));
+        message.setLatitude(55.0 + second / 1000.0);
+        message.setLongitude(12.0 + second / 1000.0);
+        message.setCog(90);
+        message.setSog(12.5);
+        for (String source : sources) {
+            message.addSource(sourceIds.idOf(source));
+        }
+        return message;
+    }
+}
@@ -0,0 +1,74 @@
+package dk.dma.ais.coverage.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ShipRegistryTest {
+
+    private ShipRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new ShipRegistry();
+    }
+
+    @Test
+    public void whenPutManyShips_thenEveryShipCanBeFoundByMmsi() {
+        for (int mmsi = 219000000; mmsi < 219010000; mmsi++) {
+            assertThat(registry.putIfAbsent(new Ship(mmsi, Ship.ShipClass.CLASS_A)), is(nullValue()));
+        }
+
+        assertThat(registry.size(), is(equalTo(10000)));
+        assertThat(registry.values().size(), is(equalTo(10000)));
+        for (int mmsi = 219000000; mmsi < 219010000; mmsi++) {
+            assertThat(registry.get(mmsi).getMmsi(), is(equalTo(mmsi)));
+        }
+        assertThat(registry.get(219010000), is(nullValue()));
+    }
+
+    @Test
+    public void givenShipInRegistry_whenPutShipWithSameMmsi_thenExistingShipIsKept() {
+        Ship ship = new Ship(219000000, Ship.ShipClass.CLASS_A);
+        registry.putIfAbsent(ship);
+
+        assertThat(registry.putIfAbsent(new Ship(219000000, Ship.ShipClass.CLASS_B)), is(sameInstance(ship)));
+        assertThat(registry.get(219000000), is(sameInstance(ship)));
+    }
+
+    @Test
+    public void whenRemoveShips_thenRemainingShipsCanStillBeFound() {
+        Ship[] ships = new Ship[1000];
+        for (int i = 0; i < ships.length; i++) {
+            ships[i] = new Ship(i, Ship.ShipClass.CLASS_A);
+            registry.putIfAbsent(ships[i]);
+        }
+
+        for (int i = 0; i < ships.length; i += 2) {
+            assertThat(registry.remove(ships[i]), is(true));
+        }
+
+        assertThat(registry.size(), is(equalTo(500)));
+        for (int i = 0; i < ships.length; i++) {
+            if (i % 2 == 0) {
+                assertThat(registry.get(i), is(nullValue()));
+            } else {
+                assertThat(registry.get(i), is(sameInstance(ships[i])));
+            }
+        }
+    }
+
+    @Test
+    public void givenAnotherShipWithSameMmsi_whenRemoveShip_thenRegistryIsUnchanged() {
+        Ship ship = new Ship(219000000, Ship.ShipClass.CLASS_A);
+        registry.putIfAbsent(ship);
+
+        assertThat(registry.remove(new Ship(219000000, Ship.ShipClass.CLASS_A)), is(false));
+        assertThat(registry.get(219000000), is(sameInstance(ship)));
+    }
+}
@@ -0,0 +1,54 @@
+package dk.dma.ais.coverage.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class ShipTest {
+
+    // 10 meters, the resolution of the positions kept by an hour, is less than 0.0002 degrees in both directions at 57N
+    private static final double TOLERANCE = 0.0002;
+
+    private Ship.Hour hour;
+
+    @Before
+    public void setUp() throws Exception {
+        hour = new Ship(219000000, Ship.ShipClass.CLASS_A).new Hour();
+    }
+
+    @Test
+    public void whenSetPositions_thenPositionsAreReadBackWithinTenMeters() {
+        hour.setPosition(0, 57.7819f, 2.8765f);
+        hour.setPosition(13, 57.58194683f, 2.63f);
+        hour.setPosition(50, 58.9f, 5.1f);
+
+        assertEquals(57.7819, hour.getLat(0), TOLERANCE);
+        assertEquals(2.8765, hour.getLon(0), TOLERANCE);
+        assertEquals(57.58194683, hour.getLat(9), TOLERANCE);
+        assertEquals(2.63, hour.getLon(9), TOLERANCE);
+        assertEquals(58.9, hour.getLat(59), TOLERANCE);
+        assertEquals(5.1, hour.getLon(59), TOLERANCE);
+    }
+
+    @Test
+    public void givenPositionTooFarFromOffset_whenSetPosition_thenPositionIsIgnored() {
+        hour.setPosition(0, 57.7819f, 2.8765f);
+        hour.setPosition(20, 61.5f, 2.8765f);
+
+        assertThat(hour.getLat(20), is(equalTo(0f)));
+        assertThat(hour.gotSignal(20), is(true));
+        assertThat(hour.gotSignal(21), is(false));
+    }
+
+    @Test
+    public void givenPositionAtOffset_whenSetPosition_thenPositionIsKept() {
+        hour.setPosition(30, -33.8688f, 151.2093f);
+
+        assertEquals(-33.8688, hour.getLat(30), TOLERANCE);
+        assertEquals(151.2093, hour.getLon(30), TOLERANCE);
+    }
+}
@@ -26,9 +26,9 @@ public class CellFixture {
     private static Cell createCell() {
         double latitude = randomLatitude();
         double longitude = randomLongitude(latitude);
-        String cellId = Helper.getCellId(latitude, longitude, 1);
+        long cellKey = Helper.getCellKey(latitude, longitude, 1);
 
-        Cell cell = new Cell(latitude, longitude, cellId);
+        Cell cell = new Cell(latitude, longitude, cellKey);
         return cell;
     }
 
@@ -0,0 +1,32 @@
+package dk.dma.ais.coverage.fixture;
+
+import dk.dma.ais.coverage.data.CustomMessage;
+import dk.dma.ais.coverage.data.OnlyMemoryData;
+import dk.dma.ais.packet.AisPacket;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Data handler converting every packet to a position report of a new ship, without decoding it, to drive the packet
+ * handling of a {@link dk.dma.ais.coverage.CoverageHandler} without recorded AIS data.
+ */
+public class FakePacketConversion extends OnlyMemoryData {
+    private final AtomicInteger convertedPackets = new AtomicInteger();
+
+    @Override
+    public CustomMessage packetToCustomMessage(AisPacket packet) {
+        int n = convertedPackets.incrementAndGet();
+        CustomMessage message = new CustomMessage();
+        message.setShipMMSI(219000000 + n);
+        message.setTimestamp(new Date(1000L * n));
+        message.setLatitude(56.0);
+        message.setLongitude(11.0);
+        message.addSource(1);
+        return message;
+    }
+
+    public int getConvertedPackets() {
+        return convertedPackets.get();
+    }
+}
@@ -0,0 +1,49 @@
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.packet.AisPacket;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AisMessageTypeFilterTest {
+    private static final String POSITION_REPORT = "!AIVDM,1,1,,A,13u?etPv2;0n:dDPwUM1U1Cb069D,0*24";
+    private static final String BASE_STATION_REPORT = "\\s:2573135,c:1447653627*0A\\!AIVDM,1,1,,B,402;bFQv@kkLc00Dl4LE52100@J6,0*58";
+    private static final String STATIC_DATA_REPORT = "!AIVDM,1,1,,A,H42O55i18tMET00000000000000,2*6D";
+    private static final String STATIC_AND_VOYAGE_DATA = "!AIVDM,2,1,3,B,55P5TL01VIaAL@7WKO@mBplU@<PDhh000000001S;AJ::4A80?4i@E53,0*3E\r\n"
+            + "!AIVDM,2,2,3,B,1@0000000000000,2*55";
+
+    @Test
+    public void whenMessageTypeIsRead_thenFirstArmoredCharacterOfPayloadIsDecoded() {
+        assertThat(AisMessageTypeFilter.messageTypeOf(POSITION_REPORT), is(equalTo(1)));
+        assertThat(AisMessageTypeFilter.messageTypeOf(BASE_STATION_REPORT), is(equalTo(4)));
+        assertThat(AisMessageTypeFilter.messageTypeOf(STATIC_DATA_REPORT), is(equalTo(24)));
+        assertThat(AisMessageTypeFilter.messageTypeOf(STATIC_AND_VOYAGE_DATA), is(equalTo(5)));
+        assertThat(AisMessageTypeFilter.messageTypeOf("!AIVDO,1,1,,,`,0*00"), is(equalTo(40)));
+    }
+
+    @Test
+    public void givenMalformedOrLaterFragment_whenMessageTypeIsRead_thenTypeIsUnknown() {
+        assertThat(AisMessageTypeFilter.messageTypeOf("!AIVDM,2,2,3,B,1@0000000000000,2*55"), is(equalTo(AisMessageTypeFilter.UNKNOWN_TYPE)));
+        assertThat(AisMessageTypeFilter.messageTypeOf("!AIVDM,1,1,,A,,0*00"), is(equalTo(AisMessageTypeFilter.UNKNOWN_TYPE)));
+        assertThat(AisMessageTypeFilter.messageTypeOf("!AIVDM,1,1"), is(equalTo(AisMessageTypeFilter.UNKNOWN_TYPE)));
+        assertThat(AisMessageTypeFilter.messageTypeOf("$PGHP,1,2015,11,16,6,0,27,0,,219000001,,1*00"), is(equalTo(AisMessageTypeFilter.UNKNOWN_TYPE)));
+    }
+
+    @Test
+    public void whenAccept_thenOnlyPacketsOfUnusedTypesAreSkippedAndCounted() {
+        AisMessageTypeFilter filter = new AisMessageTypeFilter(AisMessageTypeFilter.CALCULATOR_MESSAGE_TYPES);
+
+        assertThat(filter.accept(AisPacket.from(POSITION_REPORT)), is(true));
+        assertThat(filter.accept(AisPacket.from(BASE_STATION_REPORT)), is(true));
+        assertThat(filter.accept(AisPacket.from(STATIC_DATA_REPORT)), is(false));
+        assertThat(filter.accept(AisPacket.from(STATIC_AND_VOYAGE_DATA)), is(false));
+        assertThat(filter.accept(AisPacket.from(STATIC_AND_VOYAGE_DATA)), is(false));
+
+        assertThat(filter.getSkippedPackets(5), is(equalTo(2L)));
+        assertThat(filter.getSkippedPackets(24), is(equalTo(1L)));
+        assertThat(filter.getSkippedPackets(1), is(equalTo(0L)));
+        assertThat(filter.getSkippedPackets(), is(equalTo(3L)));
+    }
+}
@@ -0,0 +1,109 @@
+package dk.dma.ais.coverage.ingest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BoundedRingBufferTest {
+
+    @Test
+    public void whenOfferedElements_thenPolledInSameOrder() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(3);
+
+        buffer.offer(1);
+        buffer.offer(2);
+        buffer.offer(3);
+
+        assertThat(buffer.poll(), is(equalTo(1)));
+        assertThat(buffer.poll(), is(equalTo(2)));
+        assertThat(buffer.poll(), is(equalTo(3)));
+        assertThat(buffer.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void givenFullBuffer_whenOffer_thenElementIsRejected() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(2);
+        buffer.offer(1);
+        buffer.offer(2);
+
+        assertThat(buffer.offer(3), is(false));
+        assertThat(buffer.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void givenCapacityNotPowerOfTwo_whenWrappingAroundManyTimes_thenSizeAndOrderAreKept() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(7);
+
+        int next = 0;
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 5; i++) {
+                buffer.offer(round * 5 + i);
+            }
+            assertThat(buffer.size(), is(equalTo(5)));
+            for (int i = 0; i < 5; i++) {
+                assertThat(buffer.poll(), is(equalTo(next++)));
+            }
+            assertThat(buffer.size(), is(equalTo(0)));
+        }
+    }
+
+    @Test
+    public void givenManyProducersAndConsumers_whenExchangingElements_thenEveryElementIsReceivedExactlyOnce() throws Exception {
+        final int producers = 4;
+        final int consumers = 4;
+        final int elementsPerProducer = 50000;
+        final BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(64);
+        final AtomicIntegerArray received = new AtomicIntegerArray(producers * elementsPerProducer);
+        final CountDownLatch done = new CountDownLatch(producers * elementsPerProducer);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < elementsPerProducer; i++) {
+                        try {
+                            buffer.put(producer * elementsPerProducer + i, WaitStrategy.YIELD);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (done.getCount() > 0) {
+                        Integer element = buffer.poll();
+                        if (element != null) {
+                            received.incrementAndGet(element);
+                            done.countDown();
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < received.length(); i++) {
+            assertThat(received.get(i), is(equalTo(1)));
+        }
+        assertThat(buffer.isEmpty(), is(true));
+    }
+}
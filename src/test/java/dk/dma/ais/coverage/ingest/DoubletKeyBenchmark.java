@@ -0,0 +1,105 @@
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.data.CustomMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of looking up a message in a bounded doublet buffer and adding it if it is not a doublet, keyed by the String
+ * built from its course, position, MMSI and speed as doublet buffers used to be, or by the packed primitive key of
+ * {@link DoubletKeyMap}. Every position report of the stream is received twice, a few messages apart.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DoubletKeyBenchmark {
+    private static final int CAPACITY = 10000;
+    private static final int STREAM_LENGTH = 1 << 16;
+
+    private CustomMessage[] stream;
+    private int next;
+
+    private Map<String, CustomMessage> stringKeyedBuffer;
+    private DoubletKeyMap<CustomMessage> packedKeyedBuffer;
+
+    @Setup(Level.Trial)
+    public void createStream() {
+        Random random = new Random(42);
+        stream = new CustomMessage[STREAM_LENGTH];
+        for (int i = 0; i < STREAM_LENGTH; i += 2) {
+            CustomMessage message = new CustomMessage();
+            message.setShipMMSI(219000000 + random.nextInt(5000));
+            message.setTimestamp(new Date(i * 100L));
+            message.setLatitude(54.0 + random.nextInt(3000000) / 600000.0);
+            message.setLongitude(8.0 + random.nextInt(3000000) / 600000.0);
+            message.setCog(random.nextInt(3600) / 10.0);
+            message.setSog(random.nextInt(300) / 10.0);
+            stream[i] = message;
+        }
+        // The doublet of a message arrives up to 8 messages after it
+        for (int i = 1; i < STREAM_LENGTH; i += 2) {
+            int original = Math.max(0, i - 1 - 2 * random.nextInt(4));
+            stream[i] = stream[original];
+        }
+        stringKeyedBuffer = new LinkedHashMap<>();
+        packedKeyedBuffer = new DoubletKeyMap<>(CAPACITY);
+    }
+
+    @Benchmark
+    public CustomMessage stringKey() {
+        CustomMessage message = nextMessage();
+        String key = message.getCog() + "" + message.getLatitude() + "" + message.getLongitude() + "" + message.getShipMMSI() + "" + message.getSog();
+        CustomMessage existing = stringKeyedBuffer.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (stringKeyedBuffer.size() == CAPACITY) {
+            Iterator<CustomMessage> eldest = stringKeyedBuffer.values().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        stringKeyedBuffer.put(key, message);
+        return message;
+    }
+
+    @Benchmark
+    public CustomMessage packedKey() {
+        CustomMessage message = nextMessage();
+        long keyHigh = message.getDoubletKeyHigh();
+        long keyLow = message.getDoubletKeyLow();
+        CustomMessage existing = packedKeyedBuffer.get(keyHigh, keyLow);
+        if (existing != null) {
+            return existing;
+        }
+        if (packedKeyedBuffer.size() == CAPACITY) {
+            packedKeyedBuffer.removeEldest();
+        }
+        packedKeyedBuffer.put(keyHigh, keyLow, message);
+        return message;
+    }
+
+    private CustomMessage nextMessage() {
+        CustomMessage message = stream[next];
+        next = (next + 1) & (STREAM_LENGTH - 1);
+        return message;
+    }
+}
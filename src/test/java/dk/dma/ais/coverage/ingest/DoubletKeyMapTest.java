@@ -0,0 +1,106 @@
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.data.CustomMessage;
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class DoubletKeyMapTest {
+
+    @Test
+    public void whenPut_thenValueIsFoundByBothKeyHalves() {
+        DoubletKeyMap<String> map = new DoubletKeyMap<>(4);
+
+        map.put(1L, 2L, "value");
+
+        assertThat(map.get(1L, 2L), is(equalTo("value")));
+        assertThat(map.get(2L, 1L), is(nullValue()));
+        assertThat(map.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void whenRemoveEldest_thenEntriesAreRemovedInInsertionOrder() {
+        DoubletKeyMap<String> map = new DoubletKeyMap<>(3);
+        map.put(30L, 0L, "first");
+        map.put(10L, 0L, "second");
+        map.put(20L, 0L, "third");
+
+        assertThat(map.peekEldest(), is(equalTo("first")));
+        assertThat(map.removeEldest(), is(equalTo("first")));
+        assertThat(map.removeEldest(), is(equalTo("second")));
+        assertThat(map.get(20L, 0L), is(equalTo("third")));
+        assertThat(map.get(30L, 0L), is(nullValue()));
+        assertThat(map.size(), is(equalTo(1)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void givenFullMap_whenPut_thenIllegalStateExceptionIsThrown() {
+        DoubletKeyMap<String> map = new DoubletKeyMap<>(1);
+        map.put(1L, 1L, "first");
+
+        map.put(2L, 2L, "second");
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void givenEmptyMap_whenRemoveEldest_thenNoSuchElementExceptionIsThrown() {
+        new DoubletKeyMap<String>(1).removeEldest();
+    }
+
+    @Test
+    public void givenManyInsertionsAndRemovals_whenGet_thenOnlyRetainedEntriesAreFound() {
+        int capacity = 100;
+        DoubletKeyMap<Long> map = new DoubletKeyMap<>(capacity);
+
+        for (long i = 0; i < 10000; i++) {
+            if (map.size() == capacity) {
+                assertThat(map.removeEldest(), is(equalTo(i - capacity)));
+            }
+            map.put(i % 7, i, i);
+        }
+
+        for (long i = 0; i < 10000; i++) {
+            Long expected = i >= 10000 - capacity ? i : null;
+            assertThat(map.get(i % 7, i), is(equalTo(expected)));
+        }
+    }
+
+    @Test
+    public void givenDoublets_whenDoubletKeyIsComputed_thenKeysAreEqual() {
+        CustomMessage message = createMessage(219000001, 56.123456, 11.654321, 123.4, 12.3);
+        CustomMessage doublet = createMessage(219000001, 56.123456, 11.654321, 123.4, 12.3);
+
+        assertThat(doublet.getDoubletKeyHigh(), is(equalTo(message.getDoubletKeyHigh())));
+        assertThat(doublet.getDoubletKeyLow(), is(equalTo(message.getDoubletKeyLow())));
+    }
+
+    @Test
+    public void givenMessagesDifferingInOneField_whenDoubletKeyIsComputed_thenKeysDiffer() {
+        CustomMessage message = createMessage(219000001, 56.123456, 11.654321, 123.4, 12.3);
+
+        assertThat(keyOf(createMessage(219000002, 56.123456, 11.654321, 123.4, 12.3)), is(not(equalTo(keyOf(message)))));
+        assertThat(keyOf(createMessage(219000001, -56.123456, 11.654321, 123.4, 12.3)), is(not(equalTo(keyOf(message)))));
+        assertThat(keyOf(createMessage(219000001, 56.123456, -11.654321, 123.4, 12.3)), is(not(equalTo(keyOf(message)))));
+        assertThat(keyOf(createMessage(219000001, 56.123456, 11.654321, 123.5, 12.3)), is(not(equalTo(keyOf(message)))));
+        assertThat(keyOf(createMessage(219000001, 56.123456, 11.654321, 123.4, 12.4)), is(not(equalTo(keyOf(message)))));
+    }
+
+    private static String keyOf(CustomMessage message) {
+        return message.getDoubletKeyHigh() + "/" + message.getDoubletKeyLow();
+    }
+
+    private static CustomMessage createMessage(int mmsi, double latitude, double longitude, double cog, double sog) {
+        CustomMessage message = new CustomMessage();
+        message.setShipMMSI(mmsi);
+        message.setLatitude(latitude);
+        message.setLongitude(longitude);
+        message.setCog(cog);
+        message.setSog(sog);
+        return message;
+    }
+}
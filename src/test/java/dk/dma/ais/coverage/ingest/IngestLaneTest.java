@@ -0,0 +1,80 @@
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.data.CustomMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class IngestLaneTest {
+
+    @Test
+    public void givenMessagesSubmittedFromManyThreads_whenLaneStops_thenAllMessagesAreConsumedOnTheLaneThread() throws Exception {
+        final List<CustomMessage> consumed = Collections.synchronizedList(new ArrayList<CustomMessage>());
+        final Set<Thread> consumingThreads = Collections.synchronizedSet(new HashSet<Thread>());
+        final IngestLane lane = new IngestLane(16, 8, 0, WaitStrategy.YIELD, new Consumer<CustomMessage>() {
+            @Override
+            public void accept(CustomMessage message) {
+                consumingThreads.add(Thread.currentThread());
+                consumed.add(message);
+            }
+        });
+        Thread laneThread = new Thread(lane);
+        laneThread.start();
+
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int ship = t;
+            submitters.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        lane.submit(createMessage(ship, i));
+                    }
+                }
+            }));
+        }
+        for (Thread submitter : submitters) {
+            submitter.start();
+        }
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        lane.stop();
+        laneThread.join();
+        lane.getDoubletBuffer().flush();
+
+        assertThat(consumed.size(), is(equalTo(4000)));
+        assertThat(consumingThreads.contains(laneThread), is(true));
+        assertThat(lane.getBacklog(), is(equalTo(0)));
+    }
+
+    @Test
+    public void whenPartitioningShips_thenPartitionIsStableAndInRange() {
+        for (int mmsi = 219000000; mmsi < 219001000; mmsi++) {
+            int partition = MmsiPartitioning.partitionOf(mmsi, 6);
+
+            assertThat(partition >= 0 && partition < 6, is(true));
+            assertThat(MmsiPartitioning.partitionOf(mmsi, 6), is(equalTo(partition)));
+        }
+    }
+
+    private static CustomMessage createMessage(int mmsi, long timestamp) {
+        CustomMessage message = new CustomMessage();
+        message.setShipMMSI(mmsi);
+        message.setTimestamp(new Date(timestamp));
+        message.setLatitude(56.0 + timestamp / 100000.0);
+        message.setLongitude(11.0);
+        message.addSource(1);
+        return message;
+    }
+}
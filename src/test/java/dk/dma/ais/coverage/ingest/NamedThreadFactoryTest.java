@@ -0,0 +1,29 @@
+package dk.dma.ais.coverage.ingest;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class NamedThreadFactoryTest {
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void whenNewThread_thenThreadsAreNamedAfterPoolAndNumbered() {
+        NamedThreadFactory threadFactory = new NamedThreadFactory("packet-handler", false);
+
+        assertThat(threadFactory.newThread(NOTHING).getName(), is(equalTo("packet-handler-1")));
+        assertThat(threadFactory.newThread(NOTHING).getName(), is(equalTo("packet-handler-2")));
+    }
+
+    @Test
+    public void givenDaemonFactory_whenNewThread_thenThreadIsDaemon() {
+        assertThat(new NamedThreadFactory("sweeper", true).newThread(NOTHING).isDaemon(), is(true));
+        assertThat(new NamedThreadFactory("handler", false).newThread(NOTHING).isDaemon(), is(false));
+    }
+}
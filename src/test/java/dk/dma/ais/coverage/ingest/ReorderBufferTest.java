@@ -0,0 +1,178 @@
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.data.CustomMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ReorderBufferTest {
+
+    @Test
+    public void givenNoLateness_whenAdd_thenMessageIsConsumedRightAway() {
+        List<CustomMessage> ordered = new ArrayList<>();
+        ReorderBuffer buffer = new ReorderBuffer(0, collectInto(ordered), collectInto(new ArrayList<CustomMessage>()));
+
+        buffer.add(createMessage(219000001, 2000L));
+        buffer.add(createMessage(219000001, 1000L));
+
+        assertThat(timestampsOf(ordered), is(equalTo(Arrays.asList(2000L, 1000L))));
+        assertThat(buffer.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void givenMessagesOutOfOrderWithinLateness_whenWatermarkPassesThem_thenTheyAreConsumedInOrder() {
+        List<CustomMessage> ordered = new ArrayList<>();
+        ReorderBuffer buffer = new ReorderBuffer(5000L, collectInto(ordered), collectInto(new ArrayList<CustomMessage>()));
+
+        buffer.add(createMessage(219000001, 3000L));
+        buffer.add(createMessage(219000001, 1000L));
+        buffer.add(createMessage(219000001, 2000L));
+        assertThat(ordered.isEmpty(), is(true));
+
+        buffer.add(createMessage(219000001, 8000L));
+
+        assertThat(timestampsOf(ordered), is(equalTo(Arrays.asList(1000L, 2000L, 3000L))));
+        assertThat(buffer.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void givenMessageOlderThanReleasedOne_whenAdd_thenItIsCountedAndRoutedToLateConsumer() {
+        List<CustomMessage> ordered = new ArrayList<>();
+        List<CustomMessage> late = new ArrayList<>();
+        ReorderBuffer buffer = new ReorderBuffer(5000L, collectInto(ordered), collectInto(late));
+        buffer.add(createMessage(219000001, 2000L));
+        buffer.add(createMessage(219000001, 10000L));
+
+        buffer.add(createMessage(219000001, 1000L));
+
+        assertThat(timestampsOf(ordered), is(equalTo(Arrays.asList(2000L))));
+        assertThat(timestampsOf(late), is(equalTo(Arrays.asList(1000L))));
+        assertThat(buffer.getLateMessages(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void givenSilentShip_whenWatermarkIsMovedByOtherShip_thenEvictExpiredReleasesItsMessages() {
+        List<CustomMessage> ordered = new ArrayList<>();
+        ReorderBuffer buffer = new ReorderBuffer(5000L, collectInto(ordered), collectInto(new ArrayList<CustomMessage>()));
+        buffer.add(createMessage(219000001, 1000L));
+
+        buffer.add(createMessage(219000002, 7000L));
+        assertThat(ordered.isEmpty(), is(true));
+        buffer.evictExpired();
+
+        assertThat(timestampsOf(ordered), is(equalTo(Arrays.asList(1000L))));
+    }
+
+    @Test
+    public void givenShipIdleForLongerThanLateness_whenEvictExpired_thenItIsForgotten() {
+        List<CustomMessage> ordered = new ArrayList<>();
+        ReorderBuffer buffer = new ReorderBuffer(5000L, collectInto(ordered), collectInto(new ArrayList<CustomMessage>()));
+        buffer.add(createMessage(219000001, 1000L));
+        buffer.add(createMessage(219000002, 7000L));
+
+        buffer.evictExpired();
+
+        assertThat(timestampsOf(ordered), is(equalTo(Arrays.asList(1000L))));
+        assertThat(buffer.getNumberOfShips(), is(equalTo(1)));
+
+        buffer.add(createMessage(219000002, 20000L));
+        buffer.evictExpired();
+
+        assertThat(timestampsOf(ordered), is(equalTo(Arrays.asList(1000L, 7000L))));
+        assertThat(buffer.getNumberOfShips(), is(equalTo(1)));
+    }
+
+    @Test
+    public void givenShipsForgottenConcurrently_whenAddingTheirMessages_thenNoMessageIsLost() throws Exception {
+        final AtomicInteger consumed = new AtomicInteger();
+        Consumer<CustomMessage> counter = new Consumer<CustomMessage>() {
+            @Override
+            public void accept(CustomMessage message) {
+                consumed.incrementAndGet();
+            }
+        };
+        final ReorderBuffer buffer = new ReorderBuffer(10L, counter, counter);
+        final AtomicBoolean adding = new AtomicBoolean(true);
+        Thread evicter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (adding.get()) {
+                    buffer.evictExpired();
+                }
+            }
+        });
+        evicter.start();
+
+        List<Thread> adders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int firstShip = 219000000 + t * 10;
+            adders.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        buffer.add(createMessage(firstShip + i % 10, i * 100L));
+                    }
+                }
+            }));
+        }
+        for (Thread adder : adders) {
+            adder.start();
+        }
+        for (Thread adder : adders) {
+            adder.join();
+        }
+        adding.set(false);
+        evicter.join();
+        buffer.flush();
+
+        assertThat(consumed.get(), is(equalTo(80000)));
+        assertThat(buffer.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void whenFlush_thenAllMessagesAreConsumedInOrder() {
+        List<CustomMessage> ordered = new ArrayList<>();
+        ReorderBuffer buffer = new ReorderBuffer(60000L, collectInto(ordered), collectInto(new ArrayList<CustomMessage>()));
+        buffer.add(createMessage(219000001, 2000L));
+        buffer.add(createMessage(219000001, 1000L));
+
+        buffer.flush();
+
+        assertThat(timestampsOf(ordered), is(equalTo(Arrays.asList(1000L, 2000L))));
+        assertThat(buffer.size(), is(equalTo(0)));
+    }
+
+    private static List<Long> timestampsOf(List<CustomMessage> messages) {
+        List<Long> timestamps = new ArrayList<>();
+        for (CustomMessage message : messages) {
+            timestamps.add(message.getTimestampInMillis());
+        }
+        return timestamps;
+    }
+
+    private static Consumer<CustomMessage> collectInto(final List<CustomMessage> consumed) {
+        return new Consumer<CustomMessage>() {
+            @Override
+            public void accept(CustomMessage message) {
+                consumed.add(message);
+            }
+        };
+    }
+
+    private static CustomMessage createMessage(int mmsi, long timestamp) {
+        CustomMessage message = new CustomMessage();
+        message.setShipMMSI(mmsi);
+        message.setTimestamp(new Date(timestamp));
+        return message;
+    }
+}
@@ -0,0 +1,205 @@
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.data.CustomMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ShardedDoubletBufferTest {
+
+    @Test
+    public void givenDoublets_whenFlush_thenOneMessageWithAllSourcesIsConsumed() {
+        final List<CustomMessage> consumed = new ArrayList<>();
+        ShardedDoubletBuffer buffer = new ShardedDoubletBuffer(4, 100, collectInto(consumed));
+
+        buffer.add(createMessage(219000001, 1000L, 1));
+        buffer.add(createMessage(219000001, 1000L, 2));
+        buffer.flush();
+
+        assertThat(consumed.size(), is(equalTo(1)));
+        BitSet expectedSources = new BitSet();
+        expectedSources.set(1);
+        expectedSources.set(2);
+        assertThat(consumed.get(0).getSources(), is(equalTo(expectedSources)));
+    }
+
+    @Test
+    public void givenFullShard_whenAdd_thenEldestMessageIsConsumed() {
+        final List<CustomMessage> consumed = new ArrayList<>();
+        ShardedDoubletBuffer buffer = new ShardedDoubletBuffer(1, 2, collectInto(consumed));
+
+        buffer.add(createMessage(219000001, 1000L, 1));
+        buffer.add(createMessage(219000001, 2000L, 1));
+        buffer.add(createMessage(219000001, 3000L, 1));
+
+        assertThat(consumed.size(), is(equalTo(1)));
+        assertThat(consumed.get(0).getTimestamp().getTime(), is(equalTo(1000L)));
+        assertThat(buffer.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void givenAllTrafficInOneShard_whenItsShareIsFull_thenItEvictsAlthoughOtherShardsHaveRoom() {
+        List<CustomMessage> consumed = new ArrayList<>();
+        ShardedDoubletBuffer buffer = new ShardedDoubletBuffer(4, 10, collectInto(consumed));
+
+        for (int i = 0; i < 4; i++) {
+            buffer.add(createMessage(219000001, i * 1000L, 1));
+        }
+
+        assertThat(consumed.size(), is(equalTo(1)));
+        assertThat(buffer.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void givenDuplicateWindow_whenNewerMessageMovesWatermarkPastWindow_thenOlderMessagesAreConsumed() {
+        final List<CustomMessage> consumed = new ArrayList<>();
+        ShardedDoubletBuffer buffer = new ShardedDoubletBuffer(2, 1000, 10000L, collectInto(consumed));
+
+        buffer.add(createMessage(219000001, 1000L, 1));
+        buffer.add(createMessage(219000002, 5000L, 1));
+        buffer.add(createMessage(219000001, 10999L, 1));
+        assertThat(consumed.isEmpty(), is(true));
+
+        buffer.add(createMessage(219000003, 11000L, 1));
+        buffer.evictExpired();
+
+        assertThat(consumed.size(), is(equalTo(1)));
+        assertThat(consumed.get(0).getTimestamp().getTime(), is(equalTo(1000L)));
+        assertThat(buffer.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void givenDuplicateWindow_whenWatermarkIsAdvancedWithoutTraffic_thenExpiredMessagesAreConsumed() {
+        final List<CustomMessage> consumed = new ArrayList<>();
+        ShardedDoubletBuffer buffer = new ShardedDoubletBuffer(2, 1000, 10000L, collectInto(consumed));
+        buffer.add(createMessage(219000001, 1000L, 1));
+        buffer.add(createMessage(219000002, 2000L, 1));
+
+        buffer.advanceWatermark(12000L);
+        buffer.evictExpired();
+
+        assertThat(consumed.size(), is(equalTo(2)));
+        assertThat(buffer.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void givenDuplicateWindow_whenOneMessageIsStampedFarAhead_thenItDoesNotMoveTheWatermarkAndIsCounted() {
+        final List<CustomMessage> consumed = new ArrayList<>();
+        ShardedDoubletBuffer buffer = new ShardedDoubletBuffer(2, 1000, 10000L, collectInto(consumed));
+        long now = System.currentTimeMillis();
+        buffer.add(createMessage(219000001, now, 1));
+
+        buffer.add(createMessage(219000002, now + 24L * 60 * 60 * 1000, 1));
+        buffer.evictExpired();
+
+        assertThat(buffer.getWatermark(), is(equalTo(now)));
+        assertThat(buffer.getMessagesTooFarAhead(), is(equalTo(1L)));
+        assertThat(consumed.size(), is(equalTo(1)));
+        assertThat(consumed.get(0).getShipMMSI(), is(equalTo(219000002)));
+
+        // Doublets are still merged
+        buffer.add(createMessage(219000001, now, 2));
+        buffer.flush();
+        assertThat(consumed.size(), is(equalTo(2)));
+        assertThat(consumed.get(1).getSources().cardinality(), is(equalTo(2)));
+    }
+
+    @Test
+    public void givenNoDuplicateWindow_whenWatermarkIsAdvanced_thenNothingIsConsumed() {
+        final List<CustomMessage> consumed = new ArrayList<>();
+        ShardedDoubletBuffer buffer = new ShardedDoubletBuffer(2, 1000, collectInto(consumed));
+        buffer.add(createMessage(219000001, 1000L, 1));
+
+        buffer.advanceWatermark(Long.MAX_VALUE);
+        buffer.evictExpired();
+
+        assertThat(consumed.isEmpty(), is(true));
+    }
+
+    @Test
+    public void givenManyThreads_whenAddingMessagesOfManyShips_thenEachShipIsConsumedSequentiallyAndInOrder() throws Exception {
+        final int threads = 4;
+        final int ships = 64;
+        final int messagesPerShip = 2000;
+        final Map<Integer, Long> lastConsumedTimestamp = new ConcurrentHashMap<>();
+        final Map<Integer, AtomicInteger> consumersInProgress = new ConcurrentHashMap<>();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger consumedCount = new AtomicInteger();
+        for (int ship = 0; ship < ships; ship++) {
+            lastConsumedTimestamp.put(ship, -1L);
+            consumersInProgress.put(ship, new AtomicInteger());
+        }
+
+        final ShardedDoubletBuffer buffer = new ShardedDoubletBuffer(8, 64, new Consumer<CustomMessage>() {
+            @Override
+            public void accept(CustomMessage message) {
+                int ship = message.getShipMMSI();
+                if (consumersInProgress.get(ship).incrementAndGet() != 1) {
+                    errors.add("ship " + ship + " consumed concurrently");
+                }
+                if (lastConsumedTimestamp.get(ship) >= message.getTimestamp().getTime()) {
+                    errors.add("ship " + ship + " consumed out of order");
+                }
+                lastConsumedTimestamp.put(ship, message.getTimestamp().getTime());
+                consumedCount.incrementAndGet();
+                consumersInProgress.get(ship).decrementAndGet();
+            }
+        });
+
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int producer = t;
+            producers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < messagesPerShip; i++) {
+                        for (int ship = producer; ship < ships; ship += threads) {
+                            buffer.add(createMessage(ship, i, 1));
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        buffer.flush();
+
+        assertThat(errors.isEmpty(), is(true));
+        assertThat(consumedCount.get(), is(equalTo(ships * messagesPerShip)));
+    }
+
+    private static Consumer<CustomMessage> collectInto(final List<CustomMessage> consumed) {
+        return new Consumer<CustomMessage>() {
+            @Override
+            public void accept(CustomMessage message) {
+                consumed.add(message);
+            }
+        };
+    }
+
+    private static CustomMessage createMessage(int mmsi, long timestamp, int sourceId) {
+        CustomMessage message = new CustomMessage();
+        message.setShipMMSI(mmsi);
+        message.setTimestamp(new Date(timestamp));
+        message.setLatitude(56.0 + timestamp / 100000.0);
+        message.setLongitude(11.0);
+        message.addSource(sourceId);
+        return message;
+    }
+}
@@ -0,0 +1,41 @@
+package dk.dma.ais.coverage.ingest;
+
+import dk.dma.ais.coverage.configuration.ExecutorMode;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ThreadPoolsTest {
+    private static final Callable<String> THREAD_NAME = new Callable<String>() {
+        @Override
+        public String call() {
+            return Thread.currentThread().getName();
+        }
+    };
+
+    @Test
+    public void givenPlatformMode_whenNewThreadPool_thenTasksRunOnNamedPlatformThreads() throws Exception {
+        ExecutorService executor = ThreadPools.newThreadPool(ExecutorMode.PLATFORM, 2, "packet-handler", true);
+        try {
+            assertThat(executor.submit(THREAD_NAME).get(), is(equalTo("packet-handler-1")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void givenVirtualMode_whenNewThreadPool_thenTasksRunOnNamedThreadsOnAnyJavaVersion() throws Exception {
+        ExecutorService executor = ThreadPools.newThreadPool(ExecutorMode.VIRTUAL, 2, "packet-handler", true);
+        try {
+            // Virtual threads where the runtime has them, the platform thread fallback otherwise
+            assertThat(executor.submit(THREAD_NAME).get(), is(equalTo("packet-handler-1")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
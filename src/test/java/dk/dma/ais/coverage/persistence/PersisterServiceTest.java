@@ -31,6 +31,18 @@ public class PersisterServiceTest {
         verify(databaseInstance, times(5)).save(anyMap());
     }
 
+    @Test
+    public void whenSaveNow_thenSaveIsInvokedOnDatabaseInstanceOnce() {
+        DatabaseInstance databaseInstance = mock(DatabaseInstance.class);
+        when(databaseInstance.save(anyMap())).thenReturn(PersistenceResult.success(1));
+        ICoverageData coverageData = mock(ICoverageData.class);
+        PersisterService persisterService = new PersisterService(databaseInstance, coverageData);
+
+        persisterService.saveNow();
+
+        verify(databaseInstance, times(1)).save(anyMap());
+    }
+
     @Test
     public void whenNewInstance_thenIntervalInMinutesDefaultsTo60() {
         DatabaseInstance databaseInstance = mock(DatabaseInstance.class);